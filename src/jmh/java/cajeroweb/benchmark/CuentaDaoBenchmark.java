@@ -0,0 +1,106 @@
+package cajeroweb.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.entidades.Cuenta;
+
+/**
+ * Benchmarks de las operaciones de {@link CuentaDao} sobre H2.
+ * Cada hilo trabaja con una copia de la cuenta como la que guarda la sesión HTTP, igual que
+ * hace CuentaController. El número de hilos se fija con la opción -hilos de {@link EjecutorBenchmarks}.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class CuentaDaoBenchmark {
+
+    /**
+     * Contexto de Spring compartido por todos los hilos del benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class Entorno {
+
+        @Param({ "1000" })
+        public int numCuentas;
+
+        @Param({ "" })
+        public String perfil;
+
+        ConfigurableApplicationContext contexto;
+        CuentaDao cdao;
+
+        @Setup(Level.Trial)
+        public void arrancar() {
+            contexto = EntornoH2.arrancar("cuentas" + System.nanoTime(), "--spring.profiles.include=" + perfil);
+            EntornoH2.sembrar(contexto.getBean(JdbcTemplate.class), numCuentas, 0, 0);
+            cdao = contexto.getBean(CuentaDao.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() {
+            contexto.close();
+        }
+    }
+
+    /**
+     * Copia de sesión de la cuenta de cada hilo.
+     */
+    @State(Scope.Thread)
+    public static class Sesion {
+
+        Cuenta cuenta;
+
+        @Setup(Level.Trial)
+        public void iniciar(Entorno entorno) {
+            cuenta = entorno.cdao.buscarUno(ThreadLocalRandom.current().nextInt(entorno.numCuentas) + 1);
+        }
+    }
+
+    @Benchmark
+    public Cuenta buscarUno(Entorno entorno) {
+        return entorno.cdao.buscarUno(ThreadLocalRandom.current().nextInt(entorno.numCuentas) + 1);
+    }
+
+    @Benchmark
+    public int ingreso(Entorno entorno, Sesion sesion) {
+        return entorno.cdao.ingreso(sesion.cuenta, 10);
+    }
+
+    @Benchmark
+    public int extraer(Entorno entorno, Sesion sesion) {
+        return entorno.cdao.extraer(sesion.cuenta, 10);
+    }
+
+    @Benchmark
+    public int transferencia(Entorno entorno, Sesion sesion) {
+        int destino = ThreadLocalRandom.current().nextInt(entorno.numCuentas) + 1;
+        if (destino == sesion.cuenta.getIdCuenta()) {
+            destino = destino % entorno.numCuentas + 1;
+        }
+        return entorno.cdao.transferencia(sesion.cuenta, entorno.cdao.buscarUno(destino), 10);
+    }
+}
@@ -0,0 +1,41 @@
+package cajeroweb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada de los benchmarks. Acepta las opciones normales de JMH y además
+ * {@code -hilos 1,4,16}, que repite la ejecución completa con cada número de hilos.
+ *
+ * Ejemplo: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="CuentaDao -hilos 1,8 -rf json"}
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class EjecutorBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        List<String> jmhArgs = new ArrayList<>();
+        String hilos = "1,4,16";
+        for (int i = 0; i < args.length; i++) {
+            if ("-hilos".equals(args[i]) && i + 1 < args.length) {
+                hilos = args[++i];
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+        CommandLineOptions linea = new CommandLineOptions(jmhArgs.toArray(String[]::new));
+        for (String n : hilos.split(",")) {
+            ChainedOptionsBuilder opciones = new OptionsBuilder().parent(linea).threads(Integer.parseInt(n.trim()));
+            new Runner(opciones.build()).run();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cajeroweb.benchmark;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import cajeroweb.EdtActividad2Application;
+
+/**
+ * Arranque de la aplicación sobre una base de datos H2 en memoria para los benchmarks.
+ * Cada llamada usa una base de datos con nombre propio, de forma que cada trial parte de datos limpios.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class EntornoH2 {
+
+    static final double SALDO_INICIAL = 1_000_000_000d;
+
+    private EntornoH2() {
+    }
+
+    /**
+     * Arranca el contexto de Spring con el perfil h2 y sin servidor web.
+     *
+     * @param nombreBd nombre de la base de datos en memoria
+     * @param argumentos propiedades adicionales en formato --clave=valor
+     * @return el contexto arrancado
+     */
+    static ConfigurableApplicationContext arrancar(String nombreBd, String... argumentos) {
+        return arrancar(WebApplicationType.NONE, nombreBd, argumentos);
+    }
+
+    /**
+     * Arranca el contexto de Spring con el perfil h2 y con servidor web en un puerto libre.
+     *
+     * @param nombreBd nombre de la base de datos en memoria
+     * @param argumentos propiedades adicionales en formato --clave=valor
+     * @return el contexto arrancado; el puerto está en la propiedad local.server.port
+     */
+    static ConfigurableApplicationContext arrancarWeb(String nombreBd, String... argumentos) {
+        List<String> args = new ArrayList<>(List.of(argumentos));
+        args.add("--server.port=0");
+        return arrancar(WebApplicationType.SERVLET, nombreBd, args.toArray(String[]::new));
+    }
+
+    private static ConfigurableApplicationContext arrancar(WebApplicationType tipo, String nombreBd, String... argumentos) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:" + nombreBd + ";MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN"));
+        args.addAll(List.of(argumentos));
+        return new SpringApplicationBuilder(EdtActividad2Application.class)
+                .profiles("h2")
+                .web(tipo)
+                .logStartupInfo(false)
+                .run(args.toArray(String[]::new));
+    }
+
+    /**
+     * Crea las cuentas 1..numCuentas con un saldo alto y {@code historial} movimientos en cada una
+     * de las primeras {@code cuentasConHistorial} cuentas.
+     */
+    static void sembrar(JdbcTemplate jdbc, int numCuentas, int cuentasConHistorial, int historial) {
+        List<Object[]> cuentas = new ArrayList<>(numCuentas);
+        for (int id = 1; id <= numCuentas; id++) {
+            cuentas.add(new Object[] { id, SALDO_INICIAL, id % 2 == 0 ? "CORRIENTE" : "AHORRO" });
+        }
+        jdbc.batchUpdate("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, ?, ?)", cuentas);
+
+        long ahora = System.currentTimeMillis();
+        int idMovimiento = 0;
+        List<Object[]> movimientos = new ArrayList<>();
+        for (int cuenta = 1; cuenta <= cuentasConHistorial; cuenta++) {
+            for (int i = 0; i < historial; i++) {
+                idMovimiento++;
+                movimientos.add(new Object[] { idMovimiento, cuenta, new Timestamp(ahora - i * 60_000L),
+                        i % 3 == 0 ? -10d : 25d, i % 3 == 0 ? "Extracción" : "Ingreso" });
+                if (movimientos.size() == 10_000) {
+                    insertarMovimientos(jdbc, movimientos);
+                }
+            }
+        }
+        insertarMovimientos(jdbc, movimientos);
+        jdbc.update("update secuencias set siguiente = ? where nombre = 'movimientos'", idMovimiento + 1);
+    }
+
+    private static void insertarMovimientos(JdbcTemplate jdbc, List<Object[]> movimientos) {
+        jdbc.batchUpdate("insert into movimientos (id_movimiento, id_cuenta, fecha, cantidad, operacion) "
+                + "values (?, ?, ?, ?, ?)", movimientos);
+        movimientos.clear();
+    }
+}
@@ -0,0 +1,108 @@
+package cajeroweb.benchmark;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Compara la atención de peticiones HTTP con el pool de hilos de plataforma de Tomcat frente al
+ * perfil "virtuales" (hilos virtuales con el limitador delante de los DAO).
+ * login es un POST /login, que solo lee la cuenta (y la caché de cuentas suele responderla sin
+ * llegar a la base); ingreso es un POST /ingresar con la sesión de cada hilo, que escribe el saldo
+ * y espera al escritor de movimientos, y es el que mide de verdad el limitador frente al pool.
+ * Conviene ejecutarlo con muchos más hilos que conexiones, por ejemplo {@code -hilos 16,256}.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModoHilosBenchmark {
+
+    private static final int CUENTAS = 1000;
+
+    @Param({ "plataforma", "virtuales" })
+    public String modo;
+
+    private ConfigurableApplicationContext contexto;
+    private HttpClient cliente;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        String perfiles = "virtuales".equals(modo) ? "h2,virtuales" : "h2";
+        contexto = EntornoH2.arrancarWeb("hilos" + System.nanoTime(), "--spring.profiles.active=" + perfiles);
+        EntornoH2.sembrar(contexto.getBean(JdbcTemplate.class), CUENTAS, 0, 0);
+        base = "http://localhost:" + contexto.getEnvironment().getProperty("local.server.port");
+        cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    /**
+     * Sesión de un hilo del benchmark: su propio cliente con cookies, ya identificado.
+     */
+    @State(Scope.Thread)
+    public static class Sesion {
+
+        private HttpClient cliente;
+
+        @Setup(Level.Trial)
+        public void entrar(ModoHilosBenchmark benchmark) throws IOException, InterruptedException {
+            cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).cookieHandler(new CookieManager())
+                    .build();
+            int cuenta = ThreadLocalRandom.current().nextInt(CUENTAS) + 1;
+            cliente.send(benchmark.formulario("/login", "numeroCuenta=" + cuenta), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private HttpRequest formulario(String ruta, String cuerpo) {
+        return HttpRequest.newBuilder(URI.create(base + ruta))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(cuerpo))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public int login() throws IOException, InterruptedException {
+        int cuenta = ThreadLocalRandom.current().nextInt(CUENTAS) + 1;
+        return cliente.send(formulario("/login", "numeroCuenta=" + cuenta), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+
+    @Benchmark
+    public int ingreso(Sesion sesion) throws IOException, InterruptedException {
+        // Responde con la redirección a /, que no se sigue
+        return sesion.cliente.send(formulario("/ingresar", "ingreso=1"), HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+}
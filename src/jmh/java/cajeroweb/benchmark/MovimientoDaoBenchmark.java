@@ -0,0 +1,90 @@
+package cajeroweb.benchmark;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Benchmarks de {@link MovimientoDao} sobre H2 con distintos tamaños de historial por cuenta.
+ * Las lecturas se hacen sobre las cuentas con historial; los inserts se reparten entre todas.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MovimientoDaoBenchmark {
+
+    private static final int CUENTAS = 100;
+    private static final int CUENTAS_CON_HISTORIAL = 10;
+
+    @Param({ "100", "10000" })
+    public int historial;
+
+    private ConfigurableApplicationContext contexto;
+    private MovimientoDao mdao;
+    private Cuenta[] cuentas;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = EntornoH2.arrancar("movimientos" + System.nanoTime());
+        EntornoH2.sembrar(contexto.getBean(JdbcTemplate.class), CUENTAS, CUENTAS_CON_HISTORIAL, historial);
+        mdao = contexto.getBean(MovimientoDao.class);
+        CuentaDao cdao = contexto.getBean(CuentaDao.class);
+        cuentas = new Cuenta[CUENTAS];
+        for (int i = 0; i < CUENTAS; i++) {
+            cuentas[i] = cdao.buscarUno(i + 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public Movimiento insertUno() {
+        Cuenta cuenta = cuentas[ThreadLocalRandom.current().nextInt(CUENTAS)];
+        return mdao.insertUno(new Movimiento(0, cuenta, new Date(), 10, "Ingreso"));
+    }
+
+    @Benchmark
+    public List<Movimiento> movimientos() {
+        return mdao.movimientos(ThreadLocalRandom.current().nextInt(CUENTAS_CON_HISTORIAL) + 1);
+    }
+
+    @Benchmark
+    public PaginaMovimientos primeraPagina() {
+        return mdao.pagina(ThreadLocalRandom.current().nextInt(CUENTAS_CON_HISTORIAL) + 1,
+                FiltroMovimientos.TODOS, null, 50);
+    }
+}
@@ -0,0 +1,113 @@
+package cajeroweb.benchmark;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.modelo.dto.MovimientoVista;
+import cajeroweb.modelo.entidades.Movimiento;
+import cajeroweb.modelo.repository.MovimientoRepository;
+import jakarta.persistence.EntityManager;
+
+/**
+ * Compara las lecturas del historial como entidades Movimiento (con su cuenta y registradas en el
+ * contexto de persistencia) y como proyecciones {@link MovimientoVista}, las dos en transacciones
+ * de solo lectura. Las consultas de entidades son las que usaba MovimientoDaoImplJpaMy8 antes de
+ * las proyecciones y solo existen aquí. Con -prof gc, gc.alloc.rate.norm da los bytes reservados por operación.
+ *
+ * Ejemplo: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="ProyeccionMovimientos -hilos 1 -prof gc"}
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProyeccionMovimientosBenchmark {
+
+    private static final int CUENTAS_CON_HISTORIAL = 10;
+    private static final int TAMANO_PAGINA = 50;
+    private static final Date SIN_LIMITE_INFERIOR = new Date(0);
+    private static final Date SIN_LIMITE_SUPERIOR = new Date(253402300799000L);
+
+    private static final String HISTORIAL_ENTIDADES = "select m from Movimiento m where m.cuenta.idCuenta = ?1"
+            + " and m.fecha >= ?2 order by m.fecha, m.idMovimiento";
+    private static final String PAGINA_ENTIDADES = "select m from Movimiento m where m.cuenta.idCuenta = ?1"
+            + " and m.fecha >= ?2 and (m.fecha < ?3 or (m.fecha = ?3 and m.idMovimiento < ?4))"
+            + " and (?5 is null or m.operacion = ?5) order by m.fecha desc, m.idMovimiento desc";
+
+    @Param({ "100", "10000" })
+    public int historial;
+
+    private ConfigurableApplicationContext contexto;
+    private MovimientoRepository mrepo;
+    private EntityManager em;
+    private TransactionTemplate lectura;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        contexto = EntornoH2.arrancar("proyeccion" + System.nanoTime());
+        EntornoH2.sembrar(contexto.getBean(JdbcTemplate.class), CUENTAS_CON_HISTORIAL, CUENTAS_CON_HISTORIAL, historial);
+        mrepo = contexto.getBean(MovimientoRepository.class);
+        em = contexto.getBean(EntityManager.class);
+        lectura = new TransactionTemplate(contexto.getBean(PlatformTransactionManager.class));
+        lectura.setReadOnly(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        contexto.close();
+    }
+
+    private static int cuenta() {
+        return ThreadLocalRandom.current().nextInt(CUENTAS_CON_HISTORIAL) + 1;
+    }
+
+    @Benchmark
+    public List<Movimiento> paginaEntidades() {
+        return lectura.execute(estado -> em.createQuery(PAGINA_ENTIDADES, Movimiento.class)
+                .setParameter(1, cuenta()).setParameter(2, SIN_LIMITE_INFERIOR).setParameter(3, SIN_LIMITE_SUPERIOR)
+                .setParameter(4, 0).setParameter(5, (String) null).setMaxResults(TAMANO_PAGINA + 1).getResultList());
+    }
+
+    @Benchmark
+    public List<MovimientoVista> paginaProyeccion() {
+        return lectura.execute(estado -> mrepo.buscarVistasPagina(cuenta(), SIN_LIMITE_INFERIOR, SIN_LIMITE_SUPERIOR, 0,
+                null, Limit.of(TAMANO_PAGINA + 1)));
+    }
+
+    @Benchmark
+    public List<Movimiento> historialEntidades() {
+        return lectura.execute(estado -> em.createQuery(HISTORIAL_ENTIDADES, Movimiento.class)
+                .setParameter(1, cuenta()).setParameter(2, SIN_LIMITE_INFERIOR).getResultList());
+    }
+
+    @Benchmark
+    public List<MovimientoVista> historialProyeccion() {
+        return lectura.execute(estado -> mrepo.buscarVistasPorNumeroCuenta(cuenta(), SIN_LIMITE_INFERIOR));
+    }
+}
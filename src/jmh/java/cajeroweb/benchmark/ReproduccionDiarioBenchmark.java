@@ -0,0 +1,97 @@
+package cajeroweb.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.dao.LibroEventos;
+import cajeroweb.modelo.entidades.Cuenta;
+
+/**
+ * Tiempo de reconstrucción del perfil "eventos" según el tamaño del diario (cada registro ocupa
+ * 48 bytes). Con instantanea=true se escribe una instantánea al 90% del diario y solo se
+ * reproduce el 10% restante; con false se reproduce el diario entero.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReproduccionDiarioBenchmark {
+
+    private static final int CUENTAS = 1000;
+
+    @Param({ "100000", "1000000", "10000000" })
+    public int registros;
+
+    @Param({ "false", "true" })
+    public boolean instantanea;
+
+    private Path directorio;
+    private ConfigurableApplicationContext contexto;
+    private LibroEventos libro;
+
+    @Setup(Level.Trial)
+    public void arrancar() throws IOException {
+        directorio = Files.createTempDirectory("cajero-eventos");
+        contexto = EntornoH2.arrancar("eventos" + System.nanoTime(), "--spring.profiles.include=eventos",
+                "--cajero.eventos.directorio=" + directorio, "--cajero.eventos.instantanea-cada=0",
+                "--cajero.eventos.sincronizar-ms=1000");
+        EntornoH2.sembrar(contexto.getBean(JdbcTemplate.class), CUENTAS, 0, 0);
+        CuentaDao cdao = contexto.getBean(CuentaDao.class);
+        libro = contexto.getBean(LibroEventos.class);
+        Cuenta[] cuentas = new Cuenta[CUENTAS];
+        for (int i = 0; i < CUENTAS; i++) {
+            cuentas[i] = cdao.buscarUno(i + 1);
+        }
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        int antesDeInstantanea = instantanea ? registros / 10 * 9 : registros;
+        for (int i = 0; i < registros; i++) {
+            if (i == antesDeInstantanea) {
+                libro.instantanea();
+            }
+            cdao.ingreso(cuentas[azar.nextInt(CUENTAS)], 10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        contexto.close();
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            for (Path f : ficheros.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    @Benchmark
+    public long reconstruir() throws IOException {
+        return libro.reconstruir();
+    }
+}
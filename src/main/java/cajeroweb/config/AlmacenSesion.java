@@ -0,0 +1,44 @@
+package cajeroweb.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Dónde se guarda la sesión del cajero. La sesión solo contiene el id de la cuenta; el saldo
+ * y el resto de datos se leen de los DAO en cada petición, así que cualquier nodo puede
+ * atender cualquier petición.
+ *
+ * La implementación se elige con cajero.sesion.almacen: "http" (por defecto, {@link AlmacenSesionHttp})
+ * o "cookie" ({@link AlmacenSesionCookie}).
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public interface AlmacenSesion {
+
+    /**
+     * Devuelve la cuenta con la que se ha iniciado sesión.
+     *
+     * @param peticion la petición actual
+     * @return el id de la cuenta, o null si no hay sesión
+     */
+    Integer idCuenta(HttpServletRequest peticion);
+
+    /**
+     * Inicia sesión con una cuenta.
+     *
+     * @param peticion la petición actual
+     * @param respuesta la respuesta, por si la sesión viaja en ella
+     * @param idCuenta el id de la cuenta
+     */
+    void iniciar(HttpServletRequest peticion, HttpServletResponse respuesta, int idCuenta);
+
+    /**
+     * Cierra la sesión actual.
+     *
+     * @param peticion la petición actual
+     * @param respuesta la respuesta, por si la sesión viaja en ella
+     */
+    void cerrar(HttpServletRequest peticion, HttpServletResponse respuesta);
+}
@@ -0,0 +1,114 @@
+package cajeroweb.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.WebUtils;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Sesión sin estado en el servidor: el id de la cuenta y la caducidad viajan en una cookie
+ * firmada con HMAC (cajero.sesion.clave, igual en todos los nodos). Cualquier nodo puede
+ * validar la cookie, así que no hace falta afinidad ni replicar sesiones.
+ * Los mensajes flash viajan también en cookie ({@link FlashMapManagerCookie}).
+ *
+ * La caducidad va dentro de la cookie firmada. Como interceptor, vuelve a emitir la cookie cuando
+ * le queda menos de la mitad de cajero.sesion.duracion-minutos, así que la sesión caduca tras
+ * entre media y una duración sin peticiones, parecido al tiempo de inactividad de la HttpSession.
+ *
+ * Se activa con cajero.sesion.almacen=cookie.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@ConditionalOnProperty(name = "cajero.sesion.almacen", havingValue = "cookie")
+public class AlmacenSesionCookie implements AlmacenSesion, HandlerInterceptor {
+
+    static final String COOKIE = "CAJERO_SESION";
+
+    private final FirmaCookies firma;
+    private final Duration duracion;
+    private final boolean segura;
+
+    public AlmacenSesionCookie(@Value("${cajero.sesion.clave:}") String clave,
+            @Value("${cajero.sesion.duracion-minutos:30}") long minutos,
+            @Value("${cajero.sesion.cookie-segura:false}") boolean segura) {
+        this.firma = new FirmaCookies(clave);
+        this.duracion = Duration.ofMinutes(minutos);
+        this.segura = segura;
+    }
+
+    /**
+     * Lee la cuenta de la cookie si la firma es válida y no ha caducado.
+     */
+    @Override
+    public Integer idCuenta(HttpServletRequest peticion) {
+        long[] sesion = leer(peticion);
+        return sesion == null ? null : (int) sesion[0];
+    }
+
+    /**
+     * Vuelve a emitir la cookie con la caducidad completa si le queda menos de la mitad, para que
+     * la sesión caduque por inactividad como la HttpSession y no a una hora fija desde el login.
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest peticion, HttpServletResponse respuesta, Object handler) {
+        long[] sesion = leer(peticion);
+        if (sesion != null && sesion[1] - System.currentTimeMillis() / 1000 < duracion.toSeconds() / 2) {
+            iniciar(peticion, respuesta, (int) sesion[0]);
+        }
+        return true;
+    }
+
+    /**
+     * @return el id de la cuenta y la caducidad (segundos epoch) de una cookie válida, o null
+     */
+    private long[] leer(HttpServletRequest peticion) {
+        Cookie cookie = WebUtils.getCookie(peticion, COOKIE);
+        if (cookie == null) {
+            return null;
+        }
+        String contenido = firma.verificar(cookie.getValue());
+        if (contenido == null) {
+            return null;
+        }
+        // contenido = idCuenta.caducidad (segundos epoch)
+        int punto = contenido.indexOf('.');
+        try {
+            long caducidad = Long.parseLong(contenido.substring(punto + 1));
+            if (caducidad < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return new long[] { Integer.parseInt(contenido.substring(0, punto)), caducidad };
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void iniciar(HttpServletRequest peticion, HttpServletResponse respuesta, int idCuenta) {
+        long caducidad = System.currentTimeMillis() / 1000 + duracion.toSeconds();
+        escribir(respuesta, firma.firmar(idCuenta + "." + caducidad), duracion);
+    }
+
+    @Override
+    public void cerrar(HttpServletRequest peticion, HttpServletResponse respuesta) {
+        escribir(respuesta, "", Duration.ZERO);
+    }
+
+    private void escribir(HttpServletResponse respuesta, String valor, Duration maxAge) {
+        ResponseCookie cookie = ResponseCookie.from(COOKIE, valor).path("/").httpOnly(true).secure(segura)
+                .sameSite("Lax").maxAge(maxAge).build();
+        respuesta.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
@@ -0,0 +1,43 @@
+package cajeroweb.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Sesión en la HttpSession del contenedor, guardando solo el id de la cuenta (un Integer).
+ * Es la opción por defecto; para varios nodos sin afinidad hace falta replicar la sesión
+ * (por ejemplo con Spring Session) o usar {@link AlmacenSesionCookie}.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@ConditionalOnProperty(name = "cajero.sesion.almacen", havingValue = "http", matchIfMissing = true)
+public class AlmacenSesionHttp implements AlmacenSesion {
+
+    private static final String ATRIBUTO = "idCuenta";
+
+    @Override
+    public Integer idCuenta(HttpServletRequest peticion) {
+        HttpSession sesion = peticion.getSession(false);
+        return sesion == null ? null : (Integer) sesion.getAttribute(ATRIBUTO);
+    }
+
+    @Override
+    public void iniciar(HttpServletRequest peticion, HttpServletResponse respuesta, int idCuenta) {
+        peticion.getSession().setAttribute(ATRIBUTO, idCuenta);
+    }
+
+    @Override
+    public void cerrar(HttpServletRequest peticion, HttpServletResponse respuesta) {
+        HttpSession sesion = peticion.getSession(false);
+        if (sesion != null) {
+            sesion.invalidate();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cajeroweb.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+
+/**
+ * Registra el {@link CacheRecursosInterceptor}. El ResourceUrlProvider se pide al atender la
+ * petición porque lo crea la propia configuración de Spring MVC que llama a este configurador.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+public class CacheRecursosConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private ObjectProvider<ResourceUrlProvider> urls;
+
+    @Value("${cajero.recursos.max-age-segundos:600}")
+    private long maxAgeSegundos;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new CacheRecursosInterceptor(urls, maxAgeSegundos));
+    }
+}
@@ -0,0 +1,62 @@
+package cajeroweb.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.resource.ContentVersionStrategy;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Cache-Control de los recursos estáticos. Solo la URL con el hash del contenido actual (la que
+ * generan las plantillas con @{/style.css}) se guarda un año como inmutable: si el fichero
+ * cambia, cambia la URL. Las rutas sin versión, o con un hash que no es el del contenido actual,
+ * se guardan solo maxAgeSegundos y después se revalidan con Last-Modified.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class CacheRecursosInterceptor implements HandlerInterceptor {
+
+    private static final CacheControl VERSIONADO = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+    private final ContentVersionStrategy versiones = new ContentVersionStrategy();
+
+    private final ObjectProvider<ResourceUrlProvider> urls;
+
+    private final CacheControl sinVersion;
+
+    public CacheRecursosInterceptor(ObjectProvider<ResourceUrlProvider> urls, long maxAgeSegundos) {
+        this.urls = urls;
+        this.sinVersion = CacheControl.maxAge(maxAgeSegundos, TimeUnit.SECONDS).cachePublic();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof ResourceHttpRequestHandler) {
+            String ruta = request.getRequestURI().substring(request.getContextPath().length());
+            CacheControl cache = versionActual(ruta) ? VERSIONADO : sinVersion;
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cache.getHeaderValue());
+        }
+        return true;
+    }
+
+    /**
+     * Indica si la ruta lleva el hash del contenido actual del recurso: quitándole la versión, la
+     * cadena de recursos la vuelve a generar igual.
+     */
+    private boolean versionActual(String ruta) {
+        String version = versiones.extractVersion(ruta);
+        if (version == null) {
+            return false;
+        }
+        return ruta.equals(urls.getObject().getForLookupPath(versiones.removeVersion(ruta, version)));
+    }
+}
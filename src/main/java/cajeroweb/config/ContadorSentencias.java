@@ -0,0 +1,48 @@
+package cajeroweb.config;
+
+/**
+ * Contador por hilo de las sentencias SQL ejecutadas. Lo incrementa {@link DataSourceContador},
+ * que envuelve el DataSource de la aplicación, así que cuenta tanto las sentencias de Hibernate
+ * como las de JdbcTemplate. {@link ContadorSentenciasInterceptor} lo reinicia al empezar cada
+ * petición y registra el total al terminarla.
+ *
+ * Los inserts de movimientos los ejecuta el hilo del escritor de lotes, que reinicia su contador en
+ * cada lote y reparte el total entre los productores; MovimientoDaoImplJpaMy8 suma la parte de
+ * cada movimiento al hilo de la petición con {@link #sumar(int)}.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public final class ContadorSentencias {
+
+    private static final ThreadLocal<int[]> CONTADOR = ThreadLocal.withInitial(() -> new int[1]);
+
+    private ContadorSentencias() {
+    }
+
+    /**
+     * Pone a cero el contador del hilo actual.
+     */
+    public static void reiniciar() {
+        CONTADOR.get()[0] = 0;
+    }
+
+    /**
+     * Suma al hilo actual sentencias ejecutadas en otro hilo por cuenta suya.
+     *
+     * @param sentencias número de sentencias
+     */
+    public static void sumar(int sentencias) {
+        CONTADOR.get()[0] += sentencias;
+    }
+
+    /**
+     * Devuelve el número de sentencias ejecutadas por el hilo actual desde el último reinicio.
+     *
+     * @return número de sentencias
+     */
+    public static int total() {
+        return CONTADOR.get()[0];
+    }
+}
@@ -0,0 +1,43 @@
+package cajeroweb.config;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Interceptor que registra cuántas sentencias SQL (de Hibernate y de JdbcTemplate) ha lanzado cada petición,
+ * como distribución cajero.sql.sentencias.peticion etiquetada por ruta.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class ContadorSentenciasInterceptor implements HandlerInterceptor {
+
+    private final MeterRegistry registro;
+
+    public ContadorSentenciasInterceptor(MeterRegistry registro) {
+        this.registro = registro;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ContadorSentencias.reiniciar();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object ruta = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        DistributionSummary.builder("cajero.sql.sentencias.peticion")
+                .description("Sentencias SQL por petición")
+                .tag("uri", ruta != null ? ruta.toString() : "UNKNOWN")
+                .publishPercentileHistogram()
+                .register(registro)
+                .record(ContadorSentencias.total());
+    }
+}
@@ -0,0 +1,22 @@
+package cajeroweb.config;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Se lanza cuando una llamada a los DAO no consigue permiso de {@link LimitadorDao} a tiempo.
+ * Se responde con 503 para que el balanceador o el cliente reintenten más tarde.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class DaoSaturadoException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DaoSaturadoException(String mensaje) {
+        super(mensaje);
+    }
+}
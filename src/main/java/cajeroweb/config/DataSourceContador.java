@@ -0,0 +1,74 @@
+package cajeroweb.config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource que envuelve al pool y cuenta en {@link ContadorSentencias} cada ejecución de
+ * sentencia (execute*, incluido executeBatch como una sola ida y vuelta) del hilo que la lanza.
+ * Al estar por debajo de Hibernate y de JdbcTemplate cuenta las sentencias de los dos.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class DataSourceContador extends DelegatingDataSource {
+
+    public DataSourceContador(DataSource destino) {
+        super(destino);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return contar(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String usuario, String clave) throws SQLException {
+        return contar(super.getConnection(usuario, clave));
+    }
+
+    private static Connection contar(Connection conexion) {
+        return (Connection) Proxy.newProxyInstance(DataSourceContador.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, metodo, args) -> {
+                    Object resultado = invocar(conexion, metodo, args);
+                    if (resultado instanceof CallableStatement) {
+                        return sentencia(resultado, CallableStatement.class);
+                    } else if (resultado instanceof PreparedStatement) {
+                        return sentencia(resultado, PreparedStatement.class);
+                    } else if (resultado instanceof Statement) {
+                        return sentencia(resultado, Statement.class);
+                    }
+                    return resultado;
+                });
+    }
+
+    private static Object sentencia(Object sentencia, Class<?> tipo) {
+        InvocationHandler manejador = (proxy, metodo, args) -> {
+            if (metodo.getName().startsWith("execute")) {
+                ContadorSentencias.sumar(1);
+            }
+            return invocar(sentencia, metodo, args);
+        };
+        return Proxy.newProxyInstance(DataSourceContador.class.getClassLoader(), new Class<?>[] { tipo }, manejador);
+    }
+
+    private static Object invocar(Object destino, Method metodo, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(destino, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause(); // La SQLException original, no envuelta
+        }
+    }
+}
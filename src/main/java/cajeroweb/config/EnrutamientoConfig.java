@@ -0,0 +1,101 @@
+package cajeroweb.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Enrutado de lecturas a una réplica de MySQL. Se activa al definir cajero.replica.url
+ * (con cajero.replica.username, cajero.replica.password y opcionalmente cajero.replica.hikari.*).
+ *
+ * Las transacciones de solo lectura (@Transactional(readOnly = true), incluidas las consultas
+ * de los repositorios de Spring Data) van a la réplica; el resto, a la primaria. La decisión se
+ * toma al abrir la conexión física, gracias a {@link LazyConnectionDataSourceProxy}, cuando ya se
+ * sabe si la transacción es de solo lectura. Las lecturas van también a la primaria si el hilo
+ * ya ha escrito en ella o si el usuario ha escrito hace menos de cajero.replica.guardia-ms
+ * ({@link GuardiaLecturasInterceptor}).
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+@ConditionalOnProperty(name = "cajero.replica.url")
+public class EnrutamientoConfig implements WebMvcConfigurer {
+
+    @Value("${cajero.replica.guardia-ms:2000}")
+    private long guardiaMs;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaria(DataSourceProperties propiedades) {
+        HikariDataSource ds = propiedades.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        ds.setPoolName("primaria");
+        return ds;
+    }
+
+    @Bean
+    @ConfigurationProperties("cajero.replica.hikari")
+    public HikariDataSource replica(@Value("${cajero.replica.url}") String url,
+            @Value("${cajero.replica.username:}") String usuario, @Value("${cajero.replica.password:}") String clave) {
+        HikariDataSource ds = DataSourceBuilder.create().type(HikariDataSource.class)
+                .url(url).username(usuario).password(clave).build();
+        ds.setPoolName("replica");
+        ds.setReadOnly(true);
+        return ds;
+    }
+
+    /**
+     * DataSource que usan JPA y JdbcTemplate: escrituras a la primaria, lecturas a la réplica
+     * salvo que la guardia del hilo diga lo contrario.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaria") DataSource primaria, @Qualifier("replica") DataSource replica) {
+        AbstractRoutingDataSource lecturas = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return GuardiaLecturas.primaria() ? "primaria" : "replica";
+            }
+        };
+        lecturas.setTargetDataSources(Map.of("primaria", primaria, "replica", replica));
+        lecturas.afterPropertiesSet();
+
+        DataSource escrituras = new DelegatingDataSource(primaria) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                GuardiaLecturas.marcarEscritura();
+                return super.getConnection();
+            }
+        };
+
+        LazyConnectionDataSourceProxy proxy = new LazyConnectionDataSourceProxy(escrituras);
+        proxy.setReadOnlyDataSource(lecturas);
+        return proxy;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new GuardiaLecturasInterceptor(Duration.ofMillis(guardiaMs)));
+    }
+}
@@ -0,0 +1,69 @@
+package cajeroweb.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Firma HMAC-SHA256 de los valores que se guardan en cookies.
+ * Un valor firmado tiene la forma "contenido.firma", con la firma en Base64 URL sin relleno.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+class FirmaCookies {
+
+    private static final String ALGORITMO = "HmacSHA256";
+
+    private final SecretKeySpec clave;
+
+    /**
+     * @param clave el secreto compartido por todos los nodos (cajero.sesion.clave)
+     */
+    FirmaCookies(String clave) {
+        if (clave == null || clave.length() < 32) {
+            throw new IllegalStateException("cajero.sesion.clave debe tener al menos 32 caracteres");
+        }
+        this.clave = new SecretKeySpec(clave.getBytes(StandardCharsets.UTF_8), ALGORITMO);
+    }
+
+    /**
+     * @param contenido el valor a firmar
+     * @return el contenido seguido de un punto y su firma
+     */
+    String firmar(String contenido) {
+        return contenido + "." + firma(contenido);
+    }
+
+    /**
+     * @param firmado un valor devuelto por {@link #firmar(String)}
+     * @return el contenido si la firma es válida, o null si no lo es
+     */
+    String verificar(String firmado) {
+        int punto = firmado.lastIndexOf('.');
+        if (punto < 0) {
+            return null;
+        }
+        String contenido = firmado.substring(0, punto);
+        byte[] esperada = firma(contenido).getBytes(StandardCharsets.US_ASCII);
+        byte[] recibida = firmado.substring(punto + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(esperada, recibida) ? contenido : null;
+    }
+
+    private String firma(String contenido) {
+        try {
+            // Mac no es seguro entre hilos; crear uno por firma es barato frente a la petición
+            Mac mac = Mac.getInstance(ALGORITMO);
+            mac.init(clave);
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(contenido.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cajeroweb.config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.web.servlet.FlashMap;
+import org.springframework.web.servlet.support.AbstractFlashMapManager;
+import org.springframework.web.util.WebUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Guarda los atributos flash (los mensajes de las redirecciones) en una cookie firmada en
+ * lugar de en la HttpSession, para que el modo cookie no cree sesiones en el servidor.
+ * Solo se conservan los atributos de tipo String y la ruta de destino, que es lo que usan
+ * los controladores.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+class FlashMapManagerCookie extends AbstractFlashMapManager {
+
+    static final String COOKIE = "CAJERO_FLASH";
+
+    private static final TypeReference<List<Map<String, Object>>> TIPO = new TypeReference<>() {
+    };
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final FirmaCookies firma;
+    private final boolean segura;
+
+    FlashMapManagerCookie(FirmaCookies firma, boolean segura) {
+        this.firma = firma;
+        this.segura = segura;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<FlashMap> retrieveFlashMaps(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, COOKIE);
+        if (cookie == null || cookie.getValue().isEmpty()) {
+            return null;
+        }
+        String contenido = firma.verificar(cookie.getValue());
+        if (contenido == null) {
+            return null;
+        }
+        try {
+            List<FlashMap> mapas = new ArrayList<>();
+            for (Map<String, Object> m : json.readValue(Base64.getUrlDecoder().decode(contenido), TIPO)) {
+                FlashMap mapa = new FlashMap();
+                mapa.setTargetRequestPath((String) m.get("ruta"));
+                mapa.setExpirationTime(((Number) m.get("caduca")).longValue());
+                mapa.putAll((Map<String, Object>) m.get("atributos"));
+                mapas.add(mapa);
+            }
+            return mapas;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void updateFlashMaps(List<FlashMap> flashMaps, HttpServletRequest request, HttpServletResponse response) {
+        List<Map<String, Object>> mapas = new ArrayList<>();
+        for (FlashMap mapa : flashMaps) {
+            Map<String, Object> atributos = new LinkedHashMap<>();
+            mapa.forEach((k, v) -> {
+                if (v instanceof String) {
+                    atributos.put(k, v);
+                }
+            });
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("ruta", mapa.getTargetRequestPath());
+            m.put("caduca", mapa.getExpirationTime());
+            m.put("atributos", atributos);
+            mapas.add(m);
+        }
+        String valor = "";
+        if (!mapas.isEmpty()) {
+            try {
+                valor = firma.firmar(Base64.getUrlEncoder().withoutPadding().encodeToString(json.writeValueAsBytes(mapas)));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        ResponseCookie cookie = ResponseCookie.from(COOKIE, valor).path("/").httpOnly(true).secure(segura)
+                .sameSite("Lax").maxAge(valor.isEmpty() ? 0 : getFlashMapTimeout()).build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
@@ -0,0 +1,81 @@
+package cajeroweb.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import cajeroweb.modelo.dao.Fragmentos;
+
+/**
+ * Bases de datos del perfil "fragmentos". Cada fragmento se define con
+ * cajero.fragmentos.bases.&lt;nombre&gt;.url, .username y .password, y tiene su propio pool de
+ * cajero.fragmentos.tamano-pool conexiones. cajero.fragmentos.anillo lista los fragmentos entre
+ * los que se reparten las cuentas; puede haber bases definidas que aún no estén en él, como
+ * destino de un rebalanceo. Si se indica cajero.fragmentos.esquema, el script se ejecuta en
+ * cada base al arrancar (pensado para las bases embebidas de las pruebas).
+ *
+ * La base principal (spring.datasource) sigue usándose para el resto de tablas de la aplicación.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+@Profile("fragmentos")
+public class FragmentosConfig implements DisposableBean {
+
+    /**
+     * Conexión a la base de un fragmento.
+     */
+    public record Base(String url, String username, String password) {
+    }
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    @Bean
+    public Fragmentos fragmentos(Environment entorno, ResourceLoader recursos,
+            @Value("${cajero.fragmentos.anillo}") List<String> anillo,
+            @Value("${cajero.fragmentos.nodos-virtuales:128}") int nodosVirtuales,
+            @Value("${cajero.fragmentos.tamano-pool:10}") int tamanoPool,
+            @Value("${cajero.fragmentos.esquema:}") String esquema) {
+        Map<String, Base> bases = Binder.get(entorno)
+                .bind("cajero.fragmentos.bases", Bindable.mapOf(String.class, Base.class))
+                .orElseThrow(() -> new IllegalStateException("Sin bases en cajero.fragmentos.bases"));
+        Map<String, DataSource> fuentes = new LinkedHashMap<>();
+        bases.forEach((nombre, base) -> {
+            HikariDataSource ds = DataSourceBuilder.create().type(HikariDataSource.class)
+                    .url(base.url()).username(base.username()).password(base.password()).build();
+            ds.setPoolName("fragmento-" + nombre);
+            ds.setMaximumPoolSize(tamanoPool);
+            pools.add(ds);
+            if (!esquema.isEmpty()) {
+                DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(recursos.getResource(esquema)), ds);
+            }
+            fuentes.put(nombre, new DataSourceContador(ds)); // Cuenta sus sentencias por petición
+        });
+        return new Fragmentos(fuentes, anillo, nodosVirtuales);
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,52 @@
+package cajeroweb.config;
+
+/**
+ * Estado por hilo del enrutado de lecturas entre primaria y réplica.
+ * {@link EnrutamientoConfig} consulta {@link #primaria()} al abrir una conexión de solo lectura
+ * y marca {@link #marcarEscritura()} cada vez que se abre una conexión de escritura;
+ * {@link GuardiaLecturasInterceptor} fija y limpia ambos valores en cada petición.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public final class GuardiaLecturas {
+
+    private static final ThreadLocal<boolean[]> ESTADO = ThreadLocal.withInitial(() -> new boolean[2]);
+
+    private GuardiaLecturas() {
+    }
+
+    /**
+     * Hace que las lecturas del hilo actual vayan a la primaria.
+     */
+    public static void leerDePrimaria() {
+        ESTADO.get()[0] = true;
+    }
+
+    /**
+     * @return true si las lecturas del hilo actual deben ir a la primaria
+     */
+    public static boolean primaria() {
+        boolean[] estado = ESTADO.get();
+        return estado[0] || estado[1];
+    }
+
+    /**
+     * Anota que el hilo actual ha escrito en la primaria; desde ese momento también lee de ella.
+     */
+    public static void marcarEscritura() {
+        ESTADO.get()[1] = true;
+    }
+
+    /**
+     * @return true si el hilo actual ha escrito en la primaria desde el último {@link #limpiar()}
+     */
+    public static boolean huboEscritura() {
+        return ESTADO.get()[1];
+    }
+
+    public static void limpiar() {
+        ESTADO.remove();
+    }
+}
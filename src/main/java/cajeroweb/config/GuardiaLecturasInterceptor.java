@@ -0,0 +1,68 @@
+package cajeroweb.config;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.WebUtils;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Garantiza que un usuario lee sus propias escrituras aunque la réplica vaya con retraso.
+ * Cuando una petición escribe en la primaria se devuelve la cookie CAJERO_PRIMARIA con el
+ * instante hasta el que sus lecturas deben ir a la primaria; mientras no haya pasado, las
+ * peticiones que la traen leen de la primaria. Al ir en una cookie funciona igual con
+ * cualquier nodo y cualquier almacén de sesión.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class GuardiaLecturasInterceptor implements HandlerInterceptor {
+
+    static final String COOKIE = "CAJERO_PRIMARIA";
+
+    private final Duration guardia;
+
+    public GuardiaLecturasInterceptor(Duration guardia) {
+        this.guardia = guardia;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        GuardiaLecturas.limpiar();
+        Cookie cookie = WebUtils.getCookie(request, COOKIE);
+        if (cookie != null) {
+            try {
+                if (Long.parseLong(cookie.getValue()) > System.currentTimeMillis()) {
+                    GuardiaLecturas.leerDePrimaria();
+                }
+            } catch (NumberFormatException e) {
+                // Cookie manipulada: se ignora
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+            ModelAndView modelAndView) {
+        // Antes de pintar la vista o redirigir, cuando aún se pueden añadir cabeceras
+        if (GuardiaLecturas.huboEscritura() && !response.isCommitted()) {
+            ResponseCookie cookie = ResponseCookie.from(COOKIE,
+                    Long.toString(System.currentTimeMillis() + guardia.toMillis()))
+                    .path("/").httpOnly(true).sameSite("Lax").maxAge(guardia).build();
+            response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        GuardiaLecturas.limpiar();
+    }
+}
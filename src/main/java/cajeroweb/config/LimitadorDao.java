@@ -0,0 +1,72 @@
+package cajeroweb.config;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limitador de concurrencia delante de la capa DAO.
+ * Con hilos virtuales Tomcat acepta miles de peticiones simultáneas, pero solo hay tantas
+ * conexiones como indica el pool de Hikari. Este aspecto deja pasar a los DAO como mucho
+ * tantas llamadas como permisos tenga el semáforo (por defecto, el tamaño del pool) y hace
+ * esperar al resto aquí, sin ocupar el pool. Si la espera supera el límite configurado la
+ * petición se rechaza con {@link DaoSaturadoException}.
+ *
+ * Las llamadas anidadas de un mismo hilo reutilizan el permiso ya adquirido. MovimientoDao.insertUno
+ * e insertVarios no se limitan porque solo esperan al escritor por lotes, que usa su propia conexión.
+ *
+ * Se activa con cajero.limitador.activo=true (perfil "virtuales").
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Aspect
+@Component
+@ConditionalOnProperty(name = "cajero.limitador.activo", havingValue = "true")
+public class LimitadorDao {
+
+    private static final ThreadLocal<Boolean> DENTRO = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final Semaphore permisos;
+    private final long esperaMs;
+
+    public LimitadorDao(@Value("${cajero.limitador.permisos:${spring.datasource.hikari.maximum-pool-size:10}}") int numPermisos,
+            @Value("${cajero.limitador.espera-ms:2000}") long esperaMs, MeterRegistry registro) {
+        this.permisos = new Semaphore(numPermisos, true);
+        this.esperaMs = esperaMs;
+        Gauge.builder("cajero.limitador.esperando", permisos, Semaphore::getQueueLength)
+                .description("Llamadas a la espera de un permiso para entrar en los DAO")
+                .register(registro);
+        Gauge.builder("cajero.limitador.disponibles", permisos, Semaphore::availablePermits)
+                .register(registro);
+    }
+
+    @Around("within(cajeroweb.modelo.dao..*) && @within(org.springframework.stereotype.Repository)"
+            + " && !execution(* cajeroweb.modelo.dao.MovimientoDao.insertUno(..))"
+            + " && !execution(* cajeroweb.modelo.dao.MovimientoDao.insertVarios(..))")
+    public Object limitar(ProceedingJoinPoint punto) throws Throwable {
+        if (DENTRO.get()) {
+            return punto.proceed();
+        }
+        if (!permisos.tryAcquire(esperaMs, TimeUnit.MILLISECONDS)) {
+            throw new DaoSaturadoException("Sin conexiones disponibles tras " + esperaMs + " ms");
+        }
+        DENTRO.set(Boolean.TRUE);
+        try {
+            return punto.proceed();
+        } finally {
+            DENTRO.set(Boolean.FALSE);
+            permisos.release();
+        }
+    }
+}
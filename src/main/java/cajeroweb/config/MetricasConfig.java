@@ -0,0 +1,60 @@
+package cajeroweb.config;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Configuración de métricas de la aplicación.
+ * Activa el aspecto de {@code @Timed}, que cronometra los métodos de los DAO, envuelve el
+ * DataSource de la aplicación en un {@link DataSourceContador}, registra el interceptor que
+ * cuenta las sentencias SQL por petición y el que mide el tiempo hasta el primer /login.
+ * Las métricas se publican en /actuator/prometheus.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+public class MetricasConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registro) {
+        return new TimedAspect(registro);
+    }
+
+    /**
+     * Envuelve el bean dataSource, el que usan JPA y JdbcTemplate. Con réplica es el proxy de
+     * EnrutamientoConfig, así que se cuentan las sentencias de la primaria y de la réplica.
+     */
+    @Bean
+    public static BeanPostProcessor dataSourceContador() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String nombre) throws BeansException {
+                if (bean instanceof DataSource ds && "dataSource".equals(nombre) && !(bean instanceof DataSourceContador)) {
+                    return new DataSourceContador(ds);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ContadorSentenciasInterceptor(registro));
+        registry.addInterceptor(new PrimerLoginInterceptor(registro)).addPathPatterns("/login");
+    }
+}
@@ -0,0 +1,42 @@
+package cajeroweb.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Interceptor que mide el tiempo de arranque tal como lo ve un usuario: desde que arrancó la JVM
+ * hasta que se sirvió la primera petición a /login. Lo publica una sola vez como
+ * cajero.arranque.primer.login; después solo cuesta leer un booleano.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class PrimerLoginInterceptor implements HandlerInterceptor {
+
+    private final MeterRegistry registro;
+    private final AtomicBoolean medido = new AtomicBoolean();
+
+    public PrimerLoginInterceptor(MeterRegistry registro) {
+        this.registro = registro;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (medido.get() || ex != null || response.getStatus() >= 400 || !medido.compareAndSet(false, true)) {
+            return;
+        }
+        long ms = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        TimeGauge.builder("cajero.arranque.primer.login", () -> ms, TimeUnit.MILLISECONDS)
+                .description("Tiempo desde el arranque de la JVM hasta la primera petición servida a /login")
+                .register(registro);
+    }
+}
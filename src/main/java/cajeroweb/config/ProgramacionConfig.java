@@ -0,0 +1,19 @@
+package cajeroweb.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Activa las tareas @Scheduled de la aplicación, una sola vez para todas: archivo de movimientos
+ * y sincronización de su corte, conciliación de saldos, liquidación mensual, barrido de límites y
+ * recuperación de transferencias entre fragmentos. Cada componente decide con sus propiedades si
+ * su tarea hace algo.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+@EnableScheduling
+public class ProgramacionConfig {
+}
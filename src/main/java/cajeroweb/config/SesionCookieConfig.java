@@ -0,0 +1,50 @@
+package cajeroweb.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.FlashMapManager;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Configuración del modo de sesión por cookie (cajero.sesion.almacen=cookie).
+ * Spring Boot ya define el bean flashMapManager (en sesión) y no permite redefinirlo, así que
+ * se sustituye al crearse por un {@link FlashMapManagerCookie}. {@link AlmacenSesionCookie} se
+ * registra como interceptor para renovar la cookie de sesión.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+@ConditionalOnProperty(name = "cajero.sesion.almacen", havingValue = "cookie")
+public class SesionCookieConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private AlmacenSesionCookie almacen;
+
+    @Bean
+    public static BeanPostProcessor flashMapManagerCookie(@Value("${cajero.sesion.clave:}") String clave,
+            @Value("${cajero.sesion.cookie-segura:false}") boolean segura) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String nombre) throws BeansException {
+                if (bean instanceof FlashMapManager && DispatcherServlet.FLASH_MAP_MANAGER_BEAN_NAME.equals(nombre)) {
+                    return new FlashMapManagerCookie(new FirmaCookies(clave), segura);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(almacen);
+    }
+}
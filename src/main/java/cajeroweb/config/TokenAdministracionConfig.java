@@ -0,0 +1,40 @@
+package cajeroweb.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registra un {@link TokenAdministracionInterceptor} por cada API de administración, con el
+ * token de su propiedad: lotes de transferencias (cajero.lote.token), rebalanceo de fragmentos
+ * (cajero.fragmentos.token), liquidación mensual (cajero.liquidacion.token) y conciliación de
+ * saldos (cajero.conciliacion.token).
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Configuration
+public class TokenAdministracionConfig implements WebMvcConfigurer {
+
+    @Value("${cajero.lote.token:}")
+    private String lote;
+
+    @Value("${cajero.fragmentos.token:}")
+    private String fragmentos;
+
+    @Value("${cajero.liquidacion.token:}")
+    private String liquidacion;
+
+    @Value("${cajero.conciliacion.token:}")
+    private String conciliacion;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new TokenAdministracionInterceptor(lote)).addPathPatterns("/transferencias/lote");
+        registry.addInterceptor(new TokenAdministracionInterceptor(fragmentos)).addPathPatterns("/fragmentos/**");
+        registry.addInterceptor(new TokenAdministracionInterceptor(liquidacion)).addPathPatterns("/liquidaciones");
+        registry.addInterceptor(new TokenAdministracionInterceptor(conciliacion)).addPathPatterns("/conciliaciones");
+    }
+}
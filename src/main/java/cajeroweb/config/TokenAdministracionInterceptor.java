@@ -0,0 +1,42 @@
+package cajeroweb.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Interceptor de las API de administración, que no usan la sesión del cajero: la petición debe
+ * llevar la cabecera X-Cajero-Token con el token de su API. Cada API tiene su propiedad (ver
+ * {@link TokenAdministracionConfig}); si está vacía, la API queda desactivada y responde 403.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class TokenAdministracionInterceptor implements HandlerInterceptor {
+
+    public static final String CABECERA = "X-Cajero-Token";
+
+    private final byte[] token;
+
+    public TokenAdministracionInterceptor(String token) {
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String cabecera = request.getHeader(CABECERA);
+        // Comparación en tiempo constante para no revelar el token por los tiempos de respuesta
+        if (token.length > 0 && cabecera != null
+                && MessageDigest.isEqual(token, cabecera.getBytes(StandardCharsets.UTF_8))) {
+            return true;
+        }
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+        return false;
+    }
+}
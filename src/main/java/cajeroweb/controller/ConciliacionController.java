@@ -0,0 +1,41 @@
+package cajeroweb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import cajeroweb.modelo.dao.ConciliadorSaldos;
+import cajeroweb.modelo.dto.InformeConciliacion;
+
+/**
+ * Lanza la conciliación de saldos a petición; la autoriza TokenAdministracionInterceptor con
+ * cajero.conciliacion.token.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@RestController
+@Profile("!memoria & !eventos & !fragmentos")
+public class ConciliacionController {
+
+    @Autowired
+    private ConciliadorSaldos conciliador;
+
+    /**
+     * Concilia los saldos con los movimientos.
+     *
+     * @param completa true para revisar todas las cuentas; por defecto solo las que han tenido
+     *                 movimientos desde la conciliación anterior
+     * @return el informe de la conciliación
+     */
+    @PostMapping(path = "/conciliaciones", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InformeConciliacion> conciliar(
+            @RequestParam(defaultValue = "false") boolean completa) {
+        return ResponseEntity.ok(conciliador.conciliar(completa));
+    }
+}
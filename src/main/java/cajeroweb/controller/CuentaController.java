@@ -2,26 +2,54 @@ package cajeroweb.controller;
 
 
 
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
+import cajeroweb.EdtActividad2Application;
+import cajeroweb.config.AlmacenSesion;
 import cajeroweb.modelo.dao.CuentaDao;
 import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
 import cajeroweb.modelo.entidades.Cuenta;
 import cajeroweb.modelo.entidades.Movimiento;
-import jakarta.servlet.http.HttpSession;
+import cajeroweb.servicio.LimitesOperaciones;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * Controlador que maneja las rutas y solicitudes relacionadas con la gestión de cuentas bancarias.
  * Proporciona funcionalidades para operaciones como inicio de sesión, ingreso, extracción y visualización de movimientos.
  * Este controlador utiliza inyección de dependencias para interactuar con los DAO de Cuenta y Movimiento.
+ * La sesión solo guarda el id de la cuenta ({@link AlmacenSesion}); la cuenta y su saldo se leen
+ * del DAO en cada petición.
  *
  * @author Andres Matabuena
  * @version 1.0
@@ -30,24 +58,50 @@ import jakarta.servlet.http.HttpSession;
 @Controller
 public class CuentaController {
 
+    private static final int TAMANO_PAGINA = 50; // Movimientos por página en el historial
+    private static final int TAMANO_PAGINA_MAXIMO = 200;
+
+    // Entra en los ETag para que una versión nueva de las plantillas no reciba 304 de la anterior
+    private static final String VERSION_VISTAS = EdtActividad2Application.class.getPackage().getImplementationVersion() != null
+            ? EdtActividad2Application.class.getPackage().getImplementationVersion()
+            : String.valueOf(ManagementFactory.getRuntimeMXBean().getStartTime());
+
     @Autowired
     private CuentaDao cdao; // Inyección del DAO de Cuenta para gestionar los datos de la cuenta
 
     @Autowired
     private MovimientoDao mdao; // Inyección del DAO de Movimiento para gestionar los datos de los movimientos
 
+    @Autowired
+    private MeterRegistry registro; // Registro de métricas para contar las operaciones fallidas
+
+    @Autowired
+    private AlmacenSesion almacen; // Sesión con el id de la cuenta (HttpSession o cookie firmada)
+
+    @Autowired
+    private LimitesOperaciones limites; // Límites de extracciones y transferencias por ventana de tiempo
+
     /**
      * Maneja las solicitudes GET para la página de inicio.
      * Soporta varias rutas: `""`, `"/"`, y `"/home"`.
      * Verifica si hay una sesión activa con una cuenta logueada.
      *
-     * @param sesion la sesión HTTP actual
+     * Si la página de la cuenta no ha cambiado desde la que tiene el navegador se responde 304.
+     *
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP, para las cabeceras de validación
+     * @param model el modelo para pasar la cuenta a la vista
      * @return el nombre de la vista "home" si la cuenta está en sesión,
-     *         o "FormLogin" si no hay una cuenta activa
+     *         o "FormLogin" si no hay una cuenta activa; null si se ha respondido 304
      */
     @GetMapping({(""),("/"),("/home")})
-    public String home(HttpSession sesion) {
-    	if (sesion.getAttribute("cuenta") != null) {
+    public String home(HttpServletRequest peticion, HttpServletResponse respuesta, Model model) {
+    	Cuenta cuenta = cuentaSesion(peticion);
+    	if (cuenta != null) {
+            if (sinCambios(cuenta, peticion, respuesta)) {
+                return null;
+            }
+            model.addAttribute("cuenta", cuenta);
             return "home";
         }
     	return "FormLogin"; 
@@ -71,18 +125,23 @@ public class CuentaController {
      * Verifica si el número de cuenta es válido y establece la cuenta en la sesión.
      *
      * @param numeroCuenta número de la cuenta ingresado por el usuario
-     * @param sesion la sesión HTTP actual
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP, por si la sesión viaja en una cookie
+     * @param model el modelo para pasar la cuenta a la vista
      * @param ratt atributos para redirección con mensajes flash
      * @return redirección a la página principal si la cuenta es válida, o a la página de login si no lo es
      */
     @PostMapping("/login")
-    public String confirmacionCuenta(@RequestParam int numeroCuenta, HttpSession sesion, RedirectAttributes ratt) {
+    public String confirmacionCuenta(@RequestParam int numeroCuenta, HttpServletRequest peticion,
+            HttpServletResponse respuesta, Model model, RedirectAttributes ratt) {
         Cuenta cuenta = cdao.buscarUno(numeroCuenta);
 
         if (cuenta != null) {
-            sesion.setAttribute("cuenta", cuenta);
+            almacen.iniciar(peticion, respuesta, cuenta.getIdCuenta());
+            model.addAttribute("cuenta", cuenta);
             return "home";
         } else {
+            registrarFallo("login", "cuenta_incorrecta");
             ratt.addFlashAttribute("mensaje", "CUENTA INCORRECTA");
             return "redirect:/login";
         }
@@ -92,13 +151,13 @@ public class CuentaController {
      * Maneja la solicitud GET para cerrar sesión.
      * Elimina la cuenta de la sesión y la invalida.
      *
-     * @param sesion la sesión HTTP actual
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP, por si la sesión viaja en una cookie
      * @return redirección a la página de login
      */
     @GetMapping("/logout")
-    public String cerrar(HttpSession sesion) {
-        sesion.removeAttribute("cuenta");
-        sesion.invalidate();
+    public String cerrar(HttpServletRequest peticion, HttpServletResponse respuesta) {
+        almacen.cerrar(peticion, respuesta);
         return "forward:/login";
     }
 
@@ -118,22 +177,28 @@ public class CuentaController {
      *
      * @param ingreso cantidad de dinero a ingresar
      * @param ratt atributos para redirección con mensajes flash
-     * @param sesion la sesión HTTP actual
+     * @param peticion la petición HTTP actual
      * @return redirección a la página principal si el ingreso es exitoso, o al formulario si hay errores
      */
     @PostMapping("/ingresar")
-    public String procIngreso(@RequestParam double ingreso, RedirectAttributes ratt, HttpSession sesion) {
-        Cuenta cuenta = (Cuenta) sesion.getAttribute("cuenta");
+    public String procIngreso(@RequestParam double ingreso, RedirectAttributes ratt, HttpServletRequest peticion) {
+        Cuenta cuenta = cuentaSesion(peticion);
         
         //Verificamos si la cuenta existe y si el valor a extraer es positivo
         if (cuenta == null || ingreso <= 0) {
+            registrarFallo("ingreso", "cantidad_incorrecta");
             ratt.addFlashAttribute("mensaje", "Operación incorrecta: cantidad incorrecta.");
             return "redirect:/ingresar";
         }
 
+        // Primero el saldo y después el movimiento, igual que en extracciones y transferencias
+        if (cdao.ingreso(cuenta, ingreso) != 1) {
+            registrarFallo("ingreso", "cuenta_incorrecta");
+            ratt.addFlashAttribute("mensaje", "Operación incorrecta: cuenta incorrecta.");
+            return "redirect:/ingresar";
+        }
         Movimiento movimiento = new Movimiento(0, cuenta, new Date(), ingreso, "Ingreso");
         mdao.insertUno(movimiento);
-        cdao.ingreso(cuenta, ingreso);
         ratt.addFlashAttribute("mensaje", "Ingreso realizado con éxito");
 
         return "redirect:/";
@@ -151,30 +216,50 @@ public class CuentaController {
 
     /**
      * Maneja la solicitud POST para procesar la extracción de dinero de la cuenta.
-     * Valida el monto, la cuenta y comprueba si hay saldo suficiente antes de proceder.
+     * Valida el monto, la cuenta, los límites de extracción de su tipo de cuenta y comprueba si hay
+     * saldo suficiente antes de proceder.
      *
      * @param extraer cantidad de dinero a extraer
      * @param ratt atributos para redirección con mensajes flash
-     * @param sesion la sesión HTTP actual
+     * @param peticion la petición HTTP actual
      * @return redirección a la página principal si la extracción es exitosa, o al formulario si hay errores
      */
     @PostMapping("/extraer")
-    public String procExtraer(@RequestParam double extraer, RedirectAttributes ratt, HttpSession sesion) {
-        Cuenta cuenta = (Cuenta) sesion.getAttribute("cuenta");
+    public String procExtraer(@RequestParam double extraer, RedirectAttributes ratt, HttpServletRequest peticion) {
+        Cuenta cuenta = cuentaSesion(peticion);
 
         // Verificamos si la cuenta existe y si el valor a extraer es positivo
         if (cuenta == null || extraer <= 0) {
+            registrarFallo("extraccion", "cantidad_incorrecta");
             ratt.addFlashAttribute("mensaje", "Operación incorrecta: cantidad incorrecta.");
             return "redirect:/extraer";
         }
 
-        // Comprobamos si el saldo es suficiente para realizar la extracción
-        if (cdao.extraer(cuenta, extraer) == 1) {
+        // Comprobamos los límites de extracción de la cuenta
+        LimitesOperaciones.Reserva reserva = limites.reservar(cuenta, LimitesOperaciones.Operacion.EXTRACCION, extraer);
+        if (reserva == null) {
+            registrarFallo("extraccion", "limite_superado");
+            ratt.addFlashAttribute("mensaje", "Operación incorrecta: límite de extracciones superado");
+            return "redirect:/extraer";
+        }
+
+        // Comprobamos si el saldo es suficiente para realizar la extracción; si no se hace, aunque
+        // sea por una excepción, se devuelve la reserva
+        boolean hecha = false;
+        try {
+            hecha = cdao.extraer(cuenta, extraer) == 1;
+        } finally {
+            if (!hecha) {
+                reserva.anular();
+            }
+        }
+        if (hecha) {
             ratt.addFlashAttribute("mensaje", "Extracción realizada con éxito");
             Movimiento movimiento = new Movimiento(0, cuenta, new Date(), -extraer, "Extracción");
             mdao.insertUno(movimiento);
             return "redirect:/";
         } else {
+            registrarFallo("extraccion", "saldo_insuficiente");
             ratt.addFlashAttribute("mensaje", "Operación incorrecta: saldo insuficiente");
             return "redirect:/extraer";
         }
@@ -182,18 +267,134 @@ public class CuentaController {
 
     /**
      * Maneja la solicitud GET para mostrar el historial de movimientos de la cuenta.
-     * Obtiene los movimientos del DAO y los agrega al modelo.
+     * Muestra una página de movimientos, del más reciente al más antiguo, filtrada opcionalmente
+     * por rango de fechas y tipo de operación. La página siguiente se pide con el cursor
+     * (cursorFecha, cursorId) del último movimiento mostrado.
+     * Si la cuenta no ha cambiado desde la página que tiene el navegador se responde 304 sin
+     * consultar el historial.
      *
+     * @param desde fecha inicial (inclusive) opcional
+     * @param hasta fecha final (inclusive) opcional
+     * @param operacion tipo de operación opcional
+     * @param cursorFecha fecha en milisegundos del último movimiento de la página anterior
+     * @param cursorId id del último movimiento de la página anterior
+     * @param tamano número de movimientos por página
      * @param model el modelo para pasar datos a la vista
-     * @param sesion la sesión HTTP actual
-     * @return el nombre de la vista 'movimientos'
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP, para las cabeceras de validación
+     * @return el nombre de la vista 'movimientos', redirección al login si no hay sesión, o null si se ha respondido 304
      */
     @GetMapping("/movimientos")
-    public String movimientos(Model model, HttpSession sesion) {
-        model.addAttribute("movimientos", mdao.movimientos(((Cuenta) sesion.getAttribute("cuenta")).getIdCuenta()));
+    public String movimientos(@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date hasta,
+            @RequestParam(required = false) String operacion,
+            @RequestParam(required = false) Long cursorFecha, @RequestParam(required = false) Integer cursorId,
+            @RequestParam(defaultValue = "" + TAMANO_PAGINA) int tamano, Model model, HttpServletRequest peticion,
+            HttpServletResponse respuesta) {
+        Cuenta cuenta = cuentaSesion(peticion);
+        if (cuenta == null) {
+            return "redirect:/login";
+        }
+        if (sinCambios(cuenta, peticion, respuesta)) {
+            return null;
+        }
+        if (operacion != null && operacion.isBlank()) {
+            operacion = null;
+        }
+        // "hasta" es inclusive para el usuario; el filtro trabaja con el día siguiente exclusive
+        Date hastaExclusive = hasta == null ? null : new Date(hasta.getTime() + TimeUnit.DAYS.toMillis(1));
+        CursorMovimientos cursor = cursorFecha == null || cursorId == null ? null
+                : new CursorMovimientos(new Date(cursorFecha), cursorId);
+        PaginaMovimientos pagina = mdao.pagina(cuenta.getIdCuenta(),
+                new FiltroMovimientos(desde, hastaExclusive, operacion), cursor,
+                Math.max(1, Math.min(tamano, TAMANO_PAGINA_MAXIMO)));
+
+        SimpleDateFormat formato = new SimpleDateFormat("yyyy-MM-dd");
+        model.addAttribute("cuenta", cuenta);
+        model.addAttribute("movimientos", pagina.movimientos());
+        // Con filtro de operación las filas de la página no son consecutivas en el historial y el
+        // saldo tras cada una no se puede obtener restando las anteriores: no se muestra
+        model.addAttribute("saldos", operacion != null ? null : mdao.saldosTras(cuenta.getIdCuenta(), pagina.movimientos()));
+        model.addAttribute("siguiente", pagina.siguiente());
+        model.addAttribute("desde", desde == null ? null : formato.format(desde));
+        model.addAttribute("hasta", hasta == null ? null : formato.format(hasta));
+        model.addAttribute("operacion", operacion);
         return "movimientos";
     }
     
+    /**
+     * Maneja la solicitud GET para mostrar los totales de la cuenta por mes y tipo de operación.
+     * Los totales se leen ya agrupados, así que la página no depende del número de movimientos.
+     *
+     * @param model el modelo para pasar datos a la vista
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP, para las cabeceras de validación
+     * @return el nombre de la vista 'resumen', redirección al login si no hay sesión, o null si se ha respondido 304
+     */
+    @GetMapping("/movimientos/resumen")
+    public String resumen(Model model, HttpServletRequest peticion, HttpServletResponse respuesta) {
+        Cuenta cuenta = cuentaSesion(peticion);
+        if (cuenta == null) {
+            return "redirect:/login";
+        }
+        if (sinCambios(cuenta, peticion, respuesta)) {
+            return null;
+        }
+        model.addAttribute("cuenta", cuenta);
+        model.addAttribute("totales", mdao.totalesMensuales(cuenta.getIdCuenta()));
+        return "resumen";
+    }
+
+    /**
+     * Descarga el extracto completo de la cuenta en orden cronológico, en CSV o NDJSON y
+     * opcionalmente comprimido con gzip. Las filas se leen con un cursor y se escriben en la
+     * respuesta según llegan, así que la memoria usada no depende del número de movimientos.
+     *
+     * @param formato "csv" (por defecto) o "ndjson"
+     * @param gzip true para descargar el fichero comprimido (.gz)
+     * @param desde fecha inicial (inclusive) opcional
+     * @param hasta fecha final (inclusive) opcional
+     * @param operacion tipo de operación opcional
+     * @param peticion la petición HTTP actual
+     * @return el fichero en streaming, 401 si no hay sesión o 404 si la cuenta de la sesión ya no existe
+     */
+    @GetMapping("/movimientos/exportar")
+    public ResponseEntity<StreamingResponseBody> exportarMovimientos(@RequestParam(defaultValue = "csv") String formato,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date hasta,
+            @RequestParam(required = false) String operacion, HttpServletRequest peticion) {
+        Cuenta cuenta = cuentaSesion(peticion);
+        if (cuenta == null) {
+            // Sin sesión, o con sesión de una cuenta que ya no existe
+            return ResponseEntity.status(almacen.idCuenta(peticion) == null ? HttpStatus.UNAUTHORIZED : HttpStatus.NOT_FOUND)
+                    .build();
+        }
+        int idCuenta = cuenta.getIdCuenta();
+        String extension = "ndjson".equals(formato) ? "ndjson" : "csv";
+        FiltroMovimientos filtro = new FiltroMovimientos(desde,
+                hasta == null ? null : new Date(hasta.getTime() + TimeUnit.DAYS.toMillis(1)),
+                operacion == null || operacion.isBlank() ? null : operacion);
+
+        StreamingResponseBody cuerpo = salida -> {
+            OutputStream destino = gzip ? new GZIPOutputStream(salida, 64 * 1024) : salida;
+            try (EscritorExportacion escritor = EscritorExportacion.de(extension, destino)) {
+                mdao.recorrer(idCuenta, filtro, escritor);
+            }
+            if (destino instanceof GZIPOutputStream comprimido) {
+                comprimido.finish();
+            }
+        };
+        String nombre = "movimientos-" + idCuenta + "." + extension + (gzip ? ".gz" : "");
+        MediaType tipo = gzip ? MediaType.parseMediaType("application/gzip")
+                : "ndjson".equals(extension) ? MediaType.parseMediaType("application/x-ndjson")
+                : MediaType.parseMediaType("text/csv;charset=UTF-8");
+        return ResponseEntity.ok()
+                .contentType(tipo)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(nombre).build().toString())
+                .body(cuerpo);
+    }
+
     /**
      * Maneja la solicitud GET para mostrar el formulario de transferencia.
      * Presenta al usuario una vista donde puede ingresar los detalles de la transferencia,
@@ -208,35 +409,56 @@ public class CuentaController {
     
     /**
      * Maneja la solicitud POST para realizar una transferencia de fondos entre dos cuentas.
-     * Verifica la validez de la cuenta origen, la cuenta destino y la cantidad a transferir
-     * antes de realizar la operación. Registra los movimientos de transferencia para ambas cuentas.
+     * Verifica la validez de la cuenta origen, la cuenta destino, la cantidad a transferir y los
+     * límites de transferencias de la cuenta origen antes de realizar la operación.
+     * Registra los movimientos de transferencia para ambas cuentas.
      *
      * @param cantidad la cantidad de dinero a transferir
      * @param idCuentaDestino el identificador de la cuenta de destino
      * @param ratt atributos para redirección con mensajes flash
-     * @param sesion la sesión HTTP actual
+     * @param peticion la petición HTTP actual
      * @return redirección a la página de transferencia en caso de error, o a la página principal si la operación es exitosa
      */
     @PostMapping("/transferencia")
-    public String procTransferencia(@RequestParam double cantidad, @RequestParam int idCuentaDestino, RedirectAttributes ratt, HttpSession sesion) {
+    public String procTransferencia(@RequestParam double cantidad, @RequestParam int idCuentaDestino, RedirectAttributes ratt, HttpServletRequest peticion) {
     	final String redirectTransferencia =  "redirect:/transferencia"; 
     	
     	Cuenta cuentaDestino = cdao.buscarUno(idCuentaDestino);
-    	Cuenta cuentaOrigen = (Cuenta) sesion.getAttribute("cuenta");
+    	Cuenta cuentaOrigen = cuentaSesion(peticion);
     	
     	// Validar cuenta origen en la sesión, cuenta de destino, y si cuenta de destino es igual a la de origen
     	if(cuentaOrigen == null || cuentaDestino == null || cuentaOrigen.getIdCuenta() == idCuentaDestino) {
+    		registrarFallo("transferencia", "cuenta_incorrecta");
     		ratt.addFlashAttribute("mensaje", "Operación incorrecta: Cuenta incorrecta");
     		return redirectTransferencia; 
     	}
     	// Validar cantidad a transferir
     	if(cantidad <= 0) {
+    		registrarFallo("transferencia", "cantidad_incorrecta");
     		ratt.addFlashAttribute("mensaje", "Operación incorrecta: Cantidad incorrecta");
     		return redirectTransferencia; 
     	}
     	
-    	// Realizar la transferencia y validar saldo suficiente
-    	if(cdao.transferencia(cuentaOrigen, cuentaDestino, cantidad)!= 1) {
+    	// Validar los límites de transferencias de la cuenta origen
+    	LimitesOperaciones.Reserva reserva = limites.reservar(cuentaOrigen, LimitesOperaciones.Operacion.TRANSFERENCIA, cantidad);
+    	if(reserva == null) {
+    		registrarFallo("transferencia", "limite_superado");
+    		ratt.addFlashAttribute("mensaje", "Operación incorrecta: límite de transferencias superado");
+    		return redirectTransferencia; 
+    	}
+    	
+    	// Realizar la transferencia y validar saldo suficiente; si no se hace, aunque sea por una
+    	// excepción, se devuelve la reserva
+    	boolean hecha = false;
+    	try {
+    		hecha = cdao.transferencia(cuentaOrigen, cuentaDestino, cantidad) == 1;
+    	} finally {
+    		if(!hecha) {
+    			reserva.anular();
+    		}
+    	}
+    	if(!hecha) {
+    		registrarFallo("transferencia", "saldo_insuficiente");
     		ratt.addFlashAttribute("mensaje", "Operación incorrecta: Saldo insuficiente");
     		return redirectTransferencia; 
     	}
@@ -249,6 +471,51 @@ public class CuentaController {
 		ratt.addFlashAttribute("mensaje", "Transferencia realizada con éxito");
 		return "redirect:/";
     }
-    
-}
 
+    /**
+     * Lee la cuenta de la sesión actual con su saldo del momento.
+     *
+     * @param peticion la petición HTTP actual
+     * @return la cuenta, o null si no hay sesión o la cuenta ya no existe
+     */
+    private Cuenta cuentaSesion(HttpServletRequest peticion) {
+        Integer idCuenta = almacen.idCuenta(peticion);
+        return idCuenta == null ? null : cdao.buscarUno(idCuenta);
+    }
+
+    /**
+     * Validación condicional de las páginas de la cuenta. El ETag resume la cuenta, su saldo y el id
+     * de su último movimiento, que cambian con cualquier operación y se leen sin tocar el historial;
+     * la ruta y los filtros ya los distingue la URL. Si coincide con el If-None-Match de la petición
+     * se responde 304 sin pintar la vista. Una página con un mensaje flash no se valida, porque el
+     * mensaje solo se muestra una vez.
+     *
+     * @param cuenta la cuenta de la sesión, con su saldo actual
+     * @param peticion la petición HTTP actual
+     * @param respuesta la respuesta HTTP
+     * @return true si ya se ha respondido 304
+     */
+    private boolean sinCambios(Cuenta cuenta, HttpServletRequest peticion, HttpServletResponse respuesta) {
+        // El navegador guarda la página pero la valida siempre; los proxies no la comparten
+        respuesta.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+        Map<String, ?> flash = RequestContextUtils.getInputFlashMap(peticion);
+        if (flash != null && !flash.isEmpty()) {
+            return false;
+        }
+        String version = cuenta.getIdCuenta() + ":" + Double.doubleToLongBits(cuenta.getSaldo()) + ":"
+                + mdao.ultimoIdMovimiento(cuenta.getIdCuenta()) + ":" + VERSION_VISTAS;
+        // Débil: Tomcat no comprime las respuestas con un ETag fuerte
+        return new ServletWebRequest(peticion, respuesta)
+                .checkNotModified("W/\"" + DigestUtils.md5DigestAsHex(version.getBytes(StandardCharsets.UTF_8)) + "\"");
+    }
+
+    /**
+     * Incrementa el contador de operaciones fallidas cajero.operaciones.fallidas.
+     *
+     * @param operacion la operación que ha fallado
+     * @param motivo el motivo del fallo
+     */
+    private void registrarFallo(String operacion, String motivo) {
+        registro.counter("cajero.operaciones.fallidas", "operacion", operacion, "motivo", motivo).increment();
+    }
+}
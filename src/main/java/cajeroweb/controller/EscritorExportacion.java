@@ -0,0 +1,122 @@
+package cajeroweb.controller;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Escribe movimientos en CSV (separado por ';', con cabecera) o NDJSON (un objeto JSON por
+ * línea) a medida que llegan, con un búfer fijo entre el cursor y la respuesta.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+abstract class EscritorExportacion implements Consumer<Movimiento>, AutoCloseable {
+
+    private static final int BUFER = 64 * 1024;
+
+    protected final Writer salida;
+    protected final SimpleDateFormat formatoFecha = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    private EscritorExportacion(OutputStream salida) {
+        this.salida = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), BUFER);
+    }
+
+    /**
+     * @param formato "csv" o "ndjson"
+     * @param salida el flujo donde escribir
+     * @return el escritor del formato pedido
+     */
+    static EscritorExportacion de(String formato, OutputStream salida) throws IOException {
+        return "ndjson".equals(formato) ? new Ndjson(salida) : new Csv(salida);
+    }
+
+    @Override
+    public void accept(Movimiento m) {
+        try {
+            escribir(m);
+        } catch (IOException e) {
+            // El cliente ha cortado la descarga: se interrumpe el recorrido del cursor
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected abstract void escribir(Movimiento m) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        salida.flush();
+    }
+
+    private static final class Csv extends EscritorExportacion {
+
+        Csv(OutputStream salida) throws IOException {
+            super(salida);
+            this.salida.write("id_movimiento;fecha;cantidad;operacion\n");
+        }
+
+        @Override
+        protected void escribir(Movimiento m) throws IOException {
+            salida.write(Integer.toString(m.getIdMovimiento()));
+            salida.write(';');
+            salida.write(formatoFecha.format(m.getFecha()));
+            salida.write(';');
+            salida.write(Double.toString(m.getCantidad()));
+            salida.write(';');
+            salida.write(campo(m.getOperacion()));
+            salida.write('\n');
+        }
+
+        private static String campo(String valor) {
+            if (valor == null) {
+                return "";
+            }
+            if (valor.indexOf(';') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0) {
+                return valor;
+            }
+            return '"' + valor.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    private static final class Ndjson extends EscritorExportacion {
+
+        private final JsonGenerator json;
+
+        Ndjson(OutputStream salida) throws IOException {
+            super(salida);
+            json = new JsonFactory().createGenerator(this.salida);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        @Override
+        protected void escribir(Movimiento m) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("idMovimiento", m.getIdMovimiento());
+            json.writeStringField("fecha", formatoFecha.format(m.getFecha()));
+            json.writeNumberField("cantidad", m.getCantidad());
+            json.writeStringField("operacion", m.getOperacion());
+            json.writeEndObject();
+            json.flush();
+            salida.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.close();
+            super.close();
+        }
+    }
+}
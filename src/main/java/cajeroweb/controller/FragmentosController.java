@@ -0,0 +1,47 @@
+package cajeroweb.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import cajeroweb.modelo.dao.RebalanceadorFragmentos;
+import cajeroweb.modelo.dto.InformeRebalanceo;
+
+/**
+ * API de administración del perfil "fragmentos", autorizada por TokenAdministracionInterceptor
+ * con cajero.fragmentos.token.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@RestController
+@Profile("fragmentos")
+public class FragmentosController {
+
+    @Autowired
+    private RebalanceadorFragmentos rebalanceador;
+
+    /**
+     * Traslada las cuentas al fragmento que les corresponde en el anillo indicado. Al terminar
+     * hay que poner ese anillo en cajero.fragmentos.anillo de todos los nodos.
+     *
+     * @param anillo los fragmentos del anillo nuevo, separados por comas
+     * @return el informe del rebalanceo, 400 si algún fragmento no está configurado
+     */
+    @PostMapping(path = "/fragmentos/rebalanceo", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InformeRebalanceo> rebalanceo(
+            @RequestParam List<String> anillo) {
+        try {
+            return ResponseEntity.ok(rebalanceador.rebalancear(anillo));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cajeroweb.controller;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import cajeroweb.modelo.dto.InformeLiquidacion;
+import cajeroweb.servicio.LiquidadorMensual;
+
+/**
+ * Lanza la liquidación mensual a petición; la autoriza TokenAdministracionInterceptor con
+ * cajero.liquidacion.token.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@RestController
+@Profile("!memoria & !eventos & !fragmentos")
+public class LiquidacionController {
+
+    @Autowired
+    private LiquidadorMensual liquidador;
+
+    /**
+     * Liquida un mes o termina su liquidación; si ya estaba liquidado no hace nada.
+     *
+     * @param periodo el mes (aaaa-mm), por defecto el anterior
+     * @return el informe de la liquidación, 400 si el mes no es válido
+     */
+    @PostMapping(path = "/liquidaciones", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InformeLiquidacion> liquidar(
+            @RequestParam(required = false) String periodo) {
+        YearMonth mes;
+        try {
+            mes = periodo == null ? YearMonth.now().minusMonths(1) : YearMonth.parse(periodo);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(liquidador.liquidar(mes));
+    }
+}
@@ -0,0 +1,82 @@
+package cajeroweb.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import cajeroweb.modelo.dto.InformeLote;
+import cajeroweb.modelo.dto.LineaTransferencia;
+import cajeroweb.modelo.dto.ResultadoLinea;
+import cajeroweb.servicio.TransferenciasLote;
+
+/**
+ * API para cargar lotes de transferencias (ficheros de nóminas) en una sola petición.
+ * No usa la sesión del cajero: la autoriza TokenAdministracionInterceptor con cajero.lote.token.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@RestController
+public class TransferenciaLoteController {
+
+    @Autowired
+    private TransferenciasLote lotes;
+
+    /**
+     * Ejecuta un lote en CSV: una transferencia por línea con origen, destino y cantidad
+     * separados por ';' o ','. Se admite una primera línea de cabecera. Double.parseDouble acepta
+     * NaN e Infinity: esas líneas las rechaza el lote como CANTIDAD_INCORRECTA.
+     *
+     * @param cuerpo el contenido del fichero
+     * @return el informe del lote
+     */
+    @PostMapping(path = "/transferencias/lote", consumes = "text/csv", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InformeLote> loteCsv(@RequestBody String cuerpo) {
+        List<LineaTransferencia> lineas = new ArrayList<>();
+        List<ResultadoLinea> erroneas = new ArrayList<>();
+        String[] filas = cuerpo.split("\r?\n");
+        for (int i = 0; i < filas.length; i++) {
+            String fila = filas[i].trim();
+            if (fila.isEmpty() || (i == 0 && !Character.isDigit(fila.charAt(0)))) {
+                continue; // Líneas vacías y cabecera
+            }
+            String[] campos = fila.split("[;,]");
+            try {
+                if (campos.length != 3) {
+                    throw new NumberFormatException(fila);
+                }
+                lineas.add(new LineaTransferencia(i + 1, Integer.parseInt(campos[0].trim()),
+                        Integer.parseInt(campos[1].trim()), Double.parseDouble(campos[2].trim())));
+            } catch (NumberFormatException e) {
+                erroneas.add(new ResultadoLinea(i + 1, 0, 0, 0, TransferenciasLote.FORMATO_INCORRECTO));
+            }
+        }
+        return ResponseEntity.ok(lotes.ejecutar(lineas, erroneas));
+    }
+
+    /**
+     * Ejecuta un lote en JSON: un array de objetos con origen, destino y cantidad.
+     * El número de línea de cada transferencia es su posición en el array, empezando en 1. Las
+     * cantidades que no caben en un double (1e999) llegan como infinito y se rechazan igual.
+     *
+     * @param cuerpo las transferencias del lote
+     * @return el informe del lote
+     */
+    @PostMapping(path = "/transferencias/lote", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InformeLote> loteJson(@RequestBody List<LineaTransferencia> cuerpo) {
+        List<LineaTransferencia> lineas = new ArrayList<>(cuerpo.size());
+        for (int i = 0; i < cuerpo.size(); i++) {
+            LineaTransferencia l = cuerpo.get(i);
+            lineas.add(new LineaTransferencia(i + 1, l.origen(), l.destino(), l.cantidad()));
+        }
+        return ResponseEntity.ok(lotes.ejecutar(lineas, List.of()));
+    }
+}
@@ -0,0 +1,78 @@
+package cajeroweb.modelo.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente que reparte los ids de cuenta entre fragmentos. Cada fragmento
+ * ocupa {@code nodosVirtuales} puntos del anillo y una cuenta pertenece al primer punto que
+ * sigue al hash de su id. Al añadir un fragmento solo cambian de dueño las cuentas que caen en
+ * sus puntos, más o menos 1/N del total, y todas van al fragmento nuevo.
+ *
+ * Los puntos dependen solo del nombre del fragmento, así que todos los nodos calculan el mismo
+ * anillo a partir de la misma lista de nombres, en cualquier orden.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public final class AnilloConsistente {
+
+    private final TreeMap<Long, String> puntos = new TreeMap<>();
+    private final List<String> miembros;
+
+    /**
+     * @param miembros nombres de los fragmentos del anillo
+     * @param nodosVirtuales puntos de cada fragmento; más puntos reparten las cuentas de forma más uniforme
+     */
+    public AnilloConsistente(List<String> miembros, int nodosVirtuales) {
+        if (miembros.isEmpty()) {
+            throw new IllegalArgumentException("El anillo necesita al menos un fragmento");
+        }
+        this.miembros = List.copyOf(miembros);
+        for (String m : miembros) {
+            for (int i = 0; i < nodosVirtuales; i++) {
+                puntos.put(hash(m + "#" + i), m);
+            }
+        }
+    }
+
+    /**
+     * @param idCuenta el identificador de la cuenta
+     * @return el nombre del fragmento al que pertenece la cuenta
+     */
+    public String fragmento(int idCuenta) {
+        Map.Entry<Long, String> e = puntos.ceilingEntry(mezclar(idCuenta));
+        return e != null ? e.getValue() : puntos.firstEntry().getValue();
+    }
+
+    /**
+     * @return los nombres de los fragmentos del anillo
+     */
+    public List<String> miembros() {
+        return miembros;
+    }
+
+    /**
+     * FNV-1a de 64 bits seguido de la mezcla final de MurmurHash3.
+     */
+    private static long hash(String texto) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : texto.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mezclar(h);
+    }
+
+    private static long mezclar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,225 @@
+package cajeroweb.modelo.dao;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Tarea que pasa al {@link ArchivoMovimientos} los movimientos con más de cajero.archivo.edad-dias
+ * días y los borra de la tabla movimientos. Se activa con cajero.archivo.activo=true y se ejecuta
+ * según cajero.archivo.cron; con varios nodos debe activarse solo en uno.
+ *
+ * Cada ejecución archiva el rango [corte anterior, corte nuevo): escribe uno o varios segmentos
+ * (como mucho {@link #TAMANO_MAXIMO_SEGMENTO} bytes cada uno, cortando entre cuentas) en ficheros
+ * temporales, los renombra, los publica y anuncia el corte nuevo en archivo_corte. Solo borra
+ * de la tabla las filas anteriores al corte cuando todos los nodos vivos de archivo_nodos lo han
+ * cargado (como mucho espera cajero.archivo.espera-nodos-ms; un nodo que no se anota en
+ * cajero.archivo.caducidad-nodo-ms se da por caído) y ha pasado cajero.archivo.espera-borrado-ms
+ * para que terminen las consultas que empezaron con el corte anterior. Si el borrado no llega a
+ * hacerse o se interrumpe, las filas que quedan se ignoran en las consultas (empiezan en el
+ * corte) y se borran en la siguiente ejecución.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@ConditionalOnProperty(name = "cajero.archivo.activo", havingValue = "true")
+public class ArchivadorMovimientos {
+
+    static final long TAMANO_MAXIMO_SEGMENTO = 1L << 30;
+
+    private static final int CUENTAS_POR_BORRADO = 100;
+
+    private static final long ESPERA_ENTRE_CONSULTAS_NODOS = 200;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ArchivoMovimientos archivo;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.archivo.edad-dias:365}")
+    private int edadDias;
+
+    @Value("${cajero.archivo.espera-borrado-ms:5000}")
+    private long esperaBorrado;
+
+    @Value("${cajero.archivo.espera-nodos-ms:60000}")
+    private long esperaNodos;
+
+    @Value("${cajero.archivo.caducidad-nodo-ms:60000}")
+    private long caducidadNodo;
+
+    @Value("${cajero.exportacion.fetch-size:1000}")
+    private int fetchSize;
+
+    /**
+     * Archiva los movimientos anteriores a la edad configurada.
+     *
+     * @return número de movimientos archivados en esta ejecución
+     */
+    @Scheduled(cron = "${cajero.archivo.cron:0 30 3 * * *}")
+    public synchronized long archivar() throws IOException, InterruptedException {
+        return archivar(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(edadDias)));
+    }
+
+    /**
+     * Archiva los movimientos anteriores a la fecha indicada.
+     *
+     * @param corte fecha (exclusive) hasta la que se archiva
+     * @return número de movimientos archivados en esta ejecución
+     */
+    public synchronized long archivar(Date corte) throws IOException, InterruptedException {
+        archivo.cargar(); // Por si el archivador ha pasado a otro nodo
+        Date desde = archivo.corte();
+        if (!corte.after(desde)) {
+            borrar(desde);
+            return 0;
+        }
+        Files.createDirectories(archivo.getDirectorio());
+        List<Path> temporales = new ArrayList<>();
+        List<Integer> cuentas = new ArrayList<>();
+        long[] total = new long[1];
+
+        JdbcTemplate cursor = new JdbcTemplate(jdbc.getDataSource());
+        cursor.setFetchSize(fetchSize);
+        SegmentoMovimientos.Escritor[] escritor = new SegmentoMovimientos.Escritor[1];
+        try {
+            cursor.query("select id_cuenta, id_movimiento, fecha, cantidad, operacion from movimientos"
+                    + " where fecha >= ? and fecha < ? order by id_cuenta, fecha, id_movimiento", rs -> {
+                        int idCuenta = rs.getInt(1);
+                        try {
+                            boolean cuentaNueva = cuentas.isEmpty() || cuentas.get(cuentas.size() - 1) != idCuenta;
+                            if (cuentaNueva) {
+                                cuentas.add(idCuenta);
+                                if (escritor[0] == null || escritor[0].tamano() > TAMANO_MAXIMO_SEGMENTO) {
+                                    if (escritor[0] != null) {
+                                        escritor[0].close();
+                                    }
+                                    Path temporal = archivo.getDirectorio().resolve(
+                                            "movimientos-" + desde.getTime() + "-" + corte.getTime() + "-" + temporales.size()
+                                                    + ArchivoMovimientos.EXTENSION + ".tmp");
+                                    temporales.add(temporal);
+                                    escritor[0] = new SegmentoMovimientos.Escritor(temporal, desde.getTime(), corte.getTime());
+                                }
+                            }
+                            escritor[0].anadir(idCuenta, rs.getInt(2), rs.getTimestamp(3).getTime(), rs.getDouble(4),
+                                    rs.getString(5));
+                            total[0]++;
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }, new Timestamp(desde.getTime()), new Timestamp(corte.getTime()));
+            if (escritor[0] == null) {
+                // Rango sin movimientos: un segmento vacío deja constancia del nuevo corte
+                Path temporal = archivo.getDirectorio().resolve("movimientos-" + desde.getTime() + "-" + corte.getTime()
+                        + "-0" + ArchivoMovimientos.EXTENSION + ".tmp");
+                temporales.add(temporal);
+                escritor[0] = new SegmentoMovimientos.Escritor(temporal, desde.getTime(), corte.getTime());
+            }
+            escritor[0].close();
+        } catch (RuntimeException | IOException e) {
+            if (escritor[0] != null) {
+                try {
+                    escritor[0].close();
+                } catch (IOException ignorada) {
+                    // Se borra a continuación
+                }
+            }
+            for (Path t : temporales) {
+                Files.deleteIfExists(t);
+            }
+            throw e;
+        }
+
+        List<SegmentoMovimientos> nuevos = new ArrayList<>();
+        for (Path t : temporales) {
+            String nombre = t.getFileName().toString();
+            Path definitivo = t.resolveSibling(nombre.substring(0, nombre.length() - ".tmp".length()));
+            Files.move(t, definitivo, StandardCopyOption.ATOMIC_MOVE);
+            nuevos.add(SegmentoMovimientos.abrir(definitivo));
+        }
+        archivo.publicar(nuevos);
+        archivo.anunciar();
+        registro.counter("cajero.archivo.movimientos").increment(total[0]);
+
+        borrar(corte);
+        return total[0];
+    }
+
+    /**
+     * Borra de la tabla las filas anteriores al corte, incluidas las que dejó un borrado
+     * anterior que no llegó a hacerse, si todos los nodos vivos han cargado ese corte.
+     *
+     * @param corte el corte del archivo
+     * @return true si no queda ninguna fila anterior al corte
+     */
+    boolean borrar(Date corte) throws InterruptedException {
+        Timestamp limite = new Timestamp(corte.getTime());
+        if (jdbc.queryForList("select id_cuenta from movimientos where fecha < ? limit 1", Integer.class, limite).isEmpty()) {
+            return true;
+        }
+        if (!esperarNodos(corte)) {
+            return false;
+        }
+        Thread.sleep(esperaBorrado);
+        // Por cuentas para aprovechar el índice (id_cuenta, fecha) y no bloquear la tabla entera
+        int ultima = Integer.MIN_VALUE;
+        while (true) {
+            List<Integer> cuentas = jdbc.queryForList("select distinct id_cuenta from movimientos"
+                    + " where fecha < ? and id_cuenta > ? order by id_cuenta limit " + CUENTAS_POR_BORRADO,
+                    Integer.class, limite, ultima);
+            if (cuentas.isEmpty()) {
+                return true;
+            }
+            List<Object[]> filas = new ArrayList<>();
+            for (Integer idCuenta : cuentas) {
+                filas.add(new Object[] { idCuenta, limite });
+            }
+            jdbc.batchUpdate("delete from movimientos where id_cuenta = ? and fecha < ?", filas);
+            ultima = cuentas.get(cuentas.size() - 1);
+        }
+    }
+
+    /**
+     * Espera a que ningún nodo vivo tenga cargado un corte anterior al indicado, y quita de
+     * archivo_nodos los que llevan más de cajero.archivo.caducidad-nodo-ms sin anotarse.
+     *
+     * @return false si algún nodo no lo ha cargado en cajero.archivo.espera-nodos-ms
+     */
+    private boolean esperarNodos(Date corte) throws InterruptedException {
+        long limite = System.currentTimeMillis() + esperaNodos;
+        while (true) {
+            jdbc.update("delete from archivo_nodos where fecha < ?",
+                    new Timestamp(System.currentTimeMillis() - caducidadNodo));
+            Integer atrasados = jdbc.queryForObject("select count(*) from archivo_nodos where corte < ?",
+                    Integer.class, corte.getTime());
+            if (atrasados == 0) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= limite) {
+                return false;
+            }
+            Thread.sleep(ESPERA_ENTRE_CONSULTAS_NODOS);
+        }
+    }
+}
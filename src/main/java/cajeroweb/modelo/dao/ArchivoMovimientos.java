@@ -0,0 +1,317 @@
+package cajeroweb.modelo.dao;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.entidades.Movimiento;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Archivo local de movimientos antiguos ("fríos"), formado por los {@link SegmentoMovimientos}
+ * del directorio cajero.archivo.directorio. Los segmentos cubren rangos de fechas consecutivos
+ * y todos los movimientos con fecha anterior a {@link #corte()} están en ellos; los de fecha
+ * igual o posterior siguen en la tabla movimientos. Por eso las consultas sobre la tabla
+ * empiezan siempre en el corte, aunque queden filas antiguas pendientes de borrar.
+ *
+ * El directorio tiene que estar disponible en todos los nodos que atienden peticiones. El
+ * archivador anuncia cada corte nuevo en archivo_corte; cada nodo lo comprueba cada
+ * cajero.archivo.sincronizar-ms, vuelve a leer el directorio si se ha movido y anota en
+ * archivo_nodos el corte que tiene cargado. El archivador no borra filas de la tabla hasta que
+ * todos los nodos vivos han cargado el corte nuevo.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+public class ArchivoMovimientos {
+
+    static final String EXTENSION = ".seg";
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Value("${cajero.archivo.directorio:archivo}")
+    private String directorio;
+
+    // Identifica a este nodo en archivo_nodos; uno nuevo en cada arranque
+    private final String nodo = UUID.randomUUID().toString();
+
+    // Ordenados por fecha de inicio; se reemplaza entera al publicar segmentos nuevos
+    private volatile List<SegmentoMovimientos> segmentos = List.of();
+
+    /**
+     * Abre los segmentos del directorio y anota el corte de este nodo. Si la base no está
+     * disponible se anota en la siguiente sincronización.
+     */
+    @PostConstruct
+    public void iniciar() throws IOException {
+        cargar();
+        try {
+            anotar();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deja de contar este nodo para el archivador al cerrar la aplicación.
+     */
+    @PreDestroy
+    public void detener() {
+        try {
+            jdbc.update("delete from archivo_nodos where nodo = ?", nodo);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Abre los segmentos del directorio que aún no estén cargados.
+     */
+    public void cargar() throws IOException {
+        Path dir = getDirectorio();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Set<Path> cargados = new HashSet<>();
+        for (SegmentoMovimientos s : segmentos) {
+            cargados.add(s.getFichero().getFileName());
+        }
+        List<SegmentoMovimientos> abiertos = new ArrayList<>();
+        try (Stream<Path> ficheros = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) ficheros.filter(f -> f.toString().endsWith(EXTENSION))::iterator) {
+                if (!cargados.contains(f.getFileName())) {
+                    abiertos.add(SegmentoMovimientos.abrir(f));
+                }
+            }
+        }
+        if (!abiertos.isEmpty()) {
+            publicar(abiertos);
+        }
+    }
+
+    /**
+     * Vuelve a leer el directorio si el archivador ha anunciado un corte posterior al de este
+     * nodo y anota el corte cargado, que sirve también de señal de vida del nodo.
+     */
+    @Scheduled(fixedDelayString = "${cajero.archivo.sincronizar-ms:5000}")
+    public void sincronizar() {
+        try {
+            List<Long> anunciado = jdbc.queryForList("select corte from archivo_corte", Long.class);
+            if (!anunciado.isEmpty() && anunciado.get(0) > corte().getTime()) {
+                cargar();
+            }
+            anotar();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void anotar() {
+        jdbc.update("insert into archivo_nodos (nodo, corte, fecha) values (?, ?, ?)"
+                + " on duplicate key update corte = values(corte), fecha = values(fecha)",
+                nodo, corte().getTime(), new Timestamp(System.currentTimeMillis()));
+    }
+
+    /**
+     * Anuncia a los demás nodos el corte de este, que ya ha publicado los segmentos, y lo anota
+     * como cargado. El corte anunciado nunca retrocede.
+     */
+    void anunciar() {
+        long corte = corte().getTime();
+        jdbc.update("insert into archivo_corte (id, corte) values (1, ?)"
+                + " on duplicate key update corte = greatest(corte, values(corte))", corte);
+        anotar();
+    }
+
+    Path getDirectorio() {
+        return Paths.get(directorio);
+    }
+
+    /**
+     * Añade segmentos recién escritos. Desde ese momento sus movimientos se leen del archivo.
+     */
+    synchronized void publicar(List<SegmentoMovimientos> nuevos) {
+        List<SegmentoMovimientos> todos = new ArrayList<>(segmentos);
+        todos.addAll(nuevos);
+        todos.sort(Comparator.comparingLong(SegmentoMovimientos::getDesde)
+                .thenComparing(s -> s.getFichero().getFileName().toString()));
+        segmentos = List.copyOf(todos);
+    }
+
+    /**
+     * @return la fecha hasta la que (sin incluirla) los movimientos están archivados;
+     *         la fecha 0 si el archivo está vacío
+     */
+    public Date corte() {
+        long corte = 0;
+        for (SegmentoMovimientos s : segmentos) {
+            corte = Math.max(corte, s.getCorte());
+        }
+        return new Date(corte);
+    }
+
+    /**
+     * @return true si hay movimientos archivados anteriores a la fecha indicada
+     */
+    public boolean alcanza(Date fecha) {
+        return fecha.getTime() < corte().getTime();
+    }
+
+    /**
+     * Recorre en orden (fecha, idMovimiento) los movimientos archivados de una cuenta que cumplen el filtro.
+     */
+    public void recorrer(int idCuenta, FiltroMovimientos filtro, Consumer<Movimiento> consumidor) {
+        long desde = filtro.desde() != null ? filtro.desde().getTime() : Long.MIN_VALUE;
+        long hasta = filtro.hasta() != null ? filtro.hasta().getTime() : Long.MAX_VALUE;
+        for (SegmentoMovimientos s : segmentos) {
+            for (int b = s.primerBloque(idCuenta); b >= 0; b = s.siguienteBloque(b)) {
+                if (s.fechaMax(b) < desde || s.fechaMin(b) >= hasta) {
+                    continue;
+                }
+                for (Movimiento m : s.leer(b)) {
+                    if (cumple(m, filtro, desde, hasta)) {
+                        consumidor.accept(m);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve, del más reciente al más antiguo, los movimientos archivados anteriores al cursor
+     * que cumplen el filtro. Solo se descomprimen los bloques necesarios para llenar el límite.
+     *
+     * @param cursor posición (exclusive) a partir de la que se busca hacia atrás
+     * @param limite número máximo de movimientos
+     */
+    public List<Movimiento> anteriores(int idCuenta, FiltroMovimientos filtro, CursorMovimientos cursor, int limite) {
+        long desde = filtro.desde() != null ? filtro.desde().getTime() : Long.MIN_VALUE;
+        long hasta = filtro.hasta() != null ? filtro.hasta().getTime() : Long.MAX_VALUE;
+        long antesFecha = cursor.fecha().getTime();
+        List<Movimiento> resultado = new ArrayList<>(Math.min(limite, 256));
+        List<SegmentoMovimientos> lista = segmentos;
+        for (int i = lista.size() - 1; i >= 0 && resultado.size() < limite; i--) {
+            SegmentoMovimientos s = lista.get(i);
+            List<Integer> bloques = new ArrayList<>();
+            for (int b = s.primerBloque(idCuenta); b >= 0; b = s.siguienteBloque(b)) {
+                bloques.add(b);
+            }
+            for (int j = bloques.size() - 1; j >= 0 && resultado.size() < limite; j--) {
+                int b = bloques.get(j);
+                if (s.fechaMin(b) > antesFecha || s.fechaMin(b) >= hasta) {
+                    continue;
+                }
+                if (s.fechaMax(b) < desde) {
+                    return resultado;
+                }
+                List<Movimiento> movimientos = s.leer(b);
+                for (int k = movimientos.size() - 1; k >= 0 && resultado.size() < limite; k--) {
+                    Movimiento m = movimientos.get(k);
+                    long fecha = m.getFecha().getTime();
+                    boolean antes = fecha < antesFecha
+                            || (fecha == antesFecha && m.getIdMovimiento() < cursor.idMovimiento());
+                    if (antes && cumple(m, filtro, desde, hasta)) {
+                        resultado.add(m);
+                    }
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Suma los movimientos archivados de la cuenta con clave (fecha, id) en el intervalo (desde, hasta].
+     */
+    public double suma(int idCuenta, long desdeFecha, int desdeId, long hastaFecha, int hastaId) {
+        double suma = 0;
+        for (SegmentoMovimientos s : segmentos) {
+            for (int b = s.primerBloque(idCuenta); b >= 0; b = s.siguienteBloque(b)) {
+                if (s.fechaMax(b) < desdeFecha || s.fechaMin(b) > hastaFecha) {
+                    continue;
+                }
+                if (s.fechaMin(b) > desdeFecha && s.fechaMax(b) < hastaFecha) {
+                    suma += s.suma(b); // Bloque entero dentro del intervalo: basta el índice
+                    continue;
+                }
+                for (Movimiento m : s.leer(b)) {
+                    long f = m.getFecha().getTime();
+                    boolean trasDesde = f > desdeFecha || (f == desdeFecha && m.getIdMovimiento() > desdeId);
+                    boolean hastaHasta = f < hastaFecha || (f == hastaFecha && m.getIdMovimiento() <= hastaId);
+                    if (trasDesde && hastaHasta) {
+                        suma += m.getCantidad();
+                    }
+                }
+            }
+        }
+        return suma;
+    }
+
+    /**
+     * @return número de movimientos archivados de la cuenta, leído solo del índice
+     */
+    public long numMovimientos(int idCuenta) {
+        long num = 0;
+        for (SegmentoMovimientos s : segmentos) {
+            for (int b = s.primerBloque(idCuenta); b >= 0; b = s.siguienteBloque(b)) {
+                num += s.numMovimientos(b);
+            }
+        }
+        return num;
+    }
+
+    /**
+     * @return suma de los movimientos archivados de la cuenta, leída solo del índice
+     */
+    public double suma(int idCuenta) {
+        double suma = 0;
+        for (SegmentoMovimientos s : segmentos) {
+            for (int b = s.primerBloque(idCuenta); b >= 0; b = s.siguienteBloque(b)) {
+                suma += s.suma(b);
+            }
+        }
+        return suma;
+    }
+
+    private static boolean cumple(Movimiento m, FiltroMovimientos filtro, long desde, long hasta) {
+        long fecha = m.getFecha().getTime();
+        return fecha >= desde && fecha < hasta
+                && (filtro.operacion() == null || filtro.operacion().equals(m.getOperacion()));
+    }
+
+    /**
+     * Convierte una fecha leída con JdbcTemplate (Timestamp o LocalDateTime según el driver) a milisegundos.
+     */
+    static long milisegundos(Object fecha) {
+        if (fecha instanceof Date d) {
+            return d.getTime();
+        }
+        if (fecha instanceof LocalDateTime l) {
+            return Timestamp.valueOf(l).getTime();
+        }
+        throw new IllegalArgumentException("Fecha no reconocida: " + fecha);
+    }
+}
@@ -0,0 +1,333 @@
+package cajeroweb.modelo.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.modelo.entidades.Movimiento;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Mantiene los checkpoints de saldo de cada cuenta y calcula con ellos el saldo tras cada
+ * movimiento de una página del historial.
+ *
+ * Por cada cuenta se guarda en movimientos_resumen el número de movimientos, su suma y el saldo
+ * base (el saldo de la cuenta antes de su primer movimiento registrado), y cada {@code intervalo}
+ * movimientos se inserta en saldos_checkpoint el saldo tras el movimiento más reciente en orden
+ * (fecha, id_movimiento), que es el orden en el que {@link #saldosTras} recorre el historial. Un
+ * movimiento que llega con fecha anterior a checkpoints ya guardados suma su cantidad al saldo
+ * de todos ellos. Así el saldo de cualquier fila se obtiene con un checkpoint y las filas entre
+ * ambos, sin recorrer el historial completo.
+ *
+ * El saldo base se deduce del saldo actual, así que solo es correcto si en ese momento no hay
+ * movimientos a medio escribir. Por eso el resumen no se crea al aplicar un lote, sino que lo
+ * siembra {@link #sembrar()} al arrancar (cajero.checkpoints.sembrar-al-arrancar), antes de que
+ * el nodo atienda operaciones, con las cuentas bloqueadas. Los lotes de las cuentas sin resumen
+ * no se aplican: sus movimientos ya están en la tabla y los cuenta la siembra siguiente.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("!eventos & !fragmentos")
+public class CheckpointsSaldo implements MantenimientoLote {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ArchivoMovimientos archivo;
+
+    @Autowired
+    private CuentasCalientes calientes; // El saldo de una cuenta caliente incluye sus ranuras
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Value("${cajero.checkpoints.intervalo:100}")
+    private int intervalo;
+
+    @Value("${cajero.checkpoints.sembrar-al-arrancar:true}")
+    private boolean sembrarAlArrancar;
+
+    @Value("${cajero.checkpoints.tamano-tramo:1000}")
+    private int tamanoTramo;
+
+    /**
+     * Siembra el resumen al arrancar. Si la base no está disponible se arranca igualmente y las
+     * cuentas sin resumen se siembran en el siguiente arranque.
+     */
+    @PostConstruct
+    public void iniciar() {
+        if (sembrarAlArrancar) {
+            try {
+                sembrar();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Crea el resumen de las cuentas que no lo tienen. Cada tramo de cuentas se siembra en una
+     * transacción que bloquea sus filas (y consolida las ranuras de las calientes), así que dos
+     * nodos que arrancan a la vez no crean dos veces el mismo resumen. Debe ejecutarse sin
+     * operaciones en curso sobre esas cuentas: al arrancar, o tras dar de alta cuentas y antes
+     * de operar con ellas.
+     *
+     * @return el número de cuentas sembradas
+     */
+    public int sembrar() {
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        int sembradas = 0;
+        int ultima = Integer.MIN_VALUE;
+        while (true) {
+            List<Integer> ids = jdbc.queryForList("select c.id_cuenta from cuentas c where c.id_cuenta > ? and not exists"
+                    + " (select 1 from movimientos_resumen r where r.id_cuenta = c.id_cuenta) order by c.id_cuenta limit ?",
+                    Integer.class, ultima, tamanoTramo);
+            if (ids.isEmpty()) {
+                return sembradas;
+            }
+            sembradas += tx.execute(estado -> sembrarTramo(ids));
+            ultima = ids.get(ids.size() - 1);
+        }
+    }
+
+    private int sembrarTramo(List<Integer> ids) {
+        String lista = String.join(",", Collections.nCopies(ids.size(), "?"));
+        Map<Integer, Double> saldos = new TreeMap<>();
+        jdbc.query("select id_cuenta, saldo from cuentas where id_cuenta in (" + lista + ") order by id_cuenta for update",
+                rs -> {
+                    saldos.put(rs.getInt(1), rs.getDouble(2));
+                }, ids.toArray());
+        // Con las filas bloqueadas: otro nodo puede haberlas sembrado mientras se esperaba
+        saldos.keySet().removeAll(jdbc.queryForList("select id_cuenta from movimientos_resumen where id_cuenta in ("
+                + lista + ")", Integer.class, ids.toArray()));
+        for (Map.Entry<Integer, Double> e : saldos.entrySet()) {
+            if (calientes.esCaliente(e.getKey())) {
+                e.setValue(e.getValue() + calientes.consolidar(e.getKey()));
+            }
+        }
+
+        List<Object[]> filas = new ArrayList<>(saldos.size());
+        while (filas.isEmpty() && !saldos.isEmpty()) {
+            Date corte = archivo.corte();
+            Map<Integer, Object[]> tabla = new HashMap<>();
+            jdbc.query("select id_cuenta, count(*), sum(cantidad), max(id_movimiento) from movimientos where id_cuenta in ("
+                    + lista + ") and fecha >= ? group by id_cuenta", rs -> {
+                        tabla.put(rs.getInt(1), new Object[] { rs.getLong(2), rs.getDouble(3), rs.getInt(4) });
+                    }, parametros(ids, new Timestamp(corte.getTime())));
+            if (!archivo.corte().equals(corte)) {
+                continue; // El archivador ha publicado segmentos durante la lectura
+            }
+            saldos.forEach((id, saldo) -> {
+                Object[] t = tabla.getOrDefault(id, new Object[] { 0L, 0.0, 0 });
+                long num = (Long) t[0] + archivo.numMovimientos(id);
+                double suma = (Double) t[1] + archivo.suma(id);
+                filas.add(new Object[] { id, num, suma, saldo - suma, t[2] });
+            });
+        }
+        jdbc.batchUpdate("insert into movimientos_resumen (id_cuenta, num_movimientos, suma, saldo_base, id_ultimo_movimiento)"
+                + " values (?, ?, ?, ?, ?)", filas);
+        return filas.size();
+    }
+
+    private static Object[] parametros(List<Integer> ids, Object ultimo) {
+        List<Object> parametros = new ArrayList<>(ids);
+        parametros.add(ultimo);
+        return parametros.toArray();
+    }
+
+    /**
+     * Actualiza el resumen de cada cuenta del lote e inserta los checkpoints que tocan.
+     * Las cuentas se procesan en orden de id para bloquear siempre en el mismo orden; las que
+     * aún no tienen resumen se dejan para {@link #sembrar()}.
+     *
+     * @param lote los movimientos recién insertados, en orden de fecha
+     */
+    @Override
+    public void aplicar(List<Movimiento> lote) {
+        Map<Integer, List<Movimiento>> porCuenta = new TreeMap<>();
+        for (Movimiento m : lote) {
+            porCuenta.computeIfAbsent(m.getCuenta().getIdCuenta(), k -> new ArrayList<>()).add(m);
+        }
+        porCuenta.forEach(this::aplicarCuenta);
+    }
+
+    private void aplicarCuenta(int idCuenta, List<Movimiento> movimientos) {
+        List<Map<String, Object>> filas = jdbc.queryForList(
+                "select num_movimientos, suma, saldo_base from movimientos_resumen where id_cuenta = ? for update",
+                idCuenta);
+        if (filas.isEmpty()) {
+            return;
+        }
+        long num = ((Number) filas.get(0).get("num_movimientos")).longValue();
+        double suma = ((Number) filas.get(0).get("suma")).doubleValue();
+        double base = ((Number) filas.get(0).get("saldo_base")).doubleValue();
+
+        long[] ultimoCheckpoint = primeraClave(jdbc.queryForList("select fecha, id_movimiento from saldos_checkpoint"
+                + " where id_cuenta = ? order by fecha desc, id_movimiento desc limit 1", idCuenta));
+        // El movimiento más reciente ya contado solo hace falta si el lote deja algún checkpoint
+        long[] masReciente = null;
+        if (num / intervalo < (num + movimientos.size()) / intervalo) {
+            List<Object> parametros = new ArrayList<>();
+            parametros.add(idCuenta);
+            movimientos.forEach(m -> parametros.add(m.getIdMovimiento()));
+            masReciente = primeraClave(jdbc.queryForList("select fecha, id_movimiento from movimientos where id_cuenta = ?"
+                    + " and id_movimiento not in (" + String.join(",", Collections.nCopies(movimientos.size(), "?")) + ")"
+                    + " order by fecha desc, id_movimiento desc limit 1", parametros.toArray()));
+        }
+
+        Movimiento ultimo = null;
+        for (Movimiento m : movimientos) {
+            long[] clave = { m.getFecha().getTime(), m.getIdMovimiento() };
+            if (ultimoCheckpoint != null && comparar(clave, ultimoCheckpoint) < 0) {
+                // Con fecha anterior a checkpoints ya guardados: su saldo pasa a incluirlo
+                Timestamp fecha = new Timestamp(clave[0]);
+                jdbc.update("update saldos_checkpoint set saldo = saldo + ? where id_cuenta = ?"
+                        + " and (fecha > ? or (fecha = ? and id_movimiento > ?))",
+                        m.getCantidad(), idCuenta, fecha, fecha, m.getIdMovimiento());
+            }
+            if (masReciente == null || comparar(clave, masReciente) > 0) {
+                masReciente = clave;
+            }
+            num++;
+            suma += m.getCantidad();
+            // El saldo con todos los contados es el saldo tras el más reciente de ellos
+            if (num % intervalo == 0 && (ultimoCheckpoint == null || comparar(masReciente, ultimoCheckpoint) > 0)) {
+                jdbc.update("insert into saldos_checkpoint (id_cuenta, num_movimiento, id_movimiento, fecha, saldo)"
+                        + " values (?, ?, ?, ?, ?)", idCuenta, num, (int) masReciente[1],
+                        new Timestamp(masReciente[0]), base + suma);
+                ultimoCheckpoint = masReciente;
+            }
+            ultimo = m;
+        }
+        jdbc.update("update movimientos_resumen set num_movimientos = ?, suma = ?, id_ultimo_movimiento = ?"
+                + " where id_cuenta = ?", num, suma, ultimo.getIdMovimiento(), idCuenta);
+    }
+
+    /**
+     * @return la clave (fecha en milisegundos, id) de la primera fila, o null si no hay ninguna
+     */
+    private static long[] primeraClave(List<Map<String, Object>> filas) {
+        if (filas.isEmpty()) {
+            return null;
+        }
+        return new long[] { ArchivoMovimientos.milisegundos(filas.get(0).get("fecha")),
+                ((Number) filas.get(0).get("id_movimiento")).longValue() };
+    }
+
+    /**
+     * Compara dos claves (fecha, id) en el orden del historial.
+     */
+    private static int comparar(long[] a, long[] b) {
+        return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]);
+    }
+
+    /**
+     * @return el id del último movimiento de la cuenta según su resumen o, si aún no tiene
+     *         resumen, el mayor de la tabla (0 si no tiene ninguno)
+     */
+    public int ultimoIdMovimiento(int idCuenta) {
+        List<Integer> ids = jdbc.queryForList("select id_ultimo_movimiento from movimientos_resumen where id_cuenta = ?",
+                Integer.class, idCuenta);
+        if (!ids.isEmpty()) {
+            return ids.get(0);
+        }
+        return jdbc.queryForObject("select coalesce(max(id_movimiento), 0) from movimientos where id_cuenta = ?",
+                Integer.class, idCuenta);
+    }
+
+    /**
+     * Calcula el saldo de la cuenta tras cada movimiento de una página del historial.
+     * Se ancla el movimiento más reciente de la página en el checkpoint más cercano (anterior o,
+     * si no lo hay, posterior) y se suman solo las filas entre ambos; el resto de la página se
+     * obtiene restando hacia atrás, por lo que sus filas deben ser consecutivas en el historial.
+     * Si la cuenta no tiene checkpoints se ancla en el saldo actual.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param pagina los movimientos de la página, del más reciente al más antiguo
+     * @return el saldo tras cada movimiento, en el mismo orden que la página
+     */
+    public double[] saldosTras(int idCuenta, List<Movimiento> pagina) {
+        double[] saldos = new double[pagina.size()];
+        if (pagina.isEmpty()) {
+            return saldos;
+        }
+        Movimiento primero = pagina.get(0);
+        Timestamp fecha = new Timestamp(primero.getFecha().getTime());
+        int id = primero.getIdMovimiento();
+
+        double saldo;
+        List<Map<String, Object>> anterior = jdbc.queryForList(
+                "select fecha, id_movimiento, saldo from saldos_checkpoint where id_cuenta = ?"
+                        + " and (fecha < ? or (fecha = ? and id_movimiento <= ?))"
+                        + " order by fecha desc, id_movimiento desc limit 1", idCuenta, fecha, fecha, id);
+        if (!anterior.isEmpty()) {
+            Map<String, Object> c = anterior.get(0);
+            saldo = ((Number) c.get("saldo")).doubleValue() + sumaEntre(idCuenta, c.get("fecha"),
+                    ((Number) c.get("id_movimiento")).intValue(), fecha, id);
+        } else {
+            List<Map<String, Object>> posterior = jdbc.queryForList(
+                    "select fecha, id_movimiento, saldo from saldos_checkpoint where id_cuenta = ?"
+                            + " and (fecha > ? or (fecha = ? and id_movimiento > ?))"
+                            + " order by fecha, id_movimiento limit 1", idCuenta, fecha, fecha, id);
+            if (!posterior.isEmpty()) {
+                Map<String, Object> c = posterior.get(0);
+                saldo = ((Number) c.get("saldo")).doubleValue() - sumaEntre(idCuenta, fecha, id, c.get("fecha"),
+                        ((Number) c.get("id_movimiento")).intValue());
+            } else {
+                saldo = saldoActual(idCuenta) - sumaEntre(idCuenta, fecha, id, new Timestamp(253402300799000L), 0);
+            }
+        }
+        for (int i = 0; i < pagina.size(); i++) {
+            saldos[i] = saldo;
+            saldo -= pagina.get(i).getCantidad();
+        }
+        return saldos;
+    }
+
+    /**
+     * Suma los movimientos con clave (fecha, id) en el intervalo (desde, hasta]: de la tabla los
+     * posteriores al corte del archivo y del archivo los anteriores.
+     */
+    private double sumaEntre(int idCuenta, Object desdeFecha, int desdeId, Object hastaFecha, int hastaId) {
+        Timestamp corte = new Timestamp(archivo.corte().getTime());
+        double suma = jdbc.queryForObject("select coalesce(sum(cantidad), 0) from movimientos where id_cuenta = ?"
+                + " and fecha >= ? and (fecha > ? or (fecha = ? and id_movimiento > ?))"
+                + " and (fecha < ? or (fecha = ? and id_movimiento <= ?))", Double.class,
+                idCuenta, corte, desdeFecha, desdeFecha, desdeId, hastaFecha, hastaFecha, hastaId);
+        long desde = ArchivoMovimientos.milisegundos(desdeFecha);
+        if (desde < corte.getTime()) {
+            suma += archivo.suma(idCuenta, desde, desdeId, ArchivoMovimientos.milisegundos(hastaFecha), hastaId);
+        }
+        return suma;
+    }
+
+    /**
+     * Saldo tras el último movimiento: el del resumen si existe, o el de la tabla cuentas.
+     */
+    private double saldoActual(int idCuenta) {
+        List<Double> resumen = jdbc.queryForList(
+                "select saldo_base + suma from movimientos_resumen where id_cuenta = ?", Double.class, idCuenta);
+        if (!resumen.isEmpty()) {
+            return resumen.get(0);
+        }
+        Double saldo = calientes.saldoTotal(idCuenta);
+        return saldo != null ? saldo : 0;
+    }
+}
@@ -0,0 +1,384 @@
+package cajeroweb.modelo.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.modelo.dto.DiscrepanciaSaldo;
+import cajeroweb.modelo.dto.InformeConciliacion;
+import cajeroweb.modelo.entidades.Movimiento;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Conciliación de saldos con movimientos. El saldo de una cuenta y su historial se escriben en
+ * transacciones distintas (primero CuentaDao y después el escritor de lotes), así que una caída
+ * entre las dos deja un saldo que no cuadra con sus movimientos. Para cada cuenta con fila en
+ * movimientos_resumen se comprueba que el saldo (fila más ranuras) es el saldo base más la suma
+ * de sus movimientos, los de la tabla desde el corte del archivo y los del índice del archivo, y
+ * que la suma del resumen es esa misma suma.
+ *
+ * Las cuentas se revisan en tramos de cajero.conciliacion.tamano-tramo en paralelo en
+ * cajero.conciliacion.hilos hilos. Cada tramo lee en una transacción de solo lectura las cuentas
+ * con su resumen y las sumas de movimientos agrupadas por cuenta, las dos en orden de id, y las
+ * cruza sin guardar más que el tramo. Una conciliación completa recorre todas las cuentas por
+ * paginación de clave; una incremental solo las de conciliaciones_pendientes. Las discrepancias
+ * se vuelven a comprobar tras cajero.conciliacion.espera-ms para descartar las operaciones que
+ * estaban a medio escribir, y se guardan en conciliaciones_discrepancias.
+ *
+ * Las cuentas pendientes las anota el propio conciliador como {@link MantenimientoLote}, en la
+ * transacción que inserta sus movimientos. No basta con partir del último id de movimiento
+ * revisado: los ids se reservan en bloques por nodo, así que un movimiento confirmado después de
+ * la conciliación puede tener un id menor que los ya revisados. Cada anotación incrementa la
+ * marca de la fila, y un tramo solo borra las filas cuya marca no ha cambiado desde que las leyó,
+ * de forma que una cuenta con movimientos confirmados durante la revisión sigue pendiente. Las
+ * cuentas con discrepancias confirmadas se vuelven a anotar para revisarlas en la siguiente.
+ *
+ * Como el liquidador, lee directamente las tablas y solo existe con la implementación JPA de los
+ * DAO; con varios nodos los cron deben activarse solo en uno.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("!memoria & !eventos & !fragmentos")
+public class ConciliadorSaldos implements MantenimientoLote {
+
+    public static final String SALDO = "saldo";
+    public static final String RESUMEN = "resumen";
+
+    /**
+     * Cuentas de un tramo: todas las del rango de ids, o solo las de la lista si no es null.
+     */
+    private record Tramo(int desde, int hasta, List<Integer> ids) {
+    }
+
+    private record Resultado(long cuentas, long sinResumen, List<DiscrepanciaSaldo> discrepancias) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Autowired
+    private ArchivoMovimientos archivo;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.conciliacion.tamano-tramo:1000}")
+    private int tamanoTramo;
+
+    @Value("${cajero.conciliacion.hilos:4}")
+    private int hilos;
+
+    @Value("${cajero.conciliacion.espera-ms:2000}")
+    private long espera;
+
+    @Value("${cajero.conciliacion.tolerancia:0.005}")
+    private double tolerancia;
+
+    @Value("${cajero.conciliacion.max-detalle:100}")
+    private int maxDetalle;
+
+    private TransactionTemplate lectura;
+    private TransactionTemplate tx;
+    private ExecutorService pool;
+
+    @PostConstruct
+    public void iniciar() {
+        lectura = new TransactionTemplate(txManager);
+        lectura.setReadOnly(true);
+        tx = new TransactionTemplate(txManager);
+        pool = Executors.newFixedThreadPool(hilos);
+    }
+
+    @PreDestroy
+    public void detener() {
+        pool.shutdown();
+    }
+
+    /**
+     * Anota como pendientes las cuentas del lote, en orden de id para que dos lotes no se bloqueen.
+     *
+     * @param lote los movimientos recién insertados
+     */
+    @Override
+    public void aplicar(List<Movimiento> lote) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        for (Movimiento m : lote) {
+            ids.add(m.getCuenta().getIdCuenta());
+        }
+        anotar(ids);
+    }
+
+    private void anotar(Collection<Integer> ids) {
+        List<Object[]> filas = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            filas.add(new Object[] { id });
+        }
+        jdbc.batchUpdate("insert into conciliaciones_pendientes (id_cuenta, marca) values (?, 1)"
+                + " on duplicate key update marca = marca + 1", filas);
+    }
+
+    /**
+     * Conciliación incremental programada.
+     */
+    @Scheduled(cron = "${cajero.conciliacion.cron:-}")
+    public void conciliarIncremental() {
+        conciliar(false);
+    }
+
+    /**
+     * Conciliación completa programada, para las cuentas cuyo saldo cambió sin movimiento.
+     */
+    @Scheduled(cron = "${cajero.conciliacion.cron-completa:-}")
+    public void conciliarCompleta() {
+        conciliar(true);
+    }
+
+    /**
+     * Concilia las cuentas y guarda la ejecución y sus discrepancias. La primera conciliación es
+     * siempre completa.
+     *
+     * @param completa true para revisar todas las cuentas, false para revisar solo las pendientes
+     * @return el informe de la conciliación
+     */
+    public synchronized InformeConciliacion conciliar(boolean completa) {
+        long inicio = System.nanoTime();
+        List<Integer> anterior = jdbc.queryForList(
+                "select id_conciliacion from conciliaciones order by id_conciliacion desc limit 1", Integer.class);
+        completa = completa || anterior.isEmpty();
+
+        Semaphore plazas = new Semaphore(hilos * 2);
+        List<Future<Resultado>> pendientes = new ArrayList<>();
+        try {
+            String consulta = completa ? "select id_cuenta from cuentas where id_cuenta > ? order by id_cuenta limit ?"
+                    : "select id_cuenta from conciliaciones_pendientes where id_cuenta > ? order by id_cuenta limit ?";
+            int ultima = Integer.MIN_VALUE;
+            while (true) {
+                List<Integer> ids = jdbc.queryForList(consulta, Integer.class, ultima, tamanoTramo);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                enviar(new Tramo(ids.get(0), ids.get(ids.size() - 1), completa ? null : ids), plazas, pendientes);
+                ultima = ids.get(ids.size() - 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long cuentas = 0;
+        long sinResumen = 0;
+        int fallidos = 0;
+        TreeSet<Integer> sospechosas = new TreeSet<>();
+        for (Future<Resultado> f : pendientes) {
+            try {
+                Resultado r = f.get();
+                cuentas += r.cuentas();
+                sinResumen += r.sinResumen();
+                r.discrepancias().forEach(d -> sospechosas.add(d.idCuenta()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fallidos++;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                fallidos++;
+            }
+        }
+
+        List<DiscrepanciaSaldo> discrepancias = confirmar(sospechosas);
+        for (DiscrepanciaSaldo d : discrepancias) {
+            registro.counter("cajero.conciliacion.discrepancias", "tipo", d.tipo()).increment();
+        }
+        int id = guardar(completa, cuentas, discrepancias);
+        long quedan = jdbc.queryForObject("select count(*) from conciliaciones_pendientes", Long.class);
+        long milisegundos = (System.nanoTime() - inicio) / 1_000_000;
+        return new InformeConciliacion(id, completa, cuentas, sinResumen, pendientes.size() - fallidos, fallidos,
+                discrepancias.size(), quedan, milisegundos, cuentas * 1000.0 / Math.max(1, milisegundos),
+                discrepancias.subList(0, Math.min(maxDetalle, discrepancias.size())));
+    }
+
+    private void enviar(Tramo tramo, Semaphore plazas, List<Future<Resultado>> pendientes) throws InterruptedException {
+        plazas.acquire();
+        pendientes.add(pool.submit(() -> {
+            try {
+                return revisar(tramo);
+            } finally {
+                plazas.release();
+            }
+        }));
+    }
+
+    private List<List<Integer>> trocear(TreeSet<Integer> ids) {
+        List<List<Integer>> trozos = new ArrayList<>();
+        List<Integer> actual = new ArrayList<>(tamanoTramo);
+        for (int id : ids) {
+            actual.add(id);
+            if (actual.size() == tamanoTramo) {
+                trozos.add(actual);
+                actual = new ArrayList<>(tamanoTramo);
+            }
+        }
+        if (!actual.isEmpty()) {
+            trozos.add(actual);
+        }
+        return trozos;
+    }
+
+    /**
+     * Vuelve a comprobar las cuentas sospechosas tras la espera; las que siguen sin cuadrar son
+     * las discrepancias de la conciliación.
+     */
+    private List<DiscrepanciaSaldo> confirmar(TreeSet<Integer> sospechosas) {
+        if (sospechosas.isEmpty()) {
+            return List.of();
+        }
+        if (espera > 0) {
+            try {
+                Thread.sleep(espera);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<DiscrepanciaSaldo> confirmadas = new ArrayList<>();
+        for (List<Integer> ids : trocear(sospechosas)) {
+            confirmadas.addAll(comprobar(new Tramo(ids.get(0), ids.get(ids.size() - 1), ids)).discrepancias());
+        }
+        return confirmadas;
+    }
+
+    /**
+     * Comprueba el tramo y borra sus cuentas de conciliaciones_pendientes. Las marcas se leen
+     * antes que los movimientos: si se confirma algún movimiento de la cuenta después, su marca
+     * cambia y la fila no se borra. Si la comprobación falla las cuentas siguen pendientes.
+     */
+    private Resultado revisar(Tramo tramo) {
+        List<Object> parametros = new ArrayList<>();
+        List<Object[]> marcas = new ArrayList<>();
+        jdbc.query("select id_cuenta, marca from conciliaciones_pendientes where id_cuenta" + filtro(tramo, parametros),
+                rs -> {
+                    marcas.add(new Object[] { rs.getInt(1), rs.getLong(2) });
+                }, parametros.toArray());
+        Resultado resultado = comprobar(tramo);
+        tx.executeWithoutResult(estado -> jdbc.batchUpdate(
+                "delete from conciliaciones_pendientes where id_cuenta = ? and marca = ?", marcas));
+        return resultado;
+    }
+
+    private static String filtro(Tramo tramo, List<Object> parametros) {
+        if (tramo.ids() == null) {
+            parametros.add(tramo.desde());
+            parametros.add(tramo.hasta());
+            return " between ? and ?";
+        }
+        parametros.addAll(tramo.ids());
+        return " in (" + String.join(", ", Collections.nCopies(tramo.ids().size(), "?")) + ")";
+    }
+
+    /**
+     * Cruza las cuentas del tramo con las sumas de sus movimientos. Si el archivador publica
+     * segmentos durante la lectura el corte cambia y el tramo se vuelve a leer, para no contar
+     * dos veces los movimientos recién archivados.
+     */
+    private Resultado comprobar(Tramo tramo) {
+        List<Object> parametros = new ArrayList<>();
+        String filtro = filtro(tramo, parametros);
+        return lectura.execute(estado -> {
+            while (true) {
+                Date corte = archivo.corte();
+                List<Object> conCorte = new ArrayList<>(parametros);
+                conCorte.add(new Timestamp(corte.getTime()));
+                List<Integer> idsMovimientos = new ArrayList<>();
+                List<Double> sumas = new ArrayList<>();
+                jdbc.query("select id_cuenta, sum(cantidad) from movimientos where id_cuenta" + filtro
+                        + " and fecha >= ? group by id_cuenta order by id_cuenta", rs -> {
+                            idsMovimientos.add(rs.getInt(1));
+                            sumas.add(rs.getDouble(2));
+                        }, conCorte.toArray());
+
+                long[] cuentas = new long[2];
+                int[] indice = new int[1];
+                List<DiscrepanciaSaldo> discrepancias = new ArrayList<>();
+                jdbc.query("select c.id_cuenta, c.saldo + coalesce((select sum(r.saldo) from cuentas_ranuras r"
+                        + " where r.id_cuenta = c.id_cuenta), 0), m.saldo_base, m.suma from cuentas c"
+                        + " left join movimientos_resumen m on m.id_cuenta = c.id_cuenta where c.id_cuenta" + filtro
+                        + " order by c.id_cuenta", rs -> {
+                            int idCuenta = rs.getInt(1);
+                            while (indice[0] < idsMovimientos.size() && idsMovimientos.get(indice[0]) < idCuenta) {
+                                indice[0]++;
+                            }
+                            double suma = archivo.suma(idCuenta);
+                            boolean conMovimientos = archivo.numMovimientos(idCuenta) > 0;
+                            if (indice[0] < idsMovimientos.size() && idsMovimientos.get(indice[0]) == idCuenta) {
+                                suma += sumas.get(indice[0]);
+                                conMovimientos = true;
+                            }
+                            double base = rs.getDouble(3);
+                            if (rs.wasNull()) {
+                                // Sin resumen no hay saldo base: solo cuadra si no tiene movimientos
+                                if (conMovimientos) {
+                                    cuentas[1]++;
+                                } else {
+                                    cuentas[0]++;
+                                }
+                                return;
+                            }
+                            cuentas[0]++;
+                            double saldo = rs.getDouble(2);
+                            double sumaResumen = rs.getDouble(4);
+                            if (Math.abs(sumaResumen - suma) > tolerancia) {
+                                discrepancias.add(new DiscrepanciaSaldo(idCuenta, RESUMEN, sumaResumen, suma));
+                            }
+                            if (Math.abs(saldo - (base + suma)) > tolerancia) {
+                                discrepancias.add(new DiscrepanciaSaldo(idCuenta, SALDO, saldo, base + suma));
+                            }
+                        }, parametros.toArray());
+                if (archivo.corte().equals(corte)) {
+                    return new Resultado(cuentas[0], cuentas[1], discrepancias);
+                }
+            }
+        });
+    }
+
+    private int guardar(boolean completa, long cuentas, List<DiscrepanciaSaldo> discrepancias) {
+        return tx.execute(estado -> {
+            int id = jdbc.queryForObject("select coalesce(max(id_conciliacion), 0) + 1 from conciliaciones", Integer.class);
+            jdbc.update("insert into conciliaciones (id_conciliacion, fecha, completa, cuentas, discrepancias)"
+                    + " values (?, ?, ?, ?, ?)", id, new Timestamp(System.currentTimeMillis()), completa, cuentas,
+                    discrepancias.size());
+            List<Object[]> filas = new ArrayList<>(discrepancias.size());
+            TreeSet<Integer> ids = new TreeSet<>();
+            for (DiscrepanciaSaldo d : discrepancias) {
+                filas.add(new Object[] { id, d.idCuenta(), d.tipo(), d.valor(), d.esperado() });
+                ids.add(d.idCuenta());
+            }
+            jdbc.batchUpdate("insert into conciliaciones_discrepancias (id_conciliacion, id_cuenta, tipo, valor, esperado)"
+                    + " values (?, ?, ?, ?, ?)", filas);
+            anotar(ids);
+            return id;
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package cajeroweb.modelo.dao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Mide qué cuentas sufren contención: cuenta las operaciones de saldo que empiezan mientras
+ * otra operación sobre la misma cuenta sigue en curso (y por tanto esperan, o esperarán, por el
+ * cerrojo de su fila). Cuando una cuenta acumula cajero.cuentas-calientes.umbral-metrica esperas
+ * se publica el contador cajero.cuentas.contencion con las etiquetas cuenta y caliente, así que
+ * solo aparecen en las métricas las cuentas candidatas a {@link CuentasCalientes}.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+public class ContencionCuentas {
+
+    private static final int MAX_CUENTAS_VIGILADAS = 100_000;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Autowired
+    private CuentasCalientes calientes;
+
+    @Value("${cajero.cuentas-calientes.umbral-metrica:100}")
+    private long umbral;
+
+    private final Map<Integer, Integer> enCurso = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> esperas = new ConcurrentHashMap<>();
+    private final Map<Integer, Counter> publicadas = new ConcurrentHashMap<>();
+
+    /**
+     * Marca el comienzo de una operación sobre la cuenta.
+     */
+    void entrar(int idCuenta) {
+        int previas = enCurso.merge(idCuenta, 1, Integer::sum) - 1;
+        if (previas > 0) {
+            anotarEspera(idCuenta);
+        }
+    }
+
+    /**
+     * Marca el final de una operación sobre la cuenta.
+     */
+    void salir(int idCuenta) {
+        enCurso.computeIfPresent(idCuenta, (id, n) -> n == 1 ? null : n - 1);
+    }
+
+    private void anotarEspera(int idCuenta) {
+        Counter contador = publicadas.get(idCuenta);
+        if (contador != null) {
+            contador.increment();
+            return;
+        }
+        if (esperas.size() > MAX_CUENTAS_VIGILADAS) {
+            esperas.clear(); // Cota de memoria: las cuentas de verdad calientes vuelven a aparecer enseguida
+        }
+        LongAdder n = esperas.computeIfAbsent(idCuenta, id -> new LongAdder());
+        n.increment();
+        if (n.sum() >= umbral) {
+            publicadas.computeIfAbsent(idCuenta, id -> {
+                Counter c = Counter.builder("cajero.cuentas.contencion")
+                        .description("Operaciones que empiezan con otra en curso sobre la misma cuenta")
+                        .tag("cuenta", String.valueOf(id))
+                        .tag("caliente", String.valueOf(calientes.esCaliente(id)))
+                        .register(registro);
+                c.increment(n.sum());
+                esperas.remove(id);
+                return c;
+            });
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package cajeroweb.modelo.dao;
 
+import java.util.List;
+
+import cajeroweb.modelo.dto.LineaTransferencia;
 import cajeroweb.modelo.entidades.Cuenta;
 
 /**
@@ -15,6 +18,15 @@ import cajeroweb.modelo.entidades.Cuenta;
  */
 public interface CuentaDao {
 
+    /** Resultado de {@link #transferencias(List)}: transferencia realizada. */
+    int TRANSFERENCIA_OK = 1;
+
+    /** Resultado de {@link #transferencias(List)}: saldo insuficiente en la cuenta origen. */
+    int SALDO_INSUFICIENTE = 0;
+
+    /** Resultado de {@link #transferencias(List)}: la cuenta origen o la destino no existen. */
+    int CUENTA_INCORRECTA = -1;
+
     /**
      * Busca una cuenta en la base de datos utilizando la clave primaria (ID).
      *
@@ -61,6 +73,29 @@ public interface CuentaDao {
      * @param cantidad la cantidad de dinero a transferir
      * @return 1 si la transferencia es exitosa, 0 si falla debido a saldo insuficiente
      */
-    int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad); 
-    
+    int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad);
+
+    /**
+     * Realiza un lote de transferencias y devuelve el resultado de cada una.
+     * El resultado debe ser el mismo que el de realizarlas una a una en el orden de la lista.
+     * Esta implementación por defecto las realiza una a una; las implementaciones pueden
+     * agruparlas en menos sentencias.
+     *
+     * @param lineas las transferencias a realizar
+     * @return para cada línea, TRANSFERENCIA_OK, SALDO_INSUFICIENTE o CUENTA_INCORRECTA
+     */
+    default int[] transferencias(List<LineaTransferencia> lineas) {
+        int[] resultados = new int[lineas.size()];
+        for (int i = 0; i < lineas.size(); i++) {
+            LineaTransferencia linea = lineas.get(i);
+            Cuenta origen = buscarUno(linea.origen());
+            Cuenta destino = buscarUno(linea.destino());
+            if (origen == null || destino == null) {
+                resultados[i] = CUENTA_INCORRECTA;
+            } else {
+                resultados[i] = transferencia(origen, destino, linea.cantidad()) == 1 ? TRANSFERENCIA_OK : SALDO_INSUFICIENTE;
+            }
+        }
+        return resultados;
+    }
 }
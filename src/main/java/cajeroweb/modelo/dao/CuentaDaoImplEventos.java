@@ -0,0 +1,182 @@
+package cajeroweb.modelo.dao;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import cajeroweb.modelo.dao.LibroEventos.EstadoCuenta;
+import cajeroweb.modelo.entidades.Cuenta;
+import io.micrometer.core.annotation.Timed;
+
+/**
+ * Implementación del DAO de Cuenta del perfil "eventos". Cada ingreso, extracción o
+ * transferencia se anota en el diario del {@link LibroEventos} en lugar de actualizar la fila
+ * de la cuenta; el saldo es el que resulta de los eventos anotados.
+ *
+ * Las operaciones toman el cerrojo del libro, comprueban el saldo en memoria (no el de la copia
+ * recibida) y, si todo es correcto, anotan el evento y reflejan el saldo resultante en la copia.
+ * Tras soltar el cerrojo esperan a que el evento esté en disco ({@link LibroEventos#asegurarEnDisco(long)}).
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Repository
+@Timed("cajero.dao")
+@Profile("eventos")
+public class CuentaDaoImplEventos implements CuentaDao {
+
+    @Autowired
+    private LibroEventos libro;
+
+    @Autowired
+    private JdbcTemplate jdbc; // Cambios de tipo de cuenta, que no forman parte del diario
+
+    /**
+     * Busca una cuenta en el libro, cargándola de la tabla cuentas si es la primera vez.
+     *
+     * @param clavePk la clave primaria de la cuenta
+     * @return una copia de la cuenta con el saldo actual, o null si no existe
+     */
+    @Override
+    public Cuenta buscarUno(int clavePk) {
+        if (!libro.asegurarCargada(clavePk)) {
+            return null;
+        }
+        libro.cerrojo.lock();
+        try {
+            EstadoCuenta e = libro.estado(clavePk);
+            return new Cuenta(clavePk, e.saldo, e.tipo);
+        } finally {
+            libro.cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Actualiza una cuenta. La diferencia de saldo se anota como un ajuste; el tipo de cuenta
+     * se guarda en la tabla cuentas.
+     *
+     * @param entidad la entidad Cuenta a actualizar
+     * @return 1 si la cuenta existe, 0 en caso contrario
+     */
+    @Override
+    public int updateUno(Cuenta entidad) {
+        if (!libro.asegurarCargada(entidad.getIdCuenta())) {
+            return 0;
+        }
+        boolean tipoCambiado;
+        long secuencia = 0;
+        libro.cerrojo.lock();
+        try {
+            EstadoCuenta e = libro.estado(entidad.getIdCuenta());
+            if (entidad.getSaldo() != e.saldo) {
+                libro.anotar(DiarioEventos.AJUSTE, e, entidad.getSaldo() - e.saldo);
+                secuencia = libro.confirmar();
+            }
+            tipoCambiado = !Objects.equals(e.tipo, entidad.getTipoCuenta());
+            e.tipo = entidad.getTipoCuenta();
+        } finally {
+            libro.cerrojo.unlock();
+        }
+        libro.asegurarEnDisco(secuencia);
+        if (tipoCambiado) {
+            jdbc.update("update cuentas set tipo_cuenta = ? where id_cuenta = ?", entidad.getTipoCuenta(),
+                    entidad.getIdCuenta());
+        }
+        return 1;
+    }
+
+    /**
+     * Anota un ingreso y refleja el saldo resultante en la cuenta recibida.
+     *
+     * @param cuenta la cuenta en la que se realizará el ingreso
+     * @param saldo la cantidad a ingresar
+     * @return 1 si la operación es exitosa, 0 si la cuenta no existe
+     */
+    @Override
+    public int ingreso(Cuenta cuenta, double saldo) {
+        if (!libro.asegurarCargada(cuenta.getIdCuenta())) {
+            return 0;
+        }
+        long secuencia;
+        libro.cerrojo.lock();
+        try {
+            EstadoCuenta e = libro.estado(cuenta.getIdCuenta());
+            libro.anotar(DiarioEventos.INGRESO, e, saldo);
+            secuencia = libro.confirmar();
+            cuenta.setSaldo(e.saldo);
+        } finally {
+            libro.cerrojo.unlock();
+        }
+        libro.asegurarEnDisco(secuencia);
+        return 1;
+    }
+
+    /**
+     * Anota una extracción si el saldo del libro lo permite.
+     *
+     * @param cuenta la cuenta de la que se realizará la extracción
+     * @param saldo la cantidad a extraer
+     * @return 1 si la operación es exitosa, 0 si el saldo es insuficiente o la cuenta no existe
+     */
+    @Override
+    public int extraer(Cuenta cuenta, double saldo) {
+        if (!libro.asegurarCargada(cuenta.getIdCuenta())) {
+            return 0;
+        }
+        long secuencia;
+        libro.cerrojo.lock();
+        try {
+            EstadoCuenta e = libro.estado(cuenta.getIdCuenta());
+            if (e.saldo < saldo) {
+                cuenta.setSaldo(e.saldo);
+                return 0;
+            }
+            libro.anotar(DiarioEventos.EXTRACCION, e, -saldo);
+            secuencia = libro.confirmar();
+            cuenta.setSaldo(e.saldo);
+        } finally {
+            libro.cerrojo.unlock();
+        }
+        libro.asegurarEnDisco(secuencia);
+        return 1;
+    }
+
+    /**
+     * Anota una transferencia como dos registros consecutivos, salida y entrada. Si el proceso
+     * se interrumpe entre ambos, la reconstrucción descarta la salida.
+     *
+     * @param cuentaOrigen la cuenta desde la cual se extraerán los fondos
+     * @param cuentaDestino la cuenta a la cual se ingresarán los fondos
+     * @param cantidad la cantidad de dinero a transferir
+     * @return 1 si la transferencia es exitosa, 0 si el saldo es insuficiente o alguna cuenta no existe
+     */
+    @Override
+    public int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad) {
+        if (!libro.asegurarCargada(cuentaOrigen.getIdCuenta()) || !libro.asegurarCargada(cuentaDestino.getIdCuenta())) {
+            return 0;
+        }
+        long secuencia;
+        libro.cerrojo.lock();
+        try {
+            EstadoCuenta origen = libro.estado(cuentaOrigen.getIdCuenta());
+            EstadoCuenta destino = libro.estado(cuentaDestino.getIdCuenta());
+            if (origen.saldo < cantidad) {
+                cuentaOrigen.setSaldo(origen.saldo);
+                return 0;
+            }
+            libro.anotar(DiarioEventos.TRANSFERENCIA_SALIDA, origen, -cantidad);
+            libro.anotar(DiarioEventos.TRANSFERENCIA_ENTRADA, destino, cantidad);
+            secuencia = libro.confirmar();
+            cuentaOrigen.setSaldo(origen.saldo);
+            cuentaDestino.setSaldo(destino.saldo);
+        } finally {
+            libro.cerrojo.unlock();
+        }
+        libro.asegurarEnDisco(secuencia);
+        return 1;
+    }
+}
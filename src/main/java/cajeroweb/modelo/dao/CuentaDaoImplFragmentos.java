@@ -0,0 +1,124 @@
+package cajeroweb.modelo.dao;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import cajeroweb.modelo.entidades.Cuenta;
+import io.micrometer.core.annotation.Timed;
+
+/**
+ * Implementación del DAO de Cuenta del perfil "fragmentos": cada cuenta está en la base del
+ * fragmento que le corresponde en el anillo ({@link Fragmentos}). Ingresos y extracciones son una
+ * transacción local del fragmento que cambia el saldo y escribe el movimiento; las transferencias
+ * entre fragmentos siguen el protocolo de dos pasos de {@link TransferenciasFragmentos}.
+ * Como en el perfil eventos, los movimientos de estas operaciones los escribe este DAO y
+ * {@link MovimientoDaoImplFragmentos#insertUno(cajeroweb.modelo.entidades.Movimiento)} no los repite.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Repository
+@Timed("cajero.dao")
+@Profile("fragmentos")
+public class CuentaDaoImplFragmentos implements CuentaDao {
+
+    static final String INGRESO = "Ingreso";
+    static final String EXTRACCION = "Extracción";
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    @Autowired
+    private TransferenciasFragmentos transferencias;
+
+    /**
+     * Busca una cuenta en su fragmento.
+     *
+     * @param clavePk la clave primaria de la cuenta
+     * @return la cuenta con su saldo actual, o null si no existe
+     */
+    @Override
+    public Cuenta buscarUno(int clavePk) {
+        return fragmentos.ejecutar(clavePk, f -> {
+            List<Cuenta> cuentas = f.jdbc().query("select saldo, tipo_cuenta from cuentas where id_cuenta = ?",
+                    (rs, i) -> new Cuenta(clavePk, rs.getDouble(1), rs.getString(2)), clavePk);
+            return cuentas.isEmpty() ? null : cuentas.get(0);
+        });
+    }
+
+    /**
+     * Actualiza el saldo y el tipo de la cuenta.
+     *
+     * @param entidad la entidad Cuenta a actualizar
+     * @return 1 si la cuenta existe, 0 en caso contrario
+     */
+    @Override
+    public int updateUno(Cuenta entidad) {
+        Integer r = fragmentos.ejecutar(entidad.getIdCuenta(), f -> {
+            int n = f.jdbc().update("update cuentas set saldo = ?, tipo_cuenta = ? where id_cuenta = ?",
+                    entidad.getSaldo(), entidad.getTipoCuenta(), entidad.getIdCuenta());
+            return n == 0 ? null : n;
+        });
+        return r == null ? 0 : 1;
+    }
+
+    /**
+     * Suma la cantidad al saldo y escribe el movimiento en la misma transacción.
+     *
+     * @param cuenta la cuenta en la que se realizará el ingreso
+     * @param saldo la cantidad a ingresar
+     * @return 1 si la operación es exitosa, 0 si la cuenta no existe
+     */
+    @Override
+    public int ingreso(Cuenta cuenta, double saldo) {
+        Integer r = fragmentos.ejecutar(cuenta.getIdCuenta(), f -> f.tx().execute(estado -> {
+            if (f.jdbc().update("update cuentas set saldo = saldo + ? where id_cuenta = ?", saldo, cuenta.getIdCuenta()) == 0) {
+                return null;
+            }
+            TransferenciasFragmentos.insertarMovimiento(f, cuenta.getIdCuenta(), new Date(), saldo, INGRESO);
+            return 1;
+        }));
+        return r == null ? 0 : r;
+    }
+
+    /**
+     * Resta la cantidad si el saldo lo permite y escribe el movimiento en la misma transacción.
+     *
+     * @param cuenta la cuenta de la que se realizará la extracción
+     * @param saldo la cantidad a extraer
+     * @return 1 si la operación es exitosa, 0 si el saldo es insuficiente o la cuenta no existe
+     */
+    @Override
+    public int extraer(Cuenta cuenta, double saldo) {
+        Integer r = fragmentos.ejecutar(cuenta.getIdCuenta(), f -> f.tx().execute(estado -> {
+            if (f.jdbc().update("update cuentas set saldo = saldo - ? where id_cuenta = ? and saldo >= ?",
+                    saldo, cuenta.getIdCuenta(), saldo) == 0) {
+                return TransferenciasFragmentos.existe(f, cuenta.getIdCuenta()) ? 0 : null;
+            }
+            TransferenciasFragmentos.insertarMovimiento(f, cuenta.getIdCuenta(), new Date(), -saldo, EXTRACCION);
+            return 1;
+        }));
+        return r == null ? 0 : r;
+    }
+
+    /**
+     * Transfiere entre dos cuentas. Si están en el mismo fragmento es una sola transacción; si
+     * no, la cuenta de destino recibe el abono en un segundo paso que, si el proceso se
+     * interrumpe, completa la tarea de recuperación.
+     *
+     * @param cuentaOrigen la cuenta desde la cual se extraerán los fondos
+     * @param cuentaDestino la cuenta a la cual se ingresarán los fondos
+     * @param cantidad la cantidad de dinero a transferir
+     * @return 1 si la transferencia es exitosa, 0 si el saldo es insuficiente o alguna de las cuentas no existe
+     */
+    @Override
+    public int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad) {
+        Integer r = transferencias.transferir(cuentaOrigen.getIdCuenta(), cuentaDestino.getIdCuenta(), cantidad);
+        return r == null ? 0 : r;
+    }
+}
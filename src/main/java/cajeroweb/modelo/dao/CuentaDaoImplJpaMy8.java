@@ -1,108 +1,394 @@
 package cajeroweb.modelo.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
+import cajeroweb.config.GuardiaLecturas;
+import cajeroweb.modelo.dto.LineaTransferencia;
 import cajeroweb.modelo.entidades.Cuenta;
 import cajeroweb.modelo.repository.CuentaRepository;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 
 /**
  * Implementación del DAO para la entidad Cuenta utilizando Spring Data JPA.
  * Esta clase interactúa con la base de datos a través del repositorio CuentaRepository,
  * ofreciendo métodos para buscar, insertar, actualizar y realizar operaciones bancarias
- * como ingresos y extracciones.
+ * como ingresos y extracciones. Cada operación de saldo es una única sentencia update
+ * condicionada, sin leer antes la entidad.
+ * Las búsquedas por id pasan por una caché acotada en tamaño y tiempo (cajero.cache.cuentas.*)
+ * que se invalida al confirmar cualquier operación que modifique la cuenta; con la sesión en
+ * cookie, pensada para varios nodos sin afinidad, no se usa.
+ * Los abonos a las cuentas calientes se reparten entre sus ranuras ({@link CuentasCalientes}) y
+ * las operaciones de saldo alimentan la métrica de contención ({@link ContencionCuentas}).
+ * Es la implementación por defecto; se desactiva con los perfiles "memoria", "eventos" y "fragmentos".
  *
  * @author Andres
  * @version 1.0
  * @since 2024
  */
 @Repository
+@Timed("cajero.dao")
+@Profile("!memoria & !eventos & !fragmentos")
 public class CuentaDaoImplJpaMy8 implements CuentaDao {
 
     @Autowired
     private CuentaRepository crepo; // Inyección del repositorio de Cuenta
 
+    @Autowired
+    private JdbcTemplate jdbc; // Sentencias por lotes para las transferencias masivas
+
+    @Autowired
+    private MeterRegistry registro; // Métricas de aciertos y fallos de la caché
+
+    @Autowired
+    private CuentasCalientes calientes; // Saldos repartidos en ranuras
+
+    @Autowired
+    private ContencionCuentas contencion; // Operaciones concurrentes sobre la misma cuenta
+
+    @Value("${cajero.cache.cuentas.tamano:10000}")
+    private long tamanoCache;
+
+    @Value("${cajero.cache.cuentas.ttl-segundos:30}")
+    private long ttlCache;
+
+    @Value("${cajero.sesion.almacen:http}")
+    private String almacenSesion;
+
+    private Cache<Integer, Cuenta> cache;
+    private boolean conCache;
+
+    /**
+     * Crea la caché de cuentas y publica sus estadísticas como cache.* con la etiqueta cache=cuentas.
+     * Con la sesión en cookie (cajero.sesion.almacen=cookie) cada petición puede ir a un nodo
+     * distinto y la caché de un nodo no ve las escrituras de los demás, así que no se usa.
+     */
+    @PostConstruct
+    public void iniciar() {
+        conCache = !"cookie".equals(almacenSesion);
+        cache = Caffeine.newBuilder()
+                .maximumSize(tamanoCache)
+                .expireAfterWrite(ttlCache, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registro, cache, "cuentas");
+    }
+
     /**
      * Busca una cuenta por su clave primaria (ID).
+     * Si no está en la caché, la consulta la hace un solo hilo aunque varios la pidan a la vez;
+     * el resto espera su resultado. Las cuentas inexistentes no se guardan en la caché.
+     * findById es de solo lectura, así que con réplica se lee de ella; si el hilo debe leer de la
+     * primaria ({@link GuardiaLecturas}) se salta la caché y se refresca con el valor leído.
+     * Sin caché (sesión en cookie) se lee siempre.
+     * El saldo de una cuenta caliente incluye el de sus ranuras.
      *
      * @param clavePk la clave primaria de la cuenta
-     * @return la entidad Cuenta si se encuentra, o null si no existe
+     * @return una copia de la cuenta si se encuentra, o null si no existe
      */
     @Override
     public Cuenta buscarUno(int clavePk) {
-        return crepo.findById(clavePk).orElse(null);
+        Cuenta cuenta;
+        if (!conCache) {
+            cuenta = leer(clavePk);
+        } else if (GuardiaLecturas.primaria()) {
+            cuenta = leer(clavePk);
+            if (cuenta != null) {
+                cache.put(clavePk, cuenta);
+            }
+        } else {
+            cuenta = cache.get(clavePk, this::leer);
+        }
+        return cuenta == null ? null : new Cuenta(cuenta.getIdCuenta(), cuenta.getSaldo(), cuenta.getTipoCuenta());
+    }
+
+    private Cuenta leer(int idCuenta) {
+        Cuenta cuenta = crepo.findById(idCuenta).orElse(null);
+        if (cuenta != null && calientes.esCaliente(idCuenta)) {
+            Double total = calientes.saldoTotal(idCuenta);
+            cuenta = new Cuenta(idCuenta, total != null ? total : cuenta.getSaldo(), cuenta.getTipoCuenta());
+        }
+        return cuenta;
     }
 
     /**
-     * Actualiza una cuenta existente en la base de datos.
-     * Comprueba si la cuenta existe antes de actualizar.
+     * Abona una cantidad: en una ranura si la cuenta es caliente, en su fila si no.
+     */
+    private int abonar(int idCuenta, double cantidad) {
+        return calientes.esCaliente(idCuenta) ? calientes.abonar(idCuenta, cantidad) : crepo.sumarSaldo(idCuenta, cantidad);
+    }
+
+    /**
+     * Carga una cantidad en la fila de la cuenta si el saldo es suficiente. Si no lo es y la
+     * cuenta es caliente, consolida sus ranuras en la fila y lo vuelve a intentar.
+     */
+    private int cargar(int idCuenta, double cantidad) {
+        int filas = crepo.restarSaldo(idCuenta, cantidad);
+        if (filas == 0 && calientes.esCaliente(idCuenta) && calientes.consolidar(idCuenta) != 0) {
+            filas = crepo.restarSaldo(idCuenta, cantidad);
+        }
+        return filas;
+    }
+
+    /**
+     * Marca la transacción para deshacerla al salir, cuando una operación falla después de
+     * haber cambiado algún saldo.
+     *
+     * @return 0, el resultado de la operación fallida
+     */
+    private int deshacer() {
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        return 0;
+    }
+
+    /**
+     * Quita las cuentas de la caché cuando termina la transacción actual (o en el acto si no
+     * hay transacción). Invalidar después del commit evita que una lectura concurrente vuelva a
+     * guardar el saldo anterior.
+     */
+    private void invalidar(Iterable<Integer> ids) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll(ids);
+                }
+            });
+        } else {
+            cache.invalidateAll(ids);
+        }
+    }
+
+    /**
+     * Quita las cuentas de la caché cuando termina la transacción actual, para los procesos que
+     * cambian saldos directamente por JDBC ({@link cajeroweb.servicio.LiquidadorMensual}).
+     *
+     * @param ids los identificadores de las cuentas modificadas
+     */
+    public void olvidar(Collection<Integer> ids) {
+        invalidar(ids);
+    }
+
+    /**
+     * Actualiza una cuenta existente en la base de datos con una única sentencia update.
      *
      * @param entidad la entidad Cuenta a actualizar
      * @return 1 si la operación es exitosa, 0 si no se encuentra la cuenta o ocurre un error
      */
     @Override
+    @Transactional
     public int updateUno(Cuenta entidad) {
         try {
-            if (crepo.existsById(entidad.getIdCuenta())) {
-                crepo.save(entidad);
-                return 1;
+            invalidar(List.of(entidad.getIdCuenta()));
+            int filas = crepo.actualizar(entidad.getIdCuenta(), entidad.getSaldo(), entidad.getTipoCuenta());
+            if (filas == 1 && calientes.esCaliente(entidad.getIdCuenta())) {
+                calientes.vaciar(entidad.getIdCuenta()); // El saldo fijado es el total
             }
+            return filas;
         } catch (Exception e) {
             e.printStackTrace();
+            // Marca local: la transacción se deshace al salir sin UnexpectedRollbackException
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
         }
         return 0;
     }
 
     /**
      * Realiza un ingreso en la cuenta especificada.
-     * Incrementa el saldo de la cuenta y actualiza la entidad en la base de datos.
+     * El saldo se incrementa en la base de datos (saldo = saldo + cantidad) y, si la cuenta
+     * existe, se aplica también a la copia recibida.
      *
      * @param cuenta la cuenta en la que se realizará el ingreso
      * @param saldo la cantidad a ingresar
-     * @return 1 si la operación es exitosa, 0 si ocurre un error
+     * @return 1 si la operación es exitosa, 0 si la cuenta no existe
      */
     @Override
+    @Transactional
     public int ingreso(Cuenta cuenta, double saldo) {
-        cuenta.ingresar(saldo);
-        return updateUno(cuenta);
+        invalidar(List.of(cuenta.getIdCuenta()));
+        contencion.entrar(cuenta.getIdCuenta());
+        try {
+            int filas = abonar(cuenta.getIdCuenta(), saldo);
+            if (filas == 1) {
+                cuenta.ingresar(saldo);
+            }
+            return filas;
+        } finally {
+            contencion.salir(cuenta.getIdCuenta());
+        }
     }
 
     /**
      * Realiza una extracción de la cuenta especificada.
-     * Comprueba si hay saldo suficiente antes de realizar la operación y actualiza la entidad en la base de datos.
+     * La comprobación de saldo la hace la propia sentencia update (saldo >= cantidad), por lo que
+     * no depende del saldo de la copia recibida y no pierde actualizaciones concurrentes.
      *
      * @param cuenta la cuenta de la que se realizará la extracción
      * @param saldo la cantidad a extraer
-     * @return 1 si la operación es exitosa, 0 si el saldo es insuficiente o ocurre un error
+     * @return 1 si la operación es exitosa, 0 si el saldo es insuficiente o la cuenta no existe
      */
     @Override
+    @Transactional
     public int extraer(Cuenta cuenta, double saldo) {
-        if (cuenta.extraer(saldo)) {
-            return updateUno(cuenta);
-        } else {
-            return 0;
+        invalidar(List.of(cuenta.getIdCuenta()));
+        contencion.entrar(cuenta.getIdCuenta());
+        try {
+            int filas = cargar(cuenta.getIdCuenta(), saldo);
+            if (filas == 1) {
+                cuenta.setSaldo(cuenta.getSaldo() - saldo);
+            }
+            return filas;
+        } finally {
+            contencion.salir(cuenta.getIdCuenta());
         }
     }
     
     /**
      * Realiza una transferencia de fondos entre dos cuentas.
-     * Verifica si la cuenta origen tiene saldo suficiente para realizar la transferencia
-     * antes de actualizar los saldos de ambas cuentas.
+     * El cargo condicionado en la cuenta origen y el abono en la cuenta destino se ejecutan en la
+     * misma transacción; si la cuenta destino no existe se deshace el cargo.
      *
      * @param cuentaOrigen la cuenta desde la cual se extraerán los fondos
      * @param cuentaDestino la cuenta a la cual se ingresarán los fondos
      * @param cantidad la cantidad de dinero a transferir
-     * @return 1 si la transferencia es exitosa, 0 si el saldo es insuficiente
+     * @return 1 si la transferencia es exitosa, 0 si el saldo es insuficiente o alguna cuenta no existe
      */
 	@Override
+	@Transactional
 	public int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad) {
-		// Verifica si hay saldo suficiente en la cuenta origen para la extracción y actualiza el saldo 
-		if(extraer(cuentaOrigen, cantidad)==1) {
-			// Ingresa la cantidad transferida en la cuenta destino
-			ingreso(cuentaDestino, cantidad); 
-			return 1; 
-		}else {
-			return 0; 
+		invalidar(List.of(cuentaOrigen.getIdCuenta(), cuentaDestino.getIdCuenta()));
+		contencion.entrar(cuentaOrigen.getIdCuenta());
+		contencion.entrar(cuentaDestino.getIdCuenta());
+		try {
+			int idOrigen = cuentaOrigen.getIdCuenta();
+			int idDestino = cuentaDestino.getIdCuenta();
+			boolean destinoCaliente = calientes.esCaliente(idDestino);
+			boolean abonado = false;
+			// Mismo orden de bloqueo que las transferencias por lotes y la liquidación: primero las
+			// filas de las cuentas en orden de id y después las ranuras, también en orden de id
+			if (!destinoCaliente && idDestino < idOrigen) {
+				if (crepo.sumarSaldo(idDestino, cantidad) != 1) {
+					return 0;
+				}
+				abonado = true;
+			}
+			// Cargo en la cuenta origen solo si hay saldo suficiente; si no lo hay y es caliente
+			// se consolidan sus ranuras, pero ya después de las filas
+			int filas = crepo.restarSaldo(idOrigen, cantidad);
+			boolean consolidar = filas == 0 && calientes.esCaliente(idOrigen);
+			if (filas == 0 && !consolidar) {
+				return abonado ? deshacer() : 0;
+			}
+			if (consolidar) {
+				calientes.bloquearFila(idOrigen); // Antes que la fila del destino si su id es mayor
+			}
+			// Abono en la cuenta destino; si no existe se deshace también el cargo
+			if (!destinoCaliente && !abonado) {
+				if (crepo.sumarSaldo(idDestino, cantidad) != 1) {
+					return deshacer();
+				}
+				abonado = true;
+			}
+			if (destinoCaliente && (!consolidar || idDestino < idOrigen)) {
+				if (calientes.abonar(idDestino, cantidad) != 1) {
+					return deshacer();
+				}
+				abonado = true;
+			}
+			if (consolidar && (calientes.consolidar(idOrigen) == 0 || crepo.restarSaldo(idOrigen, cantidad) != 1)) {
+				return abonado ? deshacer() : 0;
+			}
+			if (!abonado && calientes.abonar(idDestino, cantidad) != 1) {
+				return deshacer();
+			}
+			cuentaOrigen.setSaldo(cuentaOrigen.getSaldo() - cantidad);
+			cuentaDestino.ingresar(cantidad);
+			return 1;
+		} finally {
+			contencion.salir(cuentaDestino.getIdCuenta());
+			contencion.salir(cuentaOrigen.getIdCuenta());
 		}
 	}
+
+    /**
+     * Realiza un lote de transferencias en una sola transacción con un número fijo de sentencias.
+     * Se bloquean todas las cuentas del lote con un select ... for update en orden de id, se
+     * aplican las líneas en memoria en el orden de la lista (igual que si se hicieran una a una)
+     * y se escribe la variación neta de cada cuenta con un único update por lotes, también en
+     * orden de id para que lotes concurrentes bloqueen siempre en el mismo orden. Las ranuras
+     * de las cuentas calientes del lote se consolidan en su fila tras bloquearla.
+     *
+     * @param lineas las transferencias a realizar
+     * @return para cada línea, TRANSFERENCIA_OK, SALDO_INSUFICIENTE o CUENTA_INCORRECTA
+     */
+    @Override
+    @Transactional
+    public int[] transferencias(List<LineaTransferencia> lineas) {
+        int[] resultados = new int[lineas.size()];
+        if (lineas.isEmpty()) {
+            return resultados;
+        }
+        Set<Integer> ids = new TreeSet<>();
+        for (LineaTransferencia l : lineas) {
+            ids.add(l.origen());
+            ids.add(l.destino());
+        }
+        Map<Integer, Double> saldos = new HashMap<>();
+        jdbc.query("select id_cuenta, saldo from cuentas where id_cuenta in ("
+                + String.join(",", Collections.nCopies(ids.size(), "?")) + ") order by id_cuenta for update",
+                rs -> {
+                    saldos.put(rs.getInt(1), rs.getDouble(2));
+                }, ids.toArray());
+        for (int id : ids) {
+            if (saldos.containsKey(id) && calientes.esCaliente(id)) {
+                saldos.merge(id, calientes.consolidar(id), Double::sum);
+            }
+        }
+
+        Map<Integer, Double> variaciones = new TreeMap<>();
+        for (int i = 0; i < lineas.size(); i++) {
+            LineaTransferencia l = lineas.get(i);
+            Double saldoOrigen = saldos.get(l.origen());
+            if (saldoOrigen == null || !saldos.containsKey(l.destino()) || l.origen() == l.destino()) {
+                resultados[i] = CUENTA_INCORRECTA;
+            } else if (saldoOrigen < l.cantidad()) {
+                resultados[i] = SALDO_INSUFICIENTE;
+            } else {
+                saldos.put(l.origen(), saldoOrigen - l.cantidad());
+                saldos.merge(l.destino(), l.cantidad(), Double::sum);
+                variaciones.merge(l.origen(), -l.cantidad(), Double::sum);
+                variaciones.merge(l.destino(), l.cantidad(), Double::sum);
+                resultados[i] = TRANSFERENCIA_OK;
+            }
+        }
+        List<Object[]> filas = new ArrayList<>(variaciones.size());
+        variaciones.forEach((id, variacion) -> filas.add(new Object[] { variacion, id }));
+        invalidar(variaciones.keySet());
+        jdbc.batchUpdate("update cuentas set saldo = saldo + ? where id_cuenta = ?", filas);
+        return resultados;
+    }
 }
@@ -0,0 +1,281 @@
+package cajeroweb.modelo.dao;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import cajeroweb.modelo.dao.TablaSaldos.Franja;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.repository.CuentaRepository;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Implementación en memoria del DAO de Cuenta, activa con el perfil "memoria".
+ * Los saldos viven en una {@link TablaSaldos} dividida en franjas por idCuenta, de modo que
+ * ingresos, extracciones y transferencias no hacen ninguna consulta a la base de datos.
+ * Cada cuenta se carga desde la tabla cuentas la primera vez que se usa y los saldos
+ * modificados se vuelcan de forma asíncrona (escritura diferida) cada cierto intervalo.
+ *
+ * Este modo supone que esta instancia es la única que modifica la tabla cuentas.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Repository
+@Timed("cajero.dao")
+@Profile("memoria")
+public class CuentaDaoImplMemoria implements CuentaDao {
+
+    @Autowired
+    private CuentaRepository crepo; // Carga inicial de cada cuenta
+
+    @Autowired
+    private JdbcTemplate jdbc; // Volcado por lotes de los saldos modificados
+
+    @Value("${cajero.memoria.franjas:64}")
+    private int numFranjas;
+
+    @Value("${cajero.memoria.intervalo-escritura-ms:200}")
+    private long intervaloEscritura;
+
+    private TablaSaldos tabla;
+    private ScheduledExecutorService escritor;
+
+    /**
+     * Crea la tabla de saldos y arranca el hilo de escritura diferida.
+     */
+    @PostConstruct
+    public void iniciar() {
+        tabla = new TablaSaldos(numFranjas);
+        escritor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cajero-escritura-saldos");
+            t.setDaemon(true);
+            return t;
+        });
+        escritor.scheduleWithFixedDelay(this::volcar, intervaloEscritura, intervaloEscritura, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detiene el hilo de escritura y vuelca los saldos pendientes antes de cerrar.
+     */
+    @PreDestroy
+    public void detener() {
+        escritor.shutdown();
+        try {
+            escritor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        volcar();
+    }
+
+    /**
+     * Vuelca a la tabla cuentas los saldos modificados desde el último volcado.
+     * Si el volcado falla, las cuentas se vuelven a marcar como sucias para el siguiente intento.
+     */
+    void volcar() {
+        List<Object[]> filas = tabla.recogerSucias();
+        if (filas.isEmpty()) {
+            return;
+        }
+        try {
+            jdbc.batchUpdate("update cuentas set saldo = ?, tipo_cuenta = ? where id_cuenta = ?", filas);
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (Object[] fila : filas) {
+                int idCuenta = (Integer) fila[2];
+                Franja f = tabla.getFranja(tabla.franja(idCuenta));
+                f.cerrojo.lock();
+                try {
+                    f.marcarSucia(idCuenta);
+                } finally {
+                    f.cerrojo.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Busca una cuenta en la tabla en memoria, cargándola de la base de datos si es la primera vez.
+     * Devuelve siempre una copia, nunca el estado interno de la tabla.
+     *
+     * @param clavePk la clave primaria de la cuenta
+     * @return una copia de la cuenta con el saldo actual, o null si no existe
+     */
+    @Override
+    public Cuenta buscarUno(int clavePk) {
+        Franja f = tabla.getFranja(tabla.franja(clavePk));
+        f.cerrojo.lock();
+        try {
+            int pos = f.posicion(clavePk);
+            if (pos >= 0) {
+                return new Cuenta(clavePk, f.saldo(pos), f.tipo(pos));
+            }
+        } finally {
+            f.cerrojo.unlock();
+        }
+        return cargar(clavePk) ? buscarUno(clavePk) : null;
+    }
+
+    /**
+     * Comprueba que la cuenta está en la tabla, cargándola desde la base de datos si hace falta.
+     *
+     * @return true si la cuenta está cargada, false si no existe
+     */
+    private boolean asegurarCargada(int idCuenta) {
+        Franja f = tabla.getFranja(tabla.franja(idCuenta));
+        f.cerrojo.lock();
+        try {
+            if (f.posicion(idCuenta) >= 0) {
+                return true;
+            }
+        } finally {
+            f.cerrojo.unlock();
+        }
+        return cargar(idCuenta);
+    }
+
+    /**
+     * Carga la cuenta en la tabla si existe en la base de datos.
+     * La lectura se hace fuera del cerrojo; si otro hilo la ha cargado antes se conserva su copia.
+     *
+     * @return true si la cuenta está cargada, false si no existe
+     */
+    private boolean cargar(int idCuenta) {
+        Cuenta leida = crepo.findById(idCuenta).orElse(null);
+        if (leida == null) {
+            return false;
+        }
+        Franja f = tabla.getFranja(tabla.franja(idCuenta));
+        f.cerrojo.lock();
+        try {
+            f.cargar(idCuenta, leida.getSaldo(), leida.getTipoCuenta());
+        } finally {
+            f.cerrojo.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Reemplaza el saldo y el tipo de una cuenta cargada; se persiste en el siguiente volcado.
+     *
+     * @param entidad la entidad Cuenta a actualizar
+     * @return 1 si la cuenta existe, 0 en caso contrario
+     */
+    @Override
+    public int updateUno(Cuenta entidad) {
+        if (!asegurarCargada(entidad.getIdCuenta())) {
+            return 0;
+        }
+        Franja f = tabla.getFranja(tabla.franja(entidad.getIdCuenta()));
+        f.cerrojo.lock();
+        try {
+            f.actualizar(f.posicion(entidad.getIdCuenta()), entidad.getSaldo(), entidad.getTipoCuenta());
+            return 1;
+        } finally {
+            f.cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Realiza un ingreso sobre el saldo en memoria y refleja el saldo resultante en la cuenta recibida.
+     *
+     * @param cuenta la cuenta en la que se realizará el ingreso
+     * @param saldo la cantidad a ingresar
+     * @return 1 si la operación es exitosa, 0 si la cuenta no existe
+     */
+    @Override
+    public int ingreso(Cuenta cuenta, double saldo) {
+        if (!asegurarCargada(cuenta.getIdCuenta())) {
+            return 0;
+        }
+        Franja f = tabla.getFranja(tabla.franja(cuenta.getIdCuenta()));
+        f.cerrojo.lock();
+        try {
+            int pos = f.posicion(cuenta.getIdCuenta());
+            f.sumar(pos, saldo);
+            cuenta.setSaldo(f.saldo(pos));
+            return 1;
+        } finally {
+            f.cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Realiza una extracción comprobando el saldo en memoria, no el de la copia recibida.
+     *
+     * @param cuenta la cuenta de la que se realizará la extracción
+     * @param saldo la cantidad a extraer
+     * @return 1 si la operación es exitosa, 0 si el saldo es insuficiente o la cuenta no existe
+     */
+    @Override
+    public int extraer(Cuenta cuenta, double saldo) {
+        if (!asegurarCargada(cuenta.getIdCuenta())) {
+            return 0;
+        }
+        Franja f = tabla.getFranja(tabla.franja(cuenta.getIdCuenta()));
+        f.cerrojo.lock();
+        try {
+            int pos = f.posicion(cuenta.getIdCuenta());
+            if (f.saldo(pos) < saldo) {
+                cuenta.setSaldo(f.saldo(pos));
+                return 0;
+            }
+            f.sumar(pos, -saldo);
+            cuenta.setSaldo(f.saldo(pos));
+            return 1;
+        } finally {
+            f.cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Realiza una transferencia bloqueando las franjas de ambas cuentas siempre en orden
+     * creciente de índice, lo que evita interbloqueos entre transferencias cruzadas.
+     *
+     * @param cuentaOrigen la cuenta desde la cual se extraerán los fondos
+     * @param cuentaDestino la cuenta a la cual se ingresarán los fondos
+     * @param cantidad la cantidad de dinero a transferir
+     * @return 1 si la transferencia es exitosa, 0 si el saldo es insuficiente o alguna cuenta no existe
+     */
+    @Override
+    public int transferencia(Cuenta cuentaOrigen, Cuenta cuentaDestino, double cantidad) {
+        if (!asegurarCargada(cuentaOrigen.getIdCuenta()) || !asegurarCargada(cuentaDestino.getIdCuenta())) {
+            return 0;
+        }
+        int iOrigen = tabla.franja(cuentaOrigen.getIdCuenta());
+        int iDestino = tabla.franja(cuentaDestino.getIdCuenta());
+        Franja primera = tabla.getFranja(Math.min(iOrigen, iDestino));
+        Franja segunda = tabla.getFranja(Math.max(iOrigen, iDestino));
+        primera.cerrojo.lock();
+        segunda.cerrojo.lock(); // Reentrante: si es la misma franja solo incrementa el contador
+        try {
+            Franja fOrigen = tabla.getFranja(iOrigen);
+            Franja fDestino = tabla.getFranja(iDestino);
+            int pOrigen = fOrigen.posicion(cuentaOrigen.getIdCuenta());
+            int pDestino = fDestino.posicion(cuentaDestino.getIdCuenta());
+            if (fOrigen.saldo(pOrigen) < cantidad) {
+                cuentaOrigen.setSaldo(fOrigen.saldo(pOrigen));
+                return 0;
+            }
+            fOrigen.sumar(pOrigen, -cantidad);
+            fDestino.sumar(pDestino, cantidad);
+            cuentaOrigen.setSaldo(fOrigen.saldo(pOrigen));
+            cuentaDestino.setSaldo(fDestino.saldo(pDestino));
+            return 1;
+        } finally {
+            segunda.cerrojo.unlock();
+            primera.cerrojo.unlock();
+        }
+    }
+}
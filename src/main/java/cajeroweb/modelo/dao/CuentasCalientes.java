@@ -0,0 +1,117 @@
+package cajeroweb.modelo.dao;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Saldos repartidos de las cuentas "calientes" (cajero.cuentas-calientes.ids), las que reciben
+ * una parte muy grande de los abonos, como la cuenta de un comercio o la de nóminas.
+ *
+ * El saldo de una cuenta caliente es el de su fila en cuentas más la suma de sus
+ * cajero.cuentas-calientes.ranuras filas en cuentas_ranuras. Cada abono suma en una ranura
+ * elegida al azar, así que abonos concurrentes casi nunca esperan por el mismo cerrojo de fila.
+ * Los cargos se intentan primero sobre la fila de la cuenta y, si no basta, consolidan antes
+ * las ranuras en ella. El orden de bloqueo de todas las operaciones es siempre el mismo: primero
+ * las filas de las cuentas en orden de id y después las ranuras, también en orden de cuenta.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+public class CuentasCalientes {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Value("${cajero.cuentas-calientes.ids:}")
+    private Set<Integer> calientes;
+
+    @Value("${cajero.cuentas-calientes.ranuras:16}")
+    private int ranuras;
+
+    /**
+     * Crea las ranuras que falten de cada cuenta caliente, con saldo 0.
+     */
+    @PostConstruct
+    public void iniciar() {
+        for (int idCuenta : calientes) {
+            for (int r = 0; r < ranuras; r++) {
+                jdbc.update("insert into cuentas_ranuras (id_cuenta, ranura, saldo)"
+                        + " select id_cuenta, ?, 0 from cuentas c where id_cuenta = ? and not exists"
+                        + " (select 1 from cuentas_ranuras x where x.id_cuenta = c.id_cuenta and x.ranura = ?)",
+                        r, idCuenta, r);
+            }
+        }
+    }
+
+    /**
+     * @return true si la cuenta reparte sus abonos entre ranuras
+     */
+    public boolean esCaliente(int idCuenta) {
+        return calientes.contains(idCuenta);
+    }
+
+    /**
+     * Suma la cantidad en una ranura al azar de la cuenta.
+     *
+     * @return 1 si la cuenta tiene ranuras, 0 si no existe
+     */
+    int abonar(int idCuenta, double cantidad) {
+        return jdbc.update("update cuentas_ranuras set saldo = saldo + ? where id_cuenta = ? and ranura = ?",
+                cantidad, idCuenta, ThreadLocalRandom.current().nextInt(ranuras));
+    }
+
+    /**
+     * Bloquea la fila de la cuenta hasta el final de la transacción. Un update condicionado que
+     * no cumple la condición no siempre la deja bloqueada.
+     */
+    void bloquearFila(int idCuenta) {
+        jdbc.queryForList("select id_cuenta from cuentas where id_cuenta = ? for update", Integer.class, idCuenta);
+    }
+
+    /**
+     * Pasa a la fila de la cuenta el saldo de todas sus ranuras y las deja a 0. Debe llamarse
+     * dentro de una transacción; bloquea la fila antes que las ranuras si no lo estaba ya.
+     *
+     * @return la cantidad consolidada
+     */
+    public double consolidar(int idCuenta) {
+        bloquearFila(idCuenta);
+        List<Double> saldos = jdbc.queryForList("select saldo from cuentas_ranuras where id_cuenta = ? for update",
+                Double.class, idCuenta);
+        double suma = 0;
+        for (double s : saldos) {
+            suma += s;
+        }
+        if (suma != 0) {
+            jdbc.update("update cuentas_ranuras set saldo = 0 where id_cuenta = ?", idCuenta);
+            jdbc.update("update cuentas set saldo = saldo + ? where id_cuenta = ?", suma, idCuenta);
+        }
+        return suma;
+    }
+
+    /**
+     * Pone a 0 las ranuras de la cuenta, para cuando se fija su saldo total en la fila de la cuenta.
+     */
+    void vaciar(int idCuenta) {
+        jdbc.update("update cuentas_ranuras set saldo = 0 where id_cuenta = ?", idCuenta);
+    }
+
+    /**
+     * @return el saldo total de la cuenta (fila más ranuras) leído con una sola sentencia, o null si no existe
+     */
+    Double saldoTotal(int idCuenta) {
+        List<Double> saldo = jdbc.queryForList("select c.saldo + coalesce((select sum(r.saldo) from cuentas_ranuras r"
+                + " where r.id_cuenta = c.id_cuenta), 0) from cuentas c where c.id_cuenta = ?", Double.class, idCuenta);
+        return saldo.isEmpty() ? null : saldo.get(0);
+    }
+}
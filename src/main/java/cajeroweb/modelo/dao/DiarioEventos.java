@@ -0,0 +1,241 @@
+package cajeroweb.modelo.dao;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de eventos de solo anexado: registros binarios de tamaño fijo repartidos en ficheros
+ * (segmentos) de {@code registrosPorSegmento} registros, cada uno proyectado en memoria.
+ *
+ * Cada registro es un movimiento sobre una cuenta y ocupa {@link #TAMANO_REGISTRO} bytes:
+ * secuencia (long), fecha (long), tipo (int), idCuenta (int), cantidad (double), saldo tras el
+ * movimiento (double), CRC32 de los 40 bytes anteriores (int) y 4 bytes libres. La secuencia
+ * empieza en 1 y no tiene huecos, así que la posición de cada registro se calcula a partir de ella.
+ *
+ * Las escrituras las serializa el llamador; las lecturas pueden hacerse desde cualquier hilo
+ * para secuencias hasta {@link #ultimo()}, y {@link #sincronizar()} también, a la vez que se anota.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class DiarioEventos {
+
+    static final int TAMANO_REGISTRO = 48;
+
+    static final int INGRESO = 1;
+    static final int EXTRACCION = 2;
+    static final int TRANSFERENCIA_SALIDA = 3;
+    static final int TRANSFERENCIA_ENTRADA = 4;
+    static final int AJUSTE = 5;
+
+    private static final int BYTES_CRC = 40;
+
+    private final Path directorio;
+    private final int registrosPorSegmento;
+    private volatile MappedByteBuffer[] segmentos = new MappedByteBuffer[0];
+    private volatile long ultimo;
+    private volatile long sincronizadoHasta;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Abre (o crea) el diario del directorio indicado. No valida los registros: antes de anotar
+     * hay que buscar el final con {@link #validoHasta(long)} y fijarlo con {@link #truncar(long)}.
+     *
+     * @param directorio directorio de los segmentos
+     * @param registrosPorSegmento registros de cada fichero
+     */
+    DiarioEventos(Path directorio, int registrosPorSegmento) throws IOException {
+        this.directorio = directorio;
+        this.registrosPorSegmento = registrosPorSegmento;
+        Files.createDirectories(directorio);
+        List<MappedByteBuffer> abiertos = new ArrayList<>();
+        while (Files.exists(fichero(abiertos.size()))) {
+            abiertos.add(proyectar(abiertos.size()));
+        }
+        segmentos = abiertos.toArray(MappedByteBuffer[]::new);
+    }
+
+    private Path fichero(int segmento) {
+        return directorio.resolve(String.format("diario-%08d.dat", segmento));
+    }
+
+    private MappedByteBuffer proyectar(int segmento) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero(segmento), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) registrosPorSegmento * TAMANO_REGISTRO);
+        }
+    }
+
+    /**
+     * @return la secuencia del último registro anotado, 0 si el diario está vacío
+     */
+    long ultimo() {
+        return ultimo;
+    }
+
+    /**
+     * @return bytes ocupados por los registros anotados
+     */
+    long bytes() {
+        return ultimo * TAMANO_REGISTRO;
+    }
+
+    /**
+     * Busca el último registro válido: recorre los registros a partir de {@code desde} hasta el
+     * primero cuya secuencia o CRC no cuadran (el final del diario, o una escritura a medias).
+     *
+     * @param desde primera secuencia que hay que comprobar; las anteriores se dan por buenas
+     * @return la secuencia del último registro válido
+     */
+    long validoHasta(long desde) {
+        long s = Math.max(1, desde);
+        while (valido(s)) {
+            s++;
+        }
+        return s - 1;
+    }
+
+    /**
+     * @return true si el registro existe y su secuencia y CRC son correctos (la secuencia 0 siempre lo es)
+     */
+    boolean valido(long secuencia) {
+        if (secuencia == 0) {
+            return true;
+        }
+        if (secuencia > (long) segmentos.length * registrosPorSegmento) {
+            return false;
+        }
+        ByteBuffer b = segmentos[segmento(secuencia)];
+        int pos = posicion(secuencia);
+        if (b.getLong(pos) != secuencia) {
+            return false;
+        }
+        crc.reset();
+        crc.update(b.slice(pos, BYTES_CRC));
+        return b.getInt(pos + BYTES_CRC) == (int) crc.getValue();
+    }
+
+    /**
+     * Fija el final del diario tras la reconstrucción: borra con ceros lo que quede detrás en el
+     * segmento del último registro y elimina los segmentos posteriores, para que registros viejos
+     * de una escritura interrumpida no reaparezcan en una reconstrucción futura.
+     *
+     * @param fin secuencia del último registro que se conserva
+     */
+    void truncar(long fin) throws IOException {
+        int conservados = Math.min(segmentos.length, fin == 0 ? 0 : segmento(fin) + 1);
+        if (conservados > 0 && fin % registrosPorSegmento != 0) {
+            MappedByteBuffer b = segmentos[segmento(fin)];
+            int sucio = posicion(fin + 1);
+            while (sucio < b.capacity() && b.getLong(sucio) == 0) {
+                sucio += TAMANO_REGISTRO; // Lo normal es que el resto ya esté a cero y no haya que escribir
+            }
+            if (sucio < b.capacity()) {
+                byte[] ceros = new byte[64 * 1024];
+                for (int pos = sucio; pos < b.capacity(); pos += ceros.length) {
+                    b.put(pos, ceros, 0, Math.min(ceros.length, b.capacity() - pos));
+                }
+                b.force();
+            }
+        }
+        for (int i = segmentos.length - 1; i >= conservados; i--) {
+            Files.deleteIfExists(fichero(i));
+        }
+        segmentos = Arrays.copyOf(segmentos, conservados);
+        ultimo = fin;
+        sincronizadoHasta = fin;
+    }
+
+    /**
+     * Anota un registro al final del diario. El llamador debe serializar las llamadas.
+     *
+     * @return la secuencia asignada
+     */
+    long anotar(long fecha, int tipo, int idCuenta, double cantidad, double saldoTras) throws IOException {
+        long secuencia = ultimo + 1;
+        int s = segmento(secuencia);
+        if (s >= segmentos.length) {
+            MappedByteBuffer[] ampliados = Arrays.copyOf(segmentos, s + 1);
+            for (int i = segmentos.length; i <= s; i++) {
+                ampliados[i] = proyectar(i);
+            }
+            segmentos = ampliados;
+        }
+        MappedByteBuffer b = segmentos[s];
+        int pos = posicion(secuencia);
+        b.putLong(pos, secuencia);
+        b.putLong(pos + 8, fecha);
+        b.putInt(pos + 16, tipo);
+        b.putInt(pos + 20, idCuenta);
+        b.putDouble(pos + 24, cantidad);
+        b.putDouble(pos + 32, saldoTras);
+        crc.reset();
+        crc.update(b.slice(pos, BYTES_CRC));
+        b.putInt(pos + BYTES_CRC, (int) crc.getValue());
+        ultimo = secuencia; // Publica el registro a los lectores
+        return secuencia;
+    }
+
+    /**
+     * @return la secuencia del último registro forzado a disco
+     */
+    long sincronizadoHasta() {
+        return sincronizadoHasta;
+    }
+
+    /**
+     * Fuerza a disco los registros anotados desde la última sincronización. Las llamadas se
+     * serializan entre sí pero no con {@link #anotar}: cada una cubre todo lo anotado hasta que
+     * empieza, así que los hilos que esperan detrás suelen encontrar su registro ya en disco.
+     */
+    synchronized void sincronizar() {
+        long hasta = ultimo; // Los registros hasta aquí ya están escritos en la proyección
+        MappedByteBuffer[] proyectados = segmentos;
+        for (long s = sincronizadoHasta + 1; s <= hasta;) {
+            int seg = segmento(s);
+            long finSegmento = Math.min(hasta, (long) (seg + 1) * registrosPorSegmento);
+            int pos = posicion(s);
+            proyectados[seg].force(pos, (int) (finSegmento - s + 1) * TAMANO_REGISTRO);
+            s = finSegmento + 1;
+        }
+        sincronizadoHasta = Math.max(sincronizadoHasta, hasta);
+    }
+
+    long fecha(long secuencia) {
+        return segmentos[segmento(secuencia)].getLong(posicion(secuencia) + 8);
+    }
+
+    int tipo(long secuencia) {
+        return segmentos[segmento(secuencia)].getInt(posicion(secuencia) + 16);
+    }
+
+    int cuenta(long secuencia) {
+        return segmentos[segmento(secuencia)].getInt(posicion(secuencia) + 20);
+    }
+
+    double cantidad(long secuencia) {
+        return segmentos[segmento(secuencia)].getDouble(posicion(secuencia) + 24);
+    }
+
+    double saldoTras(long secuencia) {
+        return segmentos[segmento(secuencia)].getDouble(posicion(secuencia) + 32);
+    }
+
+    private int segmento(long secuencia) {
+        return (int) ((secuencia - 1) / registrosPorSegmento);
+    }
+
+    private int posicion(long secuencia) {
+        return (int) ((secuencia - 1) % registrosPorSegmento) * TAMANO_REGISTRO;
+    }
+}
@@ -0,0 +1,211 @@
+package cajeroweb.modelo.dao;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.config.ContadorSentencias;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Escritor de movimientos con confirmación en grupo (group commit).
+ * Los movimientos que llegan de peticiones concurrentes se encolan en una cola acotada y un
+ * único hilo los vuelca en una sola transacción, cada tamanoLote movimientos o cuando pasan
+ * esperaMs milisegundos desde el primero. Hibernate agrupa los inserts en lotes JDBC porque
+ * los ids se reservan por bloques en la tabla secuencias.
+ *
+ * Quien encola un movimiento recibe un {@link CompletableFuture} que solo se completa cuando
+ * la transacción de su lote se ha confirmado. En esa misma transacción se ejecutan las
+ * tareas {@link MantenimientoLote} que mantienen los datos derivados de los movimientos.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+public class EscritorLotesMovimientos {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Autowired(required = false)
+    private List<MantenimientoLote> mantenimientos = List.of();
+
+    @Value("${cajero.movimientos.tamano-lote:100}")
+    private int tamanoLote;
+
+    @Value("${cajero.movimientos.espera-ms:5}")
+    private long esperaMs;
+
+    @Value("${cajero.movimientos.capacidad-cola:10000}")
+    private int capacidadCola;
+
+    private BlockingQueue<Pendiente> cola;
+    private TransactionTemplate tx;
+    private Thread hilo;
+    private volatile boolean activo;
+
+    /**
+     * Movimiento a la espera de ser escrito junto con el aviso para quien lo encoló.
+     */
+    private record Pendiente(Movimiento movimiento, Aviso aviso) {
+    }
+
+    /**
+     * Aviso de un movimiento encolado. Las sentencias del lote se ejecutan en el hilo escritor,
+     * así que el aviso lleva la parte que le toca a este movimiento para que quien lo encoló la
+     * sume a su petición en {@link ContadorSentencias}.
+     */
+    public static final class Aviso extends CompletableFuture<Movimiento> {
+
+        private volatile int sentencias;
+
+        /**
+         * @return sentencias SQL del lote atribuidas a este movimiento, válidas una vez completado
+         */
+        public int getSentencias() {
+            return sentencias;
+        }
+    }
+
+    /**
+     * Crea la cola y arranca el hilo escritor.
+     */
+    @PostConstruct
+    public void iniciar() {
+        cola = new ArrayBlockingQueue<>(capacidadCola);
+        tx = new TransactionTemplate(txManager);
+        activo = true;
+        hilo = new Thread(this::bucle, "cajero-escritor-movimientos");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Detiene el hilo escritor después de vaciar la cola.
+     */
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        activo = false;
+        hilo.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Encola un movimiento para escribirlo en el siguiente lote.
+     * Si la cola está llena, espera como mucho un segundo antes de rechazarlo.
+     *
+     * @param movimiento el movimiento a insertar
+     * @return aviso que se completa con el movimiento (ya con id) cuando su lote es durable
+     */
+    public Aviso encolar(Movimiento movimiento) {
+        Aviso aviso = new Aviso();
+        try {
+            if (!activo || !cola.offer(new Pendiente(movimiento, aviso), 1, TimeUnit.SECONDS)) {
+                aviso.completeExceptionally(new IllegalStateException("Cola de movimientos llena"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aviso.completeExceptionally(e);
+        }
+        return aviso;
+    }
+
+    private void bucle() {
+        List<Pendiente> lote = new ArrayList<>(tamanoLote);
+        while (activo || !cola.isEmpty()) {
+            try {
+                Pendiente primero = cola.poll(100, TimeUnit.MILLISECONDS);
+                if (primero == null) {
+                    continue;
+                }
+                lote.add(primero);
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+                while (lote.size() < tamanoLote) {
+                    cola.drainTo(lote, tamanoLote - lote.size());
+                    long resto = limite - System.nanoTime();
+                    if (lote.size() >= tamanoLote || resto <= 0) {
+                        break;
+                    }
+                    Pendiente siguiente = cola.poll(resto, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+                escribir(lote);
+            } catch (InterruptedException e) {
+                activo = false;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    /**
+     * Escribe un lote en una única transacción y avisa a todos sus productores.
+     */
+    private void escribir(List<Pendiente> lote) {
+        // Orden de fecha: los ids del lote quedan en el mismo orden que el historial
+        lote.sort(Comparator.comparing(p -> p.movimiento().getFecha()));
+        ContadorSentencias.reiniciar();
+        try {
+            List<Movimiento> copias = tx.execute(status -> persistir(lote.stream().map(Pendiente::movimiento).toList()));
+            // Las sentencias del lote se reparten entre sus productores
+            int sentencias = ContadorSentencias.total();
+            for (int i = 0; i < lote.size(); i++) {
+                Movimiento m = lote.get(i).movimiento();
+                m.setIdMovimiento(copias.get(i).getIdMovimiento());
+                lote.get(i).aviso().sentencias = sentencias / lote.size() + (i < sentencias % lote.size() ? 1 : 0);
+                lote.get(i).aviso().complete(m);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (Pendiente p : lote) {
+                p.aviso().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Inserta los movimientos y ejecuta las tareas {@link MantenimientoLote} en la transacción
+     * en curso, sin pasar por la cola. Lo usan los lotes que deben confirmar sus movimientos junto
+     * con otros cambios, como la liquidación mensual. Se persiste una copia de cada movimiento con
+     * una referencia a la cuenta, de forma que las entidades recibidas no quedan gestionadas.
+     *
+     * @param movimientos los movimientos a insertar, en orden de fecha
+     * @return las copias insertadas, ya con id, en el mismo orden
+     */
+    public List<Movimiento> persistir(List<Movimiento> movimientos) {
+        List<Movimiento> persistidos = new ArrayList<>(movimientos.size());
+        for (Movimiento m : movimientos) {
+            Movimiento copia = new Movimiento(0, em.getReference(Cuenta.class, m.getCuenta().getIdCuenta()),
+                    m.getFecha(), m.getCantidad(), m.getOperacion());
+            em.persist(copia);
+            persistidos.add(copia);
+        }
+        em.flush();
+        for (MantenimientoLote mantenimiento : mantenimientos) {
+            mantenimiento.aplicar(persistidos);
+        }
+        em.clear();
+        return persistidos;
+    }
+}
@@ -0,0 +1,173 @@
+package cajeroweb.modelo.dao;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bases de datos de los fragmentos del perfil "fragmentos" y ubicación de cada cuenta en ellas.
+ *
+ * Cada cuenta vive, con sus movimientos, en el fragmento que le asigna el {@link AnilloConsistente}
+ * de cajero.fragmentos.anillo. Cuando el {@link RebalanceadorFragmentos} traslada una cuenta deja
+ * en el fragmento de origen una marca en cuentas_trasladadas, escrita en la misma transacción que
+ * borra la cuenta. Si una operación no encuentra la cuenta en su fragmento sigue esa marca y
+ * recuerda el fragmento nuevo, así que las cuentas se pueden trasladar sin parar la aplicación.
+ * Mientras dura un traslado la copia del destino está en cuentas_entrantes y ninguna operación la usa
+ * hasta que el origen ha dejado la marca.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public class Fragmentos {
+
+    private static final int MAX_SALTOS = 8; // Traslados seguidos de una cuenta que se siguen en una operación
+    private static final int MAX_REDIRIGIDAS = 1_000_000;
+
+    /**
+     * Una base de datos del conjunto: su JdbcTemplate y sus transacciones locales.
+     */
+    public record Fragmento(String nombre, JdbcTemplate jdbc, TransactionTemplate tx, TransactionTemplate lectura) {
+    }
+
+    private final Map<String, Fragmento> fragmentos = new LinkedHashMap<>();
+    private final AnilloConsistente anillo;
+    private final int nodosVirtuales;
+    private final Map<Integer, String> redirigidas = new ConcurrentHashMap<>();
+
+    /**
+     * @param bases las bases de todos los fragmentos por nombre, también las que aún no están en el anillo
+     * @param anillo los nombres de los fragmentos del anillo actual
+     * @param nodosVirtuales puntos de cada fragmento en el anillo
+     */
+    public Fragmentos(Map<String, DataSource> bases, List<String> anillo, int nodosVirtuales) {
+        bases.forEach((nombre, ds) -> {
+            DataSourceTransactionManager gestor = new DataSourceTransactionManager(ds);
+            TransactionTemplate lectura = new TransactionTemplate(gestor);
+            lectura.setReadOnly(true);
+            fragmentos.put(nombre, new Fragmento(nombre, new JdbcTemplate(ds), new TransactionTemplate(gestor), lectura));
+        });
+        for (String nombre : anillo) {
+            if (!fragmentos.containsKey(nombre)) {
+                throw new IllegalArgumentException("Fragmento del anillo sin base de datos: " + nombre);
+            }
+        }
+        this.anillo = new AnilloConsistente(anillo, nodosVirtuales);
+        this.nodosVirtuales = nodosVirtuales;
+    }
+
+    /**
+     * @return todos los fragmentos configurados
+     */
+    public Collection<Fragmento> todos() {
+        return fragmentos.values();
+    }
+
+    /**
+     * @param nombre el nombre del fragmento
+     * @return el fragmento, o null si no está configurado
+     */
+    public Fragmento fragmento(String nombre) {
+        return fragmentos.get(nombre);
+    }
+
+    /**
+     * @return el anillo con el que se ubican las cuentas
+     */
+    public AnilloConsistente anillo() {
+        return anillo;
+    }
+
+    int nodosVirtuales() {
+        return nodosVirtuales;
+    }
+
+    /**
+     * Ejecuta una operación en el fragmento de la cuenta. La operación devuelve null si la
+     * cuenta no está en el fragmento; en ese caso se mira si está llegando a él (y, si su origen
+     * ya la ha soltado, se termina de traer) o si se ha ido, y se repite donde esté.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param operacion la operación sobre el fragmento; null si la cuenta no está en él
+     * @return el resultado de la operación, o null si la cuenta no existe
+     */
+    public <T> T ejecutar(int idCuenta, Function<Fragmento, T> operacion) {
+        String siguiente = redirigidas.getOrDefault(idCuenta, anillo.fragmento(idCuenta));
+        for (int i = 0; i < MAX_SALTOS; i++) {
+            Fragmento f = fragmentos.get(siguiente);
+            T resultado = operacion.apply(f);
+            if (resultado != null) {
+                return resultado;
+            }
+            String origen = origenEntrante(f, idCuenta);
+            if (origen != null) {
+                // Copia a medio trasladar: solo vale si el origen ya ha dejado la marca hacia aquí
+                if (f.nombre().equals(trasladada(fragmentos.get(origen), idCuenta))) {
+                    promover(f, idCuenta);
+                } else {
+                    siguiente = origen;
+                }
+                continue;
+            }
+            String destino = trasladada(f, idCuenta);
+            if (destino == null) {
+                return null;
+            }
+            if (redirigidas.size() > MAX_REDIRIGIDAS) {
+                redirigidas.clear(); // Cota de memoria: las marcas siguen en los fragmentos
+            }
+            if (destino.equals(anillo.fragmento(idCuenta))) {
+                redirigidas.remove(idCuenta);
+            } else {
+                redirigidas.put(idCuenta, destino);
+            }
+            siguiente = destino;
+        }
+        throw new IllegalStateException("Demasiados traslados seguidos de la cuenta " + idCuenta);
+    }
+
+    /**
+     * @return el fragmento al que se ha trasladado la cuenta, o null si no tiene marca en este
+     */
+    static String trasladada(Fragmento f, int idCuenta) {
+        List<String> destino = f.jdbc().queryForList("select fragmento from cuentas_trasladadas where id_cuenta = ?",
+                String.class, idCuenta);
+        return destino.isEmpty() ? null : destino.get(0);
+    }
+
+    private static String origenEntrante(Fragmento f, int idCuenta) {
+        List<String> origen = f.jdbc().queryForList("select fragmento_origen from cuentas_entrantes where id_cuenta = ?",
+                String.class, idCuenta);
+        return origen.isEmpty() ? null : origen.get(0);
+    }
+
+    /**
+     * Pasa la copia de la cuenta de cuentas_entrantes y movimientos_entrantes a las tablas del
+     * fragmento y quita la marca de traslado que pudiera tener en él. Solo se llama cuando el
+     * origen ya ha borrado la cuenta; si otro hilo o nodo la ha pasado antes no hace nada.
+     */
+    static void promover(Fragmento f, int idCuenta) {
+        f.tx().executeWithoutResult(estado -> {
+            if (f.jdbc().queryForList("select id_cuenta from cuentas_entrantes where id_cuenta = ? for update",
+                    Integer.class, idCuenta).isEmpty()) {
+                return;
+            }
+            f.jdbc().update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) select id_cuenta, saldo, tipo_cuenta"
+                    + " from cuentas_entrantes where id_cuenta = ?", idCuenta);
+            f.jdbc().update("insert into movimientos (id_cuenta, fecha, cantidad, operacion) select id_cuenta, fecha,"
+                    + " cantidad, operacion from movimientos_entrantes where id_cuenta = ? order by orden", idCuenta);
+            f.jdbc().update("delete from movimientos_entrantes where id_cuenta = ?", idCuenta);
+            f.jdbc().update("delete from cuentas_entrantes where id_cuenta = ?", idCuenta);
+            f.jdbc().update("delete from cuentas_trasladadas where id_cuenta = ?", idCuenta);
+        });
+    }
+}
@@ -0,0 +1,444 @@
+package cajeroweb.modelo.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Libro de cuentas del perfil "eventos": el {@link DiarioEventos} es la única fuente de verdad
+ * de saldos y movimientos, y los saldos en memoria son estado derivado.
+ *
+ * Al arrancar, {@link #reconstruir()} carga las cuentas de la tabla cuentas (su saldo es el de
+ * apertura, anterior al primer evento), aplica la última instantánea y reproduce los registros
+ * del diario posteriores a ella. Cada {@code cajero.eventos.instantanea-cada} registros se escribe
+ * en segundo plano una instantánea nueva con el saldo de cada cuenta y la lista de secuencias de
+ * sus movimientos, de modo que la reproducción solo recorre la cola del diario.
+ *
+ * Todas las escrituras se hacen con {@link #cerrojo} tomado. La tabla cuentas solo se lee (y se
+ * actualiza el tipo de cuenta), así que esta instancia debe ser la única que anota en el diario.
+ *
+ * Con cajero.eventos.sincronizar-ms=0 cada operación termina cuando su registro está en disco:
+ * {@link #confirmar()} se llama con el cerrojo y {@link #asegurarEnDisco(long)} después de
+ * soltarlo, así que mientras un hilo fuerza el diario los demás siguen anotando y el siguiente
+ * forzado cubre a todos los que esperan (escritura agrupada). Con un valor mayor el diario se
+ * fuerza cada tantos milisegundos y una caída del sistema operativo puede perder las operaciones
+ * confirmadas en ese intervalo; si solo cae el proceso no se pierde nada, porque los registros
+ * ya están en la caché de páginas del sistema.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("eventos")
+public class LibroEventos {
+
+    private static final int MAGIA_INSTANTANEA = 0x434A494E; // "CJIN"
+    private static final int VERSION_INSTANTANEA = 1;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.eventos.directorio:eventos}")
+    private String directorio;
+
+    @Value("${cajero.eventos.registros-por-segmento:1048576}")
+    private int registrosPorSegmento;
+
+    @Value("${cajero.eventos.instantanea-cada:100000}")
+    private long instantaneaCada;
+
+    @Value("${cajero.eventos.sincronizar-ms:0}")
+    private long sincronizarMs;
+
+    /** Cerrojo de todas las escrituras en el diario y en el estado de las cuentas. */
+    final ReentrantLock cerrojo = new ReentrantLock();
+
+    private final Map<Integer, EstadoCuenta> cuentas = new HashMap<>();
+    private DiarioEventos diario;
+    private long ultimaFecha;
+    private long secuenciaInstantanea;
+    private boolean instantaneaEnCurso;
+    private volatile long reproducidos;
+
+    private ScheduledExecutorService tareas;
+    private Timer reproduccion;
+
+    /**
+     * Estado derivado de una cuenta: saldo, tipo y secuencias de sus movimientos en orden.
+     * El prefijo [0, num) de {@code movimientos} no cambia nunca; al crecer se copia a un array nuevo.
+     */
+    static final class EstadoCuenta {
+        final int idCuenta;
+        double saldo;
+        String tipo;
+        long[] movimientos = new long[4];
+        int num;
+
+        EstadoCuenta(int idCuenta, double saldo, String tipo) {
+            this.idCuenta = idCuenta;
+            this.saldo = saldo;
+            this.tipo = tipo;
+        }
+
+        void anadir(long secuencia) {
+            if (num == movimientos.length) {
+                movimientos = Arrays.copyOf(movimientos, num * 2);
+            }
+            movimientos[num++] = secuencia;
+        }
+    }
+
+    /**
+     * Vista inmutable de los movimientos de una cuenta, tomada con el cerrojo.
+     */
+    record Historial(long[] secuencias, int num) {
+    }
+
+    /**
+     * Abre el diario, reconstruye el estado y arranca la sincronización periódica si está configurada.
+     */
+    @PostConstruct
+    public void iniciar() throws IOException {
+        reproduccion = Timer.builder("cajero.eventos.reproduccion")
+                .description("Tiempo de reconstrucción del estado a partir de la instantánea y el diario")
+                .register(registro);
+        Gauge.builder("cajero.eventos.diario.registros", this, l -> l.diario.ultimo()).register(registro);
+        Gauge.builder("cajero.eventos.diario.bytes", this, l -> l.diario.bytes()).baseUnit("bytes").register(registro);
+        Gauge.builder("cajero.eventos.reproduccion.registros", this, l -> l.reproducidos).register(registro);
+        tareas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cajero-diario-eventos");
+            t.setDaemon(true);
+            return t;
+        });
+        reconstruir();
+        if (sincronizarMs > 0) {
+            tareas.scheduleWithFixedDelay(this::sincronizar, sincronizarMs, sincronizarMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sincroniza el diario y deja una instantánea al cerrar, para que el siguiente arranque no
+     * tenga que reproducir nada.
+     */
+    @PreDestroy
+    public void detener() {
+        tareas.shutdown();
+        try {
+            tareas.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            instantanea();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reconstruye desde disco el estado de todas las cuentas: saldos de apertura de la tabla
+     * cuentas, última instantánea válida y reproducción de la cola del diario. El tiempo se
+     * publica en cajero.eventos.reproduccion y el número de registros reproducidos en
+     * cajero.eventos.reproduccion.registros, junto al tamaño del diario.
+     *
+     * @return el número de registros del diario reproducidos
+     */
+    public long reconstruir() throws IOException {
+        cerrojo.lock();
+        try {
+            long inicio = System.nanoTime();
+            Path dir = Paths.get(directorio);
+            diario = new DiarioEventos(dir, registrosPorSegmento);
+            cuentas.clear();
+            jdbc.query("select id_cuenta, saldo, tipo_cuenta from cuentas", rs -> {
+                int id = rs.getInt(1);
+                cuentas.put(id, new EstadoCuenta(id, rs.getDouble(2), rs.getString(3)));
+            });
+            secuenciaInstantanea = leerInstantanea(dir);
+
+            long fin = diario.validoHasta(secuenciaInstantanea + 1);
+            if (fin > secuenciaInstantanea && diario.tipo(fin) == DiarioEventos.TRANSFERENCIA_SALIDA) {
+                fin--; // Transferencia sin su segunda mitad: no llegó a completarse
+            }
+            ultimaFecha = 0;
+            for (long s = secuenciaInstantanea + 1; s <= fin; s++) {
+                int id = diario.cuenta(s);
+                EstadoCuenta e = cuentas.get(id);
+                if (e == null) {
+                    // Cuenta que ya no está en la tabla: el saldo de apertura sale del propio registro
+                    e = new EstadoCuenta(id, diario.saldoTras(s) - diario.cantidad(s), null);
+                    cuentas.put(id, e);
+                }
+                e.saldo = diario.saldoTras(s);
+                e.anadir(s);
+            }
+            diario.truncar(fin);
+            if (fin > 0) {
+                ultimaFecha = diario.fecha(fin);
+            }
+            reproducidos = fin - secuenciaInstantanea;
+            reproduccion.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            return reproducidos;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Aplica la instantánea más reciente que se pueda leer entera.
+     *
+     * @return la secuencia del último registro incluido en ella, 0 si no hay ninguna
+     */
+    private long leerInstantanea(Path dir) throws IOException {
+        List<Path> ficheros;
+        try (Stream<Path> lista = Files.list(dir)) {
+            ficheros = lista.filter(f -> f.getFileName().toString().matches("instantanea-\\d+\\.dat"))
+                    .sorted().toList();
+        }
+        for (int i = ficheros.size() - 1; i >= 0; i--) {
+            Map<Integer, EstadoCuenta> leidas = new HashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ficheros.get(i)), 1 << 16))) {
+                if (in.readInt() != MAGIA_INSTANTANEA || in.readInt() != VERSION_INSTANTANEA) {
+                    continue;
+                }
+                long secuencia = in.readLong();
+                int numCuentas = in.readInt();
+                for (int c = 0; c < numCuentas; c++) {
+                    int id = in.readInt();
+                    EstadoCuenta e = new EstadoCuenta(id, in.readDouble(), null);
+                    int num = in.readInt();
+                    e.movimientos = new long[Math.max(4, num)];
+                    for (int m = 0; m < num; m++) {
+                        e.movimientos[m] = in.readLong();
+                    }
+                    e.num = num;
+                    leidas.put(id, e);
+                }
+                if (in.readInt() != MAGIA_INSTANTANEA || !diario.valido(secuencia)) {
+                    continue;
+                }
+                for (EstadoCuenta e : leidas.values()) {
+                    EstadoCuenta tabla = cuentas.get(e.idCuenta);
+                    e.tipo = tabla != null ? tabla.tipo : null;
+                    cuentas.put(e.idCuenta, e);
+                }
+                return secuencia;
+            } catch (IOException e) {
+                e.printStackTrace(); // Instantánea incompleta: se prueba con la anterior
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Escribe una instantánea con el estado actual. El estado se copia con el cerrojo tomado
+     * (solo saldos y referencias a los arrays de movimientos) y el fichero se escribe fuera.
+     */
+    public void instantanea() throws IOException {
+        List<EstadoCuenta> copia;
+        long secuencia;
+        cerrojo.lock();
+        try {
+            secuencia = diario.ultimo();
+            diario.sincronizar(); // La instantánea nunca puede ir por delante del diario en disco
+            copia = new ArrayList<>(cuentas.size());
+            for (EstadoCuenta e : cuentas.values()) {
+                EstadoCuenta c = new EstadoCuenta(e.idCuenta, e.saldo, null);
+                c.movimientos = e.movimientos;
+                c.num = e.num;
+                copia.add(c);
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+
+        Path dir = Paths.get(directorio);
+        String nombre = String.format("instantanea-%016d.dat", secuencia);
+        Path temporal = dir.resolve(nombre + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16));
+            out.writeInt(MAGIA_INSTANTANEA);
+            out.writeInt(VERSION_INSTANTANEA);
+            out.writeLong(secuencia);
+            out.writeInt(copia.size());
+            for (EstadoCuenta e : copia) {
+                out.writeInt(e.idCuenta);
+                out.writeDouble(e.saldo);
+                out.writeInt(e.num);
+                for (int m = 0; m < e.num; m++) {
+                    out.writeLong(e.movimientos[m]);
+                }
+            }
+            out.writeInt(MAGIA_INSTANTANEA);
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, dir.resolve(nombre), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        cerrojo.lock();
+        try {
+            secuenciaInstantanea = Math.max(secuenciaInstantanea, secuencia);
+        } finally {
+            cerrojo.unlock();
+        }
+        // Se conservan la nueva y la anterior por si la nueva resultara ilegible
+        try (Stream<Path> lista = Files.list(dir)) {
+            List<Path> viejas = lista.filter(f -> f.getFileName().toString().matches("instantanea-\\d+\\.dat"))
+                    .sorted().toList();
+            for (int i = 0; i < viejas.size() - 2; i++) {
+                Files.deleteIfExists(viejas.get(i));
+            }
+        }
+    }
+
+    /**
+     * Devuelve el estado de una cuenta, cargándola de la tabla cuentas si no se conocía.
+     * Debe llamarse sin el cerrojo tomado, porque la carga consulta la base de datos.
+     *
+     * @return true si la cuenta existe
+     */
+    boolean asegurarCargada(int idCuenta) {
+        cerrojo.lock();
+        try {
+            if (cuentas.containsKey(idCuenta)) {
+                return true;
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+        List<EstadoCuenta> leida = jdbc.query("select saldo, tipo_cuenta from cuentas where id_cuenta = ?",
+                (rs, n) -> new EstadoCuenta(idCuenta, rs.getDouble(1), rs.getString(2)), idCuenta);
+        if (leida.isEmpty()) {
+            return false;
+        }
+        cerrojo.lock();
+        try {
+            cuentas.putIfAbsent(idCuenta, leida.get(0));
+            return true;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * @return el estado de la cuenta, o null si no está cargada; requiere el cerrojo
+     */
+    EstadoCuenta estado(int idCuenta) {
+        return cuentas.get(idCuenta);
+    }
+
+    /**
+     * Anota un movimiento sobre una cuenta y actualiza su estado; requiere el cerrojo.
+     * Las fechas del diario nunca retroceden, aunque lo haga el reloj del sistema.
+     */
+    void anotar(int tipo, EstadoCuenta e, double cantidad) {
+        ultimaFecha = Math.max(ultimaFecha, System.currentTimeMillis());
+        double saldo = e.saldo + cantidad;
+        try {
+            e.anadir(diario.anotar(ultimaFecha, tipo, e.idCuenta, cantidad, saldo));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        e.saldo = saldo;
+    }
+
+    /**
+     * Termina una operación y lanza una instantánea si toca; requiere el cerrojo. El registro se
+     * fuerza a disco después, sin el cerrojo, con {@link #asegurarEnDisco(long)}.
+     *
+     * @return la secuencia del último registro de la operación
+     */
+    long confirmar() {
+        if (!instantaneaEnCurso && instantaneaCada > 0 && diario.ultimo() - secuenciaInstantanea >= instantaneaCada) {
+            instantaneaEnCurso = true;
+            tareas.execute(() -> {
+                try {
+                    instantanea();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                } finally {
+                    cerrojo.lock();
+                    try {
+                        instantaneaEnCurso = false;
+                    } finally {
+                        cerrojo.unlock();
+                    }
+                }
+            });
+        }
+        return diario.ultimo();
+    }
+
+    /**
+     * Espera a que el registro esté en disco si no hay sincronización periódica. Debe llamarse
+     * sin el cerrojo tomado.
+     *
+     * @param secuencia la secuencia devuelta por {@link #confirmar()}
+     */
+    void asegurarEnDisco(long secuencia) {
+        if (sincronizarMs <= 0 && diario.sincronizadoHasta() < secuencia) {
+            diario.sincronizar();
+        }
+    }
+
+    private void sincronizar() {
+        diario.sincronizar(); // Sin el cerrojo: las operaciones siguen anotando mientras tanto
+    }
+
+    /**
+     * @return los movimientos de la cuenta en orden cronológico, o null si no está cargada
+     */
+    Historial historial(int idCuenta) {
+        cerrojo.lock();
+        try {
+            EstadoCuenta e = cuentas.get(idCuenta);
+            return e == null ? null : new Historial(e.movimientos, e.num);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * @return el diario, para leer los registros de un {@link Historial} sin el cerrojo
+     */
+    DiarioEventos diario() {
+        return diario;
+    }
+}
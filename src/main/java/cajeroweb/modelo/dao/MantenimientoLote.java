@@ -0,0 +1,25 @@
+package cajeroweb.modelo.dao;
+
+import java.util.List;
+
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Tarea que mantiene datos derivados de los movimientos (resúmenes, checkpoints...) a medida
+ * que se insertan. {@link EscritorLotesMovimientos} invoca todas las implementaciones dentro de
+ * la misma transacción que inserta cada lote, así que los datos derivados se confirman
+ * o se deshacen junto con los movimientos.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public interface MantenimientoLote {
+
+    /**
+     * Aplica un lote de movimientos recién insertados (ya con id), en orden de fecha.
+     *
+     * @param lote los movimientos del lote
+     */
+    void aplicar(List<Movimiento> lote);
+}
@@ -1,7 +1,12 @@
 package cajeroweb.modelo.dao;
 
 import java.util.List;
+import java.util.function.Consumer;
 
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.dto.TotalMensual;
 import cajeroweb.modelo.entidades.Movimiento;
 
 /**
@@ -24,6 +29,23 @@ public interface MovimientoDao {
      */
     Movimiento insertUno(Movimiento entidad);
 
+    /**
+     * Inserta varios movimientos. Por defecto los inserta uno a uno; las implementaciones
+     * pueden agruparlos.
+     *
+     * @param entidades los movimientos a insertar
+     * @return el número de movimientos insertados
+     */
+    default int insertVarios(List<Movimiento> entidades) {
+        int insertados = 0;
+        for (Movimiento m : entidades) {
+            if (insertUno(m) != null) {
+                insertados++;
+            }
+        }
+        return insertados;
+    }
+
     /**
      * Obtiene una lista de movimientos asociados a una cuenta específica.
      *
@@ -31,4 +53,53 @@ public interface MovimientoDao {
      * @return una lista de objetos Movimiento correspondientes a la cuenta especificada
      */
     List<Movimiento> movimientos(int idCuenta);
+
+    /**
+     * Obtiene una página del historial de movimientos de una cuenta, del más reciente al más antiguo.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param cursor posición devuelta en la página anterior, o null para la primera página
+     * @param tamano número máximo de movimientos de la página
+     * @return la página de movimientos con el cursor para pedir la siguiente
+     */
+    PaginaMovimientos pagina(int idCuenta, FiltroMovimientos filtro, CursorMovimientos cursor, int tamano);
+
+    /**
+     * Calcula el saldo de la cuenta tras cada movimiento de una página del historial. Las filas
+     * de la página deben ser consecutivas en el historial, es decir, sin filtro de operación.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param pagina los movimientos de la página, del más reciente al más antiguo
+     * @return el saldo tras cada movimiento, en el mismo orden que la página
+     */
+    double[] saldosTras(int idCuenta, List<Movimiento> pagina);
+
+    /**
+     * Devuelve el id del último movimiento registrado en la cuenta. Sirve de versión de su
+     * historial: cambia con cada movimiento nuevo y se lee sin consultar el historial.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return el id del último movimiento, o 0 si no se conoce ninguno
+     */
+    int ultimoIdMovimiento(int idCuenta);
+
+    /**
+     * Devuelve los totales de la cuenta agrupados por mes y tipo de operación, sin recorrer sus movimientos.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return una fila por mes y tipo de operación, del mes más reciente al más antiguo
+     */
+    List<TotalMensual> totalesMensuales(int idCuenta);
+
+    /**
+     * Recorre en orden cronológico todos los movimientos de una cuenta que cumplen el filtro,
+     * entregándolos uno a uno sin cargar el historial en memoria. Los movimientos entregados
+     * no llevan la cuenta asociada.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param consumidor recibe cada movimiento; sus excepciones interrumpen el recorrido
+     */
+    void recorrer(int idCuenta, FiltroMovimientos filtro, Consumer<Movimiento> consumidor);
 }
@@ -0,0 +1,203 @@
+package cajeroweb.modelo.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import cajeroweb.modelo.dao.LibroEventos.Historial;
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.dto.TotalMensual;
+import cajeroweb.modelo.entidades.Movimiento;
+import io.micrometer.core.annotation.Timed;
+
+/**
+ * Implementación del DAO de Movimiento del perfil "eventos". Los movimientos son los registros
+ * que {@link CuentaDaoImplEventos} anota en el diario, así que insertarlos no hace nada y las
+ * consultas leen el diario proyectado en memoria a partir de la lista de secuencias de cada
+ * cuenta. El id de cada movimiento es su secuencia en el diario y cada registro lleva el saldo
+ * tras el movimiento, de modo que {@link #saldosTras(int, List)} no necesita ninguna suma.
+ * Los movimientos devueltos no llevan la cuenta asociada.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Repository
+@Timed("cajero.dao")
+@Profile("eventos")
+public class MovimientoDaoImplEventos implements MovimientoDao {
+
+    @Autowired
+    private LibroEventos libro;
+
+    /**
+     * No hace nada: el movimiento ya quedó anotado en el diario al hacer la operación de la cuenta.
+     *
+     * @param entidad la entidad Movimiento
+     * @return la misma entidad
+     */
+    @Override
+    public Movimiento insertUno(Movimiento entidad) {
+        return entidad;
+    }
+
+    /**
+     * Obtiene todos los movimientos de una cuenta en orden cronológico.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return los movimientos de la cuenta, o una lista vacía si no existe
+     */
+    @Override
+    public List<Movimiento> movimientos(int idCuenta) {
+        List<Movimiento> lista = new ArrayList<>();
+        recorrer(idCuenta, FiltroMovimientos.TODOS, lista::add);
+        return lista;
+    }
+
+    /**
+     * Obtiene una página del historial: busca por bisección la posición del cursor en la lista
+     * de secuencias de la cuenta y recorre hacia atrás hasta llenar la página.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param cursor posición devuelta en la página anterior, o null para la primera página
+     * @param tamano número máximo de movimientos de la página
+     * @return la página de movimientos con el cursor para pedir la siguiente
+     */
+    @Override
+    public PaginaMovimientos pagina(int idCuenta, FiltroMovimientos filtro, CursorMovimientos cursor, int tamano) {
+        Historial h = libro.historial(idCuenta);
+        if (h == null) {
+            return new PaginaMovimientos(List.of(), null);
+        }
+        DiarioEventos diario = libro.diario();
+        long antesFecha = cursor != null ? cursor.fecha().getTime()
+                : filtro.hasta() != null ? filtro.hasta().getTime() : Long.MAX_VALUE;
+        long antesId = cursor != null ? cursor.idMovimiento() : 0;
+        long desde = filtro.desde() != null ? filtro.desde().getTime() : Long.MIN_VALUE;
+
+        // Primera posición que no es anterior al cursor
+        int bajo = 0;
+        int alto = h.num();
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            long s = h.secuencias()[medio];
+            long f = diario.fecha(s);
+            if (f < antesFecha || (f == antesFecha && s < antesId)) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        List<Movimiento> filas = new ArrayList<>(tamano + 1);
+        for (int i = bajo - 1; i >= 0 && filas.size() <= tamano; i--) {
+            long s = h.secuencias()[i];
+            if (diario.fecha(s) < desde) {
+                break;
+            }
+            Movimiento m = movimiento(diario, s);
+            if (filtro.operacion() == null || filtro.operacion().equals(m.getOperacion())) {
+                filas.add(m);
+            }
+        }
+        if (filas.size() <= tamano) {
+            return new PaginaMovimientos(filas, null);
+        }
+        List<Movimiento> pagina = filas.subList(0, tamano);
+        Movimiento ultimo = pagina.get(tamano - 1);
+        return new PaginaMovimientos(pagina, new CursorMovimientos(ultimo.getFecha(), ultimo.getIdMovimiento()));
+    }
+
+    /**
+     * Devuelve el saldo tras cada movimiento, que está guardado en su registro del diario.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param pagina los movimientos de la página
+     * @return el saldo tras cada movimiento, en el mismo orden que la página
+     */
+    @Override
+    public double[] saldosTras(int idCuenta, List<Movimiento> pagina) {
+        DiarioEventos diario = libro.diario();
+        double[] saldos = new double[pagina.size()];
+        for (int i = 0; i < saldos.length; i++) {
+            saldos[i] = diario.saldoTras(pagina.get(i).getIdMovimiento());
+        }
+        return saldos;
+    }
+
+    /**
+     * Devuelve la secuencia del último registro de la cuenta en el diario.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return el id del último movimiento, o 0 si la cuenta no tiene movimientos
+     */
+    @Override
+    public int ultimoIdMovimiento(int idCuenta) {
+        Historial h = libro.historial(idCuenta);
+        return h == null || h.num() == 0 ? 0 : (int) h.secuencias()[h.num() - 1];
+    }
+
+    /**
+     * Recorre en orden cronológico los movimientos de la cuenta que cumplen el filtro.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param consumidor recibe cada movimiento en orden (fecha, idMovimiento)
+     */
+    @Override
+    public void recorrer(int idCuenta, FiltroMovimientos filtro, Consumer<Movimiento> consumidor) {
+        Historial h = libro.historial(idCuenta);
+        if (h == null) {
+            return;
+        }
+        DiarioEventos diario = libro.diario();
+        long desde = filtro.desde() != null ? filtro.desde().getTime() : Long.MIN_VALUE;
+        long hasta = filtro.hasta() != null ? filtro.hasta().getTime() : Long.MAX_VALUE;
+        for (int i = 0; i < h.num(); i++) {
+            long s = h.secuencias()[i];
+            long fecha = diario.fecha(s);
+            if (fecha >= hasta) {
+                break;
+            }
+            if (fecha >= desde) {
+                Movimiento m = movimiento(diario, s);
+                if (filtro.operacion() == null || filtro.operacion().equals(m.getOperacion())) {
+                    consumidor.accept(m);
+                }
+            }
+        }
+    }
+
+    /**
+     * Agrupa al vuelo el historial de la cuenta por mes y operación. Este perfil no guarda los
+     * totales, así que el coste crece con el número de movimientos de la cuenta.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return una fila por mes y tipo de operación, del mes más reciente al más antiguo
+     */
+    @Override
+    public List<TotalMensual> totalesMensuales(int idCuenta) {
+        return ResumenMensual.agrupar(c -> recorrer(idCuenta, FiltroMovimientos.TODOS, c));
+    }
+
+    private static Movimiento movimiento(DiarioEventos diario, long secuencia) {
+        return new Movimiento((int) secuencia, null, new Date(diario.fecha(secuencia)), diario.cantidad(secuencia),
+                operacion(diario.tipo(secuencia)));
+    }
+
+    private static String operacion(int tipo) {
+        return switch (tipo) {
+            case DiarioEventos.INGRESO -> "Ingreso";
+            case DiarioEventos.EXTRACCION -> "Extracción";
+            case DiarioEventos.TRANSFERENCIA_SALIDA, DiarioEventos.TRANSFERENCIA_ENTRADA -> "Transferencia";
+            default -> "Ajuste";
+        };
+    }
+}
@@ -0,0 +1,224 @@
+package cajeroweb.modelo.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import cajeroweb.modelo.dao.Fragmentos.Fragmento;
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.dto.TotalMensual;
+import cajeroweb.modelo.entidades.Movimiento;
+import io.micrometer.core.annotation.Timed;
+
+/**
+ * Implementación del DAO de Movimiento del perfil "fragmentos". Los movimientos de una cuenta
+ * están en el fragmento de la cuenta y cada consulta es una transacción de solo lectura en él que
+ * comprueba primero que la cuenta sigue ahí; si se ha trasladado, {@link Fragmentos} repite la
+ * consulta en el fragmento nuevo.
+ *
+ * Los movimientos de ingresos, extracciones y transferencias los escribe
+ * {@link CuentaDaoImplFragmentos} junto con el saldo, así que insertarlos no hace nada; el resto
+ * se insertan en el fragmento de su cuenta. El perfil no usa el escritor de lotes, los checkpoints
+ * ni el archivo: el saldo tras cada movimiento se calcula desde el saldo actual restando los
+ * movimientos posteriores, y los totales mensuales se agrupan en el fragmento en cada consulta.
+ * Los movimientos devueltos no llevan la cuenta asociada.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Repository
+@Timed("cajero.dao")
+@Profile("fragmentos")
+public class MovimientoDaoImplFragmentos implements MovimientoDao {
+
+    private static final Set<String> ESCRITAS_POR_CUENTA = Set.of(CuentaDaoImplFragmentos.INGRESO,
+            CuentaDaoImplFragmentos.EXTRACCION, TransferenciasFragmentos.TRANSFERENCIA);
+
+    private static final Date SIN_LIMITE_INFERIOR = new Date(0);
+    private static final Date SIN_LIMITE_SUPERIOR = new Date(253402300799000L); // 9999-12-31
+
+    private static final RowMapper<Movimiento> MOVIMIENTO = (rs, i) -> new Movimiento(rs.getInt(1), null,
+            rs.getTimestamp(2), rs.getDouble(3), rs.getString(4));
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    /**
+     * Inserta el movimiento en el fragmento de su cuenta, salvo los de ingresos, extracciones y
+     * transferencias, que ya están escritos.
+     *
+     * @param entidad la entidad Movimiento
+     * @return la misma entidad, o null si la cuenta no existe
+     */
+    @Override
+    public Movimiento insertUno(Movimiento entidad) {
+        if (ESCRITAS_POR_CUENTA.contains(entidad.getOperacion())) {
+            return entidad;
+        }
+        int idCuenta = entidad.getCuenta().getIdCuenta();
+        return fragmentos.ejecutar(idCuenta, f -> f.tx().execute(estado -> {
+            if (f.jdbc().queryForList("select id_cuenta from cuentas where id_cuenta = ? for update", Integer.class,
+                    idCuenta).isEmpty()) {
+                return null;
+            }
+            TransferenciasFragmentos.insertarMovimiento(f, idCuenta, entidad.getFecha(), entidad.getCantidad(),
+                    entidad.getOperacion());
+            return entidad;
+        }));
+    }
+
+    /**
+     * Obtiene todos los movimientos de una cuenta en orden cronológico.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return los movimientos de la cuenta, o una lista vacía si no existe
+     */
+    @Override
+    public List<Movimiento> movimientos(int idCuenta) {
+        List<Movimiento> lista = new ArrayList<>();
+        recorrer(idCuenta, FiltroMovimientos.TODOS, lista::add);
+        return lista;
+    }
+
+    /**
+     * Obtiene una página del historial por paginación de clave sobre (fecha, idMovimiento), del
+     * más reciente al más antiguo. Se pide una fila de más para saber si existe una página siguiente.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param cursor posición devuelta en la página anterior, o null para la primera página
+     * @param tamano número máximo de movimientos de la página
+     * @return la página de movimientos con el cursor para pedir la siguiente
+     */
+    @Override
+    public PaginaMovimientos pagina(int idCuenta, FiltroMovimientos filtro, CursorMovimientos cursor, int tamano) {
+        CursorMovimientos desdeCursor = cursor != null ? cursor
+                : new CursorMovimientos(filtro.hasta() != null ? filtro.hasta() : SIN_LIMITE_SUPERIOR, 0);
+        Date desde = filtro.desde() != null ? filtro.desde() : SIN_LIMITE_INFERIOR;
+        String sql = "select id_movimiento, fecha, cantidad, operacion from movimientos where id_cuenta = ? and fecha >= ?"
+                + " and (fecha < ? or (fecha = ? and id_movimiento < ?))"
+                + (filtro.operacion() != null ? " and operacion = ?" : "")
+                + " order by fecha desc, id_movimiento desc limit ?";
+        List<Object> parametros = new ArrayList<>(List.of(idCuenta, desde, desdeCursor.fecha(), desdeCursor.fecha(),
+                desdeCursor.idMovimiento()));
+        if (filtro.operacion() != null) {
+            parametros.add(filtro.operacion());
+        }
+        parametros.add(tamano + 1);
+        List<Movimiento> filas = leer(idCuenta, f -> f.jdbc().query(sql, MOVIMIENTO, parametros.toArray()));
+        if (filas == null || filas.size() <= tamano) {
+            return new PaginaMovimientos(filas == null ? List.of() : filas, null);
+        }
+        List<Movimiento> pagina = filas.subList(0, tamano);
+        Movimiento ultimo = pagina.get(tamano - 1);
+        return new PaginaMovimientos(pagina, new CursorMovimientos(ultimo.getFecha(), ultimo.getIdMovimiento()));
+    }
+
+    /**
+     * Calcula el saldo tras cada movimiento de la página: el saldo actual menos los movimientos
+     * posteriores al primero de la página, leídos en la misma transacción. El coste crece con el
+     * número de movimientos posteriores a la página.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param pagina los movimientos de la página, del más reciente al más antiguo
+     * @return el saldo tras cada movimiento, en el mismo orden que la página
+     */
+    @Override
+    public double[] saldosTras(int idCuenta, List<Movimiento> pagina) {
+        double[] saldos = new double[pagina.size()];
+        if (pagina.isEmpty()) {
+            return saldos;
+        }
+        Movimiento primero = pagina.get(0);
+        Double saldo = leer(idCuenta, f -> f.jdbc().queryForObject("select c.saldo - coalesce((select sum(m.cantidad)"
+                + " from movimientos m where m.id_cuenta = c.id_cuenta and (m.fecha > ? or (m.fecha = ? and m.id_movimiento > ?))), 0)"
+                + " from cuentas c where c.id_cuenta = ?", Double.class,
+                primero.getFecha(), primero.getFecha(), primero.getIdMovimiento(), idCuenta));
+        if (saldo == null) {
+            return saldos;
+        }
+        double s = saldo;
+        for (int i = 0; i < saldos.length; i++) {
+            saldos[i] = s;
+            s -= pagina.get(i).getCantidad();
+        }
+        return saldos;
+    }
+
+    /**
+     * Lee el id del último movimiento de la cuenta con el índice (id_cuenta, fecha).
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return el id del último movimiento, o 0 si no tiene ninguno
+     */
+    @Override
+    public int ultimoIdMovimiento(int idCuenta) {
+        List<Integer> ids = leer(idCuenta, f -> f.jdbc().queryForList("select id_movimiento from movimientos"
+                + " where id_cuenta = ? order by fecha desc, id_movimiento desc limit 1", Integer.class, idCuenta));
+        return ids == null || ids.isEmpty() ? 0 : ids.get(0);
+    }
+
+    /**
+     * Agrupa los movimientos de la cuenta por mes y operación en el fragmento. El mes es el de la
+     * zona horaria de la base de datos.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return una fila por mes y tipo de operación, del mes más reciente al más antiguo
+     */
+    @Override
+    public List<TotalMensual> totalesMensuales(int idCuenta) {
+        List<TotalMensual> totales = leer(idCuenta, f -> f.jdbc().query("select year(fecha) anio, month(fecha) mes,"
+                + " coalesce(operacion, '') op, count(*), sum(cantidad) from movimientos where id_cuenta = ?"
+                + " group by anio, mes, op order by anio desc, mes desc, op",
+                (rs, i) -> new TotalMensual(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4), rs.getDouble(5)),
+                idCuenta));
+        return totales == null ? List.of() : totales;
+    }
+
+    /**
+     * Recorre en orden cronológico los movimientos de la cuenta que cumplen el filtro, leyéndolos
+     * del fragmento según llegan.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param consumidor recibe cada movimiento en orden (fecha, idMovimiento)
+     */
+    @Override
+    public void recorrer(int idCuenta, FiltroMovimientos filtro, Consumer<Movimiento> consumidor) {
+        String sql = "select id_movimiento, fecha, cantidad, operacion from movimientos"
+                + " where id_cuenta = ? and fecha >= ? and fecha < ?"
+                + (filtro.operacion() != null ? " and operacion = ?" : "")
+                + " order by fecha, id_movimiento";
+        Date desde = filtro.desde() != null ? filtro.desde() : SIN_LIMITE_INFERIOR;
+        Date hasta = filtro.hasta() != null ? filtro.hasta() : SIN_LIMITE_SUPERIOR;
+        Object[] parametros = filtro.operacion() != null ? new Object[] { idCuenta, desde, hasta, filtro.operacion() }
+                : new Object[] { idCuenta, desde, hasta };
+        leer(idCuenta, f -> {
+            f.jdbc().query(sql, rs -> {
+                consumidor.accept(MOVIMIENTO.mapRow(rs, 0));
+            }, parametros);
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * Hace la lectura en una transacción de solo lectura del fragmento de la cuenta, si la cuenta está en él.
+     *
+     * @return el resultado de la lectura, o null si la cuenta no existe
+     */
+    private <T> T leer(int idCuenta, Function<Fragmento, T> lectura) {
+        return fragmentos.ejecutar(idCuenta, f -> f.lectura().execute(estado ->
+                TransferenciasFragmentos.existe(f, idCuenta) ? lectura.apply(f) : null));
+    }
+}
@@ -1,39 +1,102 @@
 package cajeroweb.modelo.dao;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import cajeroweb.config.ContadorSentencias;
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.MovimientoVista;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.dto.TotalMensual;
 import cajeroweb.modelo.entidades.Movimiento;
 import cajeroweb.modelo.repository.MovimientoRepository;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
 
 /**
  * Implementación del DAO para la entidad Movimiento utilizando Spring Data JPA.
  * Esta clase interactúa con la base de datos a través del repositorio MovimientoRepository,
- * proporcionando métodos para insertar movimientos y obtener el historial de movimientos de una cuenta
+ * proporcionando métodos para insertar movimientos y obtener el historial de movimientos de una cuenta.
+ * Las consultas son transacciones de solo lectura, que con cajero.replica.url van a la réplica.
+ * Los movimientos anteriores al corte del {@link ArchivoMovimientos} se leen del archivo y los
+ * posteriores de la tabla, que se consulta siempre a partir del corte.
+ * Se desactiva con los perfiles "eventos" y "fragmentos".
  *
  * @author Andres
  * @version 1.0
  * @since 2024
  */
 @Repository
+@Timed("cajero.dao")
+@Profile("!eventos & !fragmentos")
 public class MovimientoDaoImplJpaMy8 implements MovimientoDao {
 
+    private static final Date SIN_LIMITE_INFERIOR = new Date(0);
+    private static final Date SIN_LIMITE_SUPERIOR = new Date(253402300799000L); // 9999-12-31
+
     @Autowired
     private MovimientoRepository mrepo; // Inyección del repositorio de Movimiento
 
+    @Autowired
+    private EscritorLotesMovimientos escritor; // Inserción agrupada de movimientos
+
+    @Autowired
+    private CheckpointsSaldo checkpoints; // Saldos por movimiento a partir de checkpoints
+
+    @Autowired
+    private ArchivoMovimientos archivo; // Movimientos antiguos archivados
+
+    @Autowired
+    private ResumenMensual resumenMensual; // Totales por mes y operación
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Value("${cajero.exportacion.fetch-size:1000}")
+    private int fetchSize;
+
+    private JdbcTemplate cursor; // Lecturas en streaming para las exportaciones
+
+    /**
+     * Prepara la plantilla JDBC de las exportaciones: mismas conexiones, pero leyendo las filas
+     * del servidor de fetchSize en fetchSize (con useCursorFetch=true en MySQL).
+     */
+    @PostConstruct
+    public void iniciar() {
+        cursor = new JdbcTemplate(jdbc.getDataSource());
+        cursor.setFetchSize(fetchSize);
+    }
+
     /**
      * Inserta un nuevo movimiento en la base de datos.
-     * Utiliza el repositorio para guardar la entidad Movimiento.
+     * El movimiento se entrega al escritor por lotes y el método espera a que el lote
+     * que lo contiene se haya confirmado.
      *
      * @param entidad la entidad Movimiento a insertar
-     * @return la entidad guardada si la operación es exitosa, o null si ocurre un error
+     * @return la entidad con su id asignado si la operación es exitosa, o null si ocurre un error
      */
     @Override
     public Movimiento insertUno(Movimiento entidad) {
         try {
-            return mrepo.save(entidad);
+            EscritorLotesMovimientos.Aviso aviso = escritor.encolar(entidad);
+            Movimiento insertado = aviso.get(30, TimeUnit.SECONDS);
+            ContadorSentencias.sumar(aviso.getSentencias());
+            return insertado;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -41,14 +104,160 @@ public class MovimientoDaoImplJpaMy8 implements MovimientoDao {
     }
 
     /**
-     * Obtiene la lista de movimientos asociados a una cuenta específica.
-     * Utiliza el método personalizado del repositorio para buscar los movimientos por el ID de la cuenta.
+     * Inserta varios movimientos encolándolos todos en el escritor por lotes antes de esperar,
+     * de forma que viajan juntos en los mismos lotes.
+     *
+     * @param entidades los movimientos a insertar
+     * @return el número de movimientos insertados
+     */
+    @Override
+    public int insertVarios(List<Movimiento> entidades) {
+        List<EscritorLotesMovimientos.Aviso> avisos = new ArrayList<>(entidades.size());
+        for (Movimiento m : entidades) {
+            avisos.add(escritor.encolar(m));
+        }
+        int insertados = 0;
+        for (EscritorLotesMovimientos.Aviso aviso : avisos) {
+            try {
+                aviso.get(30, TimeUnit.SECONDS);
+                ContadorSentencias.sumar(aviso.getSentencias());
+                insertados++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return insertados;
+    }
+
+    /**
+     * Obtiene la lista de movimientos asociados a una cuenta específica, en orden cronológico.
+     * Primero los archivados y después los de la tabla, que se buscan como proyecciones
+     * ({@link MovimientoVista}) a partir del corte del archivo. Ninguno lleva la cuenta asociada.
      *
      * @param idCuenta el identificador de la cuenta
      * @return una lista de movimientos asociados a la cuenta especificada
      */
     @Override
+    @Transactional(readOnly = true)
     public List<Movimiento> movimientos(int idCuenta) {
-        return mrepo.buscarPorNumeroCuenta(idCuenta);
+        Date corte = archivo.corte();
+        List<Movimiento> lista = new ArrayList<>();
+        archivo.recorrer(idCuenta, FiltroMovimientos.TODOS, lista::add);
+        for (MovimientoVista v : mrepo.buscarVistasPorNumeroCuenta(idCuenta, corte)) {
+            lista.add(v.movimiento());
+        }
+        return lista;
+    }
+
+    /**
+     * Obtiene una página del historial por paginación de clave sobre (fecha, idMovimiento).
+     * En la primera página la posición de partida es la fecha "hasta" del filtro (o una fecha
+     * máxima) con id 0, que excluye esa misma fecha. Se pide una fila de más para saber si
+     * existe una página siguiente. Si la tabla no llena la página y el filtro llega a fechas
+     * archivadas, la página se completa con el archivo. Las filas de la tabla se leen como
+     * proyecciones, sin la cuenta asociada.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param cursor posición devuelta en la página anterior, o null para la primera página
+     * @param tamano número máximo de movimientos de la página
+     * @return la página de movimientos con el cursor para pedir la siguiente
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public PaginaMovimientos pagina(int idCuenta, FiltroMovimientos filtro, CursorMovimientos cursor, int tamano) {
+        Date desde = filtro.desde() != null ? filtro.desde() : SIN_LIMITE_INFERIOR;
+        Date corte = archivo.corte();
+        if (cursor == null) {
+            cursor = new CursorMovimientos(filtro.hasta() != null ? filtro.hasta() : SIN_LIMITE_SUPERIOR, 0);
+        }
+        List<Movimiento> filas = new ArrayList<>(tamano + 1);
+        if (cursor.fecha().after(corte)) {
+            for (MovimientoVista v : mrepo.buscarVistasPagina(idCuenta, desde.after(corte) ? desde : corte,
+                    cursor.fecha(), cursor.idMovimiento(), filtro.operacion(), Limit.of(tamano + 1))) {
+                filas.add(v.movimiento());
+            }
+        }
+        if (filas.size() <= tamano && desde.before(corte)) {
+            // El cursor de la tabla sigue valiendo en el archivo: todo él es anterior al corte
+            filas.addAll(archivo.anteriores(idCuenta, filtro, cursor, tamano + 1 - filas.size()));
+        }
+        if (filas.size() <= tamano) {
+            return new PaginaMovimientos(filas, null);
+        }
+        List<Movimiento> pagina = filas.subList(0, tamano);
+        Movimiento ultimo = pagina.get(tamano - 1);
+        return new PaginaMovimientos(pagina, new CursorMovimientos(ultimo.getFecha(), ultimo.getIdMovimiento()));
+    }
+
+    /**
+     * Calcula el saldo tras cada movimiento de la página a partir del checkpoint más cercano.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param pagina los movimientos de la página, del más reciente al más antiguo
+     * @return el saldo tras cada movimiento, en el mismo orden que la página
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public double[] saldosTras(int idCuenta, List<Movimiento> pagina) {
+        return checkpoints.saldosTras(idCuenta, pagina);
+    }
+
+    /**
+     * Lee el id del último movimiento del resumen de la cuenta, que se actualiza en la misma
+     * transacción que inserta cada lote de movimientos.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return el id del último movimiento, o 0 si a la cuenta no se le ha insertado ninguno desde que tiene resumen
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public int ultimoIdMovimiento(int idCuenta) {
+        return checkpoints.ultimoIdMovimiento(idCuenta);
+    }
+
+    /**
+     * Lee los totales mensuales de la tabla movimientos_mensual, que mantiene {@link ResumenMensual}.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return una fila por mes y tipo de operación, del mes más reciente al más antiguo
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<TotalMensual> totalesMensuales(int idCuenta) {
+        return resumenMensual.totales(idCuenta);
+    }
+
+    /**
+     * Recorre los movimientos con un cursor JDBC de solo avance, sin pasar por JPA: cada fila se
+     * convierte en un Movimiento sin cuenta, se entrega y se descarta, así que la memoria usada
+     * no depende del tamaño del historial. Los movimientos archivados se entregan antes.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param filtro filtros de fecha y operación a aplicar
+     * @param consumidor recibe cada movimiento en orden (fecha, idMovimiento)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void recorrer(int idCuenta, FiltroMovimientos filtro, Consumer<Movimiento> consumidor) {
+        Date corte = archivo.corte();
+        if (filtro.desde() == null || filtro.desde().before(corte)) {
+            archivo.recorrer(idCuenta, filtro, consumidor);
+        }
+        Date desde = filtro.desde() != null && filtro.desde().after(corte) ? filtro.desde() : corte;
+        Date hasta = filtro.hasta() != null ? filtro.hasta() : SIN_LIMITE_SUPERIOR;
+        String sql = "select id_movimiento, fecha, cantidad, operacion from movimientos"
+                + " where id_cuenta = ? and fecha >= ? and fecha < ?"
+                + (filtro.operacion() != null ? " and operacion = ?" : "")
+                + " order by fecha, id_movimiento";
+        Object[] parametros = filtro.operacion() != null
+                ? new Object[] { idCuenta, desde, hasta, filtro.operacion() }
+                : new Object[] { idCuenta, desde, hasta };
+        cursor.query(sql, rs -> {
+            consumidor.accept(new Movimiento(rs.getInt(1), null, rs.getTimestamp(2), rs.getDouble(3), rs.getString(4)));
+        }, parametros);
     }
 }
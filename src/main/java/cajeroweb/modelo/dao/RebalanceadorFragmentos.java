@@ -0,0 +1,140 @@
+package cajeroweb.modelo.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import cajeroweb.modelo.dao.Fragmentos.Fragmento;
+import cajeroweb.modelo.dto.InformeRebalanceo;
+
+/**
+ * Traslada las cuentas entre fragmentos con la aplicación en marcha, por ejemplo al añadir un
+ * fragmento al anillo. Cada cuenta cuyo dueño cambia en el anillo nuevo se traslada por separado:
+ *
+ * 1. En el fragmento de origen se bloquea la fila de la cuenta (las operaciones sobre ella esperan).
+ * 2. En el de destino se copian la cuenta y sus movimientos a cuentas_entrantes y
+ * movimientos_entrantes, sustituyendo cualquier copia anterior, y sus transferencias recibidas.
+ * 3. En el de origen se borran la cuenta y sus datos y se deja la marca en cuentas_trasladadas,
+ * en la misma transacción que tenía la fila bloqueada.
+ * 4. En el de destino la copia pasa a las tablas de cuentas y movimientos, con ids nuevos de ese
+ * fragmento en el mismo orden.
+ *
+ * Hasta el paso 3 la cuenta sigue en el origen y la copia no la ve ninguna operación. Si el
+ * traslado se interrumpe antes, volver a lanzarlo sustituye la copia; si se interrumpe después, la
+ * primera operación que llega a la cuenta termina el paso 4 ({@link Fragmentos#ejecutar}). Las
+ * operaciones que esperaban por la fila no la encuentran al soltarse, siguen la marca y se hacen
+ * en el destino. Cuando termina, cajero.fragmentos.anillo se cambia al anillo nuevo en todos los
+ * nodos; las marcas siguen sirviendo a los que aún no lo tengan.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("fragmentos")
+public class RebalanceadorFragmentos {
+
+    private static final int CUENTAS_POR_CONSULTA = 1000;
+    private static final int MOVIMIENTOS_POR_LOTE = 1000;
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    /**
+     * Traslada al fragmento que les corresponde en el anillo nuevo todas las cuentas que estén en otro.
+     *
+     * @param miembros los fragmentos del anillo nuevo, todos configurados en cajero.fragmentos.bases
+     * @return cuántas cuentas se han revisado y cuántas se han trasladado
+     */
+    public synchronized InformeRebalanceo rebalancear(List<String> miembros) {
+        for (String m : miembros) {
+            if (fragmentos.fragmento(m) == null) {
+                throw new IllegalArgumentException("Fragmento sin base de datos: " + m);
+            }
+        }
+        long inicio = System.nanoTime();
+        AnilloConsistente nuevo = new AnilloConsistente(miembros, fragmentos.nodosVirtuales());
+        long revisadas = 0;
+        long trasladadas = 0;
+        for (Fragmento origen : fragmentos.todos()) {
+            int ultima = Integer.MIN_VALUE;
+            while (true) {
+                List<Integer> ids = origen.jdbc().queryForList("select id_cuenta from cuentas where id_cuenta > ?"
+                        + " order by id_cuenta limit ?", Integer.class, ultima, CUENTAS_POR_CONSULTA);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                for (int id : ids) {
+                    revisadas++;
+                    String destino = nuevo.fragmento(id);
+                    if (!destino.equals(origen.nombre()) && trasladar(id, origen, fragmentos.fragmento(destino))) {
+                        trasladadas++;
+                    }
+                }
+                ultima = ids.get(ids.size() - 1);
+            }
+        }
+        return new InformeRebalanceo(miembros, revisadas, trasladadas, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    /**
+     * Traslada una cuenta del fragmento de origen al de destino.
+     *
+     * @return true si se ha trasladado, false si la cuenta ya no estaba en el origen
+     */
+    boolean trasladar(int idCuenta, Fragmento origen, Fragmento destino) {
+        boolean trasladada = origen.tx().execute(estado -> {
+            List<Object[]> cuenta = origen.jdbc().query("select saldo, tipo_cuenta from cuentas where id_cuenta = ? for update",
+                    (rs, i) -> new Object[] { rs.getDouble(1), rs.getString(2) }, idCuenta);
+            if (cuenta.isEmpty()) {
+                return false;
+            }
+            destino.tx().executeWithoutResult(e -> copiar(idCuenta, cuenta.get(0), origen, destino));
+            origen.jdbc().update("delete from movimientos where id_cuenta = ?", idCuenta);
+            origen.jdbc().update("delete from transferencias_recibidas where id_cuenta = ?", idCuenta);
+            origen.jdbc().update("delete from cuentas where id_cuenta = ?", idCuenta);
+            origen.jdbc().update("delete from cuentas_trasladadas where id_cuenta = ?", idCuenta);
+            origen.jdbc().update("insert into cuentas_trasladadas (id_cuenta, fragmento) values (?, ?)", idCuenta,
+                    destino.nombre());
+            return true;
+        });
+        if (trasladada) {
+            Fragmentos.promover(destino, idCuenta);
+        }
+        return trasladada;
+    }
+
+    private static void copiar(int idCuenta, Object[] cuenta, Fragmento origen, Fragmento destino) {
+        destino.jdbc().update("delete from movimientos_entrantes where id_cuenta = ?", idCuenta);
+        destino.jdbc().update("delete from cuentas_entrantes where id_cuenta = ?", idCuenta);
+        destino.jdbc().update("delete from transferencias_recibidas where id_cuenta = ?", idCuenta);
+        destino.jdbc().update("insert into cuentas_entrantes (id_cuenta, saldo, tipo_cuenta, fragmento_origen)"
+                + " values (?, ?, ?, ?)", idCuenta, cuenta[0], cuenta[1], origen.nombre());
+        List<Object[]> lote = new ArrayList<>(MOVIMIENTOS_POR_LOTE);
+        long[] orden = new long[1];
+        origen.jdbc().query("select fecha, cantidad, operacion from movimientos where id_cuenta = ?"
+                + " order by fecha, id_movimiento", rs -> {
+                    lote.add(new Object[] { idCuenta, orden[0]++, rs.getTimestamp(1), rs.getDouble(2), rs.getString(3) });
+                    if (lote.size() == MOVIMIENTOS_POR_LOTE) {
+                        insertarMovimientos(destino, lote);
+                    }
+                }, idCuenta);
+        insertarMovimientos(destino, lote);
+        // Los ids recibidos van directos: son de transferencias ya abonadas a esta cuenta y no se repiten
+        List<Object[]> recibidas = origen.jdbc().query("select id_transferencia, fecha from transferencias_recibidas"
+                + " where id_cuenta = ?", (rs, i) -> new Object[] { rs.getString(1), idCuenta, rs.getTimestamp(2) }, idCuenta);
+        destino.jdbc().batchUpdate("insert into transferencias_recibidas (id_transferencia, id_cuenta, fecha)"
+                + " values (?, ?, ?)", recibidas);
+    }
+
+    private static void insertarMovimientos(Fragmento destino, List<Object[]> lote) {
+        if (!lote.isEmpty()) {
+            destino.jdbc().batchUpdate("insert into movimientos_entrantes (id_cuenta, orden, fecha, cantidad, operacion)"
+                    + " values (?, ?, ?, ?, ?)", lote);
+            lote.clear();
+        }
+    }
+}
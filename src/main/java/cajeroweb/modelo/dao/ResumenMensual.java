@@ -0,0 +1,159 @@
+package cajeroweb.modelo.dao;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.TotalMensual;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Mantiene en movimientos_mensual el número y la suma de los movimientos de cada cuenta por mes
+ * y tipo de operación, de forma que el resumen mensual de una cuenta se lee con tantas filas como
+ * meses tiene y no con tantas como movimientos.
+ *
+ * Cada lote suma sus movimientos a las filas de sus meses. La primera vez que una cuenta recibe
+ * un lote se calculan antes sus totales con los movimientos que ya tenía (tabla y archivo) y se
+ * anota la cuenta en movimientos_mensual_cuentas; mientras no esté anotada, sus totales se
+ * calculan al vuelo. El mes es el de la fecha del movimiento en la zona horaria del servidor,
+ * la misma con la que se muestra el historial.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+public class ResumenMensual implements MantenimientoLote {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ArchivoMovimientos archivo;
+
+    /**
+     * Suma los movimientos del lote a los totales mensuales de sus cuentas, en orden de id de cuenta.
+     *
+     * @param lote los movimientos recién insertados, en orden de fecha
+     */
+    @Override
+    public void aplicar(List<Movimiento> lote) {
+        Map<Integer, List<Movimiento>> porCuenta = new TreeMap<>();
+        for (Movimiento m : lote) {
+            porCuenta.computeIfAbsent(m.getCuenta().getIdCuenta(), k -> new ArrayList<>()).add(m);
+        }
+        porCuenta.forEach(this::aplicarCuenta);
+    }
+
+    private void aplicarCuenta(int idCuenta, List<Movimiento> movimientos) {
+        Map<Clave, double[]> totales = new TreeMap<>();
+        if (!iniciada(idCuenta)) {
+            // Los movimientos del lote ya están en la tabla: se excluyen del cálculo inicial
+            Set<Integer> lote = new HashSet<>();
+            for (Movimiento m : movimientos) {
+                lote.add(m.getIdMovimiento());
+            }
+            calcular(idCuenta, lote, totales);
+            jdbc.update("insert into movimientos_mensual_cuentas (id_cuenta) values (?)", idCuenta);
+        }
+        for (Movimiento m : movimientos) {
+            acumular(totales, m.getFecha().getTime(), m.getOperacion(), m.getCantidad());
+        }
+        List<Object[]> filas = new ArrayList<>(totales.size());
+        totales.forEach((c, t) -> filas.add(new Object[] { idCuenta, c.anio(), c.mes(), c.operacion(), (long) t[0], t[1] }));
+        jdbc.batchUpdate("insert into movimientos_mensual (id_cuenta, anio, mes, operacion, num, suma) values (?, ?, ?, ?, ?, ?)"
+                + " on duplicate key update num = num + values(num), suma = suma + values(suma)", filas);
+    }
+
+    /**
+     * Devuelve los totales por mes y operación de la cuenta, del mes más reciente al más antiguo.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return una fila por mes y tipo de operación con movimientos
+     */
+    public List<TotalMensual> totales(int idCuenta) {
+        if (iniciada(idCuenta)) {
+            return jdbc.query("select anio, mes, operacion, num, suma from movimientos_mensual where id_cuenta = ?"
+                    + " order by anio desc, mes desc, operacion",
+                    (rs, i) -> new TotalMensual(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4), rs.getDouble(5)),
+                    idCuenta);
+        }
+        Map<Clave, double[]> totales = new TreeMap<>();
+        calcular(idCuenta, Set.of(), totales);
+        return lista(totales);
+    }
+
+    /**
+     * Agrupa por mes y operación los movimientos que se le pasan, igual que la tabla movimientos_mensual.
+     * Lo usan las implementaciones que no guardan los totales.
+     *
+     * @param recorrido recorre los movimientos de la cuenta pasándolos al consumidor
+     * @return una fila por mes y tipo de operación, del mes más reciente al más antiguo
+     */
+    static List<TotalMensual> agrupar(Consumer<Consumer<Movimiento>> recorrido) {
+        Map<Clave, double[]> totales = new TreeMap<>();
+        recorrido.accept(m -> acumular(totales, m.getFecha().getTime(), m.getOperacion(), m.getCantidad()));
+        return lista(totales);
+    }
+
+    private static List<TotalMensual> lista(Map<Clave, double[]> totales) {
+        List<TotalMensual> lista = new ArrayList<>(totales.size());
+        totales.forEach((c, t) -> lista.add(new TotalMensual(c.anio(), c.mes(), c.operacion(), (long) t[0], t[1])));
+        lista.sort(Comparator.comparingInt(TotalMensual::anio).thenComparingInt(TotalMensual::mes).reversed()
+                .thenComparing(TotalMensual::operacion));
+        return lista;
+    }
+
+    private boolean iniciada(int idCuenta) {
+        return !jdbc.queryForList("select id_cuenta from movimientos_mensual_cuentas where id_cuenta = ?",
+                Integer.class, idCuenta).isEmpty();
+    }
+
+    /**
+     * Calcula los totales de todos los movimientos de la cuenta, salvo los excluidos, recorriendo
+     * el archivo y la tabla. Solo se hace una vez por cuenta.
+     */
+    private void calcular(int idCuenta, Set<Integer> excluidos, Map<Clave, double[]> totales) {
+        Date corte = archivo.corte();
+        archivo.recorrer(idCuenta, FiltroMovimientos.TODOS,
+                m -> acumular(totales, m.getFecha().getTime(), m.getOperacion(), m.getCantidad()));
+        jdbc.query("select id_movimiento, fecha, operacion, cantidad from movimientos where id_cuenta = ? and fecha >= ?",
+                rs -> {
+                    if (!excluidos.contains(rs.getInt(1))) {
+                        acumular(totales, rs.getTimestamp(2).getTime(), rs.getString(3), rs.getDouble(4));
+                    }
+                }, idCuenta, new Timestamp(corte.getTime()));
+    }
+
+    private static void acumular(Map<Clave, double[]> totales, long fecha, String operacion, double cantidad) {
+        LocalDate dia = LocalDate.ofInstant(Instant.ofEpochMilli(fecha), ZoneId.systemDefault());
+        double[] t = totales.computeIfAbsent(new Clave(dia.getYear(), dia.getMonthValue(),
+                operacion == null ? "" : operacion), k -> new double[2]);
+        t[0]++;
+        t[1] += cantidad;
+    }
+
+    private record Clave(int anio, int mes, String operacion) implements Comparable<Clave> {
+
+        @Override
+        public int compareTo(Clave o) {
+            int c = anio != o.anio ? Integer.compare(anio, o.anio) : Integer.compare(mes, o.mes);
+            return c != 0 ? c : operacion.compareTo(o.operacion);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package cajeroweb.modelo.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Segmento de movimientos archivados: un fichero inmutable con los movimientos de un rango de
+ * fechas [desde, corte), agrupados por cuenta y en orden (fecha, idMovimiento) dentro de cada cuenta.
+ *
+ * Formato: bloques comprimidos con Deflater de hasta {@link #REGISTROS_POR_BLOQUE} movimientos de
+ * una sola cuenta, seguidos del índice de bloques (ordenado por cuenta y fecha) y de un pie de
+ * tamaño fijo. Cada entrada del índice lleva la cuenta, el rango de fechas, la posición, el
+ * número de movimientos y su suma, así que los totales por cuenta no necesitan descomprimir nada.
+ * El fichero se lee con un {@link MappedByteBuffer} y el índice se carga en arrays al abrirlo.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class SegmentoMovimientos {
+
+    static final int REGISTROS_POR_BLOQUE = 4096;
+
+    private static final int MAGIA = 0x434A5347; // "CJSG"
+    private static final int VERSION = 1;
+    private static final int TAMANO_ENTRADA = 48;
+    private static final int TAMANO_PIE = 36;
+
+    private final Path fichero;
+    private final long desde;
+    private final long corte;
+    private final MappedByteBuffer datos;
+
+    private final int[] cuentas;
+    private final long[] fechasMin;
+    private final long[] fechasMax;
+    private final long[] posiciones;
+    private final int[] longitudes;
+    private final int[] longitudesOriginales;
+    private final int[] numeros;
+    private final double[] sumas;
+
+    private SegmentoMovimientos(Path fichero, MappedByteBuffer datos) throws IOException {
+        this.fichero = fichero;
+        this.datos = datos;
+        ByteBuffer pie = datos.slice(datos.capacity() - TAMANO_PIE, TAMANO_PIE);
+        long posicionIndice = pie.getLong();
+        int numBloques = pie.getInt();
+        desde = pie.getLong();
+        corte = pie.getLong();
+        int version = pie.getInt();
+        if (pie.getInt() != MAGIA || version != VERSION) {
+            throw new IOException("No es un segmento de movimientos: " + fichero);
+        }
+        cuentas = new int[numBloques];
+        fechasMin = new long[numBloques];
+        fechasMax = new long[numBloques];
+        posiciones = new long[numBloques];
+        longitudes = new int[numBloques];
+        longitudesOriginales = new int[numBloques];
+        numeros = new int[numBloques];
+        sumas = new double[numBloques];
+        ByteBuffer indice = datos.slice((int) posicionIndice, numBloques * TAMANO_ENTRADA);
+        for (int i = 0; i < numBloques; i++) {
+            cuentas[i] = indice.getInt();
+            fechasMin[i] = indice.getLong();
+            fechasMax[i] = indice.getLong();
+            posiciones[i] = indice.getLong();
+            longitudes[i] = indice.getInt();
+            longitudesOriginales[i] = indice.getInt();
+            numeros[i] = indice.getInt();
+            sumas[i] = indice.getDouble();
+        }
+    }
+
+    /**
+     * Abre un segmento proyectándolo en memoria.
+     *
+     * @param fichero el fichero del segmento
+     * @return el segmento con su índice cargado
+     */
+    static SegmentoMovimientos abrir(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            // La proyección sigue siendo válida después de cerrar el canal
+            return new SegmentoMovimientos(fichero, canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    Path getFichero() {
+        return fichero;
+    }
+
+    long getDesde() {
+        return desde;
+    }
+
+    long getCorte() {
+        return corte;
+    }
+
+    /**
+     * @return el primer bloque de la cuenta, o -1 si la cuenta no tiene movimientos en el segmento
+     */
+    int primerBloque(int idCuenta) {
+        int i = Arrays.binarySearch(cuentas, idCuenta);
+        if (i < 0) {
+            return -1;
+        }
+        while (i > 0 && cuentas[i - 1] == idCuenta) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * @return el bloque siguiente al indicado si es de la misma cuenta, o -1
+     */
+    int siguienteBloque(int bloque) {
+        int i = bloque + 1;
+        return i < cuentas.length && cuentas[i] == cuentas[bloque] ? i : -1;
+    }
+
+    long fechaMin(int bloque) {
+        return fechasMin[bloque];
+    }
+
+    long fechaMax(int bloque) {
+        return fechasMax[bloque];
+    }
+
+    int numMovimientos(int bloque) {
+        return numeros[bloque];
+    }
+
+    double suma(int bloque) {
+        return sumas[bloque];
+    }
+
+    /**
+     * Descomprime un bloque.
+     *
+     * @return los movimientos del bloque en orden (fecha, idMovimiento), sin cuenta asociada
+     */
+    List<Movimiento> leer(int bloque) {
+        byte[] original = new byte[longitudesOriginales[bloque]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(datos.slice((int) posiciones[bloque], longitudes[bloque]));
+            inflater.inflate(original);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Bloque corrupto en " + fichero, e);
+        } finally {
+            inflater.end();
+        }
+        List<Movimiento> movimientos = new ArrayList<>(numeros[bloque]);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(original))) {
+            for (int i = 0; i < numeros[bloque]; i++) {
+                movimientos.add(new Movimiento(in.readInt(), null, new Date(in.readLong()), in.readDouble(), in.readUTF()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Bloque corrupto en " + fichero, e);
+        }
+        return movimientos;
+    }
+
+    /**
+     * Escribe un segmento nuevo. Los movimientos deben llegar en orden (idCuenta, fecha, idMovimiento).
+     */
+    static final class Escritor implements AutoCloseable {
+
+        private final FileChannel canal;
+        private final long desde;
+        private final long corte;
+        private final ByteArrayOutputStream bloque = new ByteArrayOutputStream(REGISTROS_POR_BLOQUE * 40);
+        private final DataOutputStream salida = new DataOutputStream(bloque);
+        private final ByteArrayOutputStream indice = new ByteArrayOutputStream();
+        private final DataOutputStream salidaIndice = new DataOutputStream(indice);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] comprimido = new byte[64 * 1024];
+
+        private int numBloques;
+        private long posicion;
+        private int cuenta;
+        private int num;
+        private double suma;
+        private long fechaMin;
+        private long fechaMax;
+
+        Escritor(Path fichero, long desde, long corte) throws IOException {
+            this.canal = FileChannel.open(fichero, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.desde = desde;
+            this.corte = corte;
+        }
+
+        void anadir(int idCuenta, int idMovimiento, long fecha, double cantidad, String operacion) throws IOException {
+            if (num > 0 && (idCuenta != cuenta || num == REGISTROS_POR_BLOQUE)) {
+                cerrarBloque();
+            }
+            if (num == 0) {
+                cuenta = idCuenta;
+                fechaMin = fecha;
+                suma = 0;
+            }
+            salida.writeInt(idMovimiento);
+            salida.writeLong(fecha);
+            salida.writeDouble(cantidad);
+            salida.writeUTF(operacion == null ? "" : operacion);
+            fechaMax = fecha;
+            suma += cantidad;
+            num++;
+        }
+
+        /**
+         * @return bytes escritos hasta ahora, para repartir el archivo en varios segmentos
+         */
+        long tamano() {
+            return posicion + bloque.size();
+        }
+
+        private void cerrarBloque() throws IOException {
+            byte[] original = bloque.toByteArray();
+            deflater.reset();
+            deflater.setInput(original);
+            deflater.finish();
+            int longitud = 0;
+            while (!deflater.finished()) {
+                if (longitud == comprimido.length) {
+                    comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+                }
+                longitud += deflater.deflate(comprimido, longitud, comprimido.length - longitud);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(comprimido, 0, longitud);
+            while (buf.hasRemaining()) {
+                canal.write(buf);
+            }
+            salidaIndice.writeInt(cuenta);
+            salidaIndice.writeLong(fechaMin);
+            salidaIndice.writeLong(fechaMax);
+            salidaIndice.writeLong(posicion);
+            salidaIndice.writeInt(longitud);
+            salidaIndice.writeInt(original.length);
+            salidaIndice.writeInt(num);
+            salidaIndice.writeDouble(suma);
+            posicion += longitud;
+            numBloques++;
+            bloque.reset();
+            num = 0;
+        }
+
+        /**
+         * Escribe el último bloque, el índice y el pie, y fuerza el fichero a disco.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (num > 0) {
+                    cerrarBloque();
+                }
+                ByteBuffer pie = ByteBuffer.allocate(TAMANO_PIE);
+                pie.putLong(posicion).putInt(numBloques).putLong(desde).putLong(corte).putInt(VERSION).putInt(MAGIA);
+                pie.flip();
+                ByteBuffer idx = ByteBuffer.wrap(indice.toByteArray());
+                while (idx.hasRemaining()) {
+                    canal.write(idx);
+                }
+                while (pie.hasRemaining()) {
+                    canal.write(pie);
+                }
+                canal.force(true);
+            } finally {
+                deflater.end();
+                canal.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package cajeroweb.modelo.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tabla en memoria de saldos indexada por idCuenta con claves primitivas.
+ * La tabla se divide en franjas (stripes), cada una con su propio cerrojo y su propia
+ * tabla hash de direccionamiento abierto, de forma que operaciones sobre cuentas de
+ * franjas distintas no compiten entre sí.
+ *
+ * Cada franja lleva además la marca de "sucia" de cada cuenta, que usa la escritura
+ * diferida para saber qué saldos tiene que volcar a la base de datos.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+class TablaSaldos {
+
+    private final Franja[] franjas;
+    private final int mascara;
+
+    /**
+     * Crea la tabla con el número de franjas indicado, redondeado a potencia de dos.
+     *
+     * @param numFranjas número de franjas deseado
+     */
+    TablaSaldos(int numFranjas) {
+        int n = Integer.highestOneBit(Math.max(1, numFranjas - 1)) << 1;
+        franjas = new Franja[n];
+        for (int i = 0; i < n; i++) {
+            franjas[i] = new Franja(Integer.numberOfTrailingZeros(n));
+        }
+        mascara = n - 1;
+    }
+
+    /**
+     * Calcula la franja a la que pertenece una cuenta.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @return el índice de la franja
+     */
+    int franja(int idCuenta) {
+        return mezclar(idCuenta) & mascara;
+    }
+
+    /**
+     * Devuelve la franja indicada para que el llamador pueda bloquearla.
+     *
+     * @param indice índice de la franja
+     * @return la franja
+     */
+    Franja getFranja(int indice) {
+        return franjas[indice];
+    }
+
+    static int mezclar(int clave) {
+        int h = clave * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Una franja de la tabla: hash abierto con sondeo lineal sobre arrays primitivos.
+     * Todos los métodos deben invocarse con el cerrojo de la franja adquirido.
+     */
+    static final class Franja {
+
+        final ReentrantLock cerrojo = new ReentrantLock();
+
+        // Bits bajos del hash ya usados para elegir la franja: todas sus claves los comparten
+        private final int desplazamiento;
+
+        private int[] claves = new int[16];
+        private double[] saldos = new double[16];
+        private String[] tipos = new String[16];
+        private boolean[] ocupadas = new boolean[16];
+        private boolean[] sucias = new boolean[16];
+        private int tamano;
+
+        Franja(int desplazamiento) {
+            this.desplazamiento = desplazamiento;
+        }
+
+        /**
+         * Posición inicial del sondeo: los bits del hash por encima de los de la franja.
+         */
+        int inicio(int idCuenta, int m) {
+            return (mezclar(idCuenta) >>> desplazamiento) & m;
+        }
+
+        /**
+         * Busca la posición de una cuenta dentro de la franja.
+         *
+         * @param idCuenta el identificador de la cuenta
+         * @return la posición, o -1 si la cuenta no está cargada
+         */
+        int posicion(int idCuenta) {
+            int m = claves.length - 1;
+            int i = inicio(idCuenta, m);
+            while (ocupadas[i]) {
+                if (claves[i] == idCuenta) {
+                    return i;
+                }
+                i = (i + 1) & m;
+            }
+            return -1;
+        }
+
+        /**
+         * Carga una cuenta en la franja si no estaba ya cargada.
+         *
+         * @return la posición de la cuenta
+         */
+        int cargar(int idCuenta, double saldo, String tipo) {
+            int pos = posicion(idCuenta);
+            if (pos >= 0) {
+                return pos;
+            }
+            if ((tamano + 1) * 2 > claves.length) {
+                redimensionar();
+            }
+            int m = claves.length - 1;
+            int i = inicio(idCuenta, m);
+            while (ocupadas[i]) {
+                i = (i + 1) & m;
+            }
+            ocupadas[i] = true;
+            claves[i] = idCuenta;
+            saldos[i] = saldo;
+            tipos[i] = tipo;
+            tamano++;
+            return i;
+        }
+
+        double saldo(int pos) {
+            return saldos[pos];
+        }
+
+        String tipo(int pos) {
+            return tipos[pos];
+        }
+
+        void actualizar(int pos, double saldo, String tipo) {
+            saldos[pos] = saldo;
+            tipos[pos] = tipo;
+            sucias[pos] = true;
+        }
+
+        void sumar(int pos, double cantidad) {
+            saldos[pos] += cantidad;
+            sucias[pos] = true;
+        }
+
+        /**
+         * Recoge las cuentas modificadas desde el último volcado y limpia su marca.
+         *
+         * @param destino lista donde se añaden las cuentas sucias
+         */
+        void recogerSucias(List<Object[]> destino) {
+            for (int i = 0; i < claves.length; i++) {
+                if (sucias[i]) {
+                    destino.add(new Object[] { saldos[i], tipos[i], claves[i] });
+                    sucias[i] = false;
+                }
+            }
+        }
+
+        /**
+         * Vuelve a marcar como sucia una cuenta cuyo volcado ha fallado.
+         */
+        void marcarSucia(int idCuenta) {
+            int pos = posicion(idCuenta);
+            if (pos >= 0) {
+                sucias[pos] = true;
+            }
+        }
+
+        private void redimensionar() {
+            int[] viejasClaves = claves;
+            double[] viejosSaldos = saldos;
+            String[] viejosTipos = tipos;
+            boolean[] viejasOcupadas = ocupadas;
+            boolean[] viejasSucias = sucias;
+            int n = viejasClaves.length * 2;
+            claves = new int[n];
+            saldos = new double[n];
+            tipos = new String[n];
+            ocupadas = new boolean[n];
+            sucias = new boolean[n];
+            tamano = 0;
+            for (int i = 0; i < viejasClaves.length; i++) {
+                if (viejasOcupadas[i]) {
+                    int pos = cargar(viejasClaves[i], viejosSaldos[i], viejosTipos[i]);
+                    sucias[pos] = viejasSucias[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Recoge las cuentas sucias de todas las franjas, bloqueando cada franja por separado.
+     *
+     * @return filas (saldo, tipo, idCuenta) listas para un update por lotes
+     */
+    List<Object[]> recogerSucias() {
+        List<Object[]> filas = new ArrayList<>();
+        for (Franja f : franjas) {
+            f.cerrojo.lock();
+            try {
+                f.recogerSucias(filas);
+            } finally {
+                f.cerrojo.unlock();
+            }
+        }
+        return filas;
+    }
+}
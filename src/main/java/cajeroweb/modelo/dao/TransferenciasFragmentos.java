@@ -0,0 +1,178 @@
+package cajeroweb.modelo.dao;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import cajeroweb.modelo.dao.Fragmentos.Fragmento;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Transferencias del perfil "fragmentos" en dos pasos, cada uno una transacción local de un fragmento:
+ *
+ * 1. En el fragmento de origen se descuenta el saldo, se escribe el movimiento de salida y, si la
+ * cuenta de destino no está en el mismo fragmento (en cuyo caso se abona ahí mismo), se anota la
+ * transferencia en transferencias_salientes.
+ *
+ * 2. En el fragmento de destino se abona el saldo, se escribe el movimiento de entrada y se anota
+ * el id de la transferencia en transferencias_recibidas, que impide abonarla dos veces. Después
+ * se borra la transferencia de transferencias_salientes.
+ *
+ * Si el proceso se interrumpe entre los dos pasos, la tarea de recuperación (cada
+ * cajero.fragmentos.recuperacion-ms) repite el segundo paso para las transferencias salientes con
+ * más de cajero.fragmentos.espera-recuperacion-ms. Si la cuenta de destino ya no existe, devuelve
+ * el dinero a la de origen del mismo modo. El dinero en tránsito está siempre en una sola de las
+ * dos tablas: las salientes pendientes o los saldos.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("fragmentos")
+class TransferenciasFragmentos {
+
+    static final String TRANSFERENCIA = "Transferencia";
+
+    private static final int PENDIENTES_POR_PASADA = 1000;
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.fragmentos.espera-recuperacion-ms:10000}")
+    private long espera;
+
+    @Value("${cajero.fragmentos.retencion-recibidas:7d}")
+    private Duration retencion;
+
+    /**
+     * Hace la transferencia completa: el primer paso y, si la cuenta de destino está en otro fragmento, el segundo.
+     *
+     * @return 1 si se ha hecho, 0 si el saldo es insuficiente o la cuenta de destino no existe
+     * (y se ha devuelto el dinero), null si la cuenta de origen no existe
+     */
+    Integer transferir(int origen, int destino, double cantidad) {
+        String id = UUID.randomUUID().toString();
+        Timestamp fecha = new Timestamp(System.currentTimeMillis());
+        Fragmento[] salida = new Fragmento[1];
+        Integer resultado = salida(id, origen, destino, cantidad, fecha, salida);
+        if (salida[0] != null && !completar(salida[0], id, origen, destino, cantidad, fecha)) {
+            return 0;
+        }
+        return resultado;
+    }
+
+    /**
+     * Primer paso. Si la cuenta de destino está en otro fragmento deja en {@code salida[0]} el
+     * fragmento en el que ha quedado la transferencia pendiente.
+     */
+    Integer salida(String id, int origen, int destino, double cantidad, Timestamp fecha, Fragmento[] salida) {
+        return fragmentos.ejecutar(origen, f -> f.tx().execute(estado -> {
+            if (destino < origen) {
+                // Las dos filas se bloquean en orden de id, como las transferencias en sentido contrario
+                f.jdbc().queryForList("select id_cuenta from cuentas where id_cuenta = ? for update", Integer.class, destino);
+            }
+            if (f.jdbc().update("update cuentas set saldo = saldo - ? where id_cuenta = ? and saldo >= ?",
+                    cantidad, origen, cantidad) == 0) {
+                return existe(f, origen) ? 0 : null;
+            }
+            insertarMovimiento(f, origen, fecha, -cantidad, TRANSFERENCIA);
+            if (f.jdbc().update("update cuentas set saldo = saldo + ? where id_cuenta = ?", cantidad, destino) == 1) {
+                insertarMovimiento(f, destino, fecha, cantidad, TRANSFERENCIA);
+            } else {
+                f.jdbc().update("insert into transferencias_salientes (id_transferencia, id_cuenta_origen,"
+                        + " id_cuenta_destino, cantidad, fecha) values (?, ?, ?, ?, ?)", id, origen, destino, cantidad, fecha);
+                salida[0] = f;
+            }
+            return 1;
+        }));
+    }
+
+    /**
+     * Segundo paso: abona la transferencia en la cuenta de destino (o la devuelve a la de origen si
+     * el destino ya no existe) y la borra de las salientes del fragmento en que quedó pendiente.
+     *
+     * @return true si se ha abonado en el destino, false si se ha devuelto
+     */
+    boolean completar(Fragmento salida, String id, int origen, int destino, double cantidad, Timestamp fecha) {
+        boolean abonada = entrada(id, destino, cantidad, fecha) != null;
+        if (!abonada) {
+            registro.counter("cajero.fragmentos.transferencias.devueltas").increment();
+            if (entrada(id + ":devolucion", origen, cantidad, fecha) == null) {
+                throw new IllegalStateException("Transferencia " + id + " sin cuenta de destino ni de origen");
+            }
+        }
+        salida.jdbc().update("delete from transferencias_salientes where id_transferencia = ?", id);
+        return abonada;
+    }
+
+    /**
+     * Abona una transferencia una sola vez. El cerrojo de la fila de la cuenta ordena los
+     * intentos concurrentes de la misma transferencia y el traslado de la cuenta.
+     *
+     * @return true si está abonada (ahora o antes), null si la cuenta no existe
+     */
+    private Boolean entrada(String id, int idCuenta, double cantidad, Timestamp fecha) {
+        return fragmentos.ejecutar(idCuenta, f -> f.tx().execute(estado -> {
+            if (f.jdbc().queryForList("select id_cuenta from cuentas where id_cuenta = ? for update", Integer.class,
+                    idCuenta).isEmpty()) {
+                return null;
+            }
+            if (!f.jdbc().queryForList("select id_transferencia from transferencias_recibidas where id_transferencia = ?",
+                    String.class, id).isEmpty()) {
+                return true;
+            }
+            f.jdbc().update("insert into transferencias_recibidas (id_transferencia, id_cuenta, fecha) values (?, ?, ?)",
+                    id, idCuenta, new Timestamp(System.currentTimeMillis()));
+            f.jdbc().update("update cuentas set saldo = saldo + ? where id_cuenta = ?", cantidad, idCuenta);
+            insertarMovimiento(f, idCuenta, fecha, cantidad, TRANSFERENCIA);
+            return true;
+        }));
+    }
+
+    /**
+     * Completa las transferencias que llevan pendientes más de cajero.fragmentos.espera-recuperacion-ms
+     * y borra los ids recibidos con más de cajero.fragmentos.retencion-recibidas.
+     */
+    @Scheduled(fixedDelayString = "${cajero.fragmentos.recuperacion-ms:5000}")
+    public void recuperar() {
+        Timestamp limite = new Timestamp(System.currentTimeMillis() - espera);
+        for (Fragmento f : fragmentos.todos()) {
+            try {
+                List<Object[]> pendientes = f.jdbc().query("select id_transferencia, id_cuenta_origen, id_cuenta_destino,"
+                        + " cantidad, fecha from transferencias_salientes where fecha < ? order by fecha limit ?",
+                        (rs, i) -> new Object[] { rs.getString(1), rs.getInt(2), rs.getInt(3), rs.getDouble(4),
+                                rs.getTimestamp(5) },
+                        limite, PENDIENTES_POR_PASADA);
+                for (Object[] p : pendientes) {
+                    completar(f, (String) p[0], (Integer) p[1], (Integer) p[2], (Double) p[3], (Timestamp) p[4]);
+                    registro.counter("cajero.fragmentos.transferencias.recuperadas").increment();
+                }
+                f.jdbc().update("delete from transferencias_recibidas where fecha < ?",
+                        new Timestamp(System.currentTimeMillis() - retencion.toMillis()));
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Se reintenta en la siguiente pasada
+            }
+        }
+    }
+
+    static boolean existe(Fragmento f, int idCuenta) {
+        return !f.jdbc().queryForList("select id_cuenta from cuentas where id_cuenta = ?", Integer.class, idCuenta).isEmpty();
+    }
+
+    static void insertarMovimiento(Fragmento f, int idCuenta, Date fecha, double cantidad, String operacion) {
+        f.jdbc().update("insert into movimientos (id_cuenta, fecha, cantidad, operacion) values (?, ?, ?, ?)",
+                idCuenta, fecha, cantidad, operacion);
+    }
+}
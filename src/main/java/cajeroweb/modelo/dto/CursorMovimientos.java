@@ -0,0 +1,18 @@
+package cajeroweb.modelo.dto;
+
+import java.util.Date;
+
+/**
+ * Posición dentro del historial de movimientos para la paginación por clave (keyset).
+ * Identifica el último movimiento de una página; la página siguiente empieza justo
+ * después de él en el orden (fecha, idMovimiento) descendente.
+ *
+ * @param fecha fecha del último movimiento mostrado
+ * @param idMovimiento id del último movimiento mostrado
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record CursorMovimientos(Date fecha, int idMovimiento) {
+}
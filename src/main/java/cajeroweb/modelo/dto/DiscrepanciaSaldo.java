@@ -0,0 +1,21 @@
+package cajeroweb.modelo.dto;
+
+/**
+ * Cuenta cuyo saldo no cuadra con sus movimientos en una conciliación.
+ *
+ * @param idCuenta el identificador de la cuenta
+ * @param tipo "saldo" si el saldo (fila más ranuras) no es el saldo base más la suma de los
+ *             movimientos, "resumen" si la suma de movimientos_resumen no es la de los movimientos
+ * @param valor el saldo de la cuenta o la suma del resumen
+ * @param esperado el valor calculado con los movimientos de la tabla y del archivo
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record DiscrepanciaSaldo(int idCuenta, String tipo, double valor, double esperado) {
+
+    public double diferencia() {
+        return valor - esperado;
+    }
+}
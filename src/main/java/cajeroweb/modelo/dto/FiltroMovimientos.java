@@ -0,0 +1,23 @@
+package cajeroweb.modelo.dto;
+
+import java.util.Date;
+
+/**
+ * Filtros opcionales para consultar el historial de movimientos de una cuenta.
+ * Cualquiera de los campos puede ser null, en cuyo caso no se filtra por él.
+ *
+ * @param desde fecha mínima (inclusive) de los movimientos
+ * @param hasta fecha máxima (exclusive) de los movimientos
+ * @param operacion tipo de operación (Ingreso, Extracción, Transferencia)
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record FiltroMovimientos(Date desde, Date hasta, String operacion) {
+
+    /**
+     * Filtro vacío: todos los movimientos de la cuenta.
+     */
+    public static final FiltroMovimientos TODOS = new FiltroMovimientos(null, null, null);
+}
@@ -0,0 +1,27 @@
+package cajeroweb.modelo.dto;
+
+import java.util.List;
+
+/**
+ * Informe de una conciliación de saldos con movimientos.
+ *
+ * @param idConciliacion el identificador de la ejecución en conciliaciones
+ * @param completa true si se han revisado todas las cuentas, false si solo las pendientes
+ * @param cuentas número de cuentas revisadas
+ * @param sinResumen cuentas con movimientos pero sin fila en movimientos_resumen, que no se pueden conciliar
+ * @param tramos número de tramos revisados
+ * @param tramosFallidos número de tramos que han fallado; sus cuentas se revisan en la siguiente ejecución
+ * @param discrepancias número de discrepancias confirmadas
+ * @param pendientes cuentas que quedan en conciliaciones_pendientes para la siguiente ejecución incremental
+ * @param milisegundos duración de la ejecución
+ * @param cuentasPorSegundo cuentas revisadas por segundo
+ * @param detalle las primeras discrepancias, como mucho cajero.conciliacion.max-detalle
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record InformeConciliacion(int idConciliacion, boolean completa, long cuentas, long sinResumen, int tramos,
+        int tramosFallidos, int discrepancias, long pendientes, long milisegundos, double cuentasPorSegundo,
+        List<DiscrepanciaSaldo> detalle) {
+}
@@ -0,0 +1,22 @@
+package cajeroweb.modelo.dto;
+
+/**
+ * Informe de una ejecución de la liquidación mensual de intereses y comisiones.
+ *
+ * @param periodo el mes liquidado (aaaa-mm)
+ * @param yaLiquidado true si el mes ya estaba liquidado y no se ha hecho nada
+ * @param cuentas número de cuentas con movimiento de liquidación en esta ejecución
+ * @param omitidas número de cuentas revisadas sin importe (sin saldo para la comisión o para intereses)
+ * @param tramos número de tramos aplicados en esta ejecución
+ * @param tramosPrevios número de tramos aplicados por una ejecución anterior interrumpida
+ * @param tramosFallidos número de tramos que han fallado; se aplican al volver a lanzar el mes
+ * @param milisegundos duración de la ejecución
+ * @param filasPorSegundo cuentas revisadas por segundo
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record InformeLiquidacion(String periodo, boolean yaLiquidado, long cuentas, long omitidas, int tramos,
+        int tramosPrevios, int tramosFallidos, long milisegundos, double filasPorSegundo) {
+}
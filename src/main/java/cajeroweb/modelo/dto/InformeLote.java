@@ -0,0 +1,18 @@
+package cajeroweb.modelo.dto;
+
+import java.util.List;
+
+/**
+ * Informe de la ejecución de un lote de transferencias.
+ *
+ * @param total número de líneas del lote
+ * @param correctas número de transferencias realizadas
+ * @param milisegundos duración de la ejecución
+ * @param lineas resultado de cada línea, en el orden del lote
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record InformeLote(int total, int correctas, long milisegundos, List<ResultadoLinea> lineas) {
+}
@@ -0,0 +1,18 @@
+package cajeroweb.modelo.dto;
+
+import java.util.List;
+
+/**
+ * Informe de un rebalanceo de cuentas entre fragmentos.
+ *
+ * @param anillo los fragmentos del anillo nuevo
+ * @param revisadas número de cuentas revisadas en todos los fragmentos
+ * @param trasladadas número de cuentas trasladadas a otro fragmento
+ * @param milisegundos duración del rebalanceo
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record InformeRebalanceo(List<String> anillo, long revisadas, long trasladadas, long milisegundos) {
+}
@@ -0,0 +1,16 @@
+package cajeroweb.modelo.dto;
+
+/**
+ * Una transferencia de un lote (por ejemplo, una línea de un fichero de nóminas).
+ *
+ * @param linea número de línea en el lote, empezando en 1
+ * @param origen id de la cuenta de la que sale el dinero
+ * @param destino id de la cuenta que lo recibe
+ * @param cantidad cantidad a transferir
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record LineaTransferencia(int linea, int origen, int destino, double cantidad) {
+}
@@ -0,0 +1,29 @@
+package cajeroweb.modelo.dto;
+
+import java.util.Date;
+
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Proyección de solo lectura de un movimiento para el historial: las columnas que se muestran,
+ * sin la cuenta. Las consultas que la devuelven no cargan entidades, así que no hay join con
+ * cuentas ni nada que registrar en el contexto de persistencia o revisar al hacer flush.
+ *
+ * @param idMovimiento el identificador del movimiento
+ * @param fecha la fecha del movimiento
+ * @param cantidad la cantidad, negativa en los cargos
+ * @param operacion el tipo de operación
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record MovimientoVista(int idMovimiento, Date fecha, double cantidad, String operacion) {
+
+    /**
+     * @return un Movimiento sin cuenta asociada con los mismos datos, como los del archivo
+     */
+    public Movimiento movimiento() {
+        return new Movimiento(idMovimiento, null, fecha, cantidad, operacion);
+    }
+}
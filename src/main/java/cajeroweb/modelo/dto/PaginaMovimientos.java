@@ -0,0 +1,18 @@
+package cajeroweb.modelo.dto;
+
+import java.util.List;
+
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Una página del historial de movimientos de una cuenta, de más reciente a más antiguo.
+ *
+ * @param movimientos los movimientos de la página
+ * @param siguiente cursor para pedir la página siguiente, o null si es la última
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record PaginaMovimientos(List<Movimiento> movimientos, CursorMovimientos siguiente) {
+}
@@ -0,0 +1,18 @@
+package cajeroweb.modelo.dto;
+
+/**
+ * Resultado de una línea de un lote de transferencias.
+ *
+ * @param linea número de línea en el lote
+ * @param origen id de la cuenta origen (0 si la línea no se pudo leer)
+ * @param destino id de la cuenta destino (0 si la línea no se pudo leer)
+ * @param cantidad cantidad de la línea
+ * @param resultado OK, SALDO_INSUFICIENTE, CUENTA_INCORRECTA, CANTIDAD_INCORRECTA,
+ *                  FORMATO_INCORRECTO, LIMITE_SUPERADO, MOVIMIENTO_NO_REGISTRADO o NO_EJECUTADA
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record ResultadoLinea(int linea, int origen, int destino, double cantidad, String resultado) {
+}
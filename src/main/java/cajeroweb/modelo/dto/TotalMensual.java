@@ -0,0 +1,17 @@
+package cajeroweb.modelo.dto;
+
+/**
+ * Total de los movimientos de una cuenta en un mes para un tipo de operación.
+ *
+ * @param anio el año
+ * @param mes el mes, de 1 a 12
+ * @param operacion el tipo de operación (Ingreso, Extracción, Transferencia...)
+ * @param num número de movimientos
+ * @param suma suma de sus cantidades (las extracciones y las transferencias enviadas restan)
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public record TotalMensual(int anio, int mes, String operacion, long num, double suma) {
+}
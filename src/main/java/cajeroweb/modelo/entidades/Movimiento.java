@@ -11,6 +11,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import jakarta.persistence.Temporal;
 import jakarta.persistence.TemporalType;
 import lombok.AllArgsConstructor;
@@ -30,7 +31,10 @@ public class Movimiento implements Serializable{
 	
 	@EqualsAndHashCode.Include
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	// Los ids se reservan por bloques en la tabla secuencias para que los inserts puedan ir por lotes
+	@GeneratedValue(strategy = GenerationType.TABLE, generator = "movimientosGen")
+	@TableGenerator(name = "movimientosGen", table = "secuencias", pkColumnName = "nombre",
+			valueColumnName = "siguiente", pkColumnValue = "movimientos", allocationSize = 100)
 	@Column(name="id_movimiento")
 	private int idMovimiento;
 	@ManyToOne
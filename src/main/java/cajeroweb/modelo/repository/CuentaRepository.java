@@ -1,6 +1,9 @@
 package cajeroweb.modelo.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
 import cajeroweb.modelo.entidades.Cuenta;
 
 /**
@@ -10,6 +13,10 @@ import cajeroweb.modelo.entidades.Cuenta;
  *
  * Esta interfaz es parte del framework Spring Data JPA, lo que permite
  * el uso de consultas personalizadas mediante métodos de nomenclatura o anotaciones.
+ *
+ * Los métodos de actualización de saldo son sentencias nativas de una sola ida y vuelta:
+ * la comprobación de saldo se hace en la propia sentencia y el número de filas afectadas
+ * indica si la operación se ha realizado. Deben invocarse dentro de una transacción.
  * 
  * @author Andres
  * @version 1.0
@@ -17,4 +24,37 @@ import cajeroweb.modelo.entidades.Cuenta;
  */
 public interface CuentaRepository extends JpaRepository<Cuenta, Integer> {
 
+    /**
+     * Suma una cantidad al saldo de la cuenta.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param cantidad la cantidad a sumar
+     * @return 1 si la cuenta existe, 0 en caso contrario
+     */
+    @Modifying
+    @Query(value = "update cuentas set saldo = saldo + ?2 where id_cuenta = ?1", nativeQuery = true)
+    public int sumarSaldo(int idCuenta, double cantidad);
+
+    /**
+     * Resta una cantidad del saldo de la cuenta solo si el saldo es suficiente.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param cantidad la cantidad a restar
+     * @return 1 si se ha restado, 0 si la cuenta no existe o el saldo es insuficiente
+     */
+    @Modifying
+    @Query(value = "update cuentas set saldo = saldo - ?2 where id_cuenta = ?1 and saldo >= ?2", nativeQuery = true)
+    public int restarSaldo(int idCuenta, double cantidad);
+
+    /**
+     * Sobrescribe el saldo y el tipo de una cuenta existente.
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param saldo el nuevo saldo
+     * @param tipoCuenta el nuevo tipo de cuenta
+     * @return 1 si la cuenta existe, 0 en caso contrario
+     */
+    @Modifying
+    @Query(value = "update cuentas set saldo = ?2, tipo_cuenta = ?3 where id_cuenta = ?1", nativeQuery = true)
+    public int actualizar(int idCuenta, double saldo, String tipoCuenta);
 }
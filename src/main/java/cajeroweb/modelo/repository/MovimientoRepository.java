@@ -1,9 +1,14 @@
 package cajeroweb.modelo.repository;
 
+import java.util.Date;
 import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import cajeroweb.modelo.dto.MovimientoVista;
 import cajeroweb.modelo.entidades.Movimiento;
 
 /**
@@ -11,8 +16,8 @@ import cajeroweb.modelo.entidades.Movimiento;
  * Extiende JpaRepository proporcionando métodos CRUD y funcionalidades adicionales
  * para interactuar con la base de datos.
  *
- * Esta interfaz incluye un método personalizado para buscar movimientos
- * basados en el identificador de la cuenta, utilizando una consulta JPQL.
+ * Las consultas del historial devuelven {@link MovimientoVista} con una expresión constructora:
+ * leen solo las columnas del historial, sin cargar la cuenta ni gestionar entidades.
  *
  * @author Andres
  * @version 1.0
@@ -21,12 +26,43 @@ import cajeroweb.modelo.entidades.Movimiento;
 public interface MovimientoRepository extends JpaRepository<Movimiento, Integer> {
 
     /**
-     * Busca todos los movimientos asociados a una cuenta específica.
-     * Utiliza una consulta JPQL para obtener los movimientos filtrados por el ID de la cuenta.
+     * Busca los movimientos asociados a una cuenta específica a partir de una fecha, en orden
+     * (fecha, idMovimiento).
+     *
+     * @param idCuenta el identificador de la cuenta
+     * @param desde fecha mínima (inclusive) de los movimientos
+     * @return los movimientos de la cuenta en orden (fecha, idMovimiento)
+     */
+    @Query("""
+            select new cajeroweb.modelo.dto.MovimientoVista(m.idMovimiento, m.fecha, m.cantidad, m.operacion)
+            from Movimiento m
+            where m.cuenta.idCuenta = ?1 and m.fecha >= ?2
+            order by m.fecha, m.idMovimiento""")
+    public List<MovimientoVista> buscarVistasPorNumeroCuenta(int idCuenta, Date desde);
+
+    /**
+     * Busca una página de movimientos de una cuenta por paginación de clave (keyset).
+     * Devuelve los movimientos anteriores a la posición (antesFecha, antesId) en orden
+     * (fecha, idMovimiento) descendente, de modo que la consulta recorre el índice
+     * (id_cuenta, fecha) sin saltar filas con OFFSET.
      *
-     * @param idCuenta el identificador de la cuenta cuyos movimientos se desean obtener
-     * @return una lista de objetos Movimiento correspondientes a la cuenta especificada
+     * @param idCuenta el identificador de la cuenta
+     * @param desde fecha mínima (inclusive) de los movimientos
+     * @param antesFecha fecha de la posición a partir de la cual se busca (exclusive)
+     * @param antesId id de la posición; con la misma fecha solo se devuelven ids menores
+     * @param operacion tipo de operación a filtrar, o null para todas
+     * @param limite número máximo de movimientos a devolver
+     * @return los movimientos de la página
      */
-    @Query("select m from Movimiento m where m.cuenta.idCuenta = ?1")
-    public List<Movimiento> buscarPorNumeroCuenta(int idCuenta);
+    @Query("""
+            select new cajeroweb.modelo.dto.MovimientoVista(m.idMovimiento, m.fecha, m.cantidad, m.operacion)
+            from Movimiento m
+            where m.cuenta.idCuenta = :idCuenta
+              and m.fecha >= :desde
+              and (m.fecha < :antesFecha or (m.fecha = :antesFecha and m.idMovimiento < :antesId))
+              and (:operacion is null or m.operacion = :operacion)
+            order by m.fecha desc, m.idMovimiento desc""")
+    public List<MovimientoVista> buscarVistasPagina(@Param("idCuenta") int idCuenta, @Param("desde") Date desde,
+            @Param("antesFecha") Date antesFecha, @Param("antesId") int antesId,
+            @Param("operacion") String operacion, Limit limite);
 }
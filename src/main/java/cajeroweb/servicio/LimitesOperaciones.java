@@ -0,0 +1,332 @@
+package cajeroweb.servicio;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.entidades.Cuenta;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Límites de extracciones y transferencias por cuenta en ventanas deslizantes, del tipo "no más
+ * de 600 euros extraídos en 24 horas" o "no más de 5 transferencias por minuto", sin consultar
+ * movimientos en cada operación.
+ *
+ * Las reglas se configuran por tipo de cuenta en cajero.limites.reglas, separadas por comas, con
+ * el formato tipo:operacion:medida:limite:ventana, por ejemplo
+ * {@code CORRIENTE:extraccion:importe:600:24h,*:transferencia:numero:5:1m}. El tipo * se aplica a
+ * todas las cuentas; la medida es importe (euros) o numero (operaciones).
+ *
+ * Cada regla divide su ventana en cajero.limites.divisiones tramos iguales y lleva el total de cada
+ * tramo. Una operación se admite si la suma de los tramos que tocan la ventana más la operación no
+ * pasa del límite: se cuenta hasta un tramo de más, así que el límite nunca se supera en ninguna
+ * ventana y como mucho se rechaza un tramo antes de lo estricto. Los tramos de una cuenta son un
+ * estado inmutable que se sustituye con compareAndSet, de forma que todas las reglas de la
+ * operación se comprueban y se anotan a la vez sin cerrojos.
+ *
+ * El estado de una cuenta se crea en su primera operación con sus movimientos de la ventana más
+ * larga y se descarta tras cajero.limites.inactividad sin operaciones o cuando hay más de
+ * cajero.limites.max-cuentas; la siguiente operación lo vuelve a crear desde los movimientos. Los
+ * contadores son de cada nodo: con varios nodos sin afinidad de sesión cada uno aplica el límite
+ * por separado.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Service
+public class LimitesOperaciones {
+
+    /**
+     * Operaciones con límite y el texto con el que se guardan sus movimientos.
+     */
+    public enum Operacion {
+        EXTRACCION("Extracción"), TRANSFERENCIA("Transferencia");
+
+        private final String movimiento;
+
+        Operacion(String movimiento) {
+            this.movimiento = movimiento;
+        }
+    }
+
+    /**
+     * Reserva de una operación admitida. Si la operación no llega a hacerse hay que anularla.
+     */
+    public interface Reserva {
+
+        /**
+         * Devuelve a la ventana lo que anotó la reserva.
+         */
+        void anular();
+    }
+
+    private static final Reserva SIN_LIMITE = () -> {
+    };
+
+    private static final String TODOS_LOS_TIPOS = "*";
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.limites.reglas:}")
+    private List<String> textoReglas;
+
+    @Value("${cajero.limites.divisiones:12}")
+    private int divisiones;
+
+    @Value("${cajero.limites.inactividad:15m}")
+    private Duration inactividad;
+
+    @Value("${cajero.limites.max-cuentas:100000}")
+    private int maxCuentas;
+
+    private final Map<String, List<Regla>> reglasPorTipo = new HashMap<>(); // Incluyen las de *
+    private final List<Regla> reglasTodos = new ArrayList<>();
+    private final Map<Integer, Ventanas> cuentas = new ConcurrentHashMap<>();
+
+    /**
+     * Lee las reglas de la configuración; una regla mal escrita impide arrancar.
+     */
+    @PostConstruct
+    public void iniciar() {
+        for (String texto : textoReglas) {
+            String[] partes = texto.trim().split(":");
+            if (partes.length != 5) {
+                throw new IllegalArgumentException("Regla de límite incorrecta: " + texto);
+            }
+            Operacion operacion = Operacion.valueOf(partes[1].trim().toUpperCase());
+            boolean importe = switch (partes[2].trim()) {
+                case "importe" -> true;
+                case "numero" -> false;
+                default -> throw new IllegalArgumentException("Medida de límite incorrecta: " + texto);
+            };
+            long limite = importe ? centimos(Double.parseDouble(partes[3].trim())) : Long.parseLong(partes[3].trim());
+            long ventana = DurationStyle.detectAndParse(partes[4].trim()).toMillis();
+            Regla regla = new Regla(operacion, importe, limite, Math.max(1, ventana / divisiones));
+            String tipo = partes[0].trim();
+            if (tipo.equals(TODOS_LOS_TIPOS)) {
+                reglasTodos.add(regla);
+            } else {
+                reglasPorTipo.computeIfAbsent(tipo, t -> new ArrayList<>()).add(regla);
+            }
+        }
+        reglasPorTipo.values().forEach(l -> l.addAll(reglasTodos));
+        Gauge.builder("cajero.limites.cuentas", cuentas, Map::size)
+                .description("Cuentas con contadores de límites en memoria")
+                .register(registro);
+    }
+
+    /**
+     * Comprueba los límites de la operación y, si la admiten, la anota en las ventanas de la cuenta.
+     *
+     * @param cuenta la cuenta que hace la operación, con su tipo
+     * @param operacion extracción o transferencia (de la cuenta de origen)
+     * @param cantidad la cantidad, positiva
+     * @return la reserva, que se anula si la operación no se hace, o null si se supera algún límite
+     */
+    public Reserva reservar(Cuenta cuenta, Operacion operacion, double cantidad) {
+        if (!tieneReglas(cuenta.getTipoCuenta(), operacion)) {
+            return SIN_LIMITE;
+        }
+        long ahora = System.currentTimeMillis();
+        Ventanas ventanas = ventanas(cuenta, ahora);
+        long c = centimos(cantidad);
+        return ventanas.anotar(operacion, c, ahora, true) ? () -> ventanas.anotar(operacion, -c, ahora, false) : null;
+    }
+
+    /**
+     * Indica si alguna regla, de cualquier tipo de cuenta, limita la operación.
+     *
+     * @param operacion extracción o transferencia
+     * @return false si reservar siempre admite la operación
+     */
+    public boolean limita(Operacion operacion) {
+        if (tieneReglas(null, operacion)) {
+            return true;
+        }
+        for (String tipo : reglasPorTipo.keySet()) {
+            if (tieneReglas(tipo, operacion)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Descarta las cuentas sin operaciones desde hace más de cajero.limites.inactividad.
+     */
+    @Scheduled(fixedDelayString = "${cajero.limites.barrido-ms:60000}")
+    public void barrer() {
+        long limite = System.currentTimeMillis() - inactividad.toMillis();
+        cuentas.values().removeIf(v -> v.ultimoUso < limite);
+    }
+
+    private boolean tieneReglas(String tipo, Operacion operacion) {
+        for (Regla r : reglas(tipo)) {
+            if (r.operacion() == operacion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Regla> reglas(String tipo) {
+        return tipo == null ? reglasTodos : reglasPorTipo.getOrDefault(tipo, reglasTodos);
+    }
+
+    /**
+     * Devuelve las ventanas de la cuenta, creándolas con sus movimientos recientes si no están en
+     * memoria. La carga se hace fuera del mapa: si dos peticiones la hacen a la vez se queda la primera.
+     */
+    private Ventanas ventanas(Cuenta cuenta, long ahora) {
+        Ventanas ventanas = cuentas.get(cuenta.getIdCuenta());
+        if (ventanas == null) {
+            if (cuentas.size() >= maxCuentas) {
+                descartarMasAntiguas();
+            }
+            Ventanas nuevas = cargar(cuenta, ahora);
+            ventanas = cuentas.putIfAbsent(cuenta.getIdCuenta(), nuevas);
+            if (ventanas == null) {
+                ventanas = nuevas;
+            }
+        }
+        ventanas.ultimoUso = ahora;
+        return ventanas;
+    }
+
+    private Ventanas cargar(Cuenta cuenta, long ahora) {
+        Ventanas ventanas = new Ventanas(reglas(cuenta.getTipoCuenta()).toArray(Regla[]::new), divisiones + 1, ahora);
+        long desde = ahora;
+        for (Regla r : ventanas.reglas) {
+            desde = Math.min(desde, ahora - r.ancho() * (divisiones + 1));
+        }
+        mdao.recorrer(cuenta.getIdCuenta(), new FiltroMovimientos(new Date(desde), null, null), m -> {
+            // Solo cuentan las salidas de dinero: las transferencias recibidas son positivas
+            if (m.getCantidad() < 0) {
+                for (Operacion o : Operacion.values()) {
+                    if (o.movimiento.equals(m.getOperacion())) {
+                        ventanas.anotar(o, centimos(-m.getCantidad()), m.getFecha().getTime(), false);
+                    }
+                }
+            }
+        });
+        return ventanas;
+    }
+
+    /**
+     * Cota de memoria: primero se descartan las inactivas y, si no basta, las de uso más antiguo
+     * hasta quedar en el 90 % de cajero.limites.max-cuentas.
+     */
+    private synchronized void descartarMasAntiguas() {
+        barrer();
+        int sobran = cuentas.size() - maxCuentas * 9 / 10;
+        if (sobran <= 0) {
+            return;
+        }
+        long[] usos = cuentas.values().stream().mapToLong(v -> v.ultimoUso).sorted().toArray();
+        long limite = usos[Math.min(sobran, usos.length) - 1];
+        cuentas.values().removeIf(v -> v.ultimoUso <= limite);
+    }
+
+    private static long centimos(double cantidad) {
+        return Math.round(cantidad * 100);
+    }
+
+    /**
+     * Regla de límite ya leída. El límite va en céntimos si es de importe.
+     *
+     * @param ancho milisegundos de cada tramo de la ventana
+     */
+    private record Regla(Operacion operacion, boolean importe, long limite, long ancho) {
+    }
+
+    /**
+     * Tramos de todas las reglas de una cuenta. La regla i ocupa las posiciones
+     * [i * tramos, (i + 1) * tramos) de los arrays del estado, usadas de forma circular.
+     */
+    private static final class Ventanas {
+
+        private final Regla[] reglas;
+        private final int tramos;
+        private final AtomicReference<Estado> estado;
+        private volatile long ultimoUso;
+
+        Ventanas(Regla[] reglas, int tramos, long ahora) {
+            this.reglas = reglas;
+            this.tramos = tramos;
+            this.estado = new AtomicReference<>(new Estado(new long[reglas.length * tramos], new long[reglas.length * tramos]));
+            this.ultimoUso = ahora;
+        }
+
+        /**
+         * Suma la cantidad (o una operación) a las reglas de la operación en el tramo de la fecha.
+         *
+         * @param comprobar true para no anotar nada si alguna regla pasaría de su límite
+         * @return false si se ha rechazado por algún límite
+         */
+        boolean anotar(Operacion operacion, long centimos, long fecha, boolean comprobar) {
+            while (true) {
+                Estado actual = estado.get();
+                long[] numTramo = actual.numTramo().clone();
+                long[] valores = actual.valores().clone();
+                for (int i = 0; i < reglas.length; i++) {
+                    Regla r = reglas[i];
+                    if (r.operacion() != operacion) {
+                        continue;
+                    }
+                    long tramo = fecha / r.ancho();
+                    int base = i * tramos;
+                    int pos = base + (int) (tramo % tramos);
+                    if (numTramo[pos] != tramo) {
+                        if (numTramo[pos] > tramo) {
+                            continue; // Tramo ya reutilizado: lo anotado en él ha salido de la ventana
+                        }
+                        numTramo[pos] = tramo;
+                        valores[pos] = 0;
+                    }
+                    long cantidad = r.importe() ? centimos : Long.signum(centimos);
+                    if (comprobar) {
+                        long usado = 0;
+                        for (int j = base; j < base + tramos; j++) {
+                            if (numTramo[j] > tramo - tramos) {
+                                usado += valores[j];
+                            }
+                        }
+                        if (usado + cantidad > r.limite()) {
+                            return false;
+                        }
+                    }
+                    valores[pos] += cantidad;
+                }
+                if (estado.compareAndSet(actual, new Estado(numTramo, valores))) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Número de tramo y total de cada posición. Nunca se modifica: cada anotación crea uno nuevo.
+     */
+    private record Estado(long[] numTramo, long[] valores) {
+    }
+}
@@ -0,0 +1,283 @@
+package cajeroweb.servicio;
+
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.modelo.dao.CuentaDaoImplJpaMy8;
+import cajeroweb.modelo.dao.CuentasCalientes;
+import cajeroweb.modelo.dao.EscritorLotesMovimientos;
+import cajeroweb.modelo.dto.InformeLiquidacion;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Liquidación mensual: abona intereses o cobra comisiones a todas las cuentas de los tipos de
+ * cajero.liquidacion.reglas, con un movimiento por cuenta. Cada regla es tipo:interes:porcentaje
+ * (interés anual sobre el saldo, la doceava parte cada mes) o tipo:comision:importe (que solo se
+ * cobra si el saldo lo cubre). Se ejecuta según cajero.liquidacion.cron para el mes anterior o a
+ * petición; con varios nodos el cron debe activarse solo en uno.
+ *
+ * Las cuentas se leen por paginación de clave en tramos de cajero.liquidacion.tamano-tramo ids y
+ * los tramos se aplican en paralelo en cajero.liquidacion.hilos hilos, con como mucho el doble de
+ * tramos leídos a la espera. Cada tramo es una transacción que bloquea sus cuentas en orden de id,
+ * actualiza los saldos con un update por lotes, inserta los movimientos por lotes a través de
+ * {@link EscritorLotesMovimientos#persistir(List)} (que mantiene checkpoints y resúmenes) y anota
+ * el tramo en liquidaciones_tramos. Si la ejecución se interrumpe, la siguiente del mismo mes
+ * salta los tramos anotados, así que ninguna cuenta se liquida dos veces; al terminar sin fallos
+ * el mes queda en liquidaciones y no se vuelve a liquidar.
+ *
+ * Trabaja directamente sobre las tablas, así que solo existe con la implementación JPA de los DAO.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Component
+@Profile("!memoria & !eventos & !fragmentos")
+public class LiquidadorMensual {
+
+    public static final String INTERESES = "Intereses";
+    public static final String COMISION = "Comisión";
+
+    /**
+     * Regla de un tipo de cuenta: interés anual en porcentaje o comisión fija.
+     */
+    private record Regla(boolean interes, double valor) {
+
+        /**
+         * @return el importe a sumar al saldo, 0 si no hay nada que liquidar
+         */
+        double importe(double saldo) {
+            if (interes) {
+                return saldo > 0 ? Math.round(saldo * valor / 12) / 100.0 : 0;
+            }
+            return saldo >= valor ? -valor : 0;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Autowired
+    private EscritorLotesMovimientos escritor;
+
+    @Autowired
+    private CuentasCalientes calientes;
+
+    @Autowired
+    private CuentaDaoImplJpaMy8 cuentas;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.liquidacion.reglas:AHORRO:interes:1.2,CORRIENTE:comision:3}")
+    private List<String> textoReglas;
+
+    @Value("${cajero.liquidacion.tamano-tramo:500}")
+    private int tamanoTramo;
+
+    @Value("${cajero.liquidacion.hilos:4}")
+    private int hilos;
+
+    private final Map<String, Regla> reglas = new HashMap<>();
+    private String tipos; // Lista "?, ?" para el filtro por tipo de cuenta
+    private TransactionTemplate tx;
+    private ExecutorService pool;
+
+    /**
+     * Lee las reglas de la configuración; una regla mal escrita impide arrancar.
+     */
+    @PostConstruct
+    public void iniciar() {
+        for (String texto : textoReglas) {
+            String[] partes = texto.trim().split(":");
+            if (partes.length != 3) {
+                throw new IllegalArgumentException("Regla de liquidación incorrecta: " + texto);
+            }
+            boolean interes = switch (partes[1].trim()) {
+                case "interes" -> true;
+                case "comision" -> false;
+                default -> throw new IllegalArgumentException("Concepto de liquidación incorrecto: " + texto);
+            };
+            reglas.put(partes[0].trim(), new Regla(interes, Double.parseDouble(partes[2].trim())));
+        }
+        tipos = String.join(", ", Collections.nCopies(Math.max(1, reglas.size()), "?"));
+        tx = new TransactionTemplate(txManager);
+        pool = Executors.newFixedThreadPool(hilos);
+    }
+
+    @PreDestroy
+    public void detener() {
+        pool.shutdown();
+    }
+
+    /**
+     * Liquida el mes anterior.
+     */
+    @Scheduled(cron = "${cajero.liquidacion.cron:-}")
+    public void liquidarMesAnterior() {
+        liquidar(YearMonth.now().minusMonths(1));
+    }
+
+    /**
+     * Liquida un mes, o termina su liquidación si una ejecución anterior se interrumpió.
+     *
+     * @param periodo el mes a liquidar
+     * @return el informe de la ejecución
+     */
+    public synchronized InformeLiquidacion liquidar(YearMonth periodo) {
+        String clave = periodo.toString();
+        long inicio = System.nanoTime();
+        if (!jdbc.queryForList("select periodo from liquidaciones where periodo = ?", String.class, clave).isEmpty()) {
+            return new InformeLiquidacion(clave, true, 0, 0, 0, 0, 0, 0, 0);
+        }
+        TreeMap<Integer, Integer> hechos = new TreeMap<>();
+        jdbc.query("select id_desde, id_hasta from liquidaciones_tramos where periodo = ?", rs -> {
+            hechos.put(rs.getInt(1), rs.getInt(2));
+        }, clave);
+        if (reglas.isEmpty()) {
+            return new InformeLiquidacion(clave, false, 0, 0, 0, hechos.size(), 0, 0, 0);
+        }
+
+        Timestamp fecha = new Timestamp(System.currentTimeMillis());
+        Semaphore plazas = new Semaphore(hilos * 2);
+        List<Future<long[]>> pendientes = new ArrayList<>();
+        int ultima = Integer.MIN_VALUE;
+        try {
+            while (true) {
+                // Un tramo nunca se solapa con los ya anotados: se corta antes del siguiente
+                Map.Entry<Integer, Integer> hecho = hechos.higherEntry(ultima);
+                int tope = hecho != null ? hecho.getKey() - 1 : Integer.MAX_VALUE;
+                List<Object> parametros = new ArrayList<>(List.of(ultima, tope));
+                parametros.addAll(reglas.keySet());
+                parametros.add(tamanoTramo);
+                List<Integer> ids = jdbc.queryForList("select id_cuenta from cuentas where id_cuenta > ? and id_cuenta <= ?"
+                        + " and tipo_cuenta in (" + tipos + ") order by id_cuenta limit ?", Integer.class, parametros.toArray());
+                if (ids.isEmpty()) {
+                    if (hecho == null) {
+                        break;
+                    }
+                    ultima = hecho.getValue();
+                    continue;
+                }
+                int desde = ids.get(0);
+                int hasta = ids.get(ids.size() - 1);
+                plazas.acquire();
+                pendientes.add(pool.submit(() -> {
+                    try {
+                        return aplicar(clave, desde, hasta, fecha);
+                    } finally {
+                        plazas.release();
+                    }
+                }));
+                ultima = hasta;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long liquidadas = 0;
+        long omitidas = 0;
+        int tramos = 0;
+        int fallidos = 0;
+        for (Future<long[]> f : pendientes) {
+            try {
+                long[] r = f.get();
+                if (r != null) {
+                    liquidadas += r[0];
+                    omitidas += r[1];
+                    tramos++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fallidos++;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(); // El tramo se aplica al volver a lanzar el mes
+                fallidos++;
+            }
+        }
+        if (fallidos == 0 && !Thread.currentThread().isInterrupted()) {
+            jdbc.update("insert into liquidaciones (periodo, fecha, cuentas, omitidas) select ?, ?, coalesce(sum(cuentas), 0),"
+                    + " coalesce(sum(omitidas), 0) from liquidaciones_tramos where periodo = ?", clave, fecha, clave);
+        }
+        long milisegundos = (System.nanoTime() - inicio) / 1_000_000;
+        double filasPorSegundo = (liquidadas + omitidas) * 1000.0 / Math.max(1, milisegundos);
+        return new InformeLiquidacion(clave, false, liquidadas, omitidas, tramos, hechos.size(), fallidos, milisegundos,
+                filasPorSegundo);
+    }
+
+    /**
+     * Aplica un tramo en una transacción. La anotación del tramo va primero: si otra ejecución lo
+     * está aplicando, espera a que termine y lo salta.
+     *
+     * @return cuentas liquidadas y omitidas, o null si el tramo ya estaba aplicado
+     */
+    private long[] aplicar(String periodo, int desde, int hasta, Timestamp fecha) {
+        return tx.execute(estado -> {
+            try {
+                jdbc.update("insert into liquidaciones_tramos (periodo, id_desde, id_hasta, cuentas, omitidas, fecha)"
+                        + " values (?, ?, ?, 0, 0, ?)", periodo, desde, hasta, fecha);
+            } catch (DuplicateKeyException e) {
+                return null;
+            }
+            List<Object> parametros = new ArrayList<>(List.of(desde, hasta));
+            parametros.addAll(reglas.keySet());
+            List<Cuenta> tramo = jdbc.query("select id_cuenta, saldo, tipo_cuenta from cuentas where id_cuenta between ? and ?"
+                    + " and tipo_cuenta in (" + tipos + ") order by id_cuenta for update",
+                    (rs, i) -> new Cuenta(rs.getInt(1), rs.getDouble(2), rs.getString(3)), parametros.toArray());
+
+            List<Object[]> variaciones = new ArrayList<>(tramo.size());
+            List<Movimiento> movimientos = new ArrayList<>(tramo.size());
+            List<Integer> ids = new ArrayList<>(tramo.size());
+            for (Cuenta c : tramo) {
+                double saldo = c.getSaldo();
+                if (calientes.esCaliente(c.getIdCuenta())) {
+                    saldo += calientes.consolidar(c.getIdCuenta());
+                }
+                Regla regla = reglas.get(c.getTipoCuenta());
+                double importe = regla.importe(saldo);
+                if (importe != 0) {
+                    variaciones.add(new Object[] { importe, c.getIdCuenta() });
+                    movimientos.add(new Movimiento(0, c, fecha, importe, regla.interes() ? INTERESES : COMISION));
+                    ids.add(c.getIdCuenta());
+                }
+            }
+            jdbc.batchUpdate("update cuentas set saldo = saldo + ? where id_cuenta = ?", variaciones);
+            escritor.persistir(movimientos);
+            cuentas.olvidar(ids);
+            long omitidas = tramo.size() - movimientos.size();
+            jdbc.update("update liquidaciones_tramos set cuentas = ?, omitidas = ? where periodo = ? and id_desde = ?",
+                    movimientos.size(), omitidas, periodo, desde);
+            registro.counter("cajero.liquidacion.cuentas", "resultado", "liquidada").increment(movimientos.size());
+            registro.counter("cajero.liquidacion.cuentas", "resultado", "omitida").increment(omitidas);
+            return new long[] { movimientos.size(), omitidas };
+        });
+    }
+}
@@ -0,0 +1,309 @@
+package cajeroweb.servicio;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.InformeLote;
+import cajeroweb.modelo.dto.LineaTransferencia;
+import cajeroweb.modelo.dto.ResultadoLinea;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Ejecuta lotes de transferencias (por ejemplo, los ficheros de nóminas) en paralelo.
+ *
+ * Las líneas se reparten en componentes que no comparten ninguna cuenta (unión-búsqueda sobre
+ * origen y destino), de modo que componentes distintos se pueden ejecutar a la vez sin
+ * conflictos ni interbloqueos. Los componentes pequeños se agrupan hasta {@code tamanoTramo}
+ * líneas y los grandes se parten en tramos consecutivos que se ejecutan en orden. Cada tramo es
+ * una llamada a {@link CuentaDao#transferencias(List)} y una a {@link MovimientoDao#insertVarios(List)},
+ * así que el resultado de cada línea es el mismo que si el lote se hiciera línea a línea. Si no
+ * se registran todos los movimientos de un tramo, sus líneas hechas se informan como
+ * MOVIMIENTO_NO_REGISTRADO: el saldo ya se ha movido y la conciliación lo detectará. Si falla la
+ * transacción de un tramo, sus líneas y las de los tramos siguientes de su grupo salen como
+ * NO_EJECUTADA y el resto del lote se informa con normalidad.
+ *
+ * Cada línea reserva en {@link LimitesOperaciones} una transferencia de su cuenta de origen antes
+ * de ejecutar el tramo, en el orden del lote (las líneas de una misma cuenta están en el mismo
+ * grupo); si supera un límite sale como LIMITE_SUPERADO y no se ejecuta. La reserva se anula si la
+ * transferencia no se hace, también si el tramo falla.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+@Service
+public class TransferenciasLote {
+
+    public static final String OK = "OK";
+    public static final String SALDO_INSUFICIENTE = "SALDO_INSUFICIENTE";
+    public static final String CUENTA_INCORRECTA = "CUENTA_INCORRECTA";
+    public static final String CANTIDAD_INCORRECTA = "CANTIDAD_INCORRECTA";
+    public static final String FORMATO_INCORRECTO = "FORMATO_INCORRECTO";
+    public static final String MOVIMIENTO_NO_REGISTRADO = "MOVIMIENTO_NO_REGISTRADO";
+    public static final String LIMITE_SUPERADO = "LIMITE_SUPERADO";
+    public static final String NO_EJECUTADA = "NO_EJECUTADA";
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private LimitesOperaciones limites;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    @Value("${cajero.lote.paralelismo:4}")
+    private int paralelismo;
+
+    @Value("${cajero.lote.tamano-tramo:1000}")
+    private int tamanoTramo;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Crea el pool propio de los lotes, separado del común para no competir con otras tareas.
+     */
+    @PostConstruct
+    public void iniciar() {
+        pool = new ForkJoinPool(paralelismo);
+    }
+
+    @PreDestroy
+    public void detener() {
+        pool.shutdown();
+    }
+
+    /**
+     * Ejecuta un lote. Las líneas con cantidad no positiva o no finita (NaN, infinito) se rechazan
+     * sin llegar a la base de datos.
+     *
+     * @param lineas las transferencias del lote, en orden
+     * @param erroneas resultados ya decididos al leer el lote (líneas con formato incorrecto)
+     * @return el informe con el resultado de cada línea, en orden de número de línea
+     */
+    public InformeLote ejecutar(List<LineaTransferencia> lineas, List<ResultadoLinea> erroneas) {
+        long inicio = System.nanoTime();
+        Map<Integer, ResultadoLinea> resultados = new HashMap<>();
+        for (ResultadoLinea r : erroneas) {
+            resultados.put(r.linea(), r);
+        }
+        List<LineaTransferencia> validas = new ArrayList<>(lineas.size());
+        for (LineaTransferencia l : lineas) {
+            if (!Double.isFinite(l.cantidad()) || l.cantidad() <= 0) {
+                resultados.put(l.linea(), resultado(l, CANTIDAD_INCORRECTA));
+            } else {
+                validas.add(l);
+            }
+        }
+
+        boolean conLimites = limites.limita(LimitesOperaciones.Operacion.TRANSFERENCIA);
+        List<Callable<List<ResultadoLinea>>> tareas = new ArrayList<>();
+        for (List<List<LineaTransferencia>> grupo : agrupar(validas)) {
+            tareas.add(() -> {
+                List<ResultadoLinea> hechas = new ArrayList<>();
+                Map<Integer, Cuenta> origenes = new HashMap<>(); // Tipo de cuenta para los límites
+                for (int t = 0; t < grupo.size(); t++) {
+                    try {
+                        hechas.addAll(conLimites ? ejecutarConLimites(grupo.get(t), origenes) : ejecutarTramo(grupo.get(t)));
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        // Los tramos siguientes dependen de este: tampoco se ejecutan
+                        for (List<LineaTransferencia> pendiente : grupo.subList(t, grupo.size())) {
+                            for (LineaTransferencia l : pendiente) {
+                                hechas.add(resultado(l, NO_EJECUTADA));
+                            }
+                        }
+                        break;
+                    }
+                }
+                return hechas;
+            });
+        }
+        for (Future<List<ResultadoLinea>> f : pool.invokeAll(tareas)) {
+            try {
+                for (ResultadoLinea r : f.get()) {
+                    resultados.put(r.linea(), r);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Lote interrumpido", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error al ejecutar el lote", e.getCause());
+            }
+        }
+
+        List<ResultadoLinea> ordenados = resultados.values().stream()
+                .sorted((a, b) -> Integer.compare(a.linea(), b.linea())).toList();
+        int correctas = 0;
+        for (ResultadoLinea r : ordenados) {
+            registro.counter("cajero.lote.lineas", "resultado", r.resultado()).increment();
+            if (OK.equals(r.resultado())) {
+                correctas++;
+            }
+        }
+        return new InformeLote(ordenados.size(), correctas, (System.nanoTime() - inicio) / 1_000_000, ordenados);
+    }
+
+    /**
+     * Reparte las líneas en grupos independientes. Cada grupo es una lista de tramos que se
+     * ejecutan en orden; grupos distintos no comparten ninguna cuenta.
+     */
+    List<List<List<LineaTransferencia>>> agrupar(List<LineaTransferencia> lineas) {
+        Map<Integer, Integer> padres = new HashMap<>();
+        for (LineaTransferencia l : lineas) {
+            unir(padres, l.origen(), l.destino());
+        }
+        // Componentes en orden de primera aparición, conservando el orden de sus líneas
+        Map<Integer, List<LineaTransferencia>> componentes = new LinkedHashMap<>();
+        for (LineaTransferencia l : lineas) {
+            componentes.computeIfAbsent(raiz(padres, l.origen()), k -> new ArrayList<>()).add(l);
+        }
+
+        List<List<List<LineaTransferencia>>> grupos = new ArrayList<>();
+        List<LineaTransferencia> pequenos = new ArrayList<>();
+        for (List<LineaTransferencia> componente : componentes.values()) {
+            if (componente.size() >= tamanoTramo) {
+                List<List<LineaTransferencia>> tramos = new ArrayList<>();
+                for (int i = 0; i < componente.size(); i += tamanoTramo) {
+                    tramos.add(componente.subList(i, Math.min(componente.size(), i + tamanoTramo)));
+                }
+                grupos.add(tramos);
+            } else {
+                if (pequenos.size() + componente.size() > tamanoTramo) {
+                    grupos.add(List.of(pequenos));
+                    pequenos = new ArrayList<>();
+                }
+                pequenos.addAll(componente);
+            }
+        }
+        if (!pequenos.isEmpty()) {
+            grupos.add(List.of(pequenos));
+        }
+        return grupos;
+    }
+
+    private static int raiz(Map<Integer, Integer> padres, int id) {
+        int r = id;
+        Integer p;
+        while ((p = padres.get(r)) != null && p != r) {
+            r = p;
+        }
+        // Compresión de caminos
+        while ((p = padres.get(id)) != null && p != r) {
+            padres.put(id, r);
+            id = p;
+        }
+        return r;
+    }
+
+    private static void unir(Map<Integer, Integer> padres, int a, int b) {
+        padres.putIfAbsent(a, a);
+        padres.putIfAbsent(b, b);
+        int ra = raiz(padres, a);
+        int rb = raiz(padres, b);
+        if (ra != rb) {
+            padres.put(ra, rb);
+        }
+    }
+
+    /**
+     * Reserva los límites de cada línea del tramo, ejecuta las admitidas y anula las reservas de
+     * las que no se hacen.
+     */
+    private List<ResultadoLinea> ejecutarConLimites(List<LineaTransferencia> tramo, Map<Integer, Cuenta> origenes) {
+        List<LineaTransferencia> admitidas = new ArrayList<>(tramo.size());
+        List<LimitesOperaciones.Reserva> reservas = new ArrayList<>(tramo.size());
+        List<ResultadoLinea> rechazadas = new ArrayList<>();
+        List<ResultadoLinea> hechas = null;
+        try {
+            for (LineaTransferencia l : tramo) {
+                Cuenta origen = origenes.computeIfAbsent(l.origen(), cdao::buscarUno);
+                LimitesOperaciones.Reserva reserva = origen == null ? null
+                        : limites.reservar(origen, LimitesOperaciones.Operacion.TRANSFERENCIA, l.cantidad());
+                if (origen != null && reserva == null) {
+                    rechazadas.add(resultado(l, LIMITE_SUPERADO));
+                } else {
+                    // Sin cuenta de origen no hay reserva: la línea sale como CUENTA_INCORRECTA
+                    admitidas.add(l);
+                    reservas.add(reserva);
+                }
+            }
+            hechas = admitidas.isEmpty() ? new ArrayList<>() : ejecutarTramo(admitidas);
+        } finally {
+            for (int i = 0; i < reservas.size(); i++) {
+                boolean cargada = hechas != null && !SALDO_INSUFICIENTE.equals(hechas.get(i).resultado())
+                        && !CUENTA_INCORRECTA.equals(hechas.get(i).resultado());
+                if (reservas.get(i) != null && !cargada) {
+                    reservas.get(i).anular();
+                }
+            }
+        }
+        hechas.addAll(rechazadas);
+        return hechas;
+    }
+
+    /**
+     * Ejecuta un tramo: una transacción para los saldos y un envío conjunto de sus movimientos.
+     */
+    private List<ResultadoLinea> ejecutarTramo(List<LineaTransferencia> tramo) {
+        int[] codigos = cdao.transferencias(tramo);
+        List<ResultadoLinea> hechas = new ArrayList<>(tramo.size());
+        List<Movimiento> movimientos = new ArrayList<>();
+        for (int i = 0; i < tramo.size(); i++) {
+            LineaTransferencia l = tramo.get(i);
+            if (codigos[i] == CuentaDao.TRANSFERENCIA_OK) {
+                Date fecha = new Date();
+                movimientos.add(new Movimiento(0, new Cuenta(l.destino(), 0, null), fecha, l.cantidad(), "Transferencia"));
+                movimientos.add(new Movimiento(0, new Cuenta(l.origen(), 0, null), fecha, -l.cantidad(), "Transferencia"));
+                hechas.add(resultado(l, OK));
+            } else if (codigos[i] == CuentaDao.SALDO_INSUFICIENTE) {
+                hechas.add(resultado(l, SALDO_INSUFICIENTE));
+            } else {
+                hechas.add(resultado(l, CUENTA_INCORRECTA));
+            }
+        }
+        if (!movimientos.isEmpty() && !registrar(movimientos)) {
+            // insertVarios no dice cuáles faltan: se informan todas las líneas hechas del tramo
+            for (int i = 0; i < hechas.size(); i++) {
+                if (OK.equals(hechas.get(i).resultado())) {
+                    hechas.set(i, resultado(tramo.get(i), MOVIMIENTO_NO_REGISTRADO));
+                }
+            }
+        }
+        return hechas;
+    }
+
+    private boolean registrar(List<Movimiento> movimientos) {
+        try {
+            return mdao.insertVarios(movimientos) == movimientos.size();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static ResultadoLinea resultado(LineaTransferencia l, String resultado) {
+        return new ResultadoLinea(l.linea(), l.origen(), l.destino(), l.cantidad(), resultado);
+    }
+}
@@ -0,0 +1,105 @@
+package cajeroweb.arranque;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mide el tiempo de arranque de la aplicación empaquetada por el perfil Maven arranque: lanza
+ * {@code cajero.jar} varias veces en un proceso nuevo y cuenta el tiempo desde que se crea el
+ * proceso hasta que GET /login responde 200. Compara el arranque normal con el que usa el código
+ * generado por AOT (spring.aot.enabled) y el archivo CDS app.jsa, e imprime la mediana de cada uno
+ * para poder seguirla de una versión a otra.
+ *
+ * GET /login solo pinta la vista, así que la medición no necesita base de datos.
+ *
+ * Argumentos: directorio de cajero.jar y app.jsa, número de repeticiones y perfiles de Spring.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+public final class MedicionArranque {
+
+    private static final Duration LIMITE = Duration.ofMinutes(2);
+
+    private MedicionArranque() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directorio = Paths.get(args[0]);
+        int repeticiones = Integer.parseInt(args[1]);
+        String perfiles = args[2];
+        if (!Files.exists(directorio.resolve("app.jsa"))) {
+            throw new IllegalStateException("Falta el archivo CDS " + directorio.resolve("app.jsa"));
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> normal = List.of(java, "-Dspring.profiles.active=" + perfiles, "-jar", "cajero.jar");
+        List<String> optimizado = List.of(java, "-XX:SharedArchiveFile=app.jsa", "-Xlog:cds=off", "-Xlog:cds+dynamic=off",
+                "-Dspring.aot.enabled=true", "-Dspring.profiles.active=" + perfiles, "-jar", "cajero.jar");
+
+        long[] tiemposNormal = new long[repeticiones];
+        long[] tiemposOptimizado = new long[repeticiones];
+        for (int i = 0; i < repeticiones; i++) {
+            // Alternados, para que los dos modos repartan igual el ruido de la máquina
+            tiemposNormal[i] = medir(directorio, normal);
+            tiemposOptimizado[i] = medir(directorio, optimizado);
+            System.out.printf("Arranque %d: normal %d ms, AOT + CDS %d ms%n", i + 1, tiemposNormal[i], tiemposOptimizado[i]);
+        }
+        System.out.printf("Tiempo hasta el primer /login (mediana de %d): normal %d ms, AOT + CDS %d ms%n",
+                repeticiones, mediana(tiemposNormal), mediana(tiemposOptimizado));
+    }
+
+    private static long medir(Path directorio, List<String> comando) throws IOException, InterruptedException {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        List<String> argumentos = new ArrayList<>(comando);
+        argumentos.add("--server.port=" + puerto);
+        HttpClient cliente = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest login = HttpRequest.newBuilder(URI.create("http://localhost:" + puerto + "/login")).GET().build();
+
+        long inicio = System.nanoTime();
+        Process proceso = new ProcessBuilder(argumentos).directory(directorio.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            while (System.nanoTime() - inicio < LIMITE.toNanos()) {
+                if (!proceso.isAlive()) {
+                    throw new IllegalStateException("La aplicación terminó con código " + proceso.exitValue());
+                }
+                try {
+                    if (cliente.send(login, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return (System.nanoTime() - inicio) / 1_000_000;
+                    }
+                } catch (ConnectException e) {
+                    // Todavía no escucha
+                }
+                Thread.sleep(10);
+            }
+            throw new IllegalStateException("La aplicación no respondió a /login en " + LIMITE.toSeconds() + " s");
+        } finally {
+            proceso.destroy();
+            proceso.waitFor();
+        }
+    }
+
+    private static long mediana(long[] tiempos) {
+        long[] ordenados = tiempos.clone();
+        Arrays.sort(ordenados);
+        return ordenados[ordenados.length / 2];
+    }
+}
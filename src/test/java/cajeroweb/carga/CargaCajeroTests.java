@@ -0,0 +1,76 @@
+package cajeroweb.carga;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Prueba de carga y de resistencia de los flujos del cajero: arranca la aplicación con Tomcat en un
+ * puerto libre sobre su propia base H2 en memoria, siembra las cuentas y la somete a la carga de
+ * {@link GeneradorCarga}. Imprime el rendimiento y las latencias por flujo y comprueba que el
+ * dinero total de las cuentas (filas de cuentas más ranuras de las cuentas calientes) es el inicial
+ * más los ingresos menos las extracciones confirmados: las transferencias no crean ni destruyen dinero.
+ *
+ * No se ejecuta con el resto de pruebas; se lanza con el perfil Maven carga, por ejemplo
+ * {@code mvn -Pcarga test -Dcarga.usuarios=200 -Dcarga.distribucion=zipf -Dcarga.duracion-s=600}.
+ * Las propiedades de la aplicación también se pueden cambiar con -D (cajero.cuentas-calientes.ids=1...).
+ */
+@Tag("carga")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:carga;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE" })
+@ActiveProfiles("h2")
+class CargaCajeroTests {
+
+    @LocalServerPort
+    private int puerto;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private GeneradorCarga.Configuracion conf;
+
+    @BeforeEach
+    void sembrar() {
+        conf = GeneradorCarga.Configuracion.desdePropiedades();
+        double saldoInicial = Double.parseDouble(System.getProperty("carga.saldo-inicial", "1000"));
+        List<Object[]> cuentas = new ArrayList<>(conf.cuentas());
+        for (int id = 1; id <= conf.cuentas(); id++) {
+            cuentas.add(new Object[] { id, saldoInicial, id % 2 == 0 ? "CORRIENTE" : "AHORRO" });
+        }
+        jdbc.batchUpdate("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, ?, ?)", cuentas);
+    }
+
+    @Test
+    void cargaConservaElDinero() throws InterruptedException {
+        double antes = dineroTotal();
+
+        InformeCarga informe = new GeneradorCarga("http://localhost:" + puerto, conf).ejecutar();
+
+        double despues = dineroTotal();
+        double esperado = antes + informe.saldoNeto();
+        System.out.println("Carga: " + conf);
+        System.out.print(informe);
+        System.out.printf("Rendimiento %.1f pet/s; dinero inicial %.2f, esperado %.2f, final %.2f, incierto %d%n",
+                informe.rendimiento(), antes, esperado, despues, informe.incierto());
+
+        assertTrue(informe.peticiones() > 0, "La carga no llegó a medir ninguna petición");
+        // Con ingresos o extracciones de resultado desconocido solo se puede acotar la diferencia
+        assertEquals(esperado, despues, informe.incierto() + 1e-6 * Math.abs(esperado));
+    }
+
+    private double dineroTotal() {
+        return jdbc.queryForObject("select (select coalesce(sum(saldo), 0) from cuentas)"
+                + " + (select coalesce(sum(saldo), 0) from cuentas_ranuras)", Double.class);
+    }
+}
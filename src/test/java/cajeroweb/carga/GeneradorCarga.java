@@ -0,0 +1,273 @@
+package cajeroweb.carga;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generador de carga HTTP contra los flujos de CuentaController. Cada usuario virtual es un hilo
+ * virtual con sus propias cookies que repite sesiones completas: login con una cuenta elegida por
+ * {@link SelectorCuentas}, {@code operacionesPorSesion} operaciones elegidas según la mezcla
+ * (ingresar, extraer, transferencia, movimientos) y logout, con un tiempo de espera entre
+ * peticiones que sigue una exponencial de media {@code pensarMs}.
+ *
+ * Las respuestas se clasifican como las vería el navegador: la redirección a / es una operación
+ * correcta, la redirección de vuelta al formulario es un rechazo de la aplicación y un 4xx/5xx o
+ * un error de conexión es un error. Las redirecciones no se siguen, así que cada latencia es la de
+ * una sola petición.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class GeneradorCarga {
+
+    enum Flujo {
+        LOGIN, INGRESAR, EXTRAER, TRANSFERENCIA, MOVIMIENTOS, LOGOUT
+    }
+
+    enum Resultado {
+        CORRECTA, RECHAZADA, ERROR
+    }
+
+    enum Distribucion {
+        UNIFORME, ZIPF
+    }
+
+    /**
+     * Parámetros de la carga. Desde Maven se pasan como propiedades del sistema carga.*,
+     * por ejemplo -Dcarga.usuarios=200 -Dcarga.distribucion=zipf.
+     *
+     * @param usuarios usuarios virtuales simultáneos
+     * @param cuentas número de cuentas (ids 1..cuentas)
+     * @param distribucion reparto de los usuarios entre las cuentas
+     * @param exponenteZipf exponente s de la distribución de Zipf
+     * @param calentamiento tiempo inicial que no se mide
+     * @param duracion tiempo medido, después del calentamiento
+     * @param pensarMs espera media entre peticiones de un mismo usuario; 0 sin espera
+     * @param operacionesPorSesion operaciones entre el login y el logout
+     * @param cantidadMaxima cantidad máxima de cada ingreso, extracción o transferencia (entera, desde 1)
+     * @param mezcla peso de cada operación de la sesión
+     */
+    record Configuracion(int usuarios, int cuentas, Distribucion distribucion, double exponenteZipf,
+            Duration calentamiento, Duration duracion, long pensarMs, int operacionesPorSesion,
+            int cantidadMaxima, Map<Flujo, Integer> mezcla) {
+
+        Configuracion {
+            if (cuentas < 2) {
+                throw new IllegalArgumentException("Hacen falta al menos dos cuentas para las transferencias");
+            }
+        }
+
+        static Configuracion desdePropiedades() {
+            return new Configuracion(
+                    Integer.getInteger("carga.usuarios", 20),
+                    Integer.getInteger("carga.cuentas", 1000),
+                    Distribucion.valueOf(System.getProperty("carga.distribucion", "uniforme").toUpperCase()),
+                    Double.parseDouble(System.getProperty("carga.zipf-exponente", "1.0")),
+                    Duration.ofSeconds(Long.getLong("carga.calentamiento-s", 5)),
+                    Duration.ofSeconds(Long.getLong("carga.duracion-s", 20)),
+                    Long.getLong("carga.pensar-ms", 10),
+                    Integer.getInteger("carga.operaciones-por-sesion", 10),
+                    Integer.getInteger("carga.cantidad-maxima", 100),
+                    mezcla(System.getProperty("carga.mezcla", "ingresar=20,extraer=20,transferencia=30,movimientos=30")));
+        }
+
+        private static Map<Flujo, Integer> mezcla(String texto) {
+            Map<Flujo, Integer> mezcla = new EnumMap<>(Flujo.class);
+            for (String parte : texto.split(",")) {
+                String[] peso = parte.split("=");
+                mezcla.put(Flujo.valueOf(peso[0].trim().toUpperCase()), Integer.parseInt(peso[1].trim()));
+            }
+            return mezcla;
+        }
+
+        @Override
+        public String toString() {
+            return usuarios + " usuarios, " + cuentas + " cuentas " + distribucion.name().toLowerCase()
+                    + (distribucion == Distribucion.ZIPF ? " (s=" + exponenteZipf + ")" : "")
+                    + ", pensar " + pensarMs + " ms, " + operacionesPorSesion + " operaciones por sesión, mezcla "
+                    + mezcla + ", calentamiento " + calentamiento.toSeconds() + " s, medición "
+                    + duracion.toSeconds() + " s";
+        }
+    }
+
+    private final String base;
+    private final Configuracion conf;
+    private final SelectorCuentas selector;
+    private final Flujo[] operaciones;
+    private final int[] pesosAcumulados;
+    private final HttpClient cliente;
+
+    GeneradorCarga(String base, Configuracion conf) {
+        this.base = base;
+        this.conf = conf;
+        this.selector = conf.distribucion() == Distribucion.ZIPF
+                ? SelectorCuentas.zipf(conf.cuentas(), conf.exponenteZipf())
+                : SelectorCuentas.uniforme(conf.cuentas());
+        this.operaciones = conf.mezcla().keySet().toArray(Flujo[]::new);
+        this.pesosAcumulados = new int[operaciones.length];
+        int total = 0;
+        for (int i = 0; i < operaciones.length; i++) {
+            total += conf.mezcla().get(operaciones[i]);
+            pesosAcumulados[i] = total;
+        }
+        this.cliente = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Lanza los usuarios virtuales y espera a que terminen.
+     *
+     * @return el informe conjunto de todos los usuarios
+     */
+    InformeCarga ejecutar() throws InterruptedException {
+        long inicio = System.nanoTime();
+        long inicioMedicion = inicio + conf.calentamiento().toNanos();
+        long fin = inicioMedicion + conf.duracion().toNanos();
+        List<Future<InformeCarga>> usuarios = new ArrayList<>(conf.usuarios());
+        try (ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < conf.usuarios(); i++) {
+                usuarios.add(hilos.submit(() -> usuario(inicioMedicion, fin)));
+            }
+        }
+        InformeCarga informe = new InformeCarga();
+        for (Future<InformeCarga> u : usuarios) {
+            try {
+                informe.sumar(u.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Usuario virtual terminado con error", e.getCause());
+            }
+        }
+        informe.setSegundos(conf.duracion().toNanos() / 1e9);
+        return informe;
+    }
+
+    private InformeCarga usuario(long inicioMedicion, long fin) throws InterruptedException {
+        InformeCarga informe = new InformeCarga();
+        CookieManager cookies = new CookieManager();
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        while (System.nanoTime() < fin) {
+            int cuenta = selector.siguiente();
+            if (enviar(Flujo.LOGIN, formulario("/login", "numeroCuenta=" + cuenta), cookies, informe, inicioMedicion)
+                    != Resultado.CORRECTA) {
+                pensar();
+                continue;
+            }
+            for (int i = 0; i < conf.operacionesPorSesion() && System.nanoTime() < fin; i++) {
+                pensar();
+                long cantidad = aleatorio.nextInt(conf.cantidadMaxima()) + 1;
+                switch (elegirOperacion()) {
+                    case INGRESAR -> {
+                        Resultado r = enviar(Flujo.INGRESAR, formulario("/ingresar", "ingreso=" + cantidad),
+                                cookies, informe, inicioMedicion);
+                        if (r == Resultado.CORRECTA) {
+                            informe.ingreso(cantidad);
+                        } else if (r == Resultado.ERROR) {
+                            informe.incierto(cantidad);
+                        }
+                    }
+                    case EXTRAER -> {
+                        Resultado r = enviar(Flujo.EXTRAER, formulario("/extraer", "extraer=" + cantidad),
+                                cookies, informe, inicioMedicion);
+                        if (r == Resultado.CORRECTA) {
+                            informe.extraccion(cantidad);
+                        } else if (r == Resultado.ERROR) {
+                            informe.incierto(cantidad);
+                        }
+                    }
+                    case TRANSFERENCIA -> enviar(Flujo.TRANSFERENCIA, formulario("/transferencia",
+                            "cantidad=" + cantidad + "&idCuentaDestino=" + selector.distintaDe(cuenta)),
+                            cookies, informe, inicioMedicion);
+                    default -> enviar(Flujo.MOVIMIENTOS, HttpRequest.newBuilder(URI.create(base + "/movimientos")).GET(),
+                            cookies, informe, inicioMedicion);
+                }
+            }
+            pensar();
+            enviar(Flujo.LOGOUT, HttpRequest.newBuilder(URI.create(base + "/logout")).GET(), cookies, informe,
+                    inicioMedicion);
+        }
+        return informe;
+    }
+
+    private HttpRequest.Builder formulario(String ruta, String cuerpo) {
+        return HttpRequest.newBuilder(URI.create(base + ruta))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(cuerpo));
+    }
+
+    private Flujo elegirOperacion() {
+        int u = ThreadLocalRandom.current().nextInt(pesosAcumulados[pesosAcumulados.length - 1]);
+        int i = 0;
+        while (pesosAcumulados[i] <= u) {
+            i++;
+        }
+        return operaciones[i];
+    }
+
+    private void pensar() throws InterruptedException {
+        if (conf.pensarMs() > 0) {
+            Thread.sleep((long) (-conf.pensarMs() * Math.log(1 - ThreadLocalRandom.current().nextDouble())));
+        }
+    }
+
+    /**
+     * Envía una petición con las cookies del usuario, guarda las que devuelva y anota la latencia
+     * si la petición empezó después del calentamiento.
+     */
+    private Resultado enviar(Flujo flujo, HttpRequest.Builder peticion, CookieManager cookies, InformeCarga informe,
+            long inicioMedicion) throws InterruptedException {
+        URI uri = URI.create(base + "/");
+        Resultado resultado;
+        long t0 = System.nanoTime();
+        try {
+            List<String> enviadas = cookies.get(uri, Map.of()).getOrDefault("Cookie", List.of());
+            if (!enviadas.isEmpty()) {
+                peticion.header("Cookie", String.join("; ", enviadas));
+            }
+            HttpResponse<Void> respuesta = cliente.send(peticion.timeout(Duration.ofSeconds(30)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            cookies.put(uri, respuesta.headers().map());
+            resultado = clasificar(flujo, respuesta);
+        } catch (IOException e) {
+            resultado = Resultado.ERROR;
+        }
+        if (t0 >= inicioMedicion) {
+            informe.anotar(flujo, System.nanoTime() - t0, resultado);
+        }
+        return resultado;
+    }
+
+    private static Resultado clasificar(Flujo flujo, HttpResponse<Void> respuesta) {
+        int estado = respuesta.statusCode();
+        boolean redireccion = estado / 100 == 3;
+        return switch (flujo) {
+            case LOGIN -> estado == 200 ? Resultado.CORRECTA : redireccion ? Resultado.RECHAZADA : Resultado.ERROR;
+            case INGRESAR, EXTRAER, TRANSFERENCIA -> {
+                if (!redireccion) {
+                    yield Resultado.ERROR;
+                }
+                String destino = respuesta.headers().firstValue("Location").map(l -> URI.create(l).getPath()).orElse("");
+                yield destino.equals("/") ? Resultado.CORRECTA : Resultado.RECHAZADA;
+            }
+            // Una redirección aquí es que se perdió la sesión
+            case MOVIMIENTOS, LOGOUT -> estado == 200 ? Resultado.CORRECTA : Resultado.ERROR;
+        };
+    }
+}
@@ -0,0 +1,178 @@
+package cajeroweb.carga;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Resultados de una ejecución de {@link GeneradorCarga}: por cada flujo, las peticiones medidas
+ * (las del calentamiento no cuentan), cuántas rechazó la aplicación por una regla de negocio
+ * (saldo insuficiente), cuántas fallaron (estado 4xx/5xx o error de conexión) y sus latencias.
+ *
+ * También lleva el dinero que entró y salió del banco por ingresos y extracciones confirmados,
+ * incluidos los del calentamiento, para comprobar después que el total de las cuentas cuadra.
+ * Si un ingreso o una extracción falla sin respuesta clara su cantidad queda como incierta.
+ *
+ * Cada usuario virtual rellena su propio informe y al final se juntan con {@link #sumar(InformeCarga)},
+ * así que no hay contención entre hilos al medir.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class InformeCarga {
+
+    private final Map<GeneradorCarga.Flujo, Latencias> latencias = new EnumMap<>(GeneradorCarga.Flujo.class);
+    private final Map<GeneradorCarga.Flujo, long[]> rechazos = new EnumMap<>(GeneradorCarga.Flujo.class);
+    private final Map<GeneradorCarga.Flujo, long[]> errores = new EnumMap<>(GeneradorCarga.Flujo.class);
+    private long ingresado;
+    private long extraido;
+    private long incierto;
+    private double segundos;
+
+    InformeCarga() {
+        for (GeneradorCarga.Flujo f : GeneradorCarga.Flujo.values()) {
+            latencias.put(f, new Latencias());
+            rechazos.put(f, new long[1]);
+            errores.put(f, new long[1]);
+        }
+    }
+
+    void anotar(GeneradorCarga.Flujo flujo, long nanos, GeneradorCarga.Resultado resultado) {
+        latencias.get(flujo).anadir(nanos);
+        if (resultado == GeneradorCarga.Resultado.RECHAZADA) {
+            rechazos.get(flujo)[0]++;
+        } else if (resultado == GeneradorCarga.Resultado.ERROR) {
+            errores.get(flujo)[0]++;
+        }
+    }
+
+    void ingreso(long cantidad) {
+        ingresado += cantidad;
+    }
+
+    void extraccion(long cantidad) {
+        extraido += cantidad;
+    }
+
+    void incierto(long cantidad) {
+        incierto += cantidad;
+    }
+
+    /**
+     * @return dinero ingresado menos dinero extraído en las operaciones confirmadas
+     */
+    long saldoNeto() {
+        return ingresado - extraido;
+    }
+
+    /**
+     * @return cantidades de ingresos y extracciones cuyo resultado no se conoce
+     */
+    long incierto() {
+        return incierto;
+    }
+
+    void sumar(InformeCarga otro) {
+        ingresado += otro.ingresado;
+        extraido += otro.extraido;
+        incierto += otro.incierto;
+        for (GeneradorCarga.Flujo f : GeneradorCarga.Flujo.values()) {
+            latencias.get(f).sumar(otro.latencias.get(f));
+            rechazos.get(f)[0] += otro.rechazos.get(f)[0];
+            errores.get(f)[0] += otro.errores.get(f)[0];
+        }
+    }
+
+    void setSegundos(double segundos) {
+        this.segundos = segundos;
+    }
+
+    long peticiones() {
+        long total = 0;
+        for (Latencias l : latencias.values()) {
+            total += l.num;
+        }
+        return total;
+    }
+
+    long errores() {
+        long total = 0;
+        for (long[] e : errores.values()) {
+            total += e[0];
+        }
+        return total;
+    }
+
+    /**
+     * @return peticiones por segundo durante la medición
+     */
+    double rendimiento() {
+        return segundos > 0 ? peticiones() / segundos : 0;
+    }
+
+    /**
+     * @return la tabla del informe: peticiones, rendimiento y latencias en milisegundos por flujo
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-14s %9s %9s %7s %9s %9s %9s %9s %9s%n",
+                "flujo", "peticiones", "rechazos", "errores", "pet/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        Latencias todas = new Latencias();
+        for (GeneradorCarga.Flujo f : GeneradorCarga.Flujo.values()) {
+            Latencias l = latencias.get(f);
+            todas.sumar(l);
+            fila(sb, f.name().toLowerCase(), l, rechazos.get(f)[0], errores.get(f)[0]);
+        }
+        long totalRechazos = rechazos.values().stream().mapToLong(r -> r[0]).sum();
+        fila(sb, "total", todas, totalRechazos, errores());
+        return sb.toString();
+    }
+
+    private void fila(StringBuilder sb, String nombre, Latencias l, long rechazos, long errores) {
+        sb.append(String.format("%-14s %9d %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", nombre, l.num, rechazos, errores,
+                segundos > 0 ? l.num / segundos : 0, l.percentil(0.50), l.percentil(0.95), l.percentil(0.99),
+                l.percentil(1)));
+    }
+
+    /**
+     * Todas las latencias medidas de un flujo, en nanosegundos. Los percentiles son exactos:
+     * se ordena una copia al pedirlos.
+     */
+    private static final class Latencias {
+
+        private long[] valores = new long[1024];
+        private int num;
+        private long[] ordenados;
+
+        void anadir(long nanos) {
+            if (num == valores.length) {
+                valores = Arrays.copyOf(valores, num * 2);
+            }
+            valores[num++] = nanos;
+            ordenados = null;
+        }
+
+        void sumar(Latencias otras) {
+            if (num + otras.num > valores.length) {
+                valores = Arrays.copyOf(valores, Math.max(num + otras.num, valores.length * 2));
+            }
+            System.arraycopy(otras.valores, 0, valores, num, otras.num);
+            num += otras.num;
+            ordenados = null;
+        }
+
+        double percentil(double p) {
+            if (num == 0) {
+                return 0;
+            }
+            if (ordenados == null) {
+                ordenados = Arrays.copyOf(valores, num);
+                Arrays.sort(ordenados);
+            }
+            int i = (int) Math.ceil(p * num) - 1;
+            return ordenados[Math.max(0, Math.min(num - 1, i))] / 1e6;
+        }
+    }
+}
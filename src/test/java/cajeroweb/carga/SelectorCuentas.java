@@ -0,0 +1,63 @@
+package cajeroweb.carga;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Elige la cuenta de cada usuario virtual entre las cuentas 1..numCuentas, de forma uniforme
+ * o con una distribución de Zipf en la que la cuenta k tiene un peso 1/k^s: con s cerca de 1
+ * unas pocas cuentas de id bajo concentran la mayor parte de las operaciones.
+ *
+ * @author Andres
+ * @version 1.0
+ * @since 2024
+ */
+final class SelectorCuentas {
+
+    private final int numCuentas;
+    // Pesos acumulados de Zipf; null para la distribución uniforme
+    private final double[] acumulados;
+
+    private SelectorCuentas(int numCuentas, double[] acumulados) {
+        this.numCuentas = numCuentas;
+        this.acumulados = acumulados;
+    }
+
+    static SelectorCuentas uniforme(int numCuentas) {
+        return new SelectorCuentas(numCuentas, null);
+    }
+
+    static SelectorCuentas zipf(int numCuentas, double exponente) {
+        double[] acumulados = new double[numCuentas];
+        double total = 0;
+        for (int k = 1; k <= numCuentas; k++) {
+            total += 1 / Math.pow(k, exponente);
+            acumulados[k - 1] = total;
+        }
+        return new SelectorCuentas(numCuentas, acumulados);
+    }
+
+    /**
+     * @return el id de una cuenta entre 1 y numCuentas
+     */
+    int siguiente() {
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        if (acumulados == null) {
+            return aleatorio.nextInt(numCuentas) + 1;
+        }
+        double u = aleatorio.nextDouble(acumulados[numCuentas - 1]);
+        int i = Arrays.binarySearch(acumulados, u);
+        return (i >= 0 ? i + 1 : -i - 1) + 1;
+    }
+
+    /**
+     * @return una cuenta distinta de la indicada, con la misma distribución
+     */
+    int distintaDe(int idCuenta) {
+        int id;
+        do {
+            id = siguiente();
+        } while (id == idCuenta);
+        return id;
+    }
+}
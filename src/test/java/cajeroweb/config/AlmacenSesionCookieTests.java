@@ -0,0 +1,133 @@
+package cajeroweb.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.FlashMap;
+
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Sesión y mensajes flash en cookies firmadas, sin Spring: firmas alteradas, caducidad, contenido
+ * mal formado, renovación de la cookie de sesión y viaje de ida y vuelta de los mensajes flash.
+ */
+class AlmacenSesionCookieTests {
+
+    private static final String CLAVE = "0123456789abcdef0123456789abcdef";
+
+    private final FirmaCookies firma = new FirmaCookies(CLAVE);
+    private final AlmacenSesionCookie almacen = new AlmacenSesionCookie(CLAVE, 30, true);
+
+    private static long ahora() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static MockHttpServletRequest peticion(String cookie, String valor) {
+        MockHttpServletRequest peticion = new MockHttpServletRequest();
+        peticion.setCookies(new Cookie(cookie, valor));
+        return peticion;
+    }
+
+    private Integer idCuenta(String contenido) {
+        return almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, firma.firmar(contenido)));
+    }
+
+    @Test
+    void iniciaYLeeLaSesion() {
+        MockHttpServletResponse respuesta = new MockHttpServletResponse();
+        almacen.iniciar(new MockHttpServletRequest(), respuesta, 1234);
+        Cookie cookie = respuesta.getCookie(AlmacenSesionCookie.COOKIE);
+        assertNotNull(cookie);
+        assertEquals(30 * 60, cookie.getMaxAge());
+        assertEquals(true, cookie.getSecure());
+        assertEquals(true, cookie.isHttpOnly());
+        assertEquals(1234, almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, cookie.getValue())));
+        assertNull(almacen.idCuenta(new MockHttpServletRequest()));
+
+        MockHttpServletResponse cierre = new MockHttpServletResponse();
+        almacen.cerrar(new MockHttpServletRequest(), cierre);
+        assertEquals(0, cierre.getCookie(AlmacenSesionCookie.COOKIE).getMaxAge());
+    }
+
+    @Test
+    void rechazaFirmasAlteradasYOtraClave() {
+        String valida = firma.firmar("1234." + (ahora() + 600));
+        assertEquals(1234, almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, valida)));
+        // Otra cuenta con la firma de la primera
+        String cambiada = "9999" + valida.substring(4);
+        assertNull(almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, cambiada)));
+        // Firma truncada o sin firma
+        assertNull(almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, valida.substring(0, valida.length() - 1))));
+        assertNull(almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, "sinpunto")));
+        // Firmada con otra clave
+        String otra = new FirmaCookies("fedcba9876543210fedcba9876543210").firmar("1234." + (ahora() + 600));
+        assertNull(almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, otra)));
+    }
+
+    @Test
+    void rechazaLasCaducadasYLasMalFormadas() {
+        assertNull(idCuenta("1234." + (ahora() - 1)));
+        assertNull(idCuenta("1234"));
+        assertNull(idCuenta("abc." + (ahora() + 600)));
+        assertNull(idCuenta("1234.mañana"));
+        assertNull(idCuenta("99999999999." + (ahora() + 600))); // No cabe en un int
+        assertNull(idCuenta(""));
+    }
+
+    @Test
+    void renuevaLaCookieCuandoLeQuedaMenosDeLaMitad() throws Exception {
+        MockHttpServletResponse reciente = new MockHttpServletResponse();
+        almacen.preHandle(peticion(AlmacenSesionCookie.COOKIE, firma.firmar("1234." + (ahora() + 20 * 60))), reciente,
+                null);
+        assertNull(reciente.getCookie(AlmacenSesionCookie.COOKIE));
+
+        MockHttpServletResponse vieja = new MockHttpServletResponse();
+        String valor = firma.firmar("1234." + (ahora() + 10 * 60));
+        almacen.preHandle(peticion(AlmacenSesionCookie.COOKIE, valor), vieja, null);
+        Cookie renovada = vieja.getCookie(AlmacenSesionCookie.COOKIE);
+        assertNotNull(renovada);
+        assertNotEquals(valor, renovada.getValue());
+        assertEquals(1234, almacen.idCuenta(peticion(AlmacenSesionCookie.COOKIE, renovada.getValue())));
+
+        // Una caducada no se renueva
+        MockHttpServletResponse caducada = new MockHttpServletResponse();
+        almacen.preHandle(peticion(AlmacenSesionCookie.COOKIE, firma.firmar("1234." + (ahora() - 1))), caducada, null);
+        assertNull(caducada.getCookie(AlmacenSesionCookie.COOKIE));
+    }
+
+    @Test
+    void losMensajesFlashVanYVuelvenEnLaCookie() {
+        FlashMapManagerCookie flash = new FlashMapManagerCookie(firma, false);
+        FlashMap mapa = new FlashMap();
+        mapa.setTargetRequestPath("/movimientos");
+        mapa.put("mensaje", "Ingreso realizado");
+        mapa.put("cuenta", 1234); // Solo se guardan los String
+        mapa.startExpirationPeriod(180);
+        MockHttpServletResponse respuesta = new MockHttpServletResponse();
+        flash.updateFlashMaps(List.of(mapa), new MockHttpServletRequest(), respuesta);
+        Cookie cookie = respuesta.getCookie(FlashMapManagerCookie.COOKIE);
+        assertEquals(180, cookie.getMaxAge());
+
+        List<FlashMap> leidos = flash.retrieveFlashMaps(peticion(FlashMapManagerCookie.COOKIE, cookie.getValue()));
+        assertEquals(1, leidos.size());
+        assertEquals("/movimientos", leidos.get(0).getTargetRequestPath());
+        assertEquals("Ingreso realizado", leidos.get(0).get("mensaje"));
+        assertNull(leidos.get(0).get("cuenta"));
+
+        String alterada = "x" + cookie.getValue().substring(1);
+        assertNull(flash.retrieveFlashMaps(peticion(FlashMapManagerCookie.COOKIE, alterada)));
+        assertNull(flash.retrieveFlashMaps(peticion(FlashMapManagerCookie.COOKIE, firma.firmar("no-es-json"))));
+
+        // Sin mensajes se borra la cookie
+        MockHttpServletResponse vacia = new MockHttpServletResponse();
+        flash.updateFlashMaps(List.of(), new MockHttpServletRequest(), vacia);
+        assertEquals(0, vacia.getCookie(FlashMapManagerCookie.COOKIE).getMaxAge());
+    }
+}
@@ -0,0 +1,65 @@
+package cajeroweb.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.h2.Driver;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Recuento de sentencias en el DataSource sobre una base H2 propia, sin Spring.
+ */
+class DataSourceContadorTests {
+
+    private final DataSourceContador ds = new DataSourceContador(
+            new SimpleDriverDataSource(new Driver(), "jdbc:h2:mem:contador;DB_CLOSE_DELAY=-1", "sa", ""));
+
+    @Test
+    void cuentaCadaEjecucionDelHiloConJdbcTemplateYJdbc() throws SQLException {
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("create table if not exists t (id int primary key)");
+        jdbc.update("delete from t");
+
+        ContadorSentencias.reiniciar();
+        jdbc.update("insert into t values (?)", 1);
+        jdbc.queryForObject("select count(*) from t", Integer.class);
+        jdbc.batchUpdate("insert into t values (?)", List.of(new Object[] { 2 }, new Object[] { 3 }));
+        assertEquals(3, ContadorSentencias.total()); // El lote es una sola ida y vuelta
+
+        try (Connection c = ds.getConnection(); PreparedStatement p = c.prepareStatement("select id from t where id = ?")) {
+            p.setInt(1, 2);
+            p.executeQuery().close();
+            p.setInt(1, 3);
+            p.executeQuery().close();
+        }
+        assertEquals(5, ContadorSentencias.total());
+
+        // Los errores llegan sin envolver y la ejecución fallida también cuenta
+        assertThrows(SQLException.class, () -> {
+            try (Connection c = ds.getConnection()) {
+                c.createStatement().execute("select * from no_existe");
+            }
+        });
+        assertEquals(6, ContadorSentencias.total());
+    }
+
+    @Test
+    void dejaLlegarAlPoolEnvuelto() throws SQLException {
+        try (HikariDataSource pool = new HikariDataSource()) {
+            pool.setJdbcUrl("jdbc:h2:mem:contador;DB_CLOSE_DELAY=-1");
+            DataSourceContador envuelto = new DataSourceContador(pool);
+            assertTrue(envuelto.isWrapperFor(HikariDataSource.class)); // Métricas y health del pool
+            assertEquals(pool, envuelto.unwrap(HikariDataSource.class));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cajeroweb.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Enrutado primaria/réplica con dos bases H2 en memoria: la del perfil h2 hace de primaria y
+ * jdbc:h2:mem:replica de réplica. Las dos bases tienen datos distintos a propósito para saber
+ * de cuál ha leído cada operación.
+ */
+@SpringBootTest(properties = {
+        "cajero.replica.url=jdbc:h2:mem:replica;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.replica.username=sa",
+        "cajero.replica.guardia-ms=60000" })
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class EnrutamientoConfigTests {
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    @Qualifier("primaria")
+    private DataSource primaria;
+
+    @Autowired
+    @Qualifier("replica")
+    private DataSource replica;
+
+    private JdbcTemplate jdbcPrimaria;
+    private JdbcTemplate jdbcReplica;
+
+    @BeforeEach
+    void preparar() {
+        new ResourceDatabasePopulator(new ClassPathResource("schema-h2.sql")).execute(replica);
+        jdbcPrimaria = new JdbcTemplate(primaria);
+        jdbcReplica = new JdbcTemplate(replica);
+        // La réplica va "atrasada": mismo id, saldo distinto
+        jdbcPrimaria.update("insert into cuentas values (9001, 100, 'AHORRO'), (9002, 100, 'AHORRO'), (9003, 100, 'AHORRO')");
+        jdbcReplica.update("insert into cuentas values (9001, 50, 'AHORRO'), (9002, 50, 'AHORRO'), (9003, 50, 'AHORRO')");
+        jdbcReplica.update("insert into movimientos (id_movimiento, id_cuenta, fecha, cantidad, operacion)"
+                + " values (900100, 9001, current_timestamp, 50, 'Ingreso')");
+    }
+
+    @AfterEach
+    void limpiar() {
+        for (JdbcTemplate jdbc : new JdbcTemplate[] { jdbcPrimaria, jdbcReplica }) {
+            jdbc.update("delete from movimientos where id_cuenta between 9001 and 9003");
+            jdbc.update("delete from cuentas where id_cuenta between 9001 and 9003");
+        }
+        GuardiaLecturas.limpiar();
+    }
+
+    @Test
+    void lasLecturasVanALaReplica() {
+        assertEquals(50.0, cdao.buscarUno(9001).getSaldo());
+        assertEquals(1, mdao.pagina(9001, FiltroMovimientos.TODOS, null, 10).movimientos().size());
+    }
+
+    @Test
+    void lasEscriturasVanALaPrimaria() {
+        assertEquals(1, cdao.ingreso(cdao.buscarUno(9002), 10));
+        assertEquals(110.0, jdbcPrimaria.queryForObject("select saldo from cuentas where id_cuenta = 9002", Double.class));
+        assertEquals(50.0, jdbcReplica.queryForObject("select saldo from cuentas where id_cuenta = 9002", Double.class));
+        // El mismo hilo ya ha escrito: sus lecturas van a la primaria
+        assertEquals(110.0, cdao.buscarUno(9002).getSaldo());
+    }
+
+    @Test
+    void trasUnaEscrituraElUsuarioLeeDeLaPrimaria() throws Exception {
+        MockHttpSession sesion = new MockHttpSession();
+        mvc.perform(post("/login").param("numeroCuenta", "9003").session(sesion));
+        assertTrue(mvc.perform(get("/").session(sesion)).andReturn().getResponse().getContentAsString().contains("50.0"));
+
+        MvcResult ingreso = mvc.perform(post("/ingresar").param("ingreso", "10").session(sesion)).andReturn();
+        Cookie guardia = ingreso.getResponse().getCookie(GuardiaLecturasInterceptor.COOKIE);
+        assertNotNull(guardia);
+
+        String home = mvc.perform(get("/").session(sesion).cookie(guardia)).andReturn().getResponse().getContentAsString();
+        assertTrue(home.contains("110.0"));
+    }
+}
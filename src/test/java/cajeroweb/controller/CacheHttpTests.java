@@ -0,0 +1,110 @@
+package cajeroweb.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+/**
+ * Validación condicional de las páginas de la cuenta (ETag y 304) y Cache-Control de los recursos
+ * estáticos, sobre una base propia.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:cachehttp;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.recursos.max-age-segundos=600" })
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class CacheHttpTests {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private MockHttpSession entrar(int id) throws Exception {
+        MockHttpSession sesion = new MockHttpSession();
+        mvc.perform(post("/login").param("numeroCuenta", Integer.toString(id)).session(sesion));
+        return sesion;
+    }
+
+    private MockHttpServletResponse pagina(String ruta, MockHttpSession sesion, String etag) throws Exception {
+        var peticion = get(ruta).session(sesion);
+        if (etag != null) {
+            peticion.header(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return mvc.perform(peticion).andReturn().getResponse();
+    }
+
+    @Test
+    void lasPaginasRespondenNoModificadoHastaQueCambiaLaCuenta() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (2101, 100, 'AHORRO')");
+        MockHttpSession sesion = entrar(2101);
+
+        MockHttpServletResponse home = pagina("/home", sesion, null);
+        assertEquals(200, home.getStatus());
+        assertEquals("private, no-cache", home.getHeader(HttpHeaders.CACHE_CONTROL));
+        String etag = home.getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("W/\""), etag);
+        assertEquals(304, pagina("/home", sesion, etag).getStatus());
+        assertEquals(304, pagina("/movimientos", sesion, pagina("/movimientos", sesion, null).getHeader(HttpHeaders.ETAG))
+                .getStatus());
+
+        // Un ingreso cambia el saldo y el último movimiento: la página se vuelve a pintar
+        MvcResult ingreso = mvc.perform(post("/ingresar").param("ingreso", "10").session(sesion)).andReturn();
+        assertEquals(302, ingreso.getResponse().getStatus());
+
+        // Con el mensaje flash del ingreso no se valida aunque el ETag coincida
+        MockHttpServletResponse conMensaje = mvc.perform(get("/home").session(sesion)
+                .flashAttrs(ingreso.getFlashMap()).header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn().getResponse();
+        assertEquals(200, conMensaje.getStatus());
+
+        MockHttpServletResponse nueva = pagina("/home", sesion, etag);
+        assertEquals(200, nueva.getStatus());
+        assertNotEquals(etag, nueva.getHeader(HttpHeaders.ETAG));
+        assertEquals(304, pagina("/home", sesion, nueva.getHeader(HttpHeaders.ETAG)).getStatus());
+    }
+
+    @Test
+    void soloLaUrlConElHashActualSeGuardaUnAno() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (2102, 0, 'AHORRO')");
+        String html = pagina("/home", entrar(2102), null).getContentAsString();
+        Matcher enlace = Pattern.compile("href=\"(/style-[0-9a-f]{32}\\.css)\"").matcher(html);
+        assertTrue(enlace.find(), html);
+        String versionada = enlace.group(1);
+
+        MockHttpServletResponse conHash = mvc.perform(get(versionada)).andReturn().getResponse();
+        assertEquals(200, conHash.getStatus());
+        assertEquals("max-age=31536000, public, immutable", conHash.getHeader(HttpHeaders.CACHE_CONTROL));
+
+        MockHttpServletResponse sinHash = mvc.perform(get("/style.css")).andReturn().getResponse();
+        assertEquals(200, sinHash.getStatus());
+        assertEquals("max-age=600, public", sinHash.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertNotNull(sinHash.getHeader(HttpHeaders.LAST_MODIFIED));
+        assertEquals(304, mvc.perform(get("/style.css")
+                .header(HttpHeaders.IF_MODIFIED_SINCE, sinHash.getHeader(HttpHeaders.LAST_MODIFIED)))
+                .andReturn().getResponse().getStatus());
+
+        // Un hash que no es el del contenido actual no se sirve
+        assertEquals(404, mvc.perform(get("/style-00000000000000000000000000000000.css")).andReturn().getResponse()
+                .getStatus());
+    }
+}
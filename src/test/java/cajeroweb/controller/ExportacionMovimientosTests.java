@@ -0,0 +1,138 @@
+package cajeroweb.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Exportación del historial (GET /movimientos/exportar) en CSV, NDJSON y comprimida, sobre una
+ * base propia. La respuesta se escribe en streaming, así que cada petición se completa con su
+ * despacho asíncrono.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:exportacion;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE" })
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class ExportacionMovimientosTests {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private MockHttpSession entrar(int id) throws Exception {
+        MockHttpSession sesion = new MockHttpSession();
+        mvc.perform(post("/login").param("numeroCuenta", Integer.toString(id)).session(sesion));
+        return sesion;
+    }
+
+    private MockHttpServletResponse exportar(MockHttpSession sesion, String... parametros) throws Exception {
+        var peticion = get("/movimientos/exportar").session(sesion);
+        for (int i = 0; i < parametros.length; i += 2) {
+            peticion.param(parametros[i], parametros[i + 1]);
+        }
+        MvcResult inicio = mvc.perform(peticion).andReturn();
+        if (!inicio.getRequest().isAsyncStarted()) {
+            return inicio.getResponse();
+        }
+        return mvc.perform(asyncDispatch(inicio)).andReturn().getResponse();
+    }
+
+    private void movimientos(int id) {
+        Cuenta cuenta = new Cuenta(id, 0, null);
+        mdao.insertUno(new Movimiento(0, cuenta, new Date(System.currentTimeMillis() - 2000), 50, "Ingreso"));
+        mdao.insertUno(new Movimiento(0, cuenta, new Date(System.currentTimeMillis() - 1000), -20, "Extracción; cajero"));
+    }
+
+    private static String descomprimir(byte[] datos) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(datos))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void exportaEnCsvYEnNdjsonConYSinCompresion() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (2001, 30, 'AHORRO')");
+        movimientos(2001);
+        MockHttpSession sesion = entrar(2001);
+
+        MockHttpServletResponse csv = exportar(sesion);
+        assertEquals(200, csv.getStatus());
+        assertTrue(csv.getContentType().startsWith("text/csv"));
+        assertTrue(csv.getHeader("Content-Disposition").contains("movimientos-2001.csv"));
+        List<String> lineas = csv.getContentAsString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(3, lineas.size());
+        assertEquals("id_movimiento;fecha;cantidad;operacion", lineas.get(0));
+        assertTrue(lineas.get(1).endsWith(";50.0;Ingreso"), lineas.get(1));
+        assertTrue(lineas.get(2).endsWith(";-20.0;\"Extracción; cajero\""), lineas.get(2));
+
+        MockHttpServletResponse ndjson = exportar(sesion, "formato", "ndjson");
+        assertEquals("application/x-ndjson", ndjson.getContentType());
+        ObjectMapper json = new ObjectMapper();
+        List<JsonNode> objetos = ndjson.getContentAsString(StandardCharsets.UTF_8).lines().map(l -> {
+            try {
+                return json.readTree(l);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }).toList();
+        assertEquals(2, objetos.size());
+        assertEquals(50, objetos.get(0).get("cantidad").asDouble(), 1e-9);
+        assertEquals("Extracción; cajero", objetos.get(1).get("operacion").asText());
+
+        MockHttpServletResponse csvGz = exportar(sesion, "gzip", "true");
+        assertEquals("application/gzip", csvGz.getContentType());
+        assertTrue(csvGz.getHeader("Content-Disposition").contains("movimientos-2001.csv.gz"));
+        assertEquals(csv.getContentAsString(StandardCharsets.UTF_8), descomprimir(csvGz.getContentAsByteArray()));
+
+        MockHttpServletResponse ndjsonGz = exportar(sesion, "formato", "ndjson", "gzip", "true");
+        assertTrue(ndjsonGz.getHeader("Content-Disposition").contains("movimientos-2001.ndjson.gz"));
+        assertEquals(ndjson.getContentAsString(StandardCharsets.UTF_8), descomprimir(ndjsonGz.getContentAsByteArray()));
+
+        // Filtro por operación
+        List<String> ingresos = exportar(sesion, "operacion", "Ingreso").getContentAsString(StandardCharsets.UTF_8)
+                .lines().toList();
+        assertEquals(2, ingresos.size());
+    }
+
+    @Test
+    void sinSesionResponde401YSinCuenta404() throws Exception {
+        assertEquals(401, exportar(new MockHttpSession()).getStatus());
+
+        // Sesión de una cuenta que ya no existe
+        MockHttpSession sesion = new MockHttpSession();
+        sesion.setAttribute("idCuenta", 2999);
+        assertEquals(404, exportar(sesion).getStatus());
+    }
+}
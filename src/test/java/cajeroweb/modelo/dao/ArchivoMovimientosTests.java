@@ -0,0 +1,178 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import cajeroweb.modelo.dto.CursorMovimientos;
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.dto.PaginaMovimientos;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Archivo de movimientos con un directorio temporal y una base propia. El segundo nodo es otra
+ * instancia de ArchivoMovimientos sobre el mismo directorio y la misma base.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:archivo;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.archivo.activo=true",
+        "cajero.archivo.cron=-",
+        "cajero.archivo.sincronizar-ms=3600000",
+        "cajero.archivo.espera-borrado-ms=0",
+        "cajero.archivo.espera-nodos-ms=5000",
+        "cajero.archivo.caducidad-nodo-ms=60000" })
+@ActiveProfiles("h2")
+class ArchivoMovimientosTests {
+
+    private static final long DIA = TimeUnit.DAYS.toMillis(1);
+
+    // Fecha de los primeros movimientos archivados; cada prueba archiva a partir del corte actual
+    private static final long INICIO = 1577836800000L; // 2020-01-01
+
+    @DynamicPropertySource
+    static void directorio(DynamicPropertyRegistry registro) throws IOException {
+        Path dir = Files.createTempDirectory("archivo-movimientos");
+        registro.add("cajero.archivo.directorio", dir::toString);
+    }
+
+    @Autowired
+    private ArchivadorMovimientos archivador;
+
+    @Autowired
+    private ArchivoMovimientos archivo;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private AutowireCapableBeanFactory fabrica;
+
+    private void movimiento(int id, long fecha, double cantidad) {
+        Cuenta cuenta = new Cuenta(id, 0, null);
+        assertEquals(1, cdao.ingreso(cuenta, cantidad));
+        mdao.insertUno(new Movimiento(0, cuenta, new Date(fecha), cantidad, "Ingreso"));
+    }
+
+    private int enTabla(int id) {
+        return jdbc.queryForObject("select count(*) from movimientos where id_cuenta = ?", Integer.class, id);
+    }
+
+    private List<Integer> historial(int id, int tamano) {
+        List<Integer> ids = new ArrayList<>();
+        CursorMovimientos cursor = null;
+        do {
+            PaginaMovimientos pagina = mdao.pagina(id, FiltroMovimientos.TODOS, cursor, tamano);
+            assertTrue(pagina.movimientos().size() <= tamano);
+            pagina.movimientos().forEach(m -> ids.add(m.getIdMovimiento()));
+            cursor = pagina.siguiente();
+        } while (cursor != null);
+        return ids;
+    }
+
+    private List<Integer> idsEnOrden(int id) {
+        return jdbc.queryForList("select id_movimiento from movimientos where id_cuenta = ?"
+                + " order by fecha desc, id_movimiento desc", Integer.class, id);
+    }
+
+    @Test
+    void borraCuandoTodosLosNodosHanCargadoElCorteYLeeTablaYArchivoJuntos() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (4001, 0, 'AHORRO')");
+        long base = Math.max(INICIO, archivo.corte().getTime());
+        for (int i = 1; i <= 5; i++) {
+            movimiento(4001, base + i * DIA, i);
+        }
+        long ahora = System.currentTimeMillis();
+        for (int i = 1; i <= 3; i++) {
+            movimiento(4001, ahora - i * 1000, 10 * i);
+        }
+        List<Integer> esperados = idsEnOrden(4001);
+        ArchivoMovimientos otroNodo = fabrica.createBean(ArchivoMovimientos.class);
+        try {
+            Date corte = new Date(base + 10 * DIA);
+            CompletableFuture<Long> archivado = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return archivador.archivar(corte);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            // Publicado el corte, las filas siguen en la tabla mientras el otro nodo no lo cargue
+            while (jdbc.queryForList("select corte from archivo_corte where corte >= ?", Long.class, corte.getTime())
+                    .isEmpty()) {
+                Thread.sleep(20);
+            }
+            assertFalse(archivado.isDone());
+            assertEquals(8, enTabla(4001));
+            assertTrue(otroNodo.corte().before(corte));
+
+            otroNodo.sincronizar();
+            assertEquals(corte, otroNodo.corte());
+            assertEquals(5L, archivado.get(10, TimeUnit.SECONDS));
+            assertEquals(3, enTabla(4001));
+        } finally {
+            fabrica.destroyBean(otroNodo);
+        }
+        assertEquals(0, jdbc.queryForObject("select count(*) from archivo_nodos where corte < ?", Integer.class,
+                archivo.corte().getTime()));
+
+        // Páginas de 2: la segunda empieza en la tabla y sigue en el archivo con el mismo cursor
+        assertEquals(esperados, historial(4001, 2));
+        assertEquals(esperados, historial(4001, 3));
+        assertEquals(5, archivo.numMovimientos(4001));
+    }
+
+    @Test
+    void lasFilasQueQuedanSinBorrarSeIgnoranYSeBorranEnLaSiguienteEjecucion() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (4002, 0, 'AHORRO')");
+        long base = Math.max(INICIO, archivo.corte().getTime());
+        for (int i = 1; i <= 4; i++) {
+            movimiento(4002, base + i * DIA, i);
+        }
+        movimiento(4002, System.currentTimeMillis(), 50);
+        List<Integer> esperados = idsEnOrden(4002);
+
+        // Un nodo que no carga el corte nuevo deja el borrado para otra ejecución
+        jdbc.update("insert into archivo_nodos (nodo, corte, fecha) values ('parado', 0, ?)",
+                new Timestamp(System.currentTimeMillis()));
+        Date corte = new Date(base + 10 * DIA);
+        assertEquals(4L, archivador.archivar(corte));
+        assertEquals(corte, archivo.corte());
+        assertEquals(5, enTabla(4002));
+        assertEquals(esperados, historial(4002, 2)); // Sin repetir las filas archivadas
+
+        // Caído el nodo, la ejecución siguiente no archiva nada nuevo pero borra lo que quedó
+        jdbc.update("update archivo_nodos set fecha = ? where nodo = 'parado'",
+                new Timestamp(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        assertEquals(0L, archivador.archivar(corte));
+        assertEquals(1, enTabla(4002));
+        assertEquals(0, jdbc.queryForObject("select count(*) from archivo_nodos where nodo = 'parado'", Integer.class));
+        assertEquals(esperados, historial(4002, 2));
+    }
+}
@@ -0,0 +1,131 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import cajeroweb.modelo.dto.FiltroMovimientos;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Siembra del resumen y saldos por movimiento, con un checkpoint cada 3 movimientos sobre una
+ * base propia. Las cuentas se dan de alta tras arrancar, como las que llegan sin resumen.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:checkpoints;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.checkpoints.intervalo=3",
+        "cajero.cuentas-calientes.ids=3003",
+        "cajero.cuentas-calientes.ranuras=4" })
+@ActiveProfiles("h2")
+class CheckpointsSaldoTests {
+
+    @Autowired
+    private CheckpointsSaldo checkpoints;
+
+    @Autowired
+    private CuentasCalientes calientes;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private void ingreso(int id, double cantidad) {
+        Cuenta cuenta = new Cuenta(id, 0, null);
+        assertEquals(1, cdao.ingreso(cuenta, cantidad));
+        mdao.insertUno(new Movimiento(0, cuenta, new Date(), cantidad, "Ingreso"));
+    }
+
+    private Map<String, Object> resumen(int id) {
+        return jdbc.queryForMap("select num_movimientos, suma, saldo_base from movimientos_resumen where id_cuenta = ?", id);
+    }
+
+    @Test
+    void siembraUnaSolaVezAunqueArranquenDosNodosALaVez() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (3001, 100, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (3002, 200, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (3003, 300, 'AHORRO')");
+        calientes.iniciar(); // Ranuras de 3003, que no existía al arrancar
+        ingreso(3001, 10);
+        ingreso(3001, 5);
+        ingreso(3003, 7); // En una ranura
+
+        // Sin resumen los lotes no lo crean: lo hace la siembra. Mientras, el saldo y el último
+        // movimiento se leen de las tablas
+        assertEquals(0, jdbc.queryForObject("select count(*) from movimientos_resumen where id_cuenta between 3001 and 3003",
+                Integer.class));
+        List<Movimiento> previos = mdao.pagina(3001, FiltroMovimientos.TODOS, null, 10).movimientos();
+        assertEquals(115, mdao.saldosTras(3001, previos)[0], 1e-6);
+        assertEquals(previos.get(0).getIdMovimiento(), mdao.ultimoIdMovimiento(3001));
+
+        CompletableFuture<Integer> otroNodo = CompletableFuture.supplyAsync(checkpoints::sembrar);
+        int sembradas = checkpoints.sembrar();
+        assertEquals(3, sembradas + otroNodo.get());
+        assertEquals(0, checkpoints.sembrar());
+
+        assertEquals(2L, ((Number) resumen(3001).get("num_movimientos")).longValue());
+        assertEquals(15, ((Number) resumen(3001).get("suma")).doubleValue(), 1e-6);
+        assertEquals(100, ((Number) resumen(3001).get("saldo_base")).doubleValue(), 1e-6);
+        assertEquals(200, ((Number) resumen(3002).get("saldo_base")).doubleValue(), 1e-6);
+        assertEquals(300, ((Number) resumen(3003).get("saldo_base")).doubleValue(), 1e-6);
+        assertEquals(307, cdao.buscarUno(3003).getSaldo(), 1e-6);
+
+        // Los lotes siguientes se suman al resumen sembrado y dejan checkpoints en los múltiplos de 3
+        for (int i = 1; i <= 5; i++) {
+            ingreso(3001, i);
+        }
+        assertEquals(7L, ((Number) resumen(3001).get("num_movimientos")).longValue());
+        assertEquals(2, jdbc.queryForObject("select count(*) from saldos_checkpoint where id_cuenta = 3001", Integer.class));
+        List<Movimiento> pagina = mdao.pagina(3001, FiltroMovimientos.TODOS, null, 10).movimientos();
+        double[] saldos = mdao.saldosTras(3001, pagina);
+        double saldo = cdao.buscarUno(3001).getSaldo();
+        assertEquals(130, saldo, 1e-6);
+        for (int i = 0; i < pagina.size(); i++) {
+            assertEquals(saldo, saldos[i], 1e-6);
+            saldo -= pagina.get(i).getCantidad();
+        }
+        assertEquals(100, saldo, 1e-6);
+    }
+
+    @Test
+    void losCheckpointsSiguenElOrdenDeFechaAunqueLosMovimientosLleguenDesordenados() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (3101, 100, 'AHORRO')");
+        assertEquals(1, checkpoints.sembrar());
+        long hora = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        long minuto = TimeUnit.MINUTES.toMillis(1);
+        Cuenta cuenta = new Cuenta(3101, 0, null);
+        // Minutos 10, 20, 30, 40 (checkpoint en el 30), 5 y 15 (checkpoint en el 40)
+        int[] minutos = { 10, 20, 30, 40, 5, 15 };
+        for (int i = 0; i < minutos.length; i++) {
+            assertEquals(1, cdao.ingreso(cuenta, i + 1));
+            mdao.insertUno(new Movimiento(0, cuenta, new Date(hora + minutos[i] * minuto), i + 1, "Ingreso"));
+        }
+        assertEquals(2, jdbc.queryForObject("select count(*) from saldos_checkpoint where id_cuenta = 3101", Integer.class));
+
+        // Cada fila, anclada por separado, da el saldo de recorrer el historial en orden de fecha
+        List<Movimiento> pagina = mdao.pagina(3101, FiltroMovimientos.TODOS, null, 10).movimientos();
+        assertEquals(6, pagina.size());
+        double saldo = cdao.buscarUno(3101).getSaldo();
+        assertEquals(121, saldo, 1e-6);
+        for (int i = 0; i < pagina.size(); i++) {
+            assertEquals(saldo, mdao.saldosTras(3101, pagina.subList(i, pagina.size()))[0], 1e-6);
+            saldo -= pagina.get(i).getCantidad();
+        }
+        assertEquals(100, saldo, 1e-6);
+    }
+}
@@ -0,0 +1,158 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cajeroweb.modelo.dto.DiscrepanciaSaldo;
+import cajeroweb.modelo.dto.InformeConciliacion;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Conciliación con tramos pequeños sobre una base propia. Las cuentas se dan de alta tras
+ * arrancar, así que cada prueba siembra su resumen. Las operaciones "a medias" se simulan con un
+ * ingreso en CuentaDao sin su movimiento o cambiando el saldo directamente.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:conciliacion;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.conciliacion.tamano-tramo=7",
+        "cajero.conciliacion.hilos=4",
+        "cajero.conciliacion.espera-ms=0" })
+@ActiveProfiles("h2")
+class ConciliadorSaldosTests {
+
+    @Autowired
+    private ConciliadorSaldos conciliador;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private EscritorLotesMovimientos escritor;
+
+    @Autowired
+    private CheckpointsSaldo checkpoints;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    private void ingreso(int id, double cantidad) {
+        Cuenta cuenta = new Cuenta(id, 0, null);
+        assertEquals(1, cdao.ingreso(cuenta, cantidad));
+        mdao.insertUno(new Movimiento(0, cuenta, new Date(), cantidad, "Ingreso"));
+    }
+
+    private static List<Integer> cuentas(InformeConciliacion informe, String tipo) {
+        return informe.detalle().stream().filter(d -> d.tipo().equals(tipo)).map(DiscrepanciaSaldo::idCuenta).toList();
+    }
+
+    @Test
+    void detectaLosSaldosQueNoCuadranConSusMovimientos() {
+        for (int id = 1001; id <= 1040; id++) {
+            jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, 100, 'AHORRO')", id);
+            ingreso(id, id % 9 + 1);
+        }
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (1041, 100, 'AHORRO')");
+        assertEquals(41, checkpoints.sembrar());
+
+        InformeConciliacion completa = conciliador.conciliar(true);
+        assertTrue(completa.completa());
+        assertEquals(jdbc.queryForObject("select count(*) from cuentas", Long.class), completa.cuentas());
+        assertTrue(completa.tramos() > 1);
+        assertEquals(0, completa.discrepancias());
+
+        // Saldo cambiado sin movimiento en una cuenta sin actividad posterior
+        jdbc.update("update cuentas set saldo = saldo + 5 where id_cuenta = 1005");
+        // Ingreso cuyo movimiento se perdió, seguido de otro completo en la misma cuenta
+        assertEquals(1, cdao.ingreso(new Cuenta(1012, 0, null), 20));
+        ingreso(1012, 1);
+        ingreso(1020, 3);
+
+        InformeConciliacion incremental = conciliador.conciliar(false);
+        assertFalse(incremental.completa());
+        assertEquals(2, incremental.cuentas());
+        assertEquals(List.of(1012), cuentas(incremental, ConciliadorSaldos.SALDO));
+        assertEquals(20, incremental.detalle().get(0).diferencia(), 1e-6);
+        assertEquals(1, jdbc.queryForObject("select count(*) from conciliaciones_discrepancias where id_conciliacion = ?",
+                Integer.class, incremental.idConciliacion()));
+
+        // La siguiente incremental vuelve a revisar 1012 aunque no tenga movimientos nuevos
+        jdbc.update("update cuentas set saldo = saldo - 20 where id_cuenta = 1012");
+        InformeConciliacion corregida = conciliador.conciliar(false);
+        assertEquals(1, corregida.cuentas());
+        assertEquals(0, corregida.discrepancias());
+
+        InformeConciliacion otraCompleta = conciliador.conciliar(true);
+        assertEquals(List.of(1005), cuentas(otraCompleta, ConciliadorSaldos.SALDO));
+        assertTrue(cuentas(otraCompleta, ConciliadorSaldos.RESUMEN).isEmpty());
+
+        // La discrepancia de la completa también queda pendiente para la siguiente incremental
+        jdbc.update("update cuentas set saldo = saldo - 5 where id_cuenta = 1005");
+        InformeConciliacion tras = conciliador.conciliar(false);
+        assertEquals(1, tras.cuentas());
+        assertEquals(0, tras.discrepancias());
+        assertEquals(0, tras.pendientes());
+    }
+
+    @Test
+    void revisaLosMovimientosConfirmadosDespuesDeOtrosConIdMayor() throws Exception {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (2001, 100, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (2002, 100, 'AHORRO')");
+        ingreso(2001, 10);
+        ingreso(2002, 10);
+        assertEquals(2, checkpoints.sembrar());
+        assertEquals(0, conciliador.conciliar(true).discrepancias());
+
+        // Un lote abierto inserta en 2001 un movimiento sin su saldo y no confirma hasta después
+        // de que otro escritor confirme en 2002 un movimiento con un id mayor y se concilie
+        CountDownLatch insertado = new CountDownLatch(1);
+        CountDownLatch confirmar = new CountDownLatch(1);
+        CompletableFuture<Void> lote = CompletableFuture.runAsync(() -> new TransactionTemplate(txManager)
+                .executeWithoutResult(estado -> {
+                    escritor.persistir(List.of(new Movimiento(0, new Cuenta(2001, 0, null), new Date(), 7, "Ingreso")));
+                    insertado.countDown();
+                    try {
+                        confirmar.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertTrue(insertado.await(30, TimeUnit.SECONDS));
+        ingreso(2002, 3);
+        InformeConciliacion durante = conciliador.conciliar(false);
+        assertEquals(0, durante.discrepancias());
+        confirmar.countDown();
+        lote.get(30, TimeUnit.SECONDS);
+
+        InformeConciliacion despues = conciliador.conciliar(false);
+        assertEquals(List.of(2001), cuentas(despues, ConciliadorSaldos.SALDO));
+        assertEquals(-7, despues.detalle().get(0).diferencia(), 1e-6);
+        assertEquals(1, despues.pendientes());
+
+        jdbc.update("update cuentas set saldo = saldo + 7 where id_cuenta = 2001");
+        InformeConciliacion corregida = conciliador.conciliar(false);
+        assertEquals(0, corregida.discrepancias());
+        assertEquals(0, corregida.pendientes());
+    }
+}
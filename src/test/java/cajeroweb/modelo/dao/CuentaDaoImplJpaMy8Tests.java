@@ -0,0 +1,122 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import cajeroweb.modelo.dto.LineaTransferencia;
+import cajeroweb.modelo.entidades.Cuenta;
+
+/**
+ * CuentaDaoImplJpaMy8 sobre una base H2 propia. Cada prueba usa su propio rango de cuentas.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:cuentasjpa;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;LOCK_TIMEOUT=10000",
+        "cajero.cuentas-calientes.ids=1101,1103",
+        "cajero.cuentas-calientes.ranuras=4" })
+@ActiveProfiles("h2")
+class CuentaDaoImplJpaMy8Tests {
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private CuentasCalientes calientes;
+
+    @Autowired
+    private AutowireCapableBeanFactory fabrica;
+
+    @Test
+    void unUpdateFallidoDevuelveCeroSinExcepcion() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (1001, 100, 'AHORRO')");
+        // Tipo más largo que la columna: la sentencia falla
+        assertEquals(0, cdao.updateUno(new Cuenta(1001, 50, "X".repeat(300))));
+        assertEquals(100, cdao.buscarUno(1001).getSaldo(), 1e-6);
+        assertEquals(1, cdao.updateUno(new Cuenta(1001, 50, "CORRIENTE")));
+        assertEquals(50, cdao.buscarUno(1001).getSaldo(), 1e-6);
+    }
+
+    @Test
+    void abonosYCargosConcurrentesEnCuentasCalientesNoSeBloqueanEntreSi() throws Exception {
+        int[] ids = { 1100, 1101, 1102, 1103 };
+        for (int id : ids) {
+            jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, 50, 'AHORRO')", id);
+        }
+        calientes.iniciar(); // Ranuras de 1101 y 1103, que no existían al arrancar
+
+        // Transferencias sueltas y por lotes en los dos sentidos entre cuentas normales y
+        // calientes; los saldos son pequeños para que los cargos consoliden ranuras a menudo
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < 8; h++) {
+            tareas.add(pool.submit(() -> {
+                ThreadLocalRandom azar = ThreadLocalRandom.current();
+                for (int i = 0; i < 200; i++) {
+                    int origen = ids[azar.nextInt(ids.length)];
+                    int destino = ids[azar.nextInt(ids.length)];
+                    if (origen == destino) {
+                        continue;
+                    }
+                    if (i % 4 == 0) {
+                        cdao.transferencias(List.of(new LineaTransferencia(1, origen, destino, 10),
+                                new LineaTransferencia(2, destino, origen, 5)));
+                    } else {
+                        int filas = cdao.transferencia(new Cuenta(origen, 0, null), new Cuenta(destino, 0, null), 10);
+                        assertTrue(filas == 0 || filas == 1);
+                    }
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> f : tareas) {
+            f.get(2, TimeUnit.MINUTES); // Un interbloqueo llega aquí como excepción o como espera agotada
+        }
+
+        double total = 0;
+        for (int id : ids) {
+            double saldo = cdao.buscarUno(id).getSaldo();
+            assertTrue(saldo >= 0);
+            total += saldo;
+        }
+        assertEquals(200, total, 1e-6);
+    }
+
+    @Test
+    void sinCacheSeVenLasEscriturasDeOtrosNodos() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (1201, 100, 'AHORRO')");
+        assertEquals(100, cdao.buscarUno(1201).getSaldo(), 1e-6);
+        jdbc.update("update cuentas set saldo = 70 where id_cuenta = 1201"); // Otro nodo
+        assertEquals(100, cdao.buscarUno(1201).getSaldo(), 1e-6); // Con caché, hasta que caduque
+
+        // Como con cajero.sesion.almacen=cookie
+        CuentaDao sinCache = (CuentaDao) fabrica.createBean(CuentaDaoImplJpaMy8.class);
+        try {
+            ReflectionTestUtils.setField((Object) AopTestUtils.getTargetObject(sinCache), "conCache", false);
+            assertEquals(70, sinCache.buscarUno(1201).getSaldo(), 1e-6);
+            jdbc.update("update cuentas set saldo = 60 where id_cuenta = 1201");
+            assertEquals(60, sinCache.buscarUno(1201).getSaldo(), 1e-6);
+        } finally {
+            fabrica.destroyBean(sinCache);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import cajeroweb.modelo.entidades.Cuenta;
+
+/**
+ * Perfil memoria sobre una base propia, con el volcado periódico tan espaciado que solo se
+ * vuelca cuando lo pide la prueba.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:memoria;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.memoria.franjas=4",
+        "cajero.memoria.intervalo-escritura-ms=3600000" })
+@ActiveProfiles({ "h2", "memoria" })
+class CuentaDaoImplMemoriaTests {
+
+    @Autowired
+    private CuentaDaoImplMemoria cdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private double enTabla(int id) {
+        return jdbc.queryForObject("select saldo from cuentas where id_cuenta = ?", Double.class, id);
+    }
+
+    @Test
+    void vuelcaElSaldoFinalDeLasCuentasModificadas() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (8001, 100, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (8002, 100, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (8003, 100, 'AHORRO')");
+        Cuenta a = new Cuenta(8001, 0, null);
+        Cuenta b = new Cuenta(8002, 0, null);
+        assertEquals(1, cdao.ingreso(a, 30));
+        assertEquals(1, cdao.transferencia(a, b, 50));
+        assertEquals(0, cdao.extraer(b, 1000));
+        assertEquals(100, cdao.buscarUno(8003).getSaldo(), 1e-9); // Cargada pero sin cambios
+        assertEquals(100, enTabla(8001), 1e-9);
+
+        cdao.volcar();
+        assertEquals(80, enTabla(8001), 1e-9);
+        assertEquals(150, enTabla(8002), 1e-9);
+
+        // Lo que no ha cambiado desde el último volcado no se vuelve a escribir
+        jdbc.update("update cuentas set saldo = 1 where id_cuenta in (8002, 8003)");
+        cdao.volcar();
+        assertEquals(1, enTabla(8002), 1e-9);
+        assertEquals(1, enTabla(8003), 1e-9);
+    }
+
+    @Test
+    void unVolcadoFallidoSeRepiteEnElSiguiente() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (8101, 100, 'AHORRO')");
+        assertEquals(1, cdao.ingreso(new Cuenta(8101, 0, null), 5));
+        JdbcTemplate caida = mock(JdbcTemplate.class);
+        when(caida.batchUpdate(anyString(), anyList())).thenThrow(new IllegalStateException("Base no disponible"));
+        ReflectionTestUtils.setField(cdao, "jdbc", caida);
+        try {
+            cdao.volcar();
+        } finally {
+            ReflectionTestUtils.setField(cdao, "jdbc", jdbc);
+        }
+        assertEquals(100, enTabla(8101), 1e-9);
+
+        assertEquals(1, cdao.ingreso(new Cuenta(8101, 0, null), 5));
+        cdao.volcar();
+        assertEquals(110, enTabla(8101), 1e-9);
+    }
+}
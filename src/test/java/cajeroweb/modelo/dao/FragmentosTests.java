@@ -0,0 +1,216 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import cajeroweb.config.TokenAdministracionInterceptor;
+import cajeroweb.modelo.dao.Fragmentos.Fragmento;
+import cajeroweb.modelo.dto.InformeRebalanceo;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+
+/**
+ * Perfil fragmentos con tres bases H2 en memoria como fragmentos: el anillo empieza con f0 y f1
+ * y f2 queda libre para el rebalanceo. Cada prueba usa su propio rango de cuentas. Los fragmentos
+ * no usan el modo MySQL de H2, que con inserciones concurrentes repite valores de auto_increment.
+ * La API de rebalanceo se prueba con el token de administración "fragmentos".
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:fragmentos;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.fragmentos.bases.f0.url=jdbc:h2:mem:f0;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.fragmentos.bases.f0.username=sa",
+        "cajero.fragmentos.bases.f1.url=jdbc:h2:mem:f1;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.fragmentos.bases.f1.username=sa",
+        "cajero.fragmentos.bases.f2.url=jdbc:h2:mem:f2;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.fragmentos.bases.f2.username=sa",
+        "cajero.fragmentos.anillo=f0,f1",
+        "cajero.fragmentos.esquema=classpath:schema-h2.sql",
+        "cajero.fragmentos.espera-recuperacion-ms=0",
+        "cajero.fragmentos.recuperacion-ms=3600000",
+        "cajero.fragmentos.token=fragmentos" })
+@ActiveProfiles({ "h2", "fragmentos" })
+@AutoConfigureMockMvc
+class FragmentosTests {
+
+    @Autowired
+    private Fragmentos fragmentos;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private TransferenciasFragmentos transferencias;
+
+    @Autowired
+    private RebalanceadorFragmentos rebalanceador;
+
+    @Autowired
+    private MockMvc mvc;
+
+    private void crearCuentas(int desde, int hasta, double saldo) {
+        for (int id = desde; id <= hasta; id++) {
+            fragmentos.fragmento(fragmentos.anillo().fragmento(id)).jdbc()
+                    .update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, ?, 'AHORRO')", id, saldo);
+        }
+    }
+
+    private int pendientes() {
+        int n = 0;
+        for (Fragmento f : fragmentos.todos()) {
+            n += f.jdbc().queryForObject("select count(*) from transferencias_salientes", Integer.class);
+        }
+        return n;
+    }
+
+    private double saldoMasMovimientos(int id, double inicial) {
+        return inicial + mdao.movimientos(id).stream().mapToDouble(Movimiento::getCantidad).sum();
+    }
+
+    @Test
+    void transferenciasConcurrentesConservanElDinero() throws Exception {
+        crearCuentas(1, 100, 1000);
+        ExecutorService hilos = Executors.newFixedThreadPool(8);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < 8; h++) {
+            tareas.add(hilos.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    int origen = ThreadLocalRandom.current().nextInt(1, 101);
+                    int destino = ThreadLocalRandom.current().nextInt(1, 101);
+                    if (origen != destino) {
+                        cdao.transferencia(new Cuenta(origen, 0, null), new Cuenta(destino, 0, null), 10);
+                    }
+                }
+            }));
+        }
+        for (Future<?> t : tareas) {
+            t.get();
+        }
+        hilos.shutdown();
+        double total = 0;
+        for (int id = 1; id <= 100; id++) {
+            double saldo = cdao.buscarUno(id).getSaldo();
+            assertEquals(saldo, saldoMasMovimientos(id, 1000), 1e-6);
+            total += saldo;
+        }
+        assertEquals(100_000, total, 1e-6);
+        assertEquals(0, pendientes());
+    }
+
+    @Test
+    void laRecuperacionAbonaUnaSolaVez() {
+        crearCuentas(1001, 1100, 1000);
+        int origen = 1001;
+        int destino = 1002;
+        while (fragmentos.anillo().fragmento(destino).equals(fragmentos.anillo().fragmento(origen))) {
+            destino++;
+        }
+        Fragmento[] salida = new Fragmento[1];
+        assertEquals(1, transferencias.salida(UUID.randomUUID().toString(), origen, destino, 50,
+                new Timestamp(System.currentTimeMillis()), salida));
+        assertNotNull(salida[0]);
+        assertEquals(950, cdao.buscarUno(origen).getSaldo(), 1e-6);
+        assertEquals(1000, cdao.buscarUno(destino).getSaldo(), 1e-6);
+        assertEquals(1, pendientes());
+
+        transferencias.recuperar();
+        transferencias.recuperar();
+        assertEquals(1050, cdao.buscarUno(destino).getSaldo(), 1e-6);
+        assertEquals(1050, saldoMasMovimientos(destino, 1000), 1e-6);
+        assertEquals(0, pendientes());
+
+        // Destino inexistente: el dinero vuelve a la cuenta de origen
+        assertEquals(0, transferencias.transferir(origen, 999_999, 100));
+        assertEquals(950, cdao.buscarUno(origen).getSaldo(), 1e-6);
+        assertEquals(950, saldoMasMovimientos(origen, 1000), 1e-6);
+    }
+
+    @Test
+    void elRebalanceoTrasladaCuentasYMovimientos() {
+        crearCuentas(2001, 2300, 500);
+        Map<Integer, Double> saldos = new HashMap<>();
+        Map<Integer, Integer> movimientos = new HashMap<>();
+        for (int id = 2001; id <= 2300; id++) {
+            cdao.ingreso(new Cuenta(id, 0, null), id % 7);
+            cdao.extraer(new Cuenta(id, 0, null), 1);
+            saldos.put(id, cdao.buscarUno(id).getSaldo());
+            movimientos.put(id, mdao.movimientos(id).size());
+        }
+
+        InformeRebalanceo informe = rebalanceador.rebalancear(List.of("f0", "f1", "f2"));
+        assertTrue(informe.trasladadas() > 0);
+
+        AnilloConsistente nuevo = new AnilloConsistente(List.of("f0", "f1", "f2"), fragmentos.nodosVirtuales());
+        for (int id = 2001; id <= 2300; id++) {
+            for (Fragmento f : fragmentos.todos()) {
+                int filas = f.jdbc().queryForObject("select count(*) from cuentas where id_cuenta = ?", Integer.class, id);
+                assertEquals(f.nombre().equals(nuevo.fragmento(id)) ? 1 : 0, filas);
+            }
+            assertEquals(saldos.get(id), cdao.buscarUno(id).getSaldo(), 1e-6);
+            assertEquals(movimientos.get(id), mdao.movimientos(id).size());
+            assertEquals(1, cdao.ingreso(new Cuenta(id, 0, null), 1));
+            assertEquals(saldos.get(id) + 1, saldoMasMovimientos(id, 500), 1e-6);
+        }
+    }
+
+    @Test
+    void unTrasladoInterrumpidoSeTerminaAlLeerLaCuenta() {
+        crearCuentas(3001, 3001, 300);
+        cdao.ingreso(new Cuenta(3001, 0, null), 20);
+        Fragmento origen = fragmentos.fragmento(fragmentos.anillo().fragmento(3001));
+        Fragmento destino = fragmentos.fragmento("f2");
+        assertNotEquals(origen.nombre(), destino.nombre());
+
+        // Copia sin marca en el origen: no se usa y la cuenta sigue en el origen
+        destino.jdbc().update("insert into cuentas_entrantes values (3001, 0, 'AHORRO', ?)", origen.nombre());
+        assertEquals(320, cdao.buscarUno(3001).getSaldo(), 1e-6);
+
+        // Traslado interrumpido tras borrar en el origen: la primera operación trae la copia
+        destino.jdbc().update("delete from cuentas_entrantes where id_cuenta = 3001");
+        destino.jdbc().update("insert into cuentas_entrantes values (3001, 320, 'AHORRO', ?)", origen.nombre());
+        destino.jdbc().update("insert into movimientos_entrantes values (3001, 0, ?, 20, 'Ingreso')",
+                new Timestamp(System.currentTimeMillis()));
+        origen.jdbc().update("delete from movimientos where id_cuenta = 3001");
+        origen.jdbc().update("delete from cuentas where id_cuenta = 3001");
+        origen.jdbc().update("insert into cuentas_trasladadas values (3001, 'f2')");
+
+        assertEquals(320, cdao.buscarUno(3001).getSaldo(), 1e-6);
+        assertEquals(1, mdao.movimientos(3001).size());
+        assertEquals(0, destino.jdbc().queryForObject("select count(*) from cuentas_entrantes where id_cuenta = 3001",
+                Integer.class));
+    }
+
+    @Test
+    void laApiDeRebalanceoExigeElTokenDeFragmentos() throws Exception {
+        // Con un fragmento que no existe el rebalanceo no llega a trasladar nada
+        assertEquals(403, mvc.perform(post("/fragmentos/rebalanceo").param("anillo", "f0,f9"))
+                .andReturn().getResponse().getStatus());
+        assertEquals(403, mvc.perform(post("/fragmentos/rebalanceo").param("anillo", "f0,f9")
+                .header(TokenAdministracionInterceptor.CABECERA, "lote")).andReturn().getResponse().getStatus());
+        assertEquals(400, mvc.perform(post("/fragmentos/rebalanceo").param("anillo", "f0,f9")
+                .header(TokenAdministracionInterceptor.CABECERA, "fragmentos")).andReturn().getResponse().getStatus());
+    }
+}
@@ -0,0 +1,197 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import cajeroweb.modelo.entidades.Cuenta;
+
+/**
+ * Reconstrucción del perfil eventos tras una caída, con segmentos de 8 registros sobre un
+ * directorio temporal. Las caídas se simulan estropeando los ficheros y reconstruyendo.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:eventos;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.eventos.registros-por-segmento=8",
+        "cajero.eventos.instantanea-cada=0",
+        "cajero.eventos.sincronizar-ms=0" })
+@ActiveProfiles({ "h2", "eventos" })
+class LibroEventosTests {
+
+    private static final int POR_SEGMENTO = 8;
+
+    private static Path dir;
+
+    @DynamicPropertySource
+    static void directorio(DynamicPropertyRegistry registro) throws IOException {
+        dir = Files.createTempDirectory("libro-eventos");
+        registro.add("cajero.eventos.directorio", dir::toString);
+    }
+
+    @Autowired
+    private LibroEventos libro;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    /** Diario vacío y cuentas 7001 (100) y 7002 (0). */
+    @BeforeEach
+    void vaciar() throws IOException {
+        try (Stream<Path> ficheros = Files.list(dir)) {
+            for (Path f : ficheros.toList()) {
+                Files.delete(f);
+            }
+        }
+        jdbc.update("delete from cuentas where id_cuenta in (7001, 7002)");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (7001, 100, 'AHORRO')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (7002, 0, 'AHORRO')");
+        assertEquals(0, libro.reconstruir());
+    }
+
+    private double saldo(int id) {
+        return cdao.buscarUno(id).getSaldo();
+    }
+
+    private void ingresos(int num) {
+        for (int i = 0; i < num; i++) {
+            assertEquals(1, cdao.ingreso(new Cuenta(7001, 0, null), 1));
+        }
+    }
+
+    private static Path segmento(long secuencia) {
+        return dir.resolve(String.format("diario-%08d.dat", (secuencia - 1) / POR_SEGMENTO));
+    }
+
+    private static long posicion(long secuencia) {
+        return (secuencia - 1) % POR_SEGMENTO * DiarioEventos.TAMANO_REGISTRO;
+    }
+
+    /** Cambia un byte de la cantidad del registro: su CRC deja de cuadrar. */
+    private static void estropear(long secuencia) throws IOException {
+        try (FileChannel canal = FileChannel.open(segmento(secuencia), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            canal.read(b, posicion(secuencia) + 24);
+            b.put(0, (byte) (b.get(0) ^ 0x5A)).rewind();
+            canal.write(b, posicion(secuencia) + 24);
+        }
+    }
+
+    private static byte[] leer(long secuencia) throws IOException {
+        try (FileChannel canal = FileChannel.open(segmento(secuencia), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(DiarioEventos.TAMANO_REGISTRO);
+            canal.read(b, posicion(secuencia));
+            return b.array();
+        }
+    }
+
+    private static List<Path> instantaneas() throws IOException {
+        try (Stream<Path> ficheros = Files.list(dir)) {
+            return ficheros.filter(f -> f.getFileName().toString().startsWith("instantanea-")).sorted().toList();
+        }
+    }
+
+    @Test
+    void descartaLaColaConCrcIncorrectoYLaBorraDelDisco() throws IOException {
+        ingresos(6);
+        estropear(5); // Escritura a medias: el 6 queda detrás y tampoco vale
+
+        assertEquals(4, libro.reconstruir());
+        assertEquals(104, saldo(7001), 1e-6);
+        assertArrayEquals(new byte[DiarioEventos.TAMANO_REGISTRO], leer(5));
+        assertArrayEquals(new byte[DiarioEventos.TAMANO_REGISTRO], leer(6));
+
+        // Lo siguiente se anota detrás del 4 y el registro 6 viejo no reaparece
+        ingresos(1);
+        assertEquals(5, libro.reconstruir());
+        assertEquals(105, saldo(7001), 1e-6);
+    }
+
+    @Test
+    void truncarEliminaLosSegmentosPosterioresAlUltimoRegistroValido() throws IOException {
+        ingresos(POR_SEGMENTO + 3); // Dos segmentos
+        assertTrue(Files.exists(segmento(POR_SEGMENTO + 1)));
+        estropear(POR_SEGMENTO - 1);
+
+        assertEquals(POR_SEGMENTO - 2, libro.reconstruir());
+        assertFalse(Files.exists(segmento(POR_SEGMENTO + 1)));
+        assertArrayEquals(new byte[DiarioEventos.TAMANO_REGISTRO], leer(POR_SEGMENTO));
+        assertEquals(100 + POR_SEGMENTO - 2, saldo(7001), 1e-6);
+    }
+
+    @Test
+    void descartaUnaTransferenciaSinSuEntrada() throws IOException {
+        ingresos(2);
+        assertEquals(1, cdao.transferencia(new Cuenta(7001, 0, null), new Cuenta(7002, 0, null), 50));
+        assertEquals(50, saldo(7002), 1e-6);
+        estropear(4); // La entrada: queda la salida sola al final
+
+        assertEquals(2, libro.reconstruir());
+        assertEquals(102, saldo(7001), 1e-6);
+        assertEquals(0, saldo(7002), 1e-6);
+        assertArrayEquals(new byte[DiarioEventos.TAMANO_REGISTRO], leer(3));
+    }
+
+    @Test
+    void usaLaInstantaneaAnteriorSiLaUltimaNoSePuedeLeer() throws IOException {
+        ingresos(3);
+        libro.instantanea();
+        ingresos(4);
+        libro.instantanea();
+        ingresos(2);
+        List<Path> escritas = instantaneas();
+        assertEquals(2, escritas.size());
+        Files.write(escritas.get(1), new byte[] { 1, 2, 3 }); // Escrita a medias
+
+        assertEquals(6, libro.reconstruir()); // Desde la instantánea del registro 3
+        assertEquals(109, saldo(7001), 1e-6);
+    }
+
+    @Test
+    void descartaUnaInstantaneaPosteriorAlDiarioEnDisco() throws IOException {
+        ingresos(3);
+        libro.instantanea();
+        ingresos(4);
+        libro.instantanea(); // Incluye hasta el registro 7
+        estropear(6); // El diario en disco solo llega al 5
+        estropear(7);
+
+        assertEquals(2, libro.reconstruir()); // Desde la instantánea del registro 3, sin usar la del 7
+        assertEquals(105, saldo(7001), 1e-6);
+    }
+
+    @Test
+    void lasOperacionesConcurrentesTerminanConSuRegistroEnDisco() throws Exception {
+        List<CompletableFuture<Void>> hilos = Stream.generate(() -> CompletableFuture.runAsync(() -> ingresos(50)))
+                .limit(4).toList();
+        for (CompletableFuture<Void> h : hilos) {
+            h.get();
+        }
+        assertEquals(200, libro.diario().sincronizadoHasta());
+        assertEquals(300, saldo(7001), 1e-6);
+        assertEquals(200, libro.reconstruir());
+        assertEquals(300, saldo(7001), 1e-6);
+    }
+}
@@ -0,0 +1,97 @@
+package cajeroweb.modelo.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import cajeroweb.modelo.dao.TablaSaldos.Franja;
+
+/**
+ * Tabla de saldos en memoria sin Spring: reparto en franjas, colisiones dentro de una franja,
+ * redimensionado y marcas de cuenta sucia.
+ */
+class TablaSaldosTests {
+
+    /** Las primeras {@code num} cuentas, desde 1, que caen en la franja indicada. */
+    private static List<Integer> cuentasDeFranja(TablaSaldos tabla, int franja, int num) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; ids.size() < num; id++) {
+            if (tabla.franja(id) == franja) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void lasCuentasDeUnaFranjaNoEmpiezanTodasEnLaMismaPosicion() {
+        TablaSaldos tabla = new TablaSaldos(64);
+        Franja f = tabla.getFranja(5);
+        // Con los bits de la franja para la posición, las 8 empezarían en la misma
+        Set<Integer> inicios = new HashSet<>();
+        for (int id : cuentasDeFranja(tabla, 5, 8)) {
+            inicios.add(f.inicio(id, 15));
+        }
+        assertTrue(inicios.size() >= 4, "Posiciones iniciales: " + inicios);
+    }
+
+    @Test
+    void encuentraCadaCuentaAunqueColisionenYCrezcaLaFranja() {
+        TablaSaldos tabla = new TablaSaldos(4);
+        Franja f = tabla.getFranja(2);
+        List<Integer> ids = cuentasDeFranja(tabla, 2, 200); // Varios redimensionados desde 16
+        for (int id : ids) {
+            int pos = f.cargar(id, id * 10.0, id % 2 == 0 ? "AHORRO" : "CORRIENTE");
+            assertEquals(pos, f.posicion(id));
+            assertEquals(pos, f.cargar(id, -1, "NOMINA")); // Ya cargada: no cambia
+        }
+        for (int id : ids) {
+            int pos = f.posicion(id);
+            assertTrue(pos >= 0);
+            assertEquals(id * 10.0, f.saldo(pos), 1e-9);
+            assertEquals(id % 2 == 0 ? "AHORRO" : "CORRIENTE", f.tipo(pos));
+        }
+        // Una cuenta de otra franja no está en esta
+        assertEquals(-1, f.posicion(cuentasDeFranja(tabla, 3, 1).get(0)));
+    }
+
+    @Test
+    void elRedimensionadoConservaLasMarcasDeSucia() {
+        TablaSaldos tabla = new TablaSaldos(1);
+        Franja f = tabla.getFranja(0);
+        for (int id = 1; id <= 8; id++) {
+            int pos = f.cargar(id, 100, "AHORRO");
+            if (id % 2 == 0) {
+                f.sumar(pos, id);
+            }
+        }
+        for (int id = 9; id <= 40; id++) { // Redimensiona dos veces
+            f.cargar(id, 100, "AHORRO");
+        }
+        f.actualizar(f.posicion(40), 7, "CORRIENTE");
+
+        List<Object[]> sucias = tabla.recogerSucias();
+        Set<Integer> ids = new HashSet<>();
+        for (Object[] fila : sucias) {
+            ids.add((Integer) fila[2]);
+            // Saldo absoluto, listo para "set saldo = ?"
+            assertEquals((Integer) fila[2] == 40 ? 7 : 100 + (Integer) fila[2], (Double) fila[0], 1e-9);
+        }
+        assertEquals(Set.of(2, 4, 6, 8, 40), ids);
+        assertTrue(tabla.recogerSucias().isEmpty());
+
+        f.marcarSucia(6);
+        f.marcarSucia(999); // No cargada: se ignora
+        List<Object[]> otraVez = tabla.recogerSucias();
+        assertEquals(1, otraVez.size());
+        assertEquals(6, otraVez.get(0)[2]);
+        assertFalse(tabla.recogerSucias().iterator().hasNext());
+    }
+}
@@ -0,0 +1,142 @@
+package cajeroweb.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.InformeLote;
+import cajeroweb.modelo.dto.LineaTransferencia;
+import cajeroweb.modelo.dto.ResultadoLinea;
+import cajeroweb.modelo.entidades.Cuenta;
+import cajeroweb.modelo.entidades.Movimiento;
+import cajeroweb.servicio.LimitesOperaciones.Operacion;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Límites sobre una base propia. Las transferencias de las cuentas de ahorro tienen una ventana de
+ * 1,5 s en 3 tramos de 500 ms; el resto de reglas usan ventanas de una hora.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:limites;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.limites.reglas=AHORRO:transferencia:importe:100:1500ms,CORRIENTE:transferencia:numero:2:1h,"
+                + "*:extraccion:numero:2:1h",
+        "cajero.limites.divisiones=3",
+        "cajero.limites.max-cuentas=10",
+        "cajero.limites.barrido-ms=3600000" })
+@ActiveProfiles("h2")
+class LimitesOperacionesTests {
+
+    private static final long ANCHO_TRAMO = 500;
+
+    @Autowired
+    private LimitesOperaciones limites;
+
+    @Autowired
+    private TransferenciasLote lotes;
+
+    @Autowired
+    private MovimientoDao mdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private MeterRegistry registro;
+
+    private static Cuenta cuenta(int id, String tipo) {
+        return new Cuenta(id, 0, tipo);
+    }
+
+    private void extraccion(int id, long hace) {
+        mdao.insertUno(new Movimiento(0, cuenta(id, null), new Date(System.currentTimeMillis() - hace), -10, "Extracción"));
+    }
+
+    /** Espera a que pase el instante indicado y devuelve el tramo en el que está. */
+    private static long esperarHasta(long instante) throws InterruptedException {
+        Thread.sleep(Math.max(0, instante - System.currentTimeMillis()));
+        return System.currentTimeMillis() / ANCHO_TRAMO;
+    }
+
+    @Test
+    void anularDevuelveLaCantidadALaVentana() {
+        Cuenta cuenta = cuenta(6001, "AHORRO");
+        LimitesOperaciones.Reserva primera = limites.reservar(cuenta, Operacion.TRANSFERENCIA, 60);
+        assertNotNull(primera);
+        assertNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 50));
+        primera.anular();
+        assertNotNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 50));
+        assertNotNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 50));
+        assertNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 0.01));
+        // Sin regla para el tipo o la operación no se limita
+        assertNotNull(limites.reservar(cuenta(6001, "NOMINA"), Operacion.TRANSFERENCIA, 1000));
+    }
+
+    @Test
+    void cuentaHastaUnTramoDeMasYLiberaLaVentanaAlPasar() throws InterruptedException {
+        Cuenta cuenta = cuenta(6002, "AHORRO");
+        // Al principio de un tramo, para no depender de cuánto tarda cada paso
+        long tramo = esperarHasta((System.currentTimeMillis() / ANCHO_TRAMO + 1) * ANCHO_TRAMO + 20);
+        assertNotNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 100));
+
+        // Pasada la ventana de 1,5 s el tramo de la reserva aún cuenta: se rechaza un tramo antes
+        assertEquals(tramo + 3, esperarHasta((tramo + 3) * ANCHO_TRAMO + 20));
+        assertNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 1));
+
+        // Con el tramo siguiente la reserva sale de la cuenta
+        assertEquals(tramo + 4, esperarHasta((tramo + 4) * ANCHO_TRAMO + 20));
+        assertNotNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 100));
+        assertNull(limites.reservar(cuenta, Operacion.TRANSFERENCIA, 1));
+    }
+
+    @Test
+    void creaLasVentanasConLosMovimientosRecientesYLasRecreaTrasDescartarlas() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (6003, 100, 'AHORRO')");
+        extraccion(6003, TimeUnit.MINUTES.toMillis(30));
+        extraccion(6003, TimeUnit.HOURS.toMillis(2)); // Fuera de la ventana
+        mdao.insertUno(new Movimiento(0, cuenta(6003, null), new Date(), 10, "Extracción")); // No es una salida
+        Cuenta cuenta = cuenta(6003, "AHORRO");
+        assertNotNull(limites.reservar(cuenta, Operacion.EXTRACCION, 10));
+        extraccion(6003, 0); // La extracción de la reserva
+        assertNull(limites.reservar(cuenta, Operacion.EXTRACCION, 10));
+
+        // Con más de max-cuentas se descartan las de uso más antiguo
+        for (int id = 6100; id < 6120; id++) {
+            assertNotNull(limites.reservar(cuenta(id, "AHORRO"), Operacion.EXTRACCION, 10));
+            assertTrue(registro.get("cajero.limites.cuentas").gauge().value() <= 10);
+        }
+        // 6003 se ha descartado y al volver se recrea desde sus movimientos
+        assertNull(limites.reservar(cuenta, Operacion.EXTRACCION, 10));
+    }
+
+    @Test
+    void losLotesReservanCadaLineaYAnulanLasQueNoSeHacen() {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (6201, 1000, 'CORRIENTE')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (6202, 0, 'CORRIENTE')");
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (6203, 0, 'AHORRO')");
+        List<LineaTransferencia> lineas = List.of(
+                new LineaTransferencia(1, 6201, 6203, 10),
+                new LineaTransferencia(2, 6202, 6203, 10), // Sin saldo: devuelve la reserva
+                new LineaTransferencia(3, 6201, 6203, 10),
+                new LineaTransferencia(4, 6201, 6203, 10));
+        InformeLote informe = lotes.ejecutar(lineas, List.of());
+        assertEquals(List.of(TransferenciasLote.OK, TransferenciasLote.SALDO_INSUFICIENTE, TransferenciasLote.OK,
+                TransferenciasLote.LIMITE_SUPERADO), informe.lineas().stream().map(ResultadoLinea::resultado).toList());
+        assertEquals(980, jdbc.queryForObject("select saldo from cuentas where id_cuenta = 6201", Double.class), 1e-6);
+
+        assertNotNull(limites.reservar(cuenta(6202, "CORRIENTE"), Operacion.TRANSFERENCIA, 1));
+        assertNotNull(limites.reservar(cuenta(6202, "CORRIENTE"), Operacion.TRANSFERENCIA, 1));
+        assertNull(limites.reservar(cuenta(6201, "CORRIENTE"), Operacion.TRANSFERENCIA, 1));
+    }
+}
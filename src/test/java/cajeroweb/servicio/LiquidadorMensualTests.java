@@ -0,0 +1,139 @@
+package cajeroweb.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import cajeroweb.config.TokenAdministracionInterceptor;
+import cajeroweb.modelo.dto.InformeLiquidacion;
+
+/**
+ * Liquidación mensual con tramos pequeños para que se apliquen varios en paralelo. Cada prueba
+ * usa su propio rango de cuentas y su propio mes, y compara saldos y movimientos antes y después.
+ * La base es propia para que la liquidación no recorra las cuentas de otras clases de prueba.
+ * La API se prueba con el token de administración "liquidacion".
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:liquidacion;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.liquidacion.reglas=AHORRO:interes:1.2,CORRIENTE:comision:3",
+        "cajero.liquidacion.tamano-tramo=7",
+        "cajero.liquidacion.hilos=4",
+        "cajero.liquidacion.token=liquidacion" })
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class LiquidadorMensualTests {
+
+    @Autowired
+    private LiquidadorMensual liquidador;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private MockMvc mvc;
+
+    private void crearCuentas(int desde, int hasta, double saldo, String tipo) {
+        for (int id = desde; id <= hasta; id++) {
+            jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, ?, ?)", id, saldo, tipo);
+        }
+    }
+
+    private double saldo(int id) {
+        return jdbc.queryForObject("select saldo from cuentas where id_cuenta = ?", Double.class, id);
+    }
+
+    private Map<Integer, Integer> liquidaciones(int desde, int hasta) {
+        Map<Integer, Integer> n = new HashMap<>();
+        jdbc.query("select id_cuenta, count(*) from movimientos where id_cuenta between ? and ?"
+                + " and operacion in (?, ?) group by id_cuenta", rs -> {
+                    n.put(rs.getInt(1), rs.getInt(2));
+                }, desde, hasta, LiquidadorMensual.INTERESES, LiquidadorMensual.COMISION);
+        return n;
+    }
+
+    @Test
+    void liquidaCadaCuentaUnaSolaVez() {
+        crearCuentas(1001, 1060, 1000, "AHORRO");
+        crearCuentas(1061, 1080, 100, "CORRIENTE");
+        crearCuentas(1081, 1085, 2, "CORRIENTE");
+        crearCuentas(1086, 1090, 100, "NOMINA");
+
+        InformeLiquidacion informe = liquidador.liquidar(YearMonth.of(2024, 1));
+        assertFalse(informe.yaLiquidado());
+        assertEquals(0, informe.tramosFallidos());
+        assertTrue(informe.tramos() > 1);
+        assertTrue(informe.cuentas() >= 80);
+        assertTrue(informe.omitidas() >= 5);
+
+        Map<Integer, Integer> n = liquidaciones(1001, 1090);
+        for (int id = 1001; id <= 1060; id++) {
+            assertEquals(1001, saldo(id), 1e-6);
+            assertEquals(1, n.get(id));
+        }
+        for (int id = 1061; id <= 1080; id++) {
+            assertEquals(97, saldo(id), 1e-6);
+            assertEquals(1, n.get(id));
+        }
+        for (int id = 1081; id <= 1090; id++) {
+            assertEquals(id <= 1085 ? 2 : 100, saldo(id), 1e-6);
+            assertFalse(n.containsKey(id));
+        }
+
+        InformeLiquidacion otra = liquidador.liquidar(YearMonth.of(2024, 1));
+        assertTrue(otra.yaLiquidado());
+        assertEquals(1001, saldo(1001), 1e-6);
+        assertEquals(n, liquidaciones(1001, 1090));
+    }
+
+    @Test
+    void unaLiquidacionInterrumpidaSaltaLosTramosAplicados() {
+        crearCuentas(2001, 2040, 500, "AHORRO");
+        Map<Integer, Integer> antes = liquidaciones(2001, 2040);
+        Map<Integer, Double> saldos = new HashMap<>();
+        for (int id = 2001; id <= 2040; id++) {
+            saldos.put(id, saldo(id));
+        }
+        // Tramo 2011..2020 anotado por una ejecución anterior que se interrumpió
+        jdbc.update("insert into liquidaciones_tramos (periodo, id_desde, id_hasta, cuentas, omitidas, fecha)"
+                + " values ('2024-02', 2011, 2020, 10, 0, ?)", new Timestamp(System.currentTimeMillis()));
+
+        InformeLiquidacion informe = liquidador.liquidar(YearMonth.of(2024, 2));
+        assertEquals(1, informe.tramosPrevios());
+        assertEquals(0, informe.tramosFallidos());
+
+        Map<Integer, Integer> despues = liquidaciones(2001, 2040);
+        for (int id = 2001; id <= 2040; id++) {
+            boolean saltada = id >= 2011 && id <= 2020;
+            double interes = Math.round(saldos.get(id) * 1.2 / 12) / 100.0;
+            assertEquals(saldos.get(id) + (saltada ? 0 : interes), saldo(id), 1e-6);
+            assertEquals(antes.getOrDefault(id, 0) + (saltada ? 0 : 1), despues.getOrDefault(id, 0));
+        }
+        long cuentas = jdbc.queryForObject("select cuentas from liquidaciones where periodo = '2024-02'", Long.class);
+        assertEquals(informe.cuentas() + 10, cuentas);
+    }
+
+    @Test
+    void laApiExigeElTokenDeLiquidacion() throws Exception {
+        // Con un mes no válido la liquidación no llega a ejecutarse
+        assertEquals(403, mvc.perform(post("/liquidaciones").param("periodo", "2024-13"))
+                .andReturn().getResponse().getStatus());
+        assertEquals(403, mvc.perform(post("/liquidaciones").param("periodo", "2024-13")
+                .header(TokenAdministracionInterceptor.CABECERA, "lote")).andReturn().getResponse().getStatus());
+        assertEquals(400, mvc.perform(post("/liquidaciones").param("periodo", "2024-13")
+                .header(TokenAdministracionInterceptor.CABECERA, "liquidacion")).andReturn().getResponse().getStatus());
+    }
+}
@@ -0,0 +1,244 @@
+package cajeroweb.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import cajeroweb.config.TokenAdministracionInterceptor;
+import cajeroweb.modelo.dao.CuentaDao;
+import cajeroweb.modelo.dao.MovimientoDao;
+import cajeroweb.modelo.dto.InformeLote;
+import cajeroweb.modelo.dto.LineaTransferencia;
+import cajeroweb.modelo.dto.ResultadoLinea;
+
+/**
+ * Lotes de transferencias con tramos de 3 líneas sobre una base propia. La API se prueba con el
+ * token de administración "lote".
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:lotes;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "cajero.lote.tamano-tramo=3",
+        "cajero.lote.paralelismo=4",
+        "cajero.lote.token=lote" })
+@ActiveProfiles("h2")
+@AutoConfigureMockMvc
+class TransferenciasLoteTests {
+
+    @Autowired
+    private TransferenciasLote lotes;
+
+    @Autowired
+    private CuentaDao cdao;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private AutowireCapableBeanFactory fabrica;
+
+    @Autowired
+    private MockMvc mvc;
+
+    private static List<LineaTransferencia> lineas(int[][] pares) {
+        List<LineaTransferencia> lineas = new ArrayList<>();
+        for (int i = 0; i < pares.length; i++) {
+            lineas.add(new LineaTransferencia(i + 1, pares[i][0], pares[i][1], pares[i].length > 2 ? pares[i][2] : 1));
+        }
+        return lineas;
+    }
+
+    private static List<List<List<Integer>>> numeros(List<List<List<LineaTransferencia>>> grupos) {
+        return grupos.stream().map(g -> g.stream().map(t -> t.stream().map(LineaTransferencia::linea).toList()).toList())
+                .toList();
+    }
+
+    private static List<String> resultados(InformeLote informe) {
+        return informe.lineas().stream().map(ResultadoLinea::resultado).toList();
+    }
+
+    private void alta(int id, double saldo) {
+        jdbc.update("insert into cuentas (id_cuenta, saldo, tipo_cuenta) values (?, ?, 'AHORRO')", id, saldo);
+    }
+
+    @Test
+    void agrupaLasCuentasConectadasYParteLosComponentesGrandes() {
+        // {1,2,5}: líneas 1,3,5,7; {3,4} y {8,9} se unen en la línea 8; {6,7}: línea 4
+        List<LineaTransferencia> lineas = lineas(new int[][] {
+                { 1, 2 }, { 3, 4 }, { 2, 5 }, { 6, 7 }, { 5, 1 }, { 8, 9 }, { 2, 1 }, { 9, 3 } });
+        assertEquals(List.of(
+                List.of(List.of(1, 3, 5), List.of(7)),
+                List.of(List.of(2, 6, 8)),
+                List.of(List.of(4))),
+                numeros(lotes.agrupar(lineas)));
+
+        // Componentes pequeños juntos hasta llenar un tramo
+        assertEquals(List.of(List.of(List.of(1, 2, 3)), List.of(List.of(4))),
+                numeros(lotes.agrupar(lineas(new int[][] { { 1, 2 }, { 3, 4 }, { 5, 6 }, { 7, 8 } }))));
+    }
+
+    @Test
+    void losGruposNoCompartenCuentasYConservanElOrdenDeLasLineas() {
+        Random azar = new Random(7);
+        int[][] pares = new int[500][];
+        for (int i = 0; i < pares.length; i++) {
+            pares[i] = new int[] { azar.nextInt(400), azar.nextInt(400) };
+        }
+        List<List<List<LineaTransferencia>>> grupos = lotes.agrupar(lineas(pares));
+        Map<Integer, Integer> grupoDeCuenta = new HashMap<>();
+        int total = 0;
+        for (int g = 0; g < grupos.size(); g++) {
+            int anterior = 0;
+            for (List<LineaTransferencia> tramo : grupos.get(g)) {
+                assertTrue(tramo.size() <= 3);
+                for (LineaTransferencia l : tramo) {
+                    assertTrue(l.linea() > anterior);
+                    anterior = l.linea();
+                    assertEquals(g, grupoDeCuenta.merge(l.origen(), g, (a, b) -> a));
+                    assertEquals(g, grupoDeCuenta.merge(l.destino(), g, (a, b) -> a));
+                    total++;
+                }
+            }
+        }
+        assertEquals(pares.length, total);
+    }
+
+    @Test
+    void cadaLineaVeElResultadoDeLasAnterioresAunqueCaigaEnOtroTramo() {
+        alta(5001, 100);
+        alta(5002, 0);
+        alta(5003, 0);
+        InformeLote informe = lotes.ejecutar(lineas(new int[][] {
+                { 5001, 5002, 100 }, // Deja 5001 a cero
+                { 5002, 5003, 60 }, // Solo posible tras la línea 1
+                { 5001, 5003, 10 }, // Sin saldo
+                { 5002, 5001, 40 }, // Segundo tramo
+                { 5001, 5003, 40 }, // Con lo recibido en la línea 4
+                { 5001, 5003, 0 },
+                { 5001, 5999, 1 } }), List.of());
+
+        assertEquals(List.of(TransferenciasLote.OK, TransferenciasLote.OK, TransferenciasLote.SALDO_INSUFICIENTE,
+                TransferenciasLote.OK, TransferenciasLote.OK, TransferenciasLote.CANTIDAD_INCORRECTA,
+                TransferenciasLote.CUENTA_INCORRECTA), resultados(informe));
+        assertEquals(4, informe.correctas());
+        assertEquals(0, cdao.buscarUno(5001).getSaldo(), 1e-6);
+        assertEquals(0, cdao.buscarUno(5002).getSaldo(), 1e-6);
+        assertEquals(100, cdao.buscarUno(5003).getSaldo(), 1e-6);
+        assertEquals(8, jdbc.queryForObject("select count(*) from movimientos where id_cuenta between 5001 and 5003",
+                Integer.class));
+    }
+
+    @Test
+    void informaLasLineasDeUnTramoCuyosMovimientosNoSeRegistran() {
+        alta(5101, 100);
+        alta(5102, 100);
+        alta(5103, 100);
+        alta(5104, 100);
+        MovimientoDao mdao = mock(MovimientoDao.class);
+        when(mdao.insertVarios(anyList())).thenAnswer(i -> i.getArgument(0, List.class).size() - 1)
+                .thenThrow(new IllegalStateException("Base no disponible"));
+        TransferenciasLote fallando = fabrica.createBean(TransferenciasLote.class);
+        try {
+            ReflectionTestUtils.setField(fallando, "mdao", mdao);
+            InformeLote informe = fallando.ejecutar(lineas(new int[][] {
+                    { 5101, 5102, 10 }, { 5102, 5101, 500 }, { 5101, 5102, 10 },
+                    { 5103, 5104, 10 } }), List.of()); // Dos tramos: en uno falta un movimiento y en otro falla el envío
+
+            assertEquals(List.of(TransferenciasLote.MOVIMIENTO_NO_REGISTRADO, TransferenciasLote.SALDO_INSUFICIENTE,
+                    TransferenciasLote.MOVIMIENTO_NO_REGISTRADO, TransferenciasLote.MOVIMIENTO_NO_REGISTRADO),
+                    resultados(informe));
+            assertEquals(0, informe.correctas());
+            // Los saldos sí se han movido
+            assertEquals(80, cdao.buscarUno(5101).getSaldo(), 1e-6);
+            assertEquals(90, cdao.buscarUno(5103).getSaldo(), 1e-6);
+        } finally {
+            fabrica.destroyBean(fallando);
+        }
+    }
+
+    @Test
+    void siFallaUnTramoSoloSusLineasYLasSiguientesDeSuGrupoQuedanSinEjecutar() {
+        alta(5201, 100);
+        alta(5202, 100);
+        alta(5203, 100);
+        alta(5204, 100);
+        CuentaDao cuentas = mock(CuentaDao.class);
+        when(cuentas.buscarUno(anyInt())).thenAnswer(i -> cdao.buscarUno(i.getArgument(0, Integer.class)));
+        when(cuentas.transferencias(anyList())).thenAnswer(i -> {
+            List<LineaTransferencia> tramo = i.getArgument(0);
+            if (tramo.stream().anyMatch(l -> l.linea() == 2)) {
+                throw new IllegalStateException("Interbloqueo");
+            }
+            return cdao.transferencias(tramo);
+        });
+        TransferenciasLote fallando = fabrica.createBean(TransferenciasLote.class);
+        try {
+            ReflectionTestUtils.setField(fallando, "cdao", cuentas);
+            // {5201,5202}: tramos [1,2,3] (falla) y [4]; {5203,5204}: tramo [5]
+            InformeLote informe = fallando.ejecutar(lineas(new int[][] {
+                    { 5201, 5202, 10 }, { 5202, 5201, 10 }, { 5201, 5202, 10 }, { 5201, 5202, 10 },
+                    { 5203, 5204, 10 } }), List.of(new ResultadoLinea(6, 0, 0, 0, TransferenciasLote.FORMATO_INCORRECTO)));
+
+            assertEquals(List.of(TransferenciasLote.NO_EJECUTADA, TransferenciasLote.NO_EJECUTADA,
+                    TransferenciasLote.NO_EJECUTADA, TransferenciasLote.NO_EJECUTADA, TransferenciasLote.OK,
+                    TransferenciasLote.FORMATO_INCORRECTO), resultados(informe));
+            assertEquals(1, informe.correctas());
+            assertEquals(100, cdao.buscarUno(5201).getSaldo(), 1e-6);
+            assertEquals(90, cdao.buscarUno(5203).getSaldo(), 1e-6);
+        } finally {
+            fabrica.destroyBean(fallando);
+        }
+    }
+
+    @Test
+    void rechazaLasCantidadesNoFinitas() {
+        alta(5301, 100);
+        alta(5302, 0);
+        InformeLote informe = lotes.ejecutar(List.of(
+                new LineaTransferencia(1, 5301, 5302, Double.NaN),
+                new LineaTransferencia(2, 5301, 5302, Double.POSITIVE_INFINITY),
+                new LineaTransferencia(3, 5301, 5302, 5)), List.of());
+        assertEquals(List.of(TransferenciasLote.CANTIDAD_INCORRECTA, TransferenciasLote.CANTIDAD_INCORRECTA,
+                TransferenciasLote.OK), resultados(informe));
+        assertEquals(95, cdao.buscarUno(5301).getSaldo(), 1e-6);
+    }
+
+    @Test
+    void laApiExigeElTokenDeLotes() throws Exception {
+        alta(5401, 100);
+        alta(5402, 0);
+        String csv = "origen;destino;cantidad\n5401;5402;10\n5401;5402;NaN\n5401;5402\n";
+        assertEquals(403, mvc.perform(post("/transferencias/lote").contentType("text/csv").content(csv))
+                .andReturn().getResponse().getStatus());
+        assertEquals(403, mvc.perform(post("/transferencias/lote").contentType("text/csv").content(csv)
+                .header(TokenAdministracionInterceptor.CABECERA, "otro")).andReturn().getResponse().getStatus());
+        assertEquals(100, cdao.buscarUno(5401).getSaldo(), 1e-6);
+
+        MvcResult lote = mvc.perform(post("/transferencias/lote").contentType("text/csv").content(csv)
+                .header(TokenAdministracionInterceptor.CABECERA, "lote")).andReturn();
+        assertEquals(200, lote.getResponse().getStatus());
+        String informe = lote.getResponse().getContentAsString();
+        assertTrue(informe.contains("\"OK\"") && informe.contains("CANTIDAD_INCORRECTA") && informe.contains("FORMATO_INCORRECTO"));
+        assertEquals(90, cdao.buscarUno(5401).getSaldo(), 1e-6);
+    }
+}
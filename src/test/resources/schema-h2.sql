@@ -0,0 +1,146 @@
+-- esquema de scriptBBDD/cajero_2024.sql para H2 en modo MySQL
+create table if not exists cuentas
+(id_cuenta int not null primary key,
+saldo double not null,
+tipo_cuenta varchar(20) not null,
+check (tipo_cuenta in ('AHORRO','CORRIENTE','JUVENIL', 'NOMINA'))
+);
+CREATE TABLE if not exists MOVIMIENTOS
+(ID_MOVIMIENTO INT NOT NULL auto_increment PRIMARY KEY,
+ID_CUENTA INT NOT NULL,
+FECHA DATETIME,
+CANTIDAD DOUBLE,
+OPERACION VARCHAR(45),
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+CREATE INDEX if not exists IDX_MOVIMIENTOS_CUENTA_FECHA ON MOVIMIENTOS (ID_CUENTA, FECHA);
+CREATE TABLE if not exists SECUENCIAS
+(NOMBRE VARCHAR(45) NOT NULL PRIMARY KEY,
+SIGUIENTE BIGINT NOT NULL
+);
+MERGE INTO SECUENCIAS KEY(NOMBRE) VALUES('movimientos', 1);
+-- resumen por cuenta y saldo cada N movimientos (cajero.checkpoints.intervalo) para el saldo por fila del historial
+CREATE TABLE if not exists MOVIMIENTOS_RESUMEN
+(ID_CUENTA INT NOT NULL PRIMARY KEY,
+NUM_MOVIMIENTOS BIGINT NOT NULL,
+SUMA DOUBLE NOT NULL,
+SALDO_BASE DOUBLE NOT NULL,
+ID_ULTIMO_MOVIMIENTO INT NOT NULL,
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+CREATE TABLE if not exists SALDOS_CHECKPOINT
+(ID_CUENTA INT NOT NULL,
+NUM_MOVIMIENTO BIGINT NOT NULL,
+ID_MOVIMIENTO INT NOT NULL,
+FECHA DATETIME,
+SALDO DOUBLE NOT NULL,
+PRIMARY KEY (ID_CUENTA, NUM_MOVIMIENTO),
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+CREATE INDEX if not exists IDX_CHECKPOINT_CUENTA_FECHA ON SALDOS_CHECKPOINT (ID_CUENTA, FECHA, ID_MOVIMIENTO);
+-- ranuras de saldo de las cuentas calientes (cajero.cuentas-calientes.ids): el saldo de la cuenta es el de su fila más la suma de sus ranuras
+CREATE TABLE if not exists CUENTAS_RANURAS
+(ID_CUENTA INT NOT NULL,
+RANURA INT NOT NULL,
+SALDO DOUBLE NOT NULL,
+PRIMARY KEY (ID_CUENTA, RANURA),
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+-- totales por cuenta, mes y tipo de operación, mantenidos con cada lote de movimientos; movimientos_mensual_cuentas
+-- anota las cuentas cuyos totales ya incluyen los movimientos anteriores a su primer lote
+CREATE TABLE if not exists MOVIMIENTOS_MENSUAL
+(ID_CUENTA INT NOT NULL,
+ANIO INT NOT NULL,
+MES INT NOT NULL,
+OPERACION VARCHAR(45) NOT NULL,
+NUM BIGINT NOT NULL,
+SUMA DOUBLE NOT NULL,
+PRIMARY KEY (ID_CUENTA, ANIO, MES, OPERACION),
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+CREATE TABLE if not exists MOVIMIENTOS_MENSUAL_CUENTAS
+(ID_CUENTA INT NOT NULL PRIMARY KEY,
+FOREIGN KEY(ID_CUENTA) REFERENCES CUENTAS(ID_CUENTA)
+);
+-- perfil fragmentos: transferencias entre fragmentos pendientes de abonar en el destino (en el fragmento de origen)
+CREATE TABLE if not exists TRANSFERENCIAS_SALIENTES
+(ID_TRANSFERENCIA VARCHAR(60) NOT NULL PRIMARY KEY,
+ID_CUENTA_ORIGEN INT NOT NULL,
+ID_CUENTA_DESTINO INT NOT NULL,
+CANTIDAD DOUBLE NOT NULL,
+FECHA DATETIME NOT NULL
+);
+CREATE INDEX if not exists IDX_SALIENTES_FECHA ON TRANSFERENCIAS_SALIENTES (FECHA);
+-- perfil fragmentos: transferencias ya abonadas en el fragmento de destino, para no abonarlas dos veces
+CREATE TABLE if not exists TRANSFERENCIAS_RECIBIDAS
+(ID_TRANSFERENCIA VARCHAR(60) NOT NULL PRIMARY KEY,
+ID_CUENTA INT NOT NULL,
+FECHA DATETIME NOT NULL
+);
+CREATE INDEX if not exists IDX_RECIBIDAS_CUENTA ON TRANSFERENCIAS_RECIBIDAS (ID_CUENTA);
+CREATE INDEX if not exists IDX_RECIBIDAS_FECHA ON TRANSFERENCIAS_RECIBIDAS (FECHA);
+-- perfil fragmentos: cuentas que se han trasladado a otro fragmento y a cuál
+CREATE TABLE if not exists CUENTAS_TRASLADADAS
+(ID_CUENTA INT NOT NULL PRIMARY KEY,
+FRAGMENTO VARCHAR(45) NOT NULL
+);
+-- perfil fragmentos: copia de las cuentas que se están trasladando a este fragmento, hasta que el origen las borra
+CREATE TABLE if not exists CUENTAS_ENTRANTES
+(ID_CUENTA INT NOT NULL PRIMARY KEY,
+SALDO DOUBLE NOT NULL,
+TIPO_CUENTA VARCHAR(20) NOT NULL,
+FRAGMENTO_ORIGEN VARCHAR(45) NOT NULL
+);
+CREATE TABLE if not exists MOVIMIENTOS_ENTRANTES
+(ID_CUENTA INT NOT NULL,
+ORDEN BIGINT NOT NULL,
+FECHA DATETIME,
+CANTIDAD DOUBLE,
+OPERACION VARCHAR(45),
+PRIMARY KEY (ID_CUENTA, ORDEN)
+);
+-- liquidación mensual: meses liquidados y tramos de cuentas ya aplicados de cada mes
+CREATE TABLE if not exists LIQUIDACIONES
+(PERIODO VARCHAR(7) NOT NULL PRIMARY KEY,
+FECHA DATETIME NOT NULL,
+CUENTAS BIGINT NOT NULL,
+OMITIDAS BIGINT NOT NULL
+);
+CREATE TABLE if not exists LIQUIDACIONES_TRAMOS
+(PERIODO VARCHAR(7) NOT NULL,
+ID_DESDE INT NOT NULL,
+ID_HASTA INT NOT NULL,
+CUENTAS INT NOT NULL,
+OMITIDAS INT NOT NULL,
+FECHA DATETIME NOT NULL,
+PRIMARY KEY (PERIODO, ID_DESDE)
+);
+-- conciliación de saldos: ejecuciones, hasta qué movimiento llegaron y cuentas que no cuadraban
+CREATE TABLE if not exists CONCILIACIONES
+(ID_CONCILIACION INT NOT NULL PRIMARY KEY,
+FECHA DATETIME NOT NULL,
+COMPLETA BOOLEAN NOT NULL,
+CUENTAS BIGINT NOT NULL,
+DISCREPANCIAS INT NOT NULL
+);
+CREATE TABLE if not exists CONCILIACIONES_DISCREPANCIAS
+(ID_CONCILIACION INT NOT NULL,
+ID_CUENTA INT NOT NULL,
+TIPO VARCHAR(10) NOT NULL,
+VALOR DOUBLE NOT NULL,
+ESPERADO DOUBLE NOT NULL,
+PRIMARY KEY (ID_CONCILIACION, ID_CUENTA, TIPO)
+);
+CREATE TABLE if not exists CONCILIACIONES_PENDIENTES
+(ID_CUENTA INT NOT NULL PRIMARY KEY,
+MARCA BIGINT NOT NULL
+);
+CREATE TABLE if not exists ARCHIVO_CORTE
+(ID INT NOT NULL PRIMARY KEY,
+CORTE BIGINT NOT NULL
+);
+CREATE TABLE if not exists ARCHIVO_NODOS
+(NODO VARCHAR(36) NOT NULL PRIMARY KEY,
+CORTE BIGINT NOT NULL,
+FECHA DATETIME NOT NULL
+);